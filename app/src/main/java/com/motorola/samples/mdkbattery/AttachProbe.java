@@ -0,0 +1,210 @@
+/**
+ * Copyright (c) 2016 Motorola Mobility, LLC.
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motorola.samples.mdkbattery;
+
+import android.os.Handler;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.motorola.mod.ModDevice;
+import com.motorola.mod.ModManager;
+
+import java.util.List;
+
+/**
+ * A class to wait for an attached mod device to be enumerated. The mod list
+ * is polled with exponentially growing intervals until it is ready, or the
+ * ceiling is reached. It is ready once an expected device, which was not attached
+ * before the event, shows up and serves data, or for any other device once the
+ * list changed and stayed the same between two polls. The ceiling is at most the
+ * fixed delay the probe replaces.
+ * <p/>
+ * A mod device detached and attached again may still be listed when the detach
+ * refreshed the mod list, so after a detach no device counts as known before.
+ */
+public class AttachProbe {
+    public static final long DEFAULT_INITIAL_DELAY = 50;
+    public static final long MAX_CEILING = 1000;
+    public static final long DEFAULT_CEILING = MAX_CEILING;
+
+    private final Handler handler;
+    private final Personality personality;
+
+    private long initialDelay = DEFAULT_INITIAL_DELAY;
+    private long ceiling = DEFAULT_CEILING;
+
+    /** Probe state, only accessed on the handler thread */
+    private long attachTime;
+    private long delay;
+    private int attempts;
+    private boolean detached;
+
+    /** Devices attached before the attach event, only accessed on the handler thread */
+    private final ModDeviceRegistry known = new ModDeviceRegistry();
+    private final ModDeviceRegistry.Delta knownDelta = new ModDeviceRegistry.Delta();
+
+    /** Devices listed by the previous poll, only accessed on the handler thread */
+    private final ModDeviceRegistry polled = new ModDeviceRegistry();
+    private final ModDeviceRegistry.Delta polledDelta = new ModDeviceRegistry.Delta();
+
+    /** Time from attach event to the new device is ready, -1 if timed out */
+    private volatile long lastReadyTime = -1;
+    private volatile int lastAttempts;
+
+    private final Runnable start = new Runnable() {
+        @Override
+        public void run() {
+            handler.removeCallbacks(probe);
+            attachTime = SystemClock.elapsedRealtime();
+            delay = initialDelay;
+            attempts = 0;
+            known.update(detached ? null : personality.getModDeviceRegistry().getDevices(),
+                    knownDelta);
+            polled.clear(polledDelta);
+            detached = false;
+            handler.postDelayed(probe, delay);
+        }
+    };
+
+    private final Runnable detach = new Runnable() {
+        @Override
+        public void run() {
+            detached = true;
+        }
+    };
+
+    private final Runnable probe = new Runnable() {
+        @Override
+        public void run() {
+            attempts++;
+            long elapsed = SystemClock.elapsedRealtime() - attachTime;
+            if (isReady()) {
+                finish(elapsed);
+            } else if (elapsed >= ceiling) {
+                finish(-1);
+            } else {
+                delay = Math.min(delay * 2, ceiling - elapsed);
+                handler.postDelayed(probe, delay);
+            }
+        }
+    };
+
+    /** Constructor */
+    public AttachProbe(Handler handler, Personality personality) {
+        this.handler = handler;
+        this.personality = personality;
+    }
+
+    /** Set the first polling interval, doubled on each further attempt */
+    public void setInitialDelay(long initialDelay) {
+        this.initialDelay = Math.max(1, Math.min(MAX_CEILING, initialDelay));
+    }
+
+    /** Set the maximum time to wait before refreshing the mod list anyway, up to MAX_CEILING */
+    public void setCeiling(long ceiling) {
+        this.ceiling = Math.max(initialDelay, Math.min(MAX_CEILING, ceiling));
+    }
+
+    /** Start probing for a just attached mod device, restarts any running probe */
+    public void start() {
+        handler.post(start);
+    }
+
+    /** Stop probing, e.g. on destroy */
+    public void cancel() {
+        handler.removeCallbacks(start);
+        handler.removeCallbacks(probe);
+    }
+
+    /** Stop probing when a mod device is detached, and forget the devices known before */
+    public void onDetach() {
+        cancel();
+        handler.post(detach);
+    }
+
+    /** Get the time to the last attached mod device was ready, -1 if it timed out */
+    public long getLastReadyTime() {
+        return lastReadyTime;
+    }
+
+    /** Get how many polls the last probe took */
+    public int getLastAttempts() {
+        return lastAttempts;
+    }
+
+    /**
+     * Check whether the mod list is ready: an expected device not known before the
+     * event is listed and serves data, or the list changed and settled.
+     */
+    private boolean isReady() {
+        ModManager manager = personality.getModManager();
+        if (null == manager) {
+            return false;
+        }
+
+        try {
+            List<ModDevice> l = manager.getModList(false);
+            polled.update(l, polledDelta);
+            boolean settled = attempts > 1 && polledDelta.isEmpty();
+            boolean waiting = false;
+            boolean other = false;
+            if (null != l) {
+                for (ModDevice d : l) {
+                    if (null == d || known.contains(d)) {
+                        continue;
+                    }
+                    if (!personality.isExpectedDevice(d)) {
+                        other = true;
+                    } else if (personality.hasFirstData(d)) {
+                        return true;
+                    } else {
+                        waiting = true;
+                    }
+                }
+            }
+
+            /** Only another device, e.g. a mod without the expected protocol */
+            return other && !waiting && settled;
+        } catch (RemoteException e) {
+            e.printStackTrace();
+        }
+        return false;
+    }
+
+    /** Record the result and let the personality query the mod list */
+    private void finish(long readyTime) {
+        lastReadyTime = readyTime;
+        lastAttempts = attempts;
+        Log.i(Constants.TAG, "AttachProbe - ready in " + readyTime + " ms, "
+                + attempts + " attempts");
+
+        personality.onModAttach(true);
+    }
+}
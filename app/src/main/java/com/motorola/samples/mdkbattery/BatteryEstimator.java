@@ -0,0 +1,191 @@
+/**
+ * Copyright (c) 2016 Motorola Mobility, LLC.
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.motorola.samples.mdkbattery;
+
+import android.os.BatteryManager;
+
+/**
+ * A class to estimate the time to empty and the time to full of the phone and
+ * mod batteries from the incoming samples. Levels are whole percents, so the
+ * estimator tracks the time each percent step takes, as an exponentially weighted
+ * moving average. Rates are kept apart per regime, charging, discharging or plugged
+ * but not charging, with efficiency mode on or off, since they differ by an order
+ * of magnitude.
+ * <p/>
+ * Each sample is O(1) with no allocation. The first step after a regime change
+ * is not used as the level was somewhere within a percent when it started.
+ */
+public class BatteryEstimator {
+    public static final int BATTERY_CORE = 0;
+    public static final int BATTERY_MOD = 1;
+
+    public static final int REGIME_DISCHARGING = 0;
+    public static final int REGIME_CHARGING = 1;
+    public static final int REGIME_DISCHARGING_EFFICIENCY = 2;
+    public static final int REGIME_CHARGING_EFFICIENCY = 3;
+    public static final int REGIME_NOT_CHARGING = 4;
+    public static final int REGIME_NOT_CHARGING_EFFICIENCY = 5;
+    private static final int REGIMES = 6;
+
+    /** Neither charging nor discharging, e.g. full or unknown */
+    public static final int REGIME_NONE = -1;
+
+    /** Estimate not available */
+    public static final long UNKNOWN = -1;
+
+    /** Weight of the newest step in the average */
+    private static final double ALPHA = 0.2;
+
+    /** Steps seen in a regime before its rate is trusted */
+    private static final int MIN_STEPS = 2;
+
+    private static final int FULL_LEVEL = 100;
+
+    /** Average time per percent step, in ms, and steps seen, per battery and regime */
+    private final double[][] stepTime = new double[2][REGIMES];
+    private final int[][] steps = new int[2][REGIMES];
+
+    /** Per battery, the regime and the time of the last step, -1 until a step is seen */
+    private final int[] regime = {REGIME_NONE, REGIME_NONE};
+    private final long[] stepAt = {-1, -1};
+    private final int[] level = {-1, -1};
+
+    /** Time of the last sample */
+    private long now;
+
+    /** Add a sample, the mod level is BatteryHistory.NO_MOD without a mod battery */
+    public synchronized void add(long time, int coreLevel, int coreStatus,
+                                 int modLevel, int modStatus, boolean efficiencyOn) {
+        now = time;
+        add(BATTERY_CORE, time, coreLevel, regime(coreStatus, efficiencyOn));
+        add(BATTERY_MOD, time, modLevel,
+                modLevel < 0 ? REGIME_NONE : regime(modStatus, efficiencyOn));
+    }
+
+    private void add(int battery, long time, int newLevel, int newRegime) {
+        if (newRegime != regime[battery] || newLevel < 0) {
+            /** Start over, the step in progress belongs to no regime */
+            regime[battery] = newRegime;
+            stepAt[battery] = -1;
+            level[battery] = newLevel;
+            return;
+        }
+
+        int delta = newLevel - level[battery];
+        if (delta == 0) {
+            return;
+        }
+
+        boolean charging = isCharging(newRegime);
+        if ((delta > 0) != charging || time <= stepAt[battery]) {
+            /** Level moved against the regime or clock went back, wait for a clean step */
+            stepAt[battery] = -1;
+        } else if (stepAt[battery] >= 0) {
+            double sample = (double) (time - stepAt[battery]) / Math.abs(delta);
+            int n = steps[battery][newRegime];
+            double average = stepTime[battery][newRegime];
+            stepTime[battery][newRegime] = n == 0 ? sample : average + ALPHA * (sample - average);
+            steps[battery][newRegime] = n + 1;
+            stepAt[battery] = time;
+        } else {
+            stepAt[battery] = time;
+        }
+        level[battery] = newLevel;
+    }
+
+    /** Get the regime of a battery status */
+    public static int regime(int status, boolean efficiencyOn) {
+        switch (status) {
+            case BatteryManager.BATTERY_STATUS_CHARGING:
+                return efficiencyOn ? REGIME_CHARGING_EFFICIENCY : REGIME_CHARGING;
+            case BatteryManager.BATTERY_STATUS_DISCHARGING:
+                return efficiencyOn ? REGIME_DISCHARGING_EFFICIENCY : REGIME_DISCHARGING;
+            case BatteryManager.BATTERY_STATUS_NOT_CHARGING:
+                /** Plugged but held, it drains far slower than unplugged */
+                return efficiencyOn ? REGIME_NOT_CHARGING_EFFICIENCY : REGIME_NOT_CHARGING;
+            default:
+                return REGIME_NONE;
+        }
+    }
+
+    private static boolean isCharging(int regime) {
+        return regime == REGIME_CHARGING || regime == REGIME_CHARGING_EFFICIENCY;
+    }
+
+    /** Get the current regime of a battery */
+    public synchronized int getRegime(int battery) {
+        return regime[battery];
+    }
+
+    /** Get the average time per percent of a battery in a regime, UNKNOWN if not trusted yet */
+    public synchronized long getStepTime(int battery, int regime) {
+        if (regime == REGIME_NONE || steps[battery][regime] < MIN_STEPS) {
+            return UNKNOWN;
+        }
+        return Math.round(stepTime[battery][regime]);
+    }
+
+    /** Get the estimated time until the battery is empty, UNKNOWN if not discharging */
+    public synchronized long getTimeToEmpty(int battery) {
+        int current = regime[battery];
+        if (current == REGIME_NONE || isCharging(current)) {
+            return UNKNOWN;
+        }
+        return remaining(battery, current, level[battery]);
+    }
+
+    /** Get the estimated time until the battery is full, UNKNOWN if not charging */
+    public synchronized long getTimeToFull(int battery) {
+        int current = regime[battery];
+        if (current == REGIME_NONE || !isCharging(current)) {
+            return UNKNOWN;
+        }
+        return remaining(battery, current, FULL_LEVEL - level[battery]);
+    }
+
+    /**
+     * Get the time for the given number of steps. Once the step in progress took
+     * longer than the average, the rate slowed down and that longer time is assumed
+     * per step instead.
+     */
+    private long remaining(int battery, int current, int stepCount) {
+        long step = getStepTime(battery, current);
+        if (step == UNKNOWN || stepCount < 0) {
+            return UNKNOWN;
+        }
+        if (stepCount == 0) {
+            return 0;
+        }
+
+        long inProgress = stepAt[battery] < 0 ? 0 : now - stepAt[battery];
+        long effective = Math.max(step, inProgress);
+        return effective - inProgress + (stepCount - 1) * effective;
+    }
+}
@@ -0,0 +1,235 @@
+/**
+ * Copyright (c) 2016 Motorola Mobility, LLC.
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.motorola.samples.mdkbattery;
+
+import android.os.BatteryManager;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A class to track the wear of one mod battery from its level samples, in
+ * constant memory.
+ * <p/>
+ * Cycles are counted as half cycles: the level swings between turning points,
+ * and each swing deeper than the hysteresis adds its depth. Two half cycles of
+ * 100% are one equivalent full cycle. Depths are also kept in a histogram, as
+ * shallow cycles wear a battery less than deep ones.
+ * <p/>
+ * The usable capacity is measured over spans where the mod powers the phone from
+ * nearly full to low: the charge the phone counter gained, per percent the mod
+ * level dropped. It is averaged over spans and compared to the rated capacity.
+ */
+public class BatteryHealth {
+    /** Level swing needed to count a turning point, filters level noise */
+    public static final int HYSTERESIS = 2;
+
+    /** A capacity span starts at or above this mod level and ends at or below the other */
+    public static final int SPAN_START = 95;
+    public static final int SPAN_END = 20;
+
+    /** Charge not available */
+    public static final long UNKNOWN = Long.MIN_VALUE;
+
+    /** Histogram of half cycle depths, in bins of 10% */
+    public static final int DEPTH_BINS = 10;
+
+    /** Weight of the newest span in the capacity average */
+    private static final double ALPHA = 0.3;
+
+    static final int ENCODED_SIZE = 4 * 4 + 8 + 4 * DEPTH_BINS + 8 + 4 + 8;
+
+    /** Half cycle counter */
+    private int turn = -1;
+    private int peak = -1;
+    private int direction;
+    private int halfCycles;
+    private long totalDepth;
+    private final int[] depths = new int[DEPTH_BINS];
+
+    /** Capacity spans */
+    private long capacity;
+    private int spans;
+    private long ratedCapacity;
+
+    /** Span in progress, not persisted */
+    private int spanLevel = -1;
+    private long spanCharge = UNKNOWN;
+
+    private boolean dirty;
+
+    /**
+     * Add a mod battery sample. The phone charge counter is in uAh, UNKNOWN if the
+     * phone does not report one. The rated capacity is ModBattery.getBatteryCapacity.
+     */
+    public synchronized void add(int level, int status, boolean modPlugged, long phoneCharge,
+                                 long ratedCapacity) {
+        if (level < 0) {
+            return;
+        }
+        if (ratedCapacity > 0) {
+            this.ratedCapacity = ratedCapacity;
+        }
+        countCycles(level);
+        measureCapacity(level, status, modPlugged, phoneCharge);
+    }
+
+    private void countCycles(int level) {
+        if (turn < 0) {
+            turn = level;
+            peak = level;
+            dirty = true;
+            return;
+        }
+
+        if (direction == 0) {
+            if (Math.abs(level - turn) >= HYSTERESIS) {
+                direction = level > turn ? 1 : -1;
+                peak = level;
+                dirty = true;
+            }
+        } else if ((level - peak) * direction > 0) {
+            /** Further in the same direction */
+            peak = level;
+            dirty = true;
+        } else if ((peak - level) * direction >= HYSTERESIS) {
+            /** Turned, the swing from the last turning point is a half cycle */
+            int depth = Math.abs(peak - turn);
+            halfCycles++;
+            totalDepth += depth;
+            depths[Math.min(DEPTH_BINS - 1, depth * DEPTH_BINS / 100)]++;
+            turn = peak;
+            peak = level;
+            direction = -direction;
+            dirty = true;
+        }
+    }
+
+    private void measureCapacity(int level, int status, boolean modPlugged, long phoneCharge) {
+        boolean discharging = status == BatteryManager.BATTERY_STATUS_DISCHARGING;
+        if (!modPlugged || !discharging || phoneCharge == UNKNOWN) {
+            spanLevel = -1;
+            return;
+        }
+
+        if (spanLevel < 0) {
+            if (level >= SPAN_START) {
+                spanLevel = level;
+                spanCharge = phoneCharge;
+            }
+            return;
+        }
+
+        if (level <= SPAN_END) {
+            long gained = phoneCharge - spanCharge;
+            int drop = spanLevel - level;
+            spanLevel = -1;
+            if (gained <= 0) {
+                return;
+            }
+
+            long sample = gained * 100 / drop / 1000;
+            capacity = spans == 0 ? sample : Math.round(capacity + ALPHA * (sample - capacity));
+            spans++;
+            dirty = true;
+        }
+    }
+
+    /** Get the number of counted half cycles */
+    public synchronized int getHalfCycles() {
+        return halfCycles;
+    }
+
+    /** Get the equivalent full cycles, including the swing in progress */
+    public synchronized double getEquivalentCycles() {
+        long depth = totalDepth + (turn < 0 ? 0 : Math.abs(peak - turn));
+        return depth / 200.0;
+    }
+
+    /** Get the number of half cycles with a depth in the given 10% bin */
+    public synchronized int getDepthCount(int bin) {
+        return depths[bin];
+    }
+
+    /** Get the averaged usable capacity in mAh, 0 if no span completed yet */
+    public synchronized long getCapacity() {
+        return capacity;
+    }
+
+    /** Get the number of completed capacity spans */
+    public synchronized int getSpanCount() {
+        return spans;
+    }
+
+    /** Get the usable capacity per rated capacity, in percent, -1 if not known */
+    public synchronized int getHealth() {
+        if (spans == 0 || ratedCapacity <= 0) {
+            return -1;
+        }
+        return (int) (capacity * 100 / ratedCapacity);
+    }
+
+    /** Whether anything changed since the last encode */
+    public synchronized boolean isDirty() {
+        return dirty;
+    }
+
+    /** Write the state, ENCODED_SIZE bytes */
+    public synchronized void encode(ByteBuffer buffer) {
+        buffer.putInt(turn);
+        buffer.putInt(peak);
+        buffer.putInt(direction);
+        buffer.putInt(halfCycles);
+        buffer.putLong(totalDepth);
+        for (int count : depths) {
+            buffer.putInt(count);
+        }
+        buffer.putLong(capacity);
+        buffer.putInt(spans);
+        buffer.putLong(ratedCapacity);
+        dirty = false;
+    }
+
+    /** Read a state written by encode */
+    public static BatteryHealth decode(ByteBuffer buffer) {
+        BatteryHealth health = new BatteryHealth();
+        health.turn = buffer.getInt();
+        health.peak = buffer.getInt();
+        health.direction = Integer.signum(buffer.getInt());
+        health.halfCycles = buffer.getInt();
+        health.totalDepth = buffer.getLong();
+        for (int i = 0; i < DEPTH_BINS; i++) {
+            health.depths[i] = buffer.getInt();
+        }
+        health.capacity = buffer.getLong();
+        health.spans = buffer.getInt();
+        health.ratedCapacity = buffer.getLong();
+        return health;
+    }
+}
@@ -0,0 +1,237 @@
+/**
+ * Copyright (c) 2016 Motorola Mobility, LLC.
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.motorola.samples.mdkbattery;
+
+/**
+ * A class to keep the recent battery samples in a fixed-capacity ring. Each
+ * sample is packed into parallel primitive arrays, 12 bytes per sample and no
+ * object per sample, so three days of 1 Hz samples take about 3 MB.
+ * <p/>
+ * There is a single writer, the personality worker thread. Readers on any thread
+ * copy samples out without locking, and drop the ones overwritten meanwhile.
+ */
+public class BatteryHistory {
+    /** Three days of samples at 1 Hz */
+    public static final int DEFAULT_CAPACITY = 3 * 24 * 3600;
+
+    /** Mod level of samples taken without a mod battery */
+    public static final int NO_MOD = -1;
+
+    /** Packed flags of a sample */
+    private static final int FLAG_CORE_PLUGGED_MASK = 0x07;
+    private static final int FLAG_MOD_PLUGGED = 1 << 3;
+    private static final int FLAG_EFFICIENCY_ON = 1 << 4;
+
+    private final int capacity;
+
+    /**
+     * Sample columns, the sample with sequence number n is at n % slots. One slot more
+     * than the capacity is the one of the next sample, which may be being written.
+     */
+    private final int slots;
+    private final long[] times;
+    private final byte[] coreLevels;
+    private final byte[] modLevels;
+    private final byte[] statuses;
+    private final byte[] flags;
+
+    /** Number of samples ever added, published after the sample is written */
+    private volatile long count;
+
+    /** Sample copied out of the ring, with accessors to unpack it */
+    public static class Samples {
+        public final long[] times;
+        public final byte[] coreLevels;
+        public final byte[] modLevels;
+        public final byte[] statuses;
+        public final byte[] flags;
+
+        /** Sequence number of the first copied sample */
+        public long first;
+
+        /** Number of copied samples */
+        public int size;
+
+        /** Written by read to order the copy before its check, owned by one reader */
+        private volatile int fence;
+
+        /** Constructor, holds at most the given number of samples */
+        public Samples(int capacity) {
+            times = new long[capacity];
+            coreLevels = new byte[capacity];
+            modLevels = new byte[capacity];
+            statuses = new byte[capacity];
+            flags = new byte[capacity];
+        }
+
+        public int capacity() {
+            return times.length;
+        }
+
+        public long getTime(int i) {
+            return times[i];
+        }
+
+        public int getCoreLevel(int i) {
+            return coreLevels[i];
+        }
+
+        /** Get the mod level, NO_MOD if no mod battery was attached */
+        public int getModLevel(int i) {
+            return modLevels[i];
+        }
+
+        /** Get the phone battery status, as BatteryManager.BATTERY_STATUS_* */
+        public int getCoreStatus(int i) {
+            return statuses[i] & 0x0f;
+        }
+
+        /** Get the mod battery status, as BatteryManager.BATTERY_STATUS_* */
+        public int getModStatus(int i) {
+            return (statuses[i] >> 4) & 0x0f;
+        }
+
+        /** Get the phone plug type, as BatteryManager.BATTERY_PLUGGED_* */
+        public int getCorePlugged(int i) {
+            return flags[i] & FLAG_CORE_PLUGGED_MASK;
+        }
+
+        /** Whether the phone was powered by the mod battery */
+        public boolean isModPlugged(int i) {
+            return (flags[i] & FLAG_MOD_PLUGGED) != 0;
+        }
+
+        /** Whether the mod battery efficiency mode was on */
+        public boolean isEfficiencyOn(int i) {
+            return (flags[i] & FLAG_EFFICIENCY_ON) != 0;
+        }
+    }
+
+    /** Constructor */
+    public BatteryHistory(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity " + capacity);
+        }
+
+        this.capacity = capacity;
+        slots = capacity + 1;
+        times = new long[slots];
+        coreLevels = new byte[slots];
+        modLevels = new byte[slots];
+        statuses = new byte[slots];
+        flags = new byte[slots];
+    }
+
+    /**
+     * Add a sample, overwriting the oldest one once full. Only call from the
+     * writer thread. Levels are 0 to 100, or NO_MOD for the mod level.
+     */
+    public void add(long time, int coreLevel, int coreStatus, int corePlugged,
+                    int modLevel, int modStatus, boolean modPlugged, boolean efficiencyOn) {
+        long n = count;
+        int i = (int) (n % slots);
+
+        times[i] = time;
+        coreLevels[i] = (byte) coreLevel;
+        modLevels[i] = (byte) modLevel;
+        statuses[i] = (byte) ((coreStatus & 0x0f) | ((modStatus & 0x0f) << 4));
+        flags[i] = (byte) ((corePlugged & FLAG_CORE_PLUGGED_MASK)
+                | (modPlugged ? FLAG_MOD_PLUGGED : 0)
+                | (efficiencyOn ? FLAG_EFFICIENCY_ON : 0));
+
+        /** Publish the sample, the volatile write orders the column writes before it */
+        count = n + 1;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /** Get the number of samples ever added, which is the sequence number of the next one */
+    public long getCount() {
+        return count;
+    }
+
+    /** Get the sequence number of the oldest sample still held */
+    public long getOldest() {
+        return Math.max(0, count - capacity);
+    }
+
+    /**
+     * Copy the samples from the given sequence number on, as many as fit in out.
+     * Samples older than the ring are skipped, so out.first may be later than from.
+     * Returns the number of copied samples, also in out.size.
+     */
+    public int read(long from, Samples out) {
+        long end = count;
+        long start = Math.max(from, end - capacity);
+        if (start < 0) {
+            start = 0;
+        }
+        int n = (int) Math.max(0, Math.min(end - start, out.capacity()));
+
+        for (int k = 0; k < n; k++) {
+            int i = (int) ((start + k) % slots);
+            out.times[k] = times[i];
+            out.coreLevels[k] = coreLevels[i];
+            out.modLevels[k] = modLevels[i];
+            out.statuses[k] = statuses[i];
+            out.flags[k] = flags[i];
+        }
+
+        /**
+         * Samples written meanwhile may have overwritten the oldest copied ones, which
+         * are then torn. Drop them by shifting the copy down. The volatile write keeps
+         * the copy above from being reordered after the count is read again.
+         */
+        out.fence = n;
+        long oldest = count - capacity;
+        int skip = (int) Math.max(0, Math.min(n, oldest - start));
+        if (skip > 0) {
+            n -= skip;
+            System.arraycopy(out.times, skip, out.times, 0, n);
+            System.arraycopy(out.coreLevels, skip, out.coreLevels, 0, n);
+            System.arraycopy(out.modLevels, skip, out.modLevels, 0, n);
+            System.arraycopy(out.statuses, skip, out.statuses, 0, n);
+            System.arraycopy(out.flags, skip, out.flags, 0, n);
+            start += skip;
+        }
+
+        out.first = start;
+        out.size = n;
+        return n;
+    }
+
+    /** Copy the latest sample into out, returns false if none yet */
+    public boolean readLatest(Samples out) {
+        long end = count;
+        return end > 0 && read(end - 1, out) > 0;
+    }
+}
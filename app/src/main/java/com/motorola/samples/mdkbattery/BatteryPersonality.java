@@ -33,28 +33,196 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.os.BatteryManager;
+import android.os.Handler;
 import android.os.Message;
+import android.os.SystemClock;
 import android.util.Log;
 
 import com.motorola.mod.ModBattery;
 import com.motorola.mod.ModDevice;
+import com.motorola.mod.ModManager;
 import com.motorola.mod.ModProtocol;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
 /**
  * A class to represent ModBattery interface.
  */
 public class BatteryPersonality extends Personality {
+    /** Battery fields listeners could subscribe to with registerListener */
+    public final static int CHANGED_CORE_LEVEL = 1;
+    public final static int CHANGED_CORE_STATUS = 1 << 1;
+    public final static int CHANGED_CORE_PLUGGED = 1 << 2;
+    public final static int CHANGED_CORE_ICON = 1 << 3;
+    public final static int CHANGED_CORE_CAPACITY = 1 << 4;
+    public final static int CHANGED_CORE_RECHARGE = 1 << 5;
+    public final static int CHANGED_MOD_LEVEL = 1 << 8;
+    public final static int CHANGED_MOD_STATUS = 1 << 9;
+    public final static int CHANGED_MOD_PLUGGED = 1 << 10;
+    public final static int CHANGED_MOD_CAPACITY = 1 << 12;
+    public final static int CHANGED_MOD_RECHARGE = 1 << 13;
+    public final static int CHANGED_MOD_USAGE = 1 << 16;
+    public final static int CHANGED_MOD_EFFICIENCY = 1 << 17;
+    public final static int CHANGED_ALL = ~0;
+
+    /** Shift of the mod battery fields from the phone battery fields */
+    private final static int MOD_SHIFT = 8;
+
     private BatteryStat batteryStat;
 
+    /** Latest published battery data, replaced but never modified */
+    private volatile BatterySnapshot snapshot;
+
+    /** Summary of the current mod device, null if none */
+    private volatile DeviceSummary deviceSummary;
+
+    /** Typed subscribers, held until cancelled */
+    private final CopyOnWriteArrayList<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+
+    /** Delay to save the last known data after a change, collapsing bursts of changes */
+    private static final long SAVE_DELAY = 5000;
+
+    /** File name of the last known data */
+    public static final String LAST_STATE_FILE = "last_state.bin";
+
+    private SnapshotStore store;
+
+    private final Runnable saveState = new Runnable() {
+        @Override
+        public void run() {
+            BatterySnapshot current = snapshot;
+            if (null == current) {
+                return;
+            }
+
+            try {
+                store.write(current, deviceSummary, System.currentTimeMillis());
+            } catch (IOException e) {
+                Log.w(Constants.TAG, "Failed to save last state", e);
+            }
+            saveHealth();
+        }
+    };
+
+    /** Mod battery properties which rarely change while attached */
+    private ModBatteryCache propertyCache = new ModBatteryCache(ModBatteryCache.DEFAULT_TTL);
+
+    /** Unique ID of the mod device the cached properties belong to */
+    private UUID cachedDeviceId;
+
+    /**
+     * Breakers around the ModBattery IPC, per mod device and per operation: the
+     * property reload, the per-broadcast reads, and each single property access keyed
+     * by its ModBattery property ID.
+     */
+    private final CircuitBreaker.Group modBreakers = new CircuitBreaker.Group();
+    private static final int OP_LOAD = -1;
+    private static final int OP_READ = -2;
+
+    /** Recent battery samples, one per broadcast */
+    private final BatteryHistory history = new BatteryHistory(BatteryHistory.DEFAULT_CAPACITY);
+
+    /** Per-minute, per-hour and per-day aggregates of the battery samples */
+    private final HistoryRollup rollup = new HistoryRollup();
+
     /**
-     * Handle ACTION_BATTERY_CHANGED intent action
+     * Whether the aggregates were rebuilt from the history log, only accessed on the
+     * worker thread. The samples of this run are added from the ring once done.
+     */
+    private boolean rollupRestored;
+
+    private final Runnable restoreRollup = new Runnable() {
+        @Override
+        public void run() {
+            BatteryHistory.Samples samples = new BatteryHistory.Samples(1024);
+            long cursor = 0;
+            while (history.read(cursor, samples) > 0) {
+                rollup.add(samples);
+                cursor = samples.first + samples.size;
+            }
+            rollupRestored = true;
+        }
+    };
+
+    /** Time to empty and to full of both batteries */
+    private final BatteryEstimator estimator = new BatteryEstimator();
+
+    /** Charge moved between the mod and the phone, per session */
+    private final EnergyAccountant accountant =
+            new EnergyAccountant(EnergyAccountant.DEFAULT_CAPACITY);
+
+    /** Source of the phone battery charge counter */
+    private BatteryManager batteryManager;
+
+    /** Lowest phone level to derive the full capacity from the charge counter */
+    private static final int MIN_CAPACITY_LEVEL = 20;
+
+    /** Relative change of the derived phone capacity needed to publish it, in percent */
+    private static final int CAPACITY_HYSTERESIS = 2;
+
+    /** Directory of the per mod device threshold write times */
+    public static final String POLICY_DIR = "policy";
+
+    /** Tunes the mod recharge thresholds, only logs its decisions unless enabled */
+    private RechargePolicy rechargePolicy;
+
+    /**
+     * How often and over how much of the persisted history the recharge thresholds are
+     * evaluated, and the first evaluation after an attach, once the properties settled
+     */
+    public static final long POLICY_INTERVAL = 3600 * 1000;
+    private static final long POLICY_WINDOW = 24 * 3600 * 1000;
+    private static final long POLICY_FIRST_DELAY = 60 * 1000;
+
+    /** Most samples read for an evaluation, far more than the broadcasts of a window */
+    private static final int POLICY_SAMPLES = 24 * 3600;
+
+    /** Samples buffer of the policy evaluation, allocated on first use */
+    private BatteryHistory.Samples policySamples;
+
+    /** Whether an evaluation is reading the history, only accessed on the worker thread */
+    private boolean policyPending;
+
+    private final Runnable evaluatePolicy = new Runnable() {
+        @Override
+        public void run() {
+            evaluatePolicy(null);
+            workerHandler.postDelayed(this, POLICY_INTERVAL);
+        }
+    };
+
+    /** Directory of the per mod device health files */
+    public static final String HEALTH_DIR = "health";
+
+    private HealthStore healthStore;
+
+    /** Wear of the current mod battery, null if none, and the device it belongs to */
+    private volatile BatteryHealth health;
+    private UUID healthDeviceId;
+
+    /** Directory of the persistent history log */
+    public static final String HISTORY_DIR = "history";
+
+    /** Persists the recent battery samples on its own thread */
+    private HistoryWriter historyWriter;
+
+    /** Time spent per battery broadcast, all of it was on the main thread before */
+    private TimingStats receiveStats = new TimingStats("Battery broadcast");
+
+    /**
+     * Handle ACTION_BATTERY_CHANGED intent action, on the worker thread
      */
     private BroadcastReceiver batteryReceiver = new BroadcastReceiver() {
         @Override
         public void onReceive(Context context, Intent intent) {
             if (null != intent && intent.getAction().equals(Intent.ACTION_BATTERY_CHANGED)) {
-                batteryStat.update(intent);
-                onBattery();
+                long start = System.nanoTime();
+                onBatteryChanged(intent);
+                receiveStats.record(start);
             }
         }
     };
@@ -63,19 +231,212 @@ public class BatteryPersonality extends Personality {
     public BatteryPersonality(Context context) {
         super(context);
         batteryStat = new BatteryStat();
+        store = getSnapshotStore(context);
+        batteryManager = (BatteryManager) context.getSystemService(Context.BATTERY_SERVICE);
+        healthStore = new HealthStore(new File(context.getNoBackupFilesDir(), HEALTH_DIR));
+        rechargePolicy = new RechargePolicy(new RechargeSimulator.Model(),
+                new PolicyStore(new File(context.getNoBackupFilesDir(), POLICY_DIR)), true);
+        historyWriter = new HistoryWriter(history, new HistoryLog(
+                new File(context.getNoBackupFilesDir(), HISTORY_DIR),
+                HistoryLog.DEFAULT_SEGMENT_RECORDS, HistoryLog.DEFAULT_RETENTION),
+                HistoryWriter.DEFAULT_COMMIT_DELAY);
+        historyWriter.replay(System.currentTimeMillis()
+                - HistoryRollup.getRetention(HistoryRollup.TIER_DAY), new HistoryWriter.Reader() {
+            @Override
+            public void onSamples(BatteryHistory.Samples samples) {
+                rollup.add(samples);
+            }
 
-        /** Register battery intent listener */
+            @Override
+            public void onDone() {
+                workerHandler.post(restoreRollup);
+            }
+        });
+
+        /**
+         * Register battery intent listener. The broadcast is handled on the worker thread,
+         * so the ModBattery binder calls never run on the main thread.
+         */
         IntentFilter batteryFilter = new IntentFilter();
         batteryFilter.addAction(Intent.ACTION_BATTERY_CHANGED);
-        context.registerReceiver(batteryReceiver, batteryFilter);
+        context.registerReceiver(batteryReceiver, batteryFilter, null, workerHandler);
+    }
+
+    /** Get the store of the last known data, readable before any personality is created */
+    public static SnapshotStore getSnapshotStore(Context context) {
+        return new SnapshotStore(new File(context.getNoBackupFilesDir(), LAST_STATE_FILE));
+    }
+
+    /** Get the summary of the current mod device, null if none */
+    public DeviceSummary getDeviceSummary() {
+        return deviceSummary;
     }
 
-    /** Battery info updated and notify listeners */
+    /** Get the recent battery samples, readable from any thread */
+    public BatteryHistory getHistory() {
+        return history;
+    }
+
+    /** Get the aggregates of the battery samples, readable from any thread */
+    public HistoryRollup getRollup() {
+        return rollup;
+    }
+
+    /** Get the time to empty and to full estimates, readable from any thread */
+    public BatteryEstimator getEstimator() {
+        return estimator;
+    }
+
+    /** Get the charge transfer sessions between the mod and the phone */
+    public EnergyAccountant getAccountant() {
+        return accountant;
+    }
+
+    /** Get the wear of the current mod battery, null if none */
+    public BatteryHealth getHealth() {
+        return health;
+    }
+
+    /** Get the recharge threshold policy, e.g. to leave dry-run mode */
+    public RechargePolicy getRechargePolicy() {
+        return rechargePolicy;
+    }
+
+    /** Get the breakers around the ModBattery IPC, e.g. to log their counters */
+    public CircuitBreaker.Group getModBreakers() {
+        return modBreakers;
+    }
+
+    /** Get the time spent per battery broadcast */
+    public TimingStats getReceiveStats() {
+        return receiveStats;
+    }
+
+    /**
+     * Update battery info and notify listeners only if any field changed. Sticky battery
+     * broadcasts repeat for voltage and temperature jitter which is not shown.
+     * Always called on the worker thread, which is the only one updating batteryStat.
+     */
+    private void onBatteryChanged(Intent intent) {
+        batteryStat.update(intent);
+        if (!modListQueried) {
+            /** Mod battery is not known yet, keep showing the last known data */
+            return;
+        }
+
+        int changed = batteryStat.publish();
+        if (changed != 0) {
+            onBattery(changed);
+            scheduleSave();
+        }
+    }
+
+    /** Save the last known data once changes settle, on the worker thread */
+    private void scheduleSave() {
+        workerHandler.removeCallbacks(saveState);
+        workerHandler.postDelayed(saveState, SAVE_DELAY);
+    }
+
+    /** Get the latest published battery data, null if none yet */
+    public BatterySnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /** Send the current mod device and battery data to a new listener */
+    @Override
+    protected void onListenerRegistered(Handler listener) {
+        super.onListenerRegistered(listener);
+
+        BatterySnapshot current = snapshot;
+        if (null != current) {
+            Message msg = Message.obtain();
+            msg.what = MSG_MOD_BATTERY;
+            msg.arg1 = CHANGED_ALL;
+            msg.obj = current;
+            listener.sendMessage(msg);
+        }
+    }
+
+    /** Subscribe to all battery data changes, see subscribe(Executor, SnapshotConsumer, DeliveryPolicy, int) */
+    public Subscription subscribe(Executor executor, SnapshotConsumer consumer,
+                                  DeliveryPolicy policy) {
+        return subscribe(executor, consumer, policy, CHANGED_ALL);
+    }
+
+    /**
+     * Subscribe to the battery data changes of the CHANGED_* fields. Snapshots are
+     * delivered on the executor, queued per subscription according to the policy, so a
+     * slow consumer only conflates or drops its own snapshots. The current snapshot is
+     * delivered first. Cancel the returned subscription to stop.
+     */
+    public Subscription subscribe(Executor executor, SnapshotConsumer consumer,
+                                  DeliveryPolicy policy, int fields) {
+        Subscription subscription = new Subscription(executor, consumer, policy, fields,
+                workerHandler);
+        subscriptions.add(subscription);
+
+        /** May race with the worker, the subscription drops it if already outdated */
+        BatterySnapshot current = snapshot;
+        if (null != current) {
+            subscription.offer(current, CHANGED_ALL);
+        }
+        return subscription;
+    }
+
+    /** Battery info updated and notify all listeners */
     public void onBattery() {
+        onBattery(CHANGED_ALL);
+    }
+
+    /** Battery info updated and notify listeners subscribed to the changed fields */
+    public void onBattery(int changed) {
+        BatterySnapshot current = snapshot;
+        if (null == current) {
+            return;
+        }
+
         Message msg = Message.obtain();
-        msg.obj = batteryStat;
+        msg.obj = current;
         msg.what = MSG_MOD_BATTERY;
-        notifyListeners(msg);
+        msg.arg1 = changed;
+        notifyListeners(msg, changed);
+
+        for (Subscription subscription : subscriptions) {
+            if (subscription.isCancelled()) {
+                subscriptions.remove(subscription);
+            } else {
+                subscription.offer(current, changed);
+            }
+        }
+    }
+
+    /** Wait for a mod device with the BATTERY protocol on attach */
+    @Override
+    protected boolean isExpectedDevice(ModDevice d) {
+        return null != d && d.hasDeclaredProtocol(ModProtocol.Protocol.BATTERY);
+    }
+
+    /**
+     * The mod battery answers once its interface is bound. Polled outside the
+     * breakers, so failures while it is still enumerating do not open them.
+     */
+    @Override
+    protected boolean hasFirstData(ModDevice d) {
+        ModManager manager = modManager;
+        if (null == manager) {
+            return false;
+        }
+
+        try {
+            ModBattery battery = manager.getClassManager(ModBattery.class);
+            if (null == battery) {
+                return false;
+            }
+            battery.getIntProperty(ModBattery.BATTERY_USAGE_TYPE);
+            return true;
+        } catch (IllegalStateException e) {
+            return false;
+        }
     }
 
     /** Mod device attach/detach */
@@ -83,33 +444,244 @@ public class BatteryPersonality extends Personality {
     public void onModDevice(ModDevice d) {
         super.onModDevice(d);
 
+        /** Drop cached properties of the previous mod device on detach or switch */
+        UUID id = null == d ? null : d.getUniqueId();
+        if (null != cachedDeviceId && !cachedDeviceId.equals(id)) {
+            propertyCache.invalidate(cachedDeviceId);
+        }
+        if (null != id && !id.equals(cachedDeviceId)) {
+            /** A new attach gets a fresh chance */
+            modBreakers.remove(id);
+        }
+        cachedDeviceId = id;
+
+        /** Resume the wear tracking of the mod device, without replaying history */
+        if (null == id ? null != healthDeviceId : !id.equals(healthDeviceId)) {
+            saveHealth();
+            health = null == id ? null : healthStore.read(id);
+            healthDeviceId = id;
+        }
+
+        deviceSummary = null == d ? null : new DeviceSummary(d.getVendorId(), d.getProductId(),
+                d.getProductString(), d.getFirmwareVersion());
+        scheduleSave();
+
         /** Check whether mod device is available and implement BATTERY protocol */
+        workerHandler.removeCallbacks(evaluatePolicy);
         if (null == modManager || null == modDevice
                 || !modDevice.hasDeclaredProtocol(ModProtocol.Protocol.BATTERY)) {
             batteryStat.reset();
         } else {
-            queryStatus();
+            workerHandler.postDelayed(evaluatePolicy, POLICY_FIRST_DELAY);
         }
+
+        /**
+         * Publish live data now the mod list is known, the phone battery even without
+         * a battery mod, instead of waiting for the next battery broadcast.
+         */
+        queryStatusNow();
     }
 
     @Override
     public void onDestroy() {
         context.unregisterReceiver(batteryReceiver);
-        batteryStat.reset();
+        workerHandler.removeCallbacks(evaluatePolicy);
+
+        /** Save now, the worker thread runs pending work before it quits */
+        workerHandler.removeCallbacks(saveState);
+        workerHandler.post(saveState);
+        historyWriter.close();
+
+        /** Only the worker thread touches the battery data, tear it down after the save */
+        workerHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                batteryStat.reset();
+                propertyCache.clear();
+            }
+        });
+
+        for (Subscription subscription : subscriptions) {
+            subscription.cancel();
+        }
+        subscriptions.clear();
 
         super.onDestroy();
     }
 
-    /** Query currently battery status */
+    /** Save the wear of the current mod battery if it changed, on the worker thread */
+    private void saveHealth() {
+        BatteryHealth current = health;
+        if (null == current || null == healthDeviceId || !current.isDirty()) {
+            return;
+        }
+
+        try {
+            healthStore.write(healthDeviceId, current);
+        } catch (IOException e) {
+            Log.w(Constants.TAG, "Failed to save battery health", e);
+        }
+    }
+
+    /**
+     * Evaluate the recharge thresholds now, e.g. from the background sampler, and run
+     * done on the executor once decided or skipped.
+     */
+    public void evaluatePolicy(final Executor executor, final Runnable done) {
+        workerHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                evaluatePolicy(new Runnable() {
+                    @Override
+                    public void run() {
+                        executor.execute(done);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Replay the last day of persisted samples through the recharge policy, and write
+     * the thresholds it picks. Only for a supplemental mod battery in efficiency mode,
+     * which is when the thresholds apply. On the worker thread, done, if not null,
+     * runs there once decided or skipped.
+     */
+    private void evaluatePolicy(final Runnable done) {
+        if (null == batteryStat.modBattery || !isPolicyEnabled(snapshot) || policyPending) {
+            if (null != done) {
+                done.run();
+            }
+            return;
+        }
+
+        /** Read the window from the persisted log, this run may have started just now */
+        if (null == policySamples) {
+            policySamples = new BatteryHistory.Samples(POLICY_SAMPLES);
+        }
+        policyPending = true;
+        historyWriter.read(System.currentTimeMillis() - POLICY_WINDOW, policySamples,
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        workerHandler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                policyPending = false;
+                                decidePolicy();
+                                if (null != done) {
+                                    done.run();
+                                }
+                            }
+                        });
+                    }
+                });
+    }
+
+    /** Whether the recharge thresholds of a mod battery in this state are tuned */
+    public static boolean isPolicyEnabled(BatterySnapshot current) {
+        return null != current
+                && current.modEfficiency == ModBattery.BATTERY_EFFICIENCY_ON
+                && current.modUsageType == ModBattery.BATTERY_USAGE_TYPE_SUPPLEMENTAL;
+    }
+
+    /** Decide on the thresholds from the samples read, on the worker thread */
+    private void decidePolicy() {
+        final ModBattery battery = batteryStat.modBattery;
+        final UUID id = cachedDeviceId;
+        BatterySnapshot current = snapshot;
+        if (null == battery || null == id || !isPolicyEnabled(current)) {
+            return;
+        }
+
+        float[] drain = RechargePolicy.drainTrace(policySamples);
+
+        RechargeSimulator.Model model = rechargePolicy.getModel();
+        if (current.core.capFull > 0) {
+            model.coreCapacity = current.core.capFull;
+        }
+        if (current.mod.capFull > 0) {
+            model.modCapacity = current.mod.capFull;
+        }
+
+        final int oldStart = current.mod.rechargeStart;
+        RechargePolicy.Decision decision = rechargePolicy.decide(drain, current.core.level,
+                current.mod.level, oldStart, current.mod.rechargeStop);
+        rechargePolicy.apply(decision, id, new RechargePolicy.ThresholdWriter() {
+            @Override
+            public boolean write(int start, int stop) {
+                /** Keep start below stop in between the two writes */
+                if (start >= oldStart) {
+                    return writeProperty(battery, id, ModBattery.BATTERY_RECHARGE_STOP_SOC, stop)
+                            && writeProperty(battery, id, ModBattery.BATTERY_RECHARGE_START_SOC,
+                            start);
+                }
+                return writeProperty(battery, id, ModBattery.BATTERY_RECHARGE_START_SOC, start)
+                        && writeProperty(battery, id, ModBattery.BATTERY_RECHARGE_STOP_SOC, stop);
+            }
+        }, System.currentTimeMillis());
+    }
+
+    /**
+     * Write a mod battery property through its breaker, and read the properties back on
+     * the next broadcast. Returns false if failed or rejected by the breaker.
+     */
+    private boolean writeProperty(ModBattery battery, UUID id, int property, int value) {
+        CircuitBreaker breaker = modBreakers.get(id, property);
+        long now = SystemClock.elapsedRealtime();
+        if (!breaker.allow(now)) {
+            return false;
+        }
+
+        try {
+            boolean written = battery.setIntProperty(property, value);
+            breaker.onSuccess();
+            return written;
+        } catch (IllegalStateException e) {
+            onModFailure(breaker, "write " + property, e, now);
+            return false;
+        } finally {
+            propertyCache.invalidate(id);
+        }
+    }
+
+    /** Log a failed ModBattery call, with the stack only when it opens the breaker */
+    private static void onModFailure(CircuitBreaker breaker, String operation,
+                                     IllegalStateException e, long now) {
+        if (breaker.onFailure(now)) {
+            Log.w(Constants.TAG, "ModBattery " + operation + " failing, retry in "
+                    + breaker.getBackoff() + " ms: " + breaker, e);
+        } else {
+            Log.w(Constants.TAG, "ModBattery " + operation + " failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Query currently battery status, on the worker thread. A new personality queries
+     * it once the mod list is known, so the sample carries the mod data.
+     */
     public void queryStatus() {
+        workerHandler.post(queryStatus);
+    }
+
+    private final Runnable queryStatus = new Runnable() {
+        @Override
+        public void run() {
+            if (modListQueried) {
+                queryStatusNow();
+            }
+        }
+    };
+
+    /** Query currently battery status on the calling thread */
+    private void queryStatusNow() {
         Intent intent = context.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
         if (null != intent) {
-            batteryStat.update(intent);
-            onBattery();
+            onBatteryChanged(intent);
         }
     }
 
-    /** Battery data and status */
+    /** Battery data and status being updated, see BatterySnapshot.Values for published ones */
     public class Battery {
         public int level;
         public int icon;
@@ -121,7 +693,10 @@ public class BatteryPersonality extends Personality {
         public long capFull;
     }
 
-    /** Battery data and status */
+    /**
+     * Battery data and status being updated. Only accessed while updating, listeners get
+     * the published BatterySnapshot instead.
+     */
     public class BatteryStat {
         public int modEfficiency = ModBattery.BATTERY_USAGE_TYPE_UNKNOWN;
         public int modUsageType = ModBattery.BATTERY_USAGE_TYPE_UNKNOWN;
@@ -135,6 +710,44 @@ public class BatteryPersonality extends Personality {
         /** ModBattery interface */
         private ModBattery modBattery;
 
+        /** Phone battery charge counter in uAh, read on level changes */
+        private long coreCharge = BatteryHealth.UNKNOWN;
+
+        /** Version of the last published snapshot */
+        private long version;
+
+        /**
+         * Publish a new snapshot if any field changed since the last one, and get the
+         * CHANGED_* flags of the changed fields. Unchanged phone or mod values are shared
+         * with the previous snapshot, so nothing is allocated when nothing changed.
+         */
+        public int publish() {
+            BatterySnapshot last = snapshot;
+            int changed = CHANGED_ALL;
+            int coreChanged = CHANGED_ALL;
+            int modChanged = CHANGED_ALL;
+            if (null != last) {
+                coreChanged = last.core.diff(core);
+                modChanged = last.mod.diff(mod);
+                changed = coreChanged | (modChanged << MOD_SHIFT);
+                if (modEfficiency != last.modEfficiency) {
+                    changed |= CHANGED_MOD_EFFICIENCY;
+                }
+                if (modUsageType != last.modUsageType) {
+                    changed |= CHANGED_MOD_USAGE;
+                }
+                if (changed == 0) {
+                    return 0;
+                }
+            }
+
+            snapshot = new BatterySnapshot(++version, SystemClock.elapsedRealtime(), false,
+                    modEfficiency, modUsageType,
+                    coreChanged == 0 ? last.core : new BatterySnapshot.Values(core),
+                    modChanged == 0 ? last.mod : new BatterySnapshot.Values(mod));
+            return changed;
+        }
+
         /** Get battery change intent to update data and status */
         public void update(Intent intent) {
             /** Update mod charge type each time since it may changed without attach/detach */
@@ -142,23 +755,40 @@ public class BatteryPersonality extends Personality {
 
             /** Update core battery status */
             updateCore(intent);
+
+            /** Record the sample, this is the only thread writing the history */
+            long now = System.currentTimeMillis();
+            boolean modPresent = null != modBattery;
+            int modLevel = modPresent ? mod.level : BatteryHistory.NO_MOD;
+            int modStatus = modPresent ? mod.status : BatteryManager.BATTERY_STATUS_UNKNOWN;
+            boolean modPlugged = modPresent && mod.plugged != 0;
+            boolean efficiencyOn = modPresent
+                    && modEfficiency == ModBattery.BATTERY_EFFICIENCY_ON;
+            history.add(now, core.level, core.status, core.plugged, modLevel, modStatus,
+                    modPlugged, efficiencyOn);
+            historyWriter.onSample();
+            if (rollupRestored) {
+                rollup.add(now, core.level, core.status, modLevel, modPlugged);
+            }
+            estimator.add(now, core.level, core.status, modLevel, modStatus, efficiencyOn);
+            accountant.add(now, core.level, core.capFull, core.plugged, modLevel,
+                    modPresent ? mod.capFull : 0, modPlugged, efficiencyOn);
+            BatteryHealth currentHealth = health;
+            if (modPresent && null != currentHealth) {
+                currentHealth.add(mod.level, mod.status, modPlugged, coreCharge, mod.capFull);
+            }
         }
 
         /**
-         * Update mod device battery status and data
+         * Update mod device battery status and data. Properties which rarely change are
+         * served from the property cache, only volatile fields are read on each broadcast.
          */
         private void updateMod(Intent intent) {
             /** Check attached mod device and check whether the device has the BATTERY protocol */
-            if (modManager == null || null == modDevice
-                    || !modDevice.hasDeclaredProtocol(ModProtocol.Protocol.BATTERY)) {
-                reset();
-                return;
-            }
-
-            /** Get the ModBattery interface */
-            modBattery = modManager.getClassManager(ModBattery.class);
-            if (null == modBattery) {
-                Log.e(Constants.TAG, "Failed to get ModBattery");
+            ModManager manager = modManager;
+            ModDevice device = modDevice;
+            if (manager == null || null == device
+                    || !device.hasDeclaredProtocol(ModProtocol.Protocol.BATTERY)) {
                 reset();
                 return;
             }
@@ -166,29 +796,94 @@ public class BatteryPersonality extends Personality {
             /**
              * Get the mod battery data.
              * Care IllegalStateException exception in case mod is removed or invalid during query.
+             * Each call goes through its breaker, so a failing mod costs no IPC while open.
              */
+            UUID id = device.getUniqueId();
+            long now = SystemClock.elapsedRealtime();
+            ModBatteryCache.Entry entry = propertyCache.get(id, now);
+            if (null != entry) {
+                CircuitBreaker efficiency = modBreakers.get(id,
+                        ModBattery.BATTERY_EFFICIENCY_MODE);
+                if (efficiency.allow(now)) {
+                    try {
+                        int mode = entry.modBattery.getIntProperty(
+                                ModBattery.BATTERY_EFFICIENCY_MODE);
+                        efficiency.onSuccess();
+                        if (mode != entry.efficiency) {
+                            /** Efficiency mode changed, the thresholds may change with it */
+                            propertyCache.invalidate(id);
+                            entry = null;
+                        }
+                    } catch (IllegalStateException e) {
+                        onModFailure(efficiency, "efficiency", e, now);
+                        propertyCache.invalidate(id);
+                        reset();
+                        return;
+                    }
+                }
+            }
+
+            if (null == entry) {
+                CircuitBreaker load = modBreakers.get(id, OP_LOAD);
+                if (!load.allow(now)) {
+                    reset();
+                    return;
+                }
+
+                try {
+                    /** Get the ModBattery interface */
+                    ModBattery battery = manager.getClassManager(ModBattery.class);
+                    if (null == battery) {
+                        Log.e(Constants.TAG, "Failed to get ModBattery");
+                        load.onFailure(now);
+                        reset();
+                        return;
+                    }
+                    entry = propertyCache.load(id, battery, context, now);
+                    load.onSuccess();
+                } catch (IllegalStateException e) {
+                    onModFailure(load, "load", e, now);
+                    propertyCache.invalidate(id);
+                    reset();
+                    return;
+                }
+            }
+
+            CircuitBreaker read = modBreakers.get(id, OP_READ);
+            if (!read.allow(now)) {
+                reset();
+                return;
+            }
+
             try {
-                modUsageType = modBattery.getIntProperty(ModBattery.BATTERY_USAGE_TYPE);
-                modEfficiency = modBattery.getIntProperty(ModBattery.BATTERY_EFFICIENCY_MODE);
+                modBattery = entry.modBattery;
+                modUsageType = entry.usageType;
+                modEfficiency = entry.efficiency;
 
-                mod.rechargeStart = modBattery.getIntProperty(ModBattery.BATTERY_RECHARGE_START_SOC);
-                mod.rechargeStop = modBattery.getIntProperty(ModBattery.BATTERY_RECHARGE_STOP_SOC);
+                mod.rechargeStart = entry.rechargeStart;
+                mod.rechargeStop = entry.rechargeStop;
+                mod.capFull = entry.capFull;
 
                 mod.level = modBattery.getBatteryLevel(intent);
                 mod.status = modBattery.getBatteryStatus(intent);
                 mod.plugged = modBattery.isPlugTypeMod(intent) ? 1 : 0;
-                mod.capFull = modBattery.getBatteryCapacity(context);
+                read.onSuccess();
             } catch (IllegalStateException e) {
-                e.printStackTrace();
+                onModFailure(read, "read", e, now);
+                propertyCache.invalidate(id);
                 reset();
             }
         }
 
         /** Get the phone battery data */
         private void updateCore(Intent intent) {
-            core.level = (int) (100f
+            int level = (int) (100f
                     * intent.getIntExtra(BatteryManager.EXTRA_LEVEL, -1)
                     / intent.getIntExtra(BatteryManager.EXTRA_SCALE, 100));
+            if (level != core.level || core.capFull == 0) {
+                updateCoreCapacity(level);
+            }
+            core.level = level;
             core.icon = intent.getIntExtra(BatteryManager.EXTRA_ICON_SMALL, 0);
             core.scale = intent.getIntExtra(BatteryManager.EXTRA_SCALE, 0);
             core.status = intent.getIntExtra(BatteryManager.EXTRA_STATUS,
@@ -196,6 +891,35 @@ public class BatteryPersonality extends Personality {
             core.plugged = intent.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0);
         }
 
+        /**
+         * Read the phone battery charge counter in uAh, and derive the full capacity in
+         * mAh from it. Only read when the level changed, and the capacity is only
+         * published when it moved by more than the hysteresis so counter noise does not
+         * notify listeners.
+         */
+        private void updateCoreCapacity(int level) {
+            if (null == batteryManager) {
+                return;
+            }
+
+            int counter = batteryManager.getIntProperty(
+                    BatteryManager.BATTERY_PROPERTY_CHARGE_COUNTER);
+            if (counter <= 0) {
+                /** Not supported by this device */
+                coreCharge = BatteryHealth.UNKNOWN;
+                return;
+            }
+            coreCharge = counter;
+            if (level < MIN_CAPACITY_LEVEL) {
+                return;
+            }
+
+            long capFull = counter * 100L / level / 1000;
+            if (Math.abs(capFull - core.capFull) * 100 > core.capFull * CAPACITY_HYSTERESIS) {
+                core.capFull = capFull;
+            }
+        }
+
         /** Reset when mod battery is not valid */
         private void reset() {
             modBattery = null;
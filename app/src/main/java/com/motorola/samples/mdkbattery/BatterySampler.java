@@ -0,0 +1,313 @@
+/**
+ * Copyright (c) 2016 Motorola Mobility, LLC.
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.motorola.samples.mdkbattery;
+
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.util.Log;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * A job to sample the battery data while no activity is shown. Each run takes a
+ * sample through the shared personality, the same BatteryStat path as the
+ * activity, which reads the mod battery when one is attached and records the
+ * sample into the history log, the rollups and the estimators. About once per
+ * BatteryPersonality.POLICY_INTERVAL, while the recharge thresholds of the mod
+ * battery are tuned, a run also evaluates them over the persisted history. Then
+ * it schedules the next run at the interval SamplingCadence chooses from the
+ * live sample. Each run is a one-shot job with a deadline window, so the system
+ * could batch it with other wakeups.
+ */
+public class BatterySampler extends JobService {
+    public static final int JOB_ID = 1;
+
+    /** Preferences of the sampler state and wakeup statistics */
+    private static final String PREFS = "sampler";
+    private static final String KEY_CORE_LEVEL = "core_level";
+    private static final String KEY_MOD_LEVEL = "mod_level";
+    private static final String KEY_HOUR = "hour";
+    private static final String KEY_HOUR_WAKEUPS = "hour_wakeups";
+    private static final String KEY_LAST_HOUR_WAKEUPS = "last_hour_wakeups";
+    private static final String KEY_TOTAL_WAKEUPS = "total_wakeups";
+    private static final String KEY_FIRST_WAKEUP = "first_wakeup";
+    private static final String KEY_POLICY_TIME = "policy_time";
+
+    /** Give up on the sample and the policy evaluation after this long, in ms */
+    private static final long RUN_TIMEOUT = 30 * 1000;
+
+    private static final long HOUR = 60 * 60 * 1000;
+
+    private Handler handler;
+    private Executor mainExecutor;
+
+    /** Running job and its next interval, only accessed on the main thread */
+    private JobParameters params;
+    private long interval;
+
+    /** Personality taking the sample, null if none */
+    private BatteryPersonality personality;
+    private Subscription subscription;
+
+    private final Runnable timeout = new Runnable() {
+        @Override
+        public void run() {
+            Log.w(Constants.TAG, "BatterySampler - run timed out");
+            finish(params);
+        }
+    };
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        handler = new Handler();
+        mainExecutor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                handler.post(command);
+            }
+        };
+    }
+
+    /** Schedule the first run unless one is pending, e.g. on application start */
+    public static void start(Context context) {
+        JobScheduler scheduler = (JobScheduler) context.getSystemService(
+                Context.JOB_SCHEDULER_SERVICE);
+        List<JobInfo> pending = scheduler.getAllPendingJobs();
+        if (null != pending) {
+            for (JobInfo job : pending) {
+                if (job.getId() == JOB_ID) {
+                    return;
+                }
+            }
+        }
+        schedule(context, SamplingCadence.NORMAL_INTERVAL);
+    }
+
+    /** Stop sampling in background */
+    public static void stop(Context context) {
+        JobScheduler scheduler = (JobScheduler) context.getSystemService(
+                Context.JOB_SCHEDULER_SERVICE);
+        scheduler.cancel(JOB_ID);
+    }
+
+    /** Schedule the next run, anywhere in the interval to one and a half interval */
+    private static void schedule(Context context, long interval) {
+        JobScheduler scheduler = (JobScheduler) context.getSystemService(
+                Context.JOB_SCHEDULER_SERVICE);
+        JobInfo job = new JobInfo.Builder(JOB_ID, new ComponentName(context, BatterySampler.class))
+                .setMinimumLatency(interval)
+                .setOverrideDeadline(interval + interval / 2)
+                .setPersisted(true)
+                .build();
+        if (scheduler.schedule(job) != JobScheduler.RESULT_SUCCESS) {
+            Log.e(Constants.TAG, "BatterySampler - schedule failed");
+        }
+    }
+
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        this.params = params;
+        interval = SamplingCadence.NORMAL_INTERVAL;
+        handler.postDelayed(timeout, RUN_TIMEOUT);
+
+        /**
+         * A running personality takes the sample from the sticky broadcast at once, a
+         * new one once its mod list is queried. Either way the first live snapshot is
+         * the one recorded through BatteryStat, with the mod data when attached.
+         */
+        personality = ((MDKBatteryApplication) getApplication()).acquirePersonality();
+        final Handler worker = new Handler(personality.getWorkerLooper());
+        personality.queryStatus();
+        subscription = personality.subscribe(mainExecutor, new SnapshotConsumer() {
+            @Override
+            public void accept(final BatterySnapshot snapshot) {
+                if (snapshot.stale || null == subscription) {
+                    return;
+                }
+                subscription.cancel();
+                subscription = null;
+
+                /** Preferences on the worker thread of the personality, not the main one */
+                worker.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onSampled(params, snapshot);
+                    }
+                });
+            }
+        }, DeliveryPolicy.latest());
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        /** Stopped by the system, it runs the job again later */
+        this.params = null;
+        releasePersonality();
+        return true;
+    }
+
+    /** Sample taken, keep its statistics and choose the next interval, on the worker thread */
+    private void onSampled(final JobParameters sampled, BatterySnapshot snapshot) {
+        SharedPreferences prefs = getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+        long now = System.currentTimeMillis();
+        recordWakeup(prefs, now);
+        final long next = nextInterval(prefs, snapshot);
+        final boolean policy = isPolicyDue(prefs, snapshot, now);
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                onNextInterval(sampled, next, policy);
+            }
+        });
+    }
+
+    /** Evaluate the policy if due or finish, on the main thread */
+    private void onNextInterval(final JobParameters sampled, long next, boolean policy) {
+        if (params != sampled || null == personality) {
+            return;
+        }
+        interval = next;
+        if (!policy) {
+            finish(sampled);
+            return;
+        }
+
+        personality.evaluatePolicy(mainExecutor, new Runnable() {
+            @Override
+            public void run() {
+                finish(sampled);
+            }
+        });
+    }
+
+    /** Finish this run, then schedule the next one, on the main thread */
+    private void finish(JobParameters finished) {
+        if (null == finished || params != finished) {
+            return;
+        }
+        params = null;
+        releasePersonality();
+
+        /** Scheduling the running job ID would stop it, so it must finish first */
+        jobFinished(finished, false);
+        schedule(this, interval);
+        Log.d(Constants.TAG, "BatterySampler - next in " + interval / 1000 + " s, "
+                + getWakeupsPerHour(this) + " wakeups last hour");
+    }
+
+    /** Let go of the personality, it saves the sample before it is torn down */
+    private void releasePersonality() {
+        handler.removeCallbacks(timeout);
+        if (null != subscription) {
+            subscription.cancel();
+            subscription = null;
+        }
+        if (null != personality) {
+            personality = null;
+            ((MDKBatteryApplication) getApplication()).releasePersonality();
+        }
+    }
+
+    /** Get the interval to the next sample, and keep the levels of this one */
+    private static long nextInterval(SharedPreferences prefs, BatterySnapshot snapshot) {
+        long next = SamplingCadence.nextInterval(snapshot,
+                prefs.getInt(KEY_CORE_LEVEL, SamplingCadence.UNKNOWN),
+                prefs.getInt(KEY_MOD_LEVEL, SamplingCadence.UNKNOWN));
+        prefs.edit()
+                .putInt(KEY_CORE_LEVEL, snapshot.core.level)
+                .putInt(KEY_MOD_LEVEL, snapshot.mod.level)
+                .apply();
+        return next;
+    }
+
+    /** Whether the recharge policy should be evaluated, and count it as evaluated if so */
+    private static boolean isPolicyDue(SharedPreferences prefs, BatterySnapshot snapshot,
+                                       long now) {
+        long last = prefs.getLong(KEY_POLICY_TIME, 0);
+        if (!BatteryPersonality.isPolicyEnabled(snapshot)
+                || (now >= last && now - last < BatteryPersonality.POLICY_INTERVAL)) {
+            return false;
+        }
+        prefs.edit().putLong(KEY_POLICY_TIME, now).apply();
+        return true;
+    }
+
+    /** Count a wakeup in the hour it happened */
+    private static void recordWakeup(SharedPreferences prefs, long now) {
+        long hour = now / HOUR;
+        long lastHour = prefs.getLong(KEY_HOUR, hour);
+        int wakeups = prefs.getInt(KEY_HOUR_WAKEUPS, 0);
+
+        SharedPreferences.Editor editor = prefs.edit();
+        if (hour != lastHour) {
+            /** Only the directly preceding hour counts as last hour */
+            editor.putInt(KEY_LAST_HOUR_WAKEUPS, hour == lastHour + 1 ? wakeups : 0);
+            wakeups = 0;
+        }
+        editor.putLong(KEY_HOUR, hour)
+                .putInt(KEY_HOUR_WAKEUPS, wakeups + 1)
+                .putLong(KEY_TOTAL_WAKEUPS, prefs.getLong(KEY_TOTAL_WAKEUPS, 0) + 1);
+        if (prefs.getLong(KEY_FIRST_WAKEUP, 0) == 0) {
+            editor.putLong(KEY_FIRST_WAKEUP, now);
+        }
+        editor.apply();
+    }
+
+    /** Get the number of sampler wakeups in the last complete hour */
+    public static int getWakeupsPerHour(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+        long hour = System.currentTimeMillis() / HOUR;
+        long lastHour = prefs.getLong(KEY_HOUR, hour);
+        if (hour == lastHour) {
+            return prefs.getInt(KEY_LAST_HOUR_WAKEUPS, 0);
+        }
+        return hour == lastHour + 1 ? prefs.getInt(KEY_HOUR_WAKEUPS, 0) : 0;
+    }
+
+    /** Get the average number of sampler wakeups per hour since the first one */
+    public static float getAverageWakeupsPerHour(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+        long first = prefs.getLong(KEY_FIRST_WAKEUP, 0);
+        if (first == 0) {
+            return 0;
+        }
+        long elapsed = Math.max(HOUR, System.currentTimeMillis() - first);
+        return prefs.getLong(KEY_TOTAL_WAKEUPS, 0) * (float) HOUR / elapsed;
+    }
+}
@@ -0,0 +1,126 @@
+/**
+ * Copyright (c) 2016 Motorola Mobility, LLC.
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.motorola.samples.mdkbattery;
+
+/**
+ * A class to represent an immutable, versioned view of the battery data and
+ * status. A snapshot is never modified once published, so it could be read
+ * from any thread without locks.
+ */
+public final class BatterySnapshot {
+    /** Increased for each published snapshot */
+    public final long version;
+
+    /** Elapsed realtime when the snapshot was taken, in ms */
+    public final long time;
+
+    /** Whether the data was restored from storage, and not yet confirmed by live data */
+    public final boolean stale;
+
+    public final int modEfficiency;
+    public final int modUsageType;
+
+    /** Phone battery data and status */
+    public final Values core;
+
+    /** Mod battery data and status */
+    public final Values mod;
+
+    /** Constructor */
+    public BatterySnapshot(long version, long time, boolean stale,
+                           int modEfficiency, int modUsageType, Values core, Values mod) {
+        this.version = version;
+        this.time = time;
+        this.stale = stale;
+        this.modEfficiency = modEfficiency;
+        this.modUsageType = modUsageType;
+        this.core = core;
+        this.mod = mod;
+    }
+
+    /** Battery data and status */
+    public static final class Values {
+        public final int level;
+        public final int icon;
+        public final int scale;
+        public final int status;
+        public final int rechargeStop;
+        public final int rechargeStart;
+        public final int plugged;
+        public final long capFull;
+
+        /** Constructor */
+        public Values(int level, int icon, int scale, int status, int rechargeStop,
+                      int rechargeStart, int plugged, long capFull) {
+            this.level = level;
+            this.icon = icon;
+            this.scale = scale;
+            this.status = status;
+            this.rechargeStop = rechargeStop;
+            this.rechargeStart = rechargeStart;
+            this.plugged = plugged;
+            this.capFull = capFull;
+        }
+
+        /** Copy the values from the battery being updated */
+        public Values(BatteryPersonality.Battery battery) {
+            this(battery.level, battery.icon, battery.scale, battery.status,
+                    battery.rechargeStop, battery.rechargeStart, battery.plugged,
+                    battery.capFull);
+        }
+
+        /**
+         * Get the flags of fields differing from the battery being updated, at the
+         * BatteryPersonality.CHANGED_CORE_* positions.
+         */
+        public int diff(BatteryPersonality.Battery battery) {
+            int changed = 0;
+            if (level != battery.level) {
+                changed |= BatteryPersonality.CHANGED_CORE_LEVEL;
+            }
+            if (status != battery.status) {
+                changed |= BatteryPersonality.CHANGED_CORE_STATUS;
+            }
+            if (plugged != battery.plugged) {
+                changed |= BatteryPersonality.CHANGED_CORE_PLUGGED;
+            }
+            if (icon != battery.icon || scale != battery.scale) {
+                changed |= BatteryPersonality.CHANGED_CORE_ICON;
+            }
+            if (capFull != battery.capFull) {
+                changed |= BatteryPersonality.CHANGED_CORE_CAPACITY;
+            }
+            if (rechargeStart != battery.rechargeStart || rechargeStop != battery.rechargeStop) {
+                changed |= BatteryPersonality.CHANGED_CORE_RECHARGE;
+            }
+            return changed;
+        }
+    }
+}
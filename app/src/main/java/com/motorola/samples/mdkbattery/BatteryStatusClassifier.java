@@ -0,0 +1,218 @@
+/**
+ * Copyright (c) 2016 Motorola Mobility, LLC.
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.motorola.samples.mdkbattery;
+
+import android.os.BatteryManager;
+
+import com.motorola.mod.ModBattery;
+
+/**
+ * A class to classify the overall charging status of the phone and mod batteries.
+ * The inputs are reduced to a few buckets indexing a decision table computed once,
+ * so classifying is pure, allocation free and usable off the UI.
+ */
+public final class BatteryStatusClassifier {
+    public static final int STATUS_UNKNOWN = 0;
+    public static final int STATUS_MOD_ABSENT = 1;
+    public static final int STATUS_MOD_CHARGING = 2;
+    public static final int STATUS_MOD_CHARGING_PHONE = 3;
+    public static final int STATUS_PHONE_CHARGING = 4;
+    public static final int STATUS_PHONE_CHARGING_AC = 5;
+    public static final int STATUS_PHONE_CHARGING_USB = 6;
+    public static final int STATUS_PHONE_CHARGING_WIRELESS = 7;
+    public static final int STATUS_CHARGING_COMPLETE = 8;
+    public static final int STATUS_TRANSFER_PAUSED = 9;
+    public static final int STATUS_MOD_EMPTY = 10;
+    public static final int STATUS_COUNT = 11;
+
+    /** Bucket sizes of the table dimensions */
+    private static final int VALID_BUCKETS = 2;
+    private static final int STATUS_BUCKETS = BatteryManager.BATTERY_STATUS_FULL + 2;
+    private static final int PLUGGED_BUCKETS = 4;
+    private static final int LEVEL_BUCKETS = 2;
+    private static final int FULL_BUCKETS = 2;
+    private static final int EFFICIENCY_BUCKETS = 3;
+
+    private static final byte[] TABLE = new byte[VALID_BUCKETS * STATUS_BUCKETS * STATUS_BUCKETS
+            * PLUGGED_BUCKETS * LEVEL_BUCKETS * FULL_BUCKETS * EFFICIENCY_BUCKETS];
+
+    private static final boolean[] CHARGING = new boolean[STATUS_COUNT];
+
+    /** Representative raw values of each bucket, used to fill the table */
+    private static final int[] PLUGGED_VALUES = {0, BatteryManager.BATTERY_PLUGGED_AC,
+            BatteryManager.BATTERY_PLUGGED_USB, BatteryManager.BATTERY_PLUGGED_WIRELESS};
+    private static final int[] EFFICIENCY_VALUES = {ModBattery.BATTERY_EFFICIENCY_OFF,
+            ModBattery.BATTERY_EFFICIENCY_ON, Constants.BATTERY_INVALID};
+
+    static {
+        for (int valid = 0; valid < VALID_BUCKETS; valid++) {
+            for (int mod = 0; mod < STATUS_BUCKETS; mod++) {
+                for (int core = 0; core < STATUS_BUCKETS; core++) {
+                    for (int plugged = 0; plugged < PLUGGED_BUCKETS; plugged++) {
+                        for (int level = 0; level < LEVEL_BUCKETS; level++) {
+                            for (int full = 0; full < FULL_BUCKETS; full++) {
+                                for (int eff = 0; eff < EFFICIENCY_BUCKETS; eff++) {
+                                    TABLE[index(valid, mod, core, plugged, level, full, eff)] =
+                                            (byte) decide(valid == 1, mod, core,
+                                                    PLUGGED_VALUES[plugged], level == 1,
+                                                    full == 1, EFFICIENCY_VALUES[eff]);
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        CHARGING[STATUS_MOD_CHARGING] = true;
+        CHARGING[STATUS_MOD_CHARGING_PHONE] = true;
+        CHARGING[STATUS_PHONE_CHARGING] = true;
+        CHARGING[STATUS_PHONE_CHARGING_AC] = true;
+        CHARGING[STATUS_PHONE_CHARGING_USB] = true;
+        CHARGING[STATUS_PHONE_CHARGING_WIRELESS] = true;
+    }
+
+    private BatteryStatusClassifier() {
+    }
+
+    /** Classify the status of a battery snapshot */
+    public static int classify(BatterySnapshot stat) {
+        return classify(stat.core.status, stat.core.level, stat.core.plugged,
+                stat.mod.status, stat.mod.level, stat.mod.capFull, stat.mod.rechargeStart,
+                stat.modUsageType, stat.modEfficiency);
+    }
+
+    /** Classify the status from raw battery values, returns one of STATUS_* */
+    public static int classify(int coreStatus, int coreLevel, int corePlugged,
+                               int modStatus, int modLevel, long modCapFull,
+                               int modRechargeStart, int usage, int efficiency) {
+        boolean valid = modStatus > BatteryManager.BATTERY_STATUS_UNKNOWN
+                && modCapFull > 0
+                && modLevel >= 0
+                && usage != ModBattery.BATTERY_USAGE_TYPE_UNKNOWN
+                && modRechargeStart != Constants.BATTERY_INVALID;
+
+        return TABLE[index(valid ? 1 : 0, statusBucket(modStatus), statusBucket(coreStatus),
+                pluggedBucket(corePlugged), modLevel > 0 ? 1 : 0, coreLevel == 100 ? 1 : 0,
+                efficiencyBucket(efficiency))];
+    }
+
+    /** Check whether a status means a battery is being charged */
+    public static boolean isCharging(int status) {
+        return CHARGING[status];
+    }
+
+    private static int index(int valid, int mod, int core, int plugged, int level, int full,
+                             int eff) {
+        int i = valid;
+        i = i * STATUS_BUCKETS + mod;
+        i = i * STATUS_BUCKETS + core;
+        i = i * PLUGGED_BUCKETS + plugged;
+        i = i * LEVEL_BUCKETS + level;
+        i = i * FULL_BUCKETS + full;
+        return i * EFFICIENCY_BUCKETS + eff;
+    }
+
+    /** Battery status bucket, the last one is for values out of the known range */
+    private static int statusBucket(int status) {
+        return status >= 0 && status < STATUS_BUCKETS - 1 ? status : STATUS_BUCKETS - 1;
+    }
+
+    private static int pluggedBucket(int plugged) {
+        switch (plugged) {
+            case BatteryManager.BATTERY_PLUGGED_AC:
+                return 1;
+            case BatteryManager.BATTERY_PLUGGED_USB:
+                return 2;
+            case BatteryManager.BATTERY_PLUGGED_WIRELESS:
+                return 3;
+            default:
+                return 0;
+        }
+    }
+
+    private static int efficiencyBucket(int efficiency) {
+        if (efficiency == ModBattery.BATTERY_EFFICIENCY_OFF) {
+            return 0;
+        } else if (efficiency == ModBattery.BATTERY_EFFICIENCY_ON) {
+            return 1;
+        }
+        return 2;
+    }
+
+    /** Decision rules filling the table, from bucketed inputs */
+    private static int decide(boolean valid, int modStatus, int coreStatus, int corePlugged,
+                              boolean modLevelPositive, boolean coreFull, int efficiency) {
+        if (!valid) {
+            // Mod battery invalid, show Absent on UI
+            return STATUS_MOD_ABSENT;
+        } else if (modStatus == BatteryManager.BATTERY_STATUS_CHARGING) {
+            // Mod is charging
+            return STATUS_MOD_CHARGING;
+        } else if (coreStatus == BatteryManager.BATTERY_STATUS_CHARGING) {
+            // Phone is charging
+            if (modStatus == BatteryManager.BATTERY_STATUS_DISCHARGING && modLevelPositive) {
+                // Mod is discharging, it is transferring power to phone.
+                return STATUS_MOD_CHARGING_PHONE;
+            }
+
+            // Phone is charging on other sources than mod
+            switch (corePlugged) {
+                case BatteryManager.BATTERY_PLUGGED_AC:
+                    return STATUS_PHONE_CHARGING_AC;
+                case BatteryManager.BATTERY_PLUGGED_USB:
+                    return STATUS_PHONE_CHARGING_USB;
+                case BatteryManager.BATTERY_PLUGGED_WIRELESS:
+                    return STATUS_PHONE_CHARGING_WIRELESS;
+                default:
+                    return STATUS_PHONE_CHARGING;
+            }
+        } else if (modLevelPositive) {
+            // Mod battery is not empty
+            if (coreFull
+                    && modStatus != BatteryManager.BATTERY_STATUS_DISCHARGING
+                    && efficiency != ModBattery.BATTERY_EFFICIENCY_OFF) {
+                // Phone battery is full and mod is not discharging
+                return STATUS_CHARGING_COMPLETE;
+            } else if (efficiency == ModBattery.BATTERY_EFFICIENCY_OFF) {
+                // Mod always charging phone if efficiency mod is off
+                return STATUS_MOD_CHARGING_PHONE;
+            } else if (efficiency == ModBattery.BATTERY_EFFICIENCY_ON) {
+                // Mod charging phone when phone battery level under the
+                // BATTERY_RECHARGE_START_SOC threshold if efficiency mod is on
+                return STATUS_TRANSFER_PAUSED;
+            }
+            return STATUS_UNKNOWN;
+        }
+
+        // Mod level is 0
+        return STATUS_MOD_EMPTY;
+    }
+}
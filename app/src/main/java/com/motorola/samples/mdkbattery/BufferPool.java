@@ -0,0 +1,94 @@
+/**
+ * Copyright (c) 2016 Motorola Mobility, LLC.
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.motorola.samples.mdkbattery;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A class to recycle a fixed set of direct byte buffers. A reader out of buffers
+ * waits for one to be released, so a slow consumer throttles the reader instead
+ * of growing memory.
+ */
+public class BufferPool {
+    private final ArrayBlockingQueue<ByteBuffer> free;
+    private final int count;
+    private final int bufferSize;
+
+    /** Times acquire() had to wait for a released buffer */
+    private final AtomicLong waits = new AtomicLong();
+
+    /** Constructor, allocates all buffers at once */
+    public BufferPool(int count, int bufferSize) {
+        this.count = count;
+        this.bufferSize = bufferSize;
+        free = new ArrayBlockingQueue<>(count);
+        for (int i = 0; i < count; i++) {
+            free.add(ByteBuffer.allocateDirect(bufferSize));
+        }
+    }
+
+    /** Get a cleared buffer, waiting until one is released if none is free */
+    public ByteBuffer acquire() throws InterruptedException {
+        ByteBuffer buffer = free.poll();
+        if (null == buffer) {
+            waits.incrementAndGet();
+            buffer = free.take();
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    /** Give back a buffer acquired from this pool */
+    public void release(ByteBuffer buffer) {
+        if (buffer.capacity() != bufferSize || !free.offer(buffer)) {
+            throw new IllegalArgumentException("Buffer not from this pool");
+        }
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /** Get the number of buffers currently not acquired */
+    public int getFreeCount() {
+        return free.size();
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    /** Get the number of times a reader waited for a buffer */
+    public long getWaitCount() {
+        return waits.get();
+    }
+}
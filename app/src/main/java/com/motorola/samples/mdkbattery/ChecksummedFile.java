@@ -0,0 +1,138 @@
+/**
+ * Copyright (c) 2016 Motorola Mobility, LLC.
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.motorola.samples.mdkbattery;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+/**
+ * A class to represent a small fixed size file ending with a CRC32 of all previous
+ * bytes. It is replaced atomically by writing a temporary file and renaming it over,
+ * so a reader sees either the previous or the new content. The stores using it only
+ * define their record layout.
+ */
+public class ChecksummedFile {
+    public static final int CRC_SIZE = 4;
+
+    private final File file;
+    private final int size;
+
+    /** Constructor, the size includes the CRC */
+    public ChecksummedFile(File file, int size) {
+        this.file = file;
+        this.size = size;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /** Get a buffer to put a record into, with room for the CRC */
+    public ByteBuffer allocate() {
+        return ByteBuffer.allocate(size);
+    }
+
+    /**
+     * Read the record, positioned at its start and limited to the bytes before the CRC.
+     * Returns null if the file is missing, of another size, or fails its checksum.
+     */
+    public ByteBuffer read() {
+        if (!file.isFile() || file.length() != size) {
+            return null;
+        }
+
+        byte[] bytes = new byte[size];
+        try {
+            FileInputStream in = new FileInputStream(file);
+            try {
+                int read = 0;
+                while (read < size) {
+                    int n = in.read(bytes, read, size - read);
+                    if (n < 0) {
+                        return null;
+                    }
+                    read += n;
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            Log.w(Constants.TAG, "ChecksummedFile - failed to read " + file, e);
+            return null;
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, size - CRC_SIZE);
+        if (buffer.getInt(size - CRC_SIZE) != (int) crc.getValue()) {
+            Log.w(Constants.TAG, "ChecksummedFile - invalid " + file);
+            return null;
+        }
+        buffer.limit(size - CRC_SIZE);
+        return buffer;
+    }
+
+    /**
+     * Append the CRC to a record from allocate(), filled up to the CRC, and replace the
+     * file with it. The directory is created if needed.
+     */
+    public void write(ByteBuffer buffer) throws IOException {
+        if (buffer.position() != size - CRC_SIZE) {
+            throw new IllegalArgumentException("Record of " + buffer.position()
+                    + " bytes, expected " + (size - CRC_SIZE));
+        }
+        File dir = file.getParentFile();
+        if (null != dir && !dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Failed to create " + dir);
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, buffer.position());
+        buffer.putInt((int) crc.getValue());
+
+        File tmp = new File(file.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(tmp);
+        try {
+            out.write(buffer.array(), 0, size);
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(file)) {
+            throw new IOException("Failed to rename " + tmp);
+        }
+    }
+}
@@ -0,0 +1,233 @@
+/**
+ * Copyright (c) 2016 Motorola Mobility, LLC.
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.motorola.samples.mdkbattery;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * A class to stop calling a failing mod device until it recovers. After a number
+ * of consecutive failures the breaker opens and calls are rejected without any
+ * IPC. Once the backoff elapsed one probe call is let through: success closes the
+ * breaker, failure opens it again with the backoff doubled up to a ceiling.
+ * <p/>
+ * Times are elapsed realtime in ms, passed in by the caller.
+ */
+public class CircuitBreaker {
+    public static final int CLOSED = 0;
+    public static final int OPEN = 1;
+    public static final int HALF_OPEN = 2;
+
+    public static final int DEFAULT_FAILURE_THRESHOLD = 3;
+    public static final long DEFAULT_INITIAL_BACKOFF = 1000;
+    public static final long DEFAULT_MAX_BACKOFF = 5 * 60 * 1000;
+
+    private static final String[] STATE_NAMES = {"closed", "open", "half-open"};
+
+    private final int failureThreshold;
+    private final long initialBackoff;
+    private final long maxBackoff;
+
+    private int state = CLOSED;
+    private int consecutiveFailures;
+    private long backoff;
+
+    /** Time the breaker opened, or the last probe was let through */
+    private long since;
+
+    /** Counters */
+    private long successes;
+    private long failures;
+    private long rejected;
+    private long probes;
+    private final long[] transitions = new long[3];
+
+    /** Constructor with the default thresholds */
+    public CircuitBreaker() {
+        this(DEFAULT_FAILURE_THRESHOLD, DEFAULT_INITIAL_BACKOFF, DEFAULT_MAX_BACKOFF);
+    }
+
+    /** Constructor */
+    public CircuitBreaker(int failureThreshold, long initialBackoff, long maxBackoff) {
+        this.failureThreshold = failureThreshold;
+        this.initialBackoff = initialBackoff;
+        this.maxBackoff = maxBackoff;
+        backoff = initialBackoff;
+    }
+
+    /**
+     * Check whether a call may be made now. Report its outcome with onSuccess() or
+     * onFailure(). A probe whose outcome is never reported is replaced by another
+     * once the backoff elapsed again.
+     */
+    public synchronized boolean allow(long now) {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (now - since >= backoff) {
+                    setState(HALF_OPEN);
+                    since = now;
+                    probes++;
+                    return true;
+                }
+                break;
+            default:
+                if (now - since >= backoff) {
+                    since = now;
+                    probes++;
+                    return true;
+                }
+                break;
+        }
+        rejected++;
+        return false;
+    }
+
+    /** The call succeeded */
+    public synchronized void onSuccess() {
+        successes++;
+        consecutiveFailures = 0;
+        if (state != CLOSED) {
+            backoff = initialBackoff;
+            setState(CLOSED);
+        }
+    }
+
+    /** The call failed, and get whether the breaker is open now */
+    public synchronized boolean onFailure(long now) {
+        failures++;
+        consecutiveFailures++;
+        if (state == HALF_OPEN) {
+            /** The probe failed, wait longer for the next one */
+            backoff = Math.min(backoff * 2, maxBackoff);
+            open(now);
+        } else if (state == CLOSED && consecutiveFailures >= failureThreshold) {
+            backoff = initialBackoff;
+            open(now);
+        }
+        return state == OPEN;
+    }
+
+    public synchronized int getState() {
+        return state;
+    }
+
+    /** Get the current wait before the next probe while not closed, in ms */
+    public synchronized long getBackoff() {
+        return backoff;
+    }
+
+    public synchronized long getSuccessCount() {
+        return successes;
+    }
+
+    public synchronized long getFailureCount() {
+        return failures;
+    }
+
+    /** Get the number of calls rejected without any IPC */
+    public synchronized long getRejectedCount() {
+        return rejected;
+    }
+
+    /** Get the number of probe calls let through while not closed */
+    public synchronized long getProbeCount() {
+        return probes;
+    }
+
+    /** Get the number of times the breaker entered a state */
+    public synchronized long getTransitionCount(int state) {
+        return transitions[state];
+    }
+
+    @Override
+    public synchronized String toString() {
+        return STATE_NAMES[state] + ", ok " + successes + ", failed " + failures
+                + ", rejected " + rejected + ", probes " + probes + ", opened "
+                + transitions[OPEN] + ", closed " + transitions[CLOSED];
+    }
+
+    private void open(long now) {
+        setState(OPEN);
+        since = now;
+    }
+
+    private void setState(int newState) {
+        state = newState;
+        transitions[newState]++;
+    }
+
+    /** A class to hold one breaker per mod device and per operation */
+    public static class Group {
+        private final Map<UUID, Map<Integer, CircuitBreaker>> breakers = new HashMap<>();
+
+        /** Get the breaker of an operation of a mod device, created closed */
+        public synchronized CircuitBreaker get(UUID id, int operation) {
+            Map<Integer, CircuitBreaker> device = breakers.get(id);
+            if (null == device) {
+                device = new HashMap<>();
+                breakers.put(id, device);
+            }
+
+            CircuitBreaker breaker = device.get(operation);
+            if (null == breaker) {
+                breaker = new CircuitBreaker();
+                device.put(operation, breaker);
+            }
+            return breaker;
+        }
+
+        /** Forget the breakers of a mod device */
+        public synchronized void remove(UUID id) {
+            breakers.remove(id);
+        }
+
+        public synchronized void clear() {
+            breakers.clear();
+        }
+
+        @Override
+        public synchronized String toString() {
+            StringBuilder sb = new StringBuilder();
+            for (Map.Entry<UUID, Map<Integer, CircuitBreaker>> device : breakers.entrySet()) {
+                for (Map.Entry<Integer, CircuitBreaker> e : device.getValue().entrySet()) {
+                    if (sb.length() > 0) {
+                        sb.append("; ");
+                    }
+                    sb.append(device.getKey()).append('/').append(e.getKey()).append(": ")
+                            .append(e.getValue());
+                }
+            }
+            return sb.toString();
+        }
+    }
+}
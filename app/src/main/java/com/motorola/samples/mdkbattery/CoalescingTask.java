@@ -0,0 +1,114 @@
+/**
+ * Copyright (c) 2016 Motorola Mobility, LLC.
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motorola.samples.mdkbattery;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A class to run a task on an executor, collapsing bursts of requests into
+ * one in-flight pass plus at most one queued pass.
+ */
+public class CoalescingTask {
+    private static final int IDLE = 0;
+    private static final int RUNNING = 1;
+    private static final int RUNNING_QUEUED = 2;
+
+    private final Executor executor;
+    private final Runnable task;
+    private final AtomicInteger state = new AtomicInteger(IDLE);
+
+    /** Statistics to verify how many requests were collapsed */
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong passes = new AtomicLong();
+
+    /** Loop running the task until no more request is queued */
+    private final Runnable drain = new Runnable() {
+        @Override
+        public void run() {
+            while (true) {
+                passes.incrementAndGet();
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+
+                /** Done if no request arrived meanwhile, otherwise consume it and run again */
+                if (state.compareAndSet(RUNNING, IDLE)) {
+                    return;
+                }
+                state.set(RUNNING);
+            }
+        }
+    };
+
+    /** Constructor */
+    public CoalescingTask(Executor executor, Runnable task) {
+        this.executor = executor;
+        this.task = task;
+    }
+
+    /** Request a pass of the task. Returns immediately. */
+    public void request() {
+        requests.incrementAndGet();
+
+        while (true) {
+            int current = state.get();
+            if (current == RUNNING_QUEUED) {
+                /** A pass is already queued behind the running one */
+                return;
+            } else if (current == RUNNING) {
+                if (state.compareAndSet(RUNNING, RUNNING_QUEUED)) {
+                    return;
+                }
+            } else if (state.compareAndSet(IDLE, RUNNING)) {
+                try {
+                    executor.execute(drain);
+                } catch (RejectedExecutionException e) {
+                    /** Executor is shut down, nothing will run */
+                    state.set(IDLE);
+                }
+                return;
+            }
+        }
+    }
+
+    /** Get the number of requested passes */
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    /** Get the number of passes actually run */
+    public long getPassCount() {
+        return passes.get();
+    }
+}
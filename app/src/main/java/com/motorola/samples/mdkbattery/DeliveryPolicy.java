@@ -0,0 +1,82 @@
+/**
+ * Copyright (c) 2016 Motorola Mobility, LLC.
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.motorola.samples.mdkbattery;
+
+/**
+ * A class to describe how snapshots are delivered to a subscriber which cannot
+ * keep up with them.
+ */
+public final class DeliveryPolicy {
+    /** Only the latest snapshot is kept while the subscriber is busy */
+    public static final int LATEST = 0;
+
+    /** Up to a number of snapshots are kept, the oldest are dropped beyond it */
+    public static final int BOUNDED = 1;
+
+    /** The latest snapshot is delivered at most once per period, if it changed */
+    public static final int SAMPLE = 2;
+
+    public final int type;
+
+    /** Number of kept snapshots for BOUNDED */
+    public final int capacity;
+
+    /** Period in ms for SAMPLE */
+    public final long period;
+
+    private static final DeliveryPolicy LATEST_POLICY = new DeliveryPolicy(LATEST, 1, 0);
+
+    private DeliveryPolicy(int type, int capacity, long period) {
+        this.type = type;
+        this.capacity = capacity;
+        this.period = period;
+    }
+
+    /** Conflate to the latest snapshot */
+    public static DeliveryPolicy latest() {
+        return LATEST_POLICY;
+    }
+
+    /** Keep up to capacity snapshots, dropping the oldest */
+    public static DeliveryPolicy bounded(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity " + capacity);
+        }
+        return new DeliveryPolicy(BOUNDED, capacity, 0);
+    }
+
+    /** Deliver the latest snapshot at a fixed rate */
+    public static DeliveryPolicy sample(long period) {
+        if (period <= 0) {
+            throw new IllegalArgumentException("period " + period);
+        }
+        return new DeliveryPolicy(SAMPLE, 1, period);
+    }
+}
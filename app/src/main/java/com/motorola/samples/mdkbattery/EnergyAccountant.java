@@ -0,0 +1,240 @@
+/**
+ * Copyright (c) 2016 Motorola Mobility, LLC.
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.motorola.samples.mdkbattery;
+
+/**
+ * A class to account the charge moved between the mod battery and the phone
+ * battery. Level deltas are turned into charge with the full capacity of each
+ * battery, in integer micro-ampere-hours, so long sessions add up exactly.
+ * <p/>
+ * A session lasts as long as the phone plug type, the mod plug state and the
+ * efficiency mode stay the same, and a mod battery is attached. The recent
+ * sessions are kept in a ring of primitive arrays.
+ */
+public class EnergyAccountant {
+    public static final int DEFAULT_CAPACITY = 256;
+
+    /** Efficiency not available */
+    public static final int UNKNOWN = -1;
+
+    /** Packed flags of a session, the same layout as BatteryHistory samples */
+    private static final int FLAG_CORE_PLUGGED_MASK = 0x07;
+    private static final int FLAG_MOD_PLUGGED = 1 << 3;
+    private static final int FLAG_EFFICIENCY_ON = 1 << 4;
+
+    /** Micro-ampere-hours per percent of one milli-ampere-hour capacity */
+    private static final int UAH_PER_PERCENT_MAH = 10;
+
+    private final int capacity;
+
+    /** Session columns, the session with sequence number n is at n % capacity */
+    private final long[] start;
+    private final long[] end;
+    private final byte[] flags;
+    private final long[] modDelivered;
+    private final long[] modCharged;
+    private final long[] phoneGained;
+    private final long[] phoneUsed;
+
+    /** Number of sessions ever started, the last one is open if open is set */
+    private long count;
+    private boolean open;
+
+    /** Levels at the previous sample of the open session */
+    private int lastCore;
+    private int lastMod;
+
+    /** Sessions copied out by getSessions, oldest first */
+    public static class Sessions {
+        public final long[] start;
+        public final long[] end;
+        public final byte[] flags;
+        public final long[] modDelivered;
+        public final long[] modCharged;
+        public final long[] phoneGained;
+        public final long[] phoneUsed;
+
+        /** Number of copied sessions, the last one may still be open */
+        public int size;
+
+        /** Constructor, holds at most the given number of sessions */
+        public Sessions(int capacity) {
+            start = new long[capacity];
+            end = new long[capacity];
+            flags = new byte[capacity];
+            modDelivered = new long[capacity];
+            modCharged = new long[capacity];
+            phoneGained = new long[capacity];
+            phoneUsed = new long[capacity];
+        }
+
+        public int capacity() {
+            return start.length;
+        }
+
+        /** Get the phone plug type, as BatteryManager.BATTERY_PLUGGED_* */
+        public int getCorePlugged(int i) {
+            return flags[i] & FLAG_CORE_PLUGGED_MASK;
+        }
+
+        /** Whether the phone was powered by the mod battery */
+        public boolean isModPlugged(int i) {
+            return (flags[i] & FLAG_MOD_PLUGGED) != 0;
+        }
+
+        public boolean isEfficiencyOn(int i) {
+            return (flags[i] & FLAG_EFFICIENCY_ON) != 0;
+        }
+
+        /** Get the charge the phone gained per charge the mod delivered, in per mille */
+        public int getEfficiency(int i) {
+            return efficiency(phoneGained[i], modDelivered[i]);
+        }
+    }
+
+    /** Constructor */
+    public EnergyAccountant(int capacity) {
+        this.capacity = capacity;
+        start = new long[capacity];
+        end = new long[capacity];
+        flags = new byte[capacity];
+        modDelivered = new long[capacity];
+        modCharged = new long[capacity];
+        phoneGained = new long[capacity];
+        phoneUsed = new long[capacity];
+    }
+
+    /**
+     * Add a sample. Capacities are in mAh, 0 if unknown, and the mod level is
+     * BatteryHistory.NO_MOD without a mod battery. Level changes are not credited
+     * until both capacities are known, so a session never counts one side only.
+     */
+    public synchronized void add(long time, int coreLevel, long coreCapFull, int corePlugged,
+                                 int modLevel, long modCapFull, boolean modPlugged,
+                                 boolean efficiencyOn) {
+        if (modLevel < 0) {
+            /** Mod battery detached, the open session ends with its last sample */
+            open = false;
+            return;
+        }
+
+        byte sessionFlags = (byte) ((corePlugged & FLAG_CORE_PLUGGED_MASK)
+                | (modPlugged ? FLAG_MOD_PLUGGED : 0)
+                | (efficiencyOn ? FLAG_EFFICIENCY_ON : 0));
+        int i = (int) ((count - 1 + capacity) % capacity);
+        if (!open || flags[i] != sessionFlags) {
+            /** Plug or efficiency mode changed, start a new session */
+            i = (int) (count % capacity);
+            count++;
+            open = true;
+            start[i] = time;
+            end[i] = time;
+            flags[i] = sessionFlags;
+            modDelivered[i] = 0;
+            modCharged[i] = 0;
+            phoneGained[i] = 0;
+            phoneUsed[i] = 0;
+            lastCore = coreLevel;
+            lastMod = modLevel;
+            return;
+        }
+
+        if (coreCapFull <= 0 || modCapFull <= 0) {
+            end[i] = time;
+            lastCore = coreLevel;
+            lastMod = modLevel;
+            return;
+        }
+
+        long core = (long) (coreLevel - lastCore) * coreCapFull * UAH_PER_PERCENT_MAH;
+        long mod = (long) (modLevel - lastMod) * modCapFull * UAH_PER_PERCENT_MAH;
+        if (core > 0) {
+            phoneGained[i] += core;
+        } else {
+            phoneUsed[i] -= core;
+        }
+        if (mod > 0) {
+            modCharged[i] += mod;
+        } else {
+            modDelivered[i] -= mod;
+        }
+        end[i] = time;
+        lastCore = coreLevel;
+        lastMod = modLevel;
+    }
+
+    /** Get the number of sessions ever started */
+    public synchronized long getCount() {
+        return count;
+    }
+
+    /** Copy the most recent sessions, as many as fit in out, oldest first */
+    public synchronized int getSessions(Sessions out) {
+        int n = (int) Math.min(Math.min(count, capacity), out.capacity());
+        for (int k = 0; k < n; k++) {
+            int i = (int) ((count - n + k) % capacity);
+            out.start[k] = start[i];
+            out.end[k] = end[i];
+            out.flags[k] = flags[i];
+            out.modDelivered[k] = modDelivered[i];
+            out.modCharged[k] = modCharged[i];
+            out.phoneGained[k] = phoneGained[i];
+            out.phoneUsed[k] = phoneUsed[i];
+        }
+        out.size = n;
+        return n;
+    }
+
+    /**
+     * Get the charge the phone gained per charge the mod delivered over the held
+     * sessions powered by the mod, with efficiency mode on or off, in per mille.
+     */
+    public synchronized int getTransferEfficiency(boolean efficiencyOn) {
+        long gained = 0;
+        long delivered = 0;
+        int n = (int) Math.min(count, capacity);
+        for (int k = 0; k < n; k++) {
+            int i = (int) ((count - 1 - k) % capacity);
+            if ((flags[i] & FLAG_MOD_PLUGGED) != 0
+                    && ((flags[i] & FLAG_EFFICIENCY_ON) != 0) == efficiencyOn) {
+                gained += phoneGained[i];
+                delivered += modDelivered[i];
+            }
+        }
+        return efficiency(gained, delivered);
+    }
+
+    private static int efficiency(long gained, long delivered) {
+        if (delivered <= 0) {
+            return UNKNOWN;
+        }
+        return (int) (gained * 1000 / delivered);
+    }
+}
@@ -0,0 +1,374 @@
+/**
+ * Copyright (c) 2016 Motorola Mobility, LLC.
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.motorola.samples.mdkbattery;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.zip.CRC32;
+
+/**
+ * A class to push a firmware image to a mod device in fixed-size chunks. The image
+ * is memory-mapped, each chunk carries its CRC32, and at most a window of chunks is
+ * sent ahead of the acknowledged offset. A rejected or lost chunk resends from the
+ * acknowledged offset. The acknowledged offset is saved periodically and on stop,
+ * so an update interrupted by a detach resumes where the mod device left off.
+ * <p/>
+ * Methods could be called on any thread, the endpoint and listener are called
+ * with the updater locked. Acknowledgements are only queued on the calling thread
+ * and handled on the executor, so the reader of the mod device never waits for a
+ * blocking send, which itself may wait for the reader.
+ */
+public class FirmwareUpdater {
+    public static final int DEFAULT_CHUNK_SIZE = 1024;
+    public static final int DEFAULT_WINDOW = 8;
+
+    /** Resends of the same chunk before giving up */
+    public static final int MAX_RETRIES = 3;
+
+    /** Save the acknowledged offset every so many chunks */
+    public static final int PERSIST_CHUNKS = 64;
+
+    public static final int RESULT_SUCCESS = 0;
+    public static final int RESULT_FAILED = 1;
+    public static final int RESULT_IO_ERROR = 2;
+    public static final int RESULT_STOPPED = 3;
+
+    /** Interface to the mod device receiving the image */
+    public interface Endpoint {
+        /** Send a chunk, the data array is reused once this returns */
+        void send(long offset, byte[] data, int length, int crc) throws IOException;
+
+        /** Ask the mod device to verify and apply the whole image */
+        void finish(long size, int imageCrc) throws IOException;
+    }
+
+    /** Interface to receive the update progress */
+    public interface Listener {
+        void onProgress(long offset, long size);
+
+        /** Called once, with a RESULT_* */
+        void onDone(int result);
+    }
+
+    private final File image;
+    private final UUID deviceId;
+    private final UpdateStore store;
+    private final Endpoint endpoint;
+    private final Listener listener;
+    private final Executor executor;
+    private final int chunkSize;
+    private final int window;
+
+    private final byte[] chunk;
+    private final CRC32 crc = new CRC32();
+
+    private MappedByteBuffer mapped;
+    private long size;
+    private int imageCrc;
+
+    /** First byte not acknowledged, and first byte not sent */
+    private long acked;
+    private long next;
+
+    private int retries;
+    private int ackedChunks;
+    private boolean running;
+    private boolean pumping;
+
+    /** Statistics */
+    private long sentChunks;
+    private long resentChunks;
+
+    /** Acknowledgements not handled yet, each offset * 2 + 1 if ok, guarded by ackLock */
+    private final Object ackLock = new Object();
+    private long[] pendingAcks = new long[16];
+    private long[] handledAcks = new long[16];
+    private int pendingCount;
+
+    /** Whether the acknowledgements are being handled, guarded by the updater */
+    private boolean handling;
+
+    private final Runnable handleAcks = new Runnable() {
+        @Override
+        public void run() {
+            handleAcks();
+        }
+    };
+
+    /** Constructor, acknowledgements are handled on the executor */
+    public FirmwareUpdater(File image, UUID deviceId, UpdateStore store, Endpoint endpoint,
+                           Listener listener, Executor executor, int chunkSize, int window) {
+        this.image = image;
+        this.deviceId = deviceId;
+        this.store = store;
+        this.endpoint = endpoint;
+        this.listener = listener;
+        this.executor = executor;
+        this.chunkSize = chunkSize;
+        this.window = window;
+        chunk = new byte[chunkSize];
+    }
+
+    /**
+     * Map the image and start sending, from the saved offset if the same image was
+     * interrupted before. Returns the offset the update starts from.
+     */
+    public synchronized long start() throws IOException {
+        FileInputStream in = new FileInputStream(image);
+        try {
+            FileChannel channel = in.getChannel();
+            size = channel.size();
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        } finally {
+            in.close();
+        }
+
+        /** Identify the image, to resume only the same image */
+        crc.reset();
+        for (long p = 0; p < size; p += chunkSize) {
+            int length = (int) Math.min(chunkSize, size - p);
+            mapped.position((int) p);
+            mapped.get(chunk, 0, length);
+            crc.update(chunk, 0, length);
+        }
+        imageCrc = (int) crc.getValue();
+
+        UpdateStore.Progress progress = store.read(deviceId);
+        acked = 0;
+        if (null != progress && progress.imageSize == size && progress.imageCrc == imageCrc
+                && progress.offset <= size) {
+            acked = progress.offset;
+        }
+        next = acked;
+        retries = 0;
+        running = true;
+        Log.i(Constants.TAG, "FirmwareUpdater - " + size + " bytes from " + acked);
+
+        long from = acked;
+        listener.onProgress(acked, size);
+        if (acked == size) {
+            complete();
+        } else {
+            pump();
+        }
+        return from;
+    }
+
+    /**
+     * A chunk was acknowledged, or rejected if ok is false. Only queued here, without
+     * locking the updater, the next chunks are sent on the executor.
+     */
+    public void onAck(long offset, boolean ok) {
+        boolean first;
+        synchronized (ackLock) {
+            if (pendingCount == pendingAcks.length) {
+                pendingAcks = Arrays.copyOf(pendingAcks, pendingCount * 2);
+            }
+            pendingAcks[pendingCount++] = offset << 1 | (ok ? 1 : 0);
+            first = pendingCount == 1;
+        }
+
+        if (first) {
+            executor.execute(handleAcks);
+        }
+    }
+
+    /** Handle the queued acknowledgements, on the executor */
+    private synchronized void handleAcks() {
+        if (handling) {
+            /** Called back from the endpoint, the running loop goes on */
+            return;
+        }
+
+        handling = true;
+        try {
+            while (true) {
+                long[] acks;
+                int count;
+                synchronized (ackLock) {
+                    acks = pendingAcks;
+                    count = pendingCount;
+                    pendingAcks = handledAcks;
+                    pendingCount = 0;
+                    handledAcks = acks;
+                }
+                if (count == 0) {
+                    break;
+                }
+
+                for (int i = 0; i < count; i++) {
+                    handleAck(acks[i] >> 1, (acks[i] & 1) != 0);
+                }
+            }
+        } finally {
+            handling = false;
+        }
+    }
+
+    private void handleAck(long offset, boolean ok) {
+        if (!running || offset != acked) {
+            /** Stale acknowledgement of a chunk already resent */
+            return;
+        }
+
+        if (!ok) {
+            resend();
+            return;
+        }
+
+        acked += Math.min(chunkSize, size - acked);
+        retries = 0;
+        if (++ackedChunks % PERSIST_CHUNKS == 0) {
+            persist();
+        }
+        listener.onProgress(acked, size);
+
+        if (acked == size) {
+            complete();
+        } else {
+            pump();
+        }
+    }
+
+    /** No acknowledgement came in time, resend from the acknowledged offset */
+    public synchronized void onTimeout() {
+        if (running && next > acked) {
+            resend();
+        }
+    }
+
+    /** Stop, e.g. on detach, keeping the progress to resume later */
+    public synchronized void stop() {
+        if (running) {
+            persist();
+            done(RESULT_STOPPED);
+        }
+    }
+
+    public synchronized boolean isRunning() {
+        return running;
+    }
+
+    /** Get the first byte not acknowledged */
+    public synchronized long getAckedOffset() {
+        return acked;
+    }
+
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /** Get the number of chunks sent, including resent ones */
+    public synchronized long getSentCount() {
+        return sentChunks;
+    }
+
+    public synchronized long getResentCount() {
+        return resentChunks;
+    }
+
+    /** Send chunks until the window is full */
+    private void pump() {
+        if (pumping) {
+            /** Called back from the endpoint, the running loop goes on */
+            return;
+        }
+
+        pumping = true;
+        try {
+            while (running && next < size && next - acked < (long) window * chunkSize) {
+                long offset = next;
+                int length = (int) Math.min(chunkSize, size - offset);
+                mapped.position((int) offset);
+                mapped.get(chunk, 0, length);
+                crc.reset();
+                crc.update(chunk, 0, length);
+
+                next = offset + length;
+                sentChunks++;
+                endpoint.send(offset, chunk, length, (int) crc.getValue());
+            }
+        } catch (IOException e) {
+            Log.e(Constants.TAG, "FirmwareUpdater - send failed", e);
+            persist();
+            done(RESULT_IO_ERROR);
+        } finally {
+            pumping = false;
+        }
+    }
+
+    /** Go back to the acknowledged offset */
+    private void resend() {
+        if (++retries > MAX_RETRIES) {
+            Log.e(Constants.TAG, "FirmwareUpdater - chunk at " + acked + " failed");
+            persist();
+            done(RESULT_FAILED);
+            return;
+        }
+
+        resentChunks += (next - acked + chunkSize - 1) / chunkSize;
+        next = acked;
+        pump();
+    }
+
+    private void complete() {
+        try {
+            endpoint.finish(size, imageCrc);
+            store.clear(deviceId);
+            done(RESULT_SUCCESS);
+        } catch (IOException e) {
+            Log.e(Constants.TAG, "FirmwareUpdater - finish failed", e);
+            persist();
+            done(RESULT_IO_ERROR);
+        }
+    }
+
+    private void persist() {
+        try {
+            store.write(deviceId, new UpdateStore.Progress(size, imageCrc, acked));
+        } catch (IOException e) {
+            Log.e(Constants.TAG, "FirmwareUpdater - failed to save progress", e);
+        }
+    }
+
+    private void done(int result) {
+        running = false;
+        mapped = null;
+        listener.onDone(result);
+    }
+}
@@ -0,0 +1,89 @@
+/**
+ * Copyright (c) 2016 Motorola Mobility, LLC.
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.motorola.samples.mdkbattery;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+/**
+ * A class to persist the BatteryHealth of each mod device, one small file per
+ * unique ID, so counting resumes after a restart without replaying history:
+ * <pre>
+ *   int    magic, int version
+ *   ...    BatteryHealth state
+ *   int    CRC32 of all previous bytes
+ * </pre>
+ * Each file is a ChecksummedFile.
+ */
+public class HealthStore {
+    private static final int MAGIC = 0x4d444b43;
+    private static final int VERSION = 1;
+
+    static final int SIZE = 4 + 4 + BatteryHealth.ENCODED_SIZE + ChecksummedFile.CRC_SIZE;
+
+    private final File dir;
+
+    /** Constructor */
+    public HealthStore(File dir) {
+        this.dir = dir;
+    }
+
+    /** Read the state of a mod device, a new one if none or invalid */
+    public BatteryHealth read(UUID id) {
+        ChecksummedFile file = file(id);
+        ByteBuffer buffer = file.read();
+        if (null == buffer) {
+            return new BatteryHealth();
+        }
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            Log.w(Constants.TAG, "HealthStore - invalid " + file.getFile());
+            return new BatteryHealth();
+        }
+        return BatteryHealth.decode(buffer);
+    }
+
+    /** Save the state of a mod device, replacing the previous file atomically */
+    public void write(UUID id, BatteryHealth health) throws IOException {
+        ChecksummedFile file = file(id);
+        ByteBuffer buffer = file.allocate();
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        health.encode(buffer);
+        file.write(buffer);
+    }
+
+    private ChecksummedFile file(UUID id) {
+        return new ChecksummedFile(new File(dir, id.toString() + ".bin"), SIZE);
+    }
+}
@@ -0,0 +1,509 @@
+/**
+ * Copyright (c) 2016 Motorola Mobility, LLC.
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.motorola.samples.mdkbattery;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.CRC32;
+
+/**
+ * A class to persist battery samples in append-only segment files. The segment
+ * being written is memory mapped, records are appended in batches and made
+ * durable together by commit. Full segments are sealed and a new one is started,
+ * segments older than the retention are deleted. Each segment file has a fixed
+ * layout:
+ * <pre>
+ *   int    magic, int version, int record size, int capacity in records
+ *   16     reserved
+ *   2 x    int generation, int record count, int CRC32 of the records,
+ *          int CRC32 of the slot                  (header slots A and B)
+ *   n x    long time, byte core level, byte mod level, byte statuses,
+ *          byte flags, int reserved               (records, see BatteryHistory)
+ * </pre>
+ * A commit writes the header slot not written last, so a crash while writing it
+ * leaves the other one valid. The records checksum detects records which did not
+ * reach the disk; recovery then falls back to the older slot.
+ * <p/>
+ * Not thread safe, all calls must be made on one thread.
+ */
+public class HistoryLog {
+    private static final int MAGIC = 0x4d444b48;
+    private static final int VERSION = 1;
+
+    static final int RECORD_SIZE = 16;
+    static final int HEADER_SIZE = 64;
+    private static final int SLOT_OFFSET = 32;
+    private static final int SLOT_SIZE = 16;
+
+    /** One day of 1 Hz samples per segment */
+    public static final int DEFAULT_SEGMENT_RECORDS = 24 * 3600;
+
+    /** Keep about a month of samples */
+    public static final long DEFAULT_RETENTION = 31L * 24 * 3600 * 1000;
+
+    private static final String SUFFIX = ".seg";
+
+    /** Records encoded per batch before they are copied into the segment */
+    private static final int BATCH_RECORDS = 256;
+
+    /** Segment bookkeeping, the records of sealed segments are only read on demand */
+    private static class Segment {
+        final long index;
+        final File file;
+        int count;
+        long lastTime;
+
+        Segment(long index, File file) {
+            this.index = index;
+            this.file = file;
+        }
+    }
+
+    private final File dir;
+    private final int segmentRecords;
+    private final long retention;
+
+    /** Segments oldest first, the last one is the tail being written */
+    private final List<Segment> segments = new ArrayList<>();
+
+    /** Tail segment state */
+    private Segment tail;
+    private RandomAccessFile tailFile;
+    private MappedByteBuffer tailBuffer;
+    private final CRC32 tailCrc = new CRC32();
+    private int tailGeneration;
+    private boolean dirty;
+
+    private final byte[] batch = new byte[BATCH_RECORDS * RECORD_SIZE];
+    private final ByteBuffer batchBuffer = ByteBuffer.wrap(batch);
+
+    /** Number of records in all segments */
+    private long count;
+
+    /** Number of records dropped on recovery as they were not committed */
+    private int recoveryDropped;
+
+    /** Constructor */
+    public HistoryLog(File dir, int segmentRecords, long retention) {
+        this.dir = dir;
+        this.segmentRecords = segmentRecords;
+        this.retention = retention;
+    }
+
+    /** Open the log, recovering the tail segment to its last complete commit */
+    public void open() throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Failed to create " + dir);
+        }
+
+        File[] files = dir.listFiles();
+        long[] indexes = new long[null == files ? 0 : files.length];
+        int n = 0;
+        for (int i = 0; null != files && i < files.length; i++) {
+            String name = files[i].getName();
+            if (name.endsWith(SUFFIX)) {
+                try {
+                    indexes[n++] = Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+                } catch (NumberFormatException e) {
+                    Log.w(Constants.TAG, "HistoryLog - ignore " + name);
+                }
+            }
+        }
+        Arrays.sort(indexes, 0, n);
+
+        for (int i = 0; i < n; i++) {
+            Segment segment = new Segment(indexes[i], segmentFile(indexes[i]));
+            if (i < n - 1) {
+                readSealed(segment);
+                if (segment.count > 0) {
+                    segments.add(segment);
+                    count += segment.count;
+                } else if (!segment.file.delete()) {
+                    Log.w(Constants.TAG, "HistoryLog - failed to delete " + segment.file);
+                }
+            } else {
+                openTail(segment, false);
+            }
+        }
+    }
+
+    /** Get the number of records in the log */
+    public long getCount() {
+        return count;
+    }
+
+    /** Get the number of segment files */
+    public int getSegmentCount() {
+        return segments.size();
+    }
+
+    /** Get the number of records dropped by the last recovery */
+    public int getRecoveryDropped() {
+        return recoveryDropped;
+    }
+
+    /**
+     * Append samples, durable only after the next commit. Starts a new segment
+     * when the tail one is full.
+     */
+    public void append(BatteryHistory.Samples samples, int from, int n) throws IOException {
+        int end = from + n;
+        while (from < end) {
+            if (null == tail || tail.count == segmentRecords) {
+                roll(samples.times[from]);
+            }
+
+            int chunk = Math.min(end - from, Math.min(BATCH_RECORDS, segmentRecords - tail.count));
+            batchBuffer.clear();
+            for (int i = from; i < from + chunk; i++) {
+                batchBuffer.putLong(samples.times[i]);
+                batchBuffer.put(samples.coreLevels[i]);
+                batchBuffer.put(samples.modLevels[i]);
+                batchBuffer.put(samples.statuses[i]);
+                batchBuffer.put(samples.flags[i]);
+                batchBuffer.putInt(0);
+            }
+
+            int length = chunk * RECORD_SIZE;
+            tailBuffer.position(HEADER_SIZE + tail.count * RECORD_SIZE);
+            tailBuffer.put(batch, 0, length);
+            tailCrc.update(batch, 0, length);
+
+            tail.count += chunk;
+            tail.lastTime = samples.times[from + chunk - 1];
+            count += chunk;
+            dirty = true;
+            from += chunk;
+        }
+    }
+
+    /** Make the appended records durable with one header update and one sync */
+    public void commit() {
+        if (!dirty) {
+            return;
+        }
+
+        tailGeneration++;
+        writeSlot(tailBuffer, tailGeneration, tail.count, (int) tailCrc.getValue());
+        tailBuffer.force();
+        dirty = false;
+    }
+
+    /** Commit and release the tail segment */
+    public void close() throws IOException {
+        if (null != tail) {
+            commit();
+            tailBuffer = null;
+            tailFile.close();
+            tailFile = null;
+            tail = null;
+        }
+        segments.clear();
+        count = 0;
+    }
+
+    /**
+     * Copy the records from the given wall clock time on, as many as fit in out.
+     * Segments failing their checksum are skipped. Returns the number of records.
+     */
+    public int read(long fromTime, BatteryHistory.Samples out) throws IOException {
+        out.size = 0;
+        out.first = -1;
+        long seq = 0;
+        for (Segment segment : segments) {
+            if (out.size == out.capacity()) {
+                break;
+            }
+            if (segment.count == 0 || segment.lastTime < fromTime) {
+                seq += segment.count;
+                continue;
+            }
+
+            ByteBuffer records;
+            if (segment == tail) {
+                records = tailBuffer.duplicate();
+            } else {
+                records = readFile(segment.file);
+                if (null == records || validSlot(records) < 0) {
+                    Log.w(Constants.TAG, "HistoryLog - skip corrupt " + segment.file);
+                    seq += segment.count;
+                    continue;
+                }
+            }
+
+            for (int i = 0; i < segment.count && out.size < out.capacity(); i++) {
+                int pos = HEADER_SIZE + i * RECORD_SIZE;
+                long time = records.getLong(pos);
+                if (time < fromTime) {
+                    continue;
+                }
+                if (out.size == 0) {
+                    out.first = seq + i;
+                }
+                int k = out.size++;
+                out.times[k] = time;
+                out.coreLevels[k] = records.get(pos + 8);
+                out.modLevels[k] = records.get(pos + 9);
+                out.statuses[k] = records.get(pos + 10);
+                out.flags[k] = records.get(pos + 11);
+            }
+            seq += segment.count;
+        }
+        return out.size;
+    }
+
+    /** Seal the tail segment, start a new one and delete the expired ones */
+    private void roll(long now) throws IOException {
+        long index = 0;
+        if (null != tail) {
+            commit();
+            index = tail.index + 1;
+            tailBuffer = null;
+            tailFile.close();
+            tailFile = null;
+            tail = null;
+        } else if (!segments.isEmpty()) {
+            index = segments.get(segments.size() - 1).index + 1;
+        }
+
+        ageOut(now);
+        openTail(new Segment(index, segmentFile(index)), true);
+    }
+
+    /** Delete the sealed segments whose newest record is older than the retention */
+    private void ageOut(long now) {
+        while (!segments.isEmpty()) {
+            Segment oldest = segments.get(0);
+            if (oldest == tail || now - oldest.lastTime <= retention) {
+                break;
+            }
+            if (!oldest.file.delete()) {
+                Log.w(Constants.TAG, "HistoryLog - failed to delete " + oldest.file);
+                break;
+            }
+            segments.remove(0);
+            count -= oldest.count;
+        }
+    }
+
+    /** Map the tail segment, creating it or recovering its last commit */
+    private void openTail(Segment segment, boolean create) throws IOException {
+        long size = HEADER_SIZE + (long) segmentRecords * RECORD_SIZE;
+        tailFile = new RandomAccessFile(segment.file, "rw");
+        if (create || tailFile.length() < HEADER_SIZE) {
+            create = true;
+            tailFile.setLength(size);
+        }
+        tailBuffer = tailFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+                Math.max(size, tailFile.length()));
+        tailCrc.reset();
+        tail = segment;
+        segments.add(segment);
+
+        if (create) {
+            tailBuffer.putInt(0, MAGIC);
+            tailBuffer.putInt(4, VERSION);
+            tailBuffer.putInt(8, RECORD_SIZE);
+            tailBuffer.putInt(12, segmentRecords);
+            tailGeneration = 0;
+            segment.count = 0;
+            dirty = true;
+            commit();
+            return;
+        }
+
+        /** Recover the newest slot whose records checksum matches, and resume the CRC */
+        int slot = validSlot(tailBuffer);
+        int newest = Math.max(generation(tailBuffer, 0), generation(tailBuffer, 1));
+        int dropped = 0;
+        if (slot < 0) {
+            Log.w(Constants.TAG, "HistoryLog - no valid commit in " + segment.file);
+            tailGeneration = Math.max(0, newest);
+            segment.count = 0;
+        } else {
+            segment.count = slotCount(tailBuffer, slot);
+            if (slotValid(tailBuffer, 1 - slot)) {
+                dropped = slotCount(tailBuffer, 1 - slot) - segment.count;
+            }
+            crc(tailBuffer, segment.count, tailCrc);
+
+            /** The next commit must go to the other slot, never over the recovered one */
+            tailGeneration = Math.max(newest, generation(tailBuffer, slot) + 1);
+            if (((tailGeneration + 1) & 1) == slot) {
+                tailGeneration++;
+            }
+        }
+        recoveryDropped = Math.max(0, dropped);
+        if (segment.count > 0) {
+            segment.lastTime = tailBuffer.getLong(HEADER_SIZE + (segment.count - 1) * RECORD_SIZE);
+        }
+        count += segment.count;
+
+        /** Make the recovered state the newest commit */
+        dirty = true;
+        commit();
+    }
+
+    /** Read the record count and the newest time of a sealed segment */
+    private void readSealed(Segment segment) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        RandomAccessFile file = new RandomAccessFile(segment.file, "r");
+        try {
+            if (file.length() < HEADER_SIZE) {
+                return;
+            }
+            file.readFully(header.array());
+            int slot = checkedSlot(header);
+            if (slot < 0) {
+                return;
+            }
+            segment.count = slotCount(header, slot);
+            if (segment.count > 0) {
+                file.seek(HEADER_SIZE + (long) (segment.count - 1) * RECORD_SIZE);
+                segment.lastTime = file.readLong();
+            }
+        } finally {
+            file.close();
+        }
+    }
+
+    /** Get the newest slot with valid fields and records checksum, -1 if none */
+    private static int validSlot(ByteBuffer buffer) {
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION
+                || buffer.getInt(8) != RECORD_SIZE) {
+            return -1;
+        }
+
+        int first = generation(buffer, 0) >= generation(buffer, 1) ? 0 : 1;
+        CRC32 crc = new CRC32();
+        for (int slot = first, tries = 0; tries < 2; slot = 1 - slot, tries++) {
+            if (!slotValid(buffer, slot)) {
+                continue;
+            }
+            int n = slotCount(buffer, slot);
+            if (HEADER_SIZE + (long) n * RECORD_SIZE > buffer.limit()) {
+                continue;
+            }
+            crc.reset();
+            crc(buffer, n, crc);
+            if ((int) crc.getValue() == buffer.getInt(slotOffset(slot) + 8)) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    /** Get the newest slot with valid fields, not checking the records */
+    private static int checkedSlot(ByteBuffer header) {
+        if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+            return -1;
+        }
+        int first = generation(header, 0) >= generation(header, 1) ? 0 : 1;
+        if (slotValid(header, first)) {
+            return first;
+        }
+        return slotValid(header, 1 - first) ? 1 - first : -1;
+    }
+
+    private static void crc(ByteBuffer buffer, int n, CRC32 crc) {
+        byte[] bytes = new byte[BATCH_RECORDS * RECORD_SIZE];
+        ByteBuffer source = buffer.duplicate();
+        source.position(HEADER_SIZE);
+        int remaining = n * RECORD_SIZE;
+        while (remaining > 0) {
+            int length = Math.min(remaining, bytes.length);
+            source.get(bytes, 0, length);
+            crc.update(bytes, 0, length);
+            remaining -= length;
+        }
+    }
+
+    private static void writeSlot(ByteBuffer buffer, int generation, int n, int recordsCrc) {
+        int offset = slotOffset(generation & 1);
+        buffer.putInt(offset, generation);
+        buffer.putInt(offset + 4, n);
+        buffer.putInt(offset + 8, recordsCrc);
+        buffer.putInt(offset + 12, slotCrc(buffer, offset));
+    }
+
+    private static boolean slotValid(ByteBuffer buffer, int slot) {
+        int offset = slotOffset(slot);
+        return buffer.getInt(offset + 12) == slotCrc(buffer, offset)
+                && buffer.getInt(offset) > 0 && buffer.getInt(offset + 4) >= 0;
+    }
+
+    private static int slotCrc(ByteBuffer buffer, int offset) {
+        CRC32 crc = new CRC32();
+        for (int i = 0; i < SLOT_SIZE - 4; i++) {
+            crc.update(buffer.get(offset + i));
+        }
+        return (int) crc.getValue();
+    }
+
+    private static int slotOffset(int slot) {
+        return SLOT_OFFSET + slot * SLOT_SIZE;
+    }
+
+    private static int generation(ByteBuffer buffer, int slot) {
+        return buffer.getInt(slotOffset(slot));
+    }
+
+    private static int slotCount(ByteBuffer buffer, int slot) {
+        return buffer.getInt(slotOffset(slot) + 4);
+    }
+
+    private File segmentFile(long index) {
+        return new File(dir, String.format(Locale.US, "%012d", index) + SUFFIX);
+    }
+
+    private static ByteBuffer readFile(File file) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            if (in.length() < HEADER_SIZE || in.length() > Integer.MAX_VALUE) {
+                return null;
+            }
+            byte[] bytes = new byte[(int) in.length()];
+            in.readFully(bytes);
+            return ByteBuffer.wrap(bytes);
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,298 @@
+/**
+ * Copyright (c) 2016 Motorola Mobility, LLC.
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.motorola.samples.mdkbattery;
+
+import android.os.BatteryManager;
+
+/**
+ * A class to aggregate battery samples into per-minute, per-hour and per-day
+ * buckets as they come. Each tier is a ring of buckets in primitive arrays, so
+ * adding a sample is O(1) per tier and old buckets are overwritten once out of
+ * the tier retention. Buckets are aligned on UTC boundaries of the wall clock.
+ * The tiers live in memory only, they are rebuilt from the history log, so none
+ * reaches further back than the log keeps samples.
+ * <p/>
+ * The time between two samples is credited to the bucket of the first one, as
+ * charging if the phone battery was charging, and as transfer if the phone was
+ * powered by the mod battery. Gaps longer than MAX_GAP are not credited.
+ */
+public class HistoryRollup {
+    public static final long MINUTE = 60 * 1000;
+    public static final long HOUR = 60 * MINUTE;
+    public static final long DAY = 24 * HOUR;
+
+    /** Longest time between two samples credited to charging or transfer */
+    public static final long MAX_GAP = 10 * MINUTE;
+
+    public static final int TIER_MINUTE = 0;
+    public static final int TIER_HOUR = 1;
+    public static final int TIER_DAY = 2;
+
+    private static final long[] WIDTHS = {MINUTE, HOUR, DAY};
+
+    /** Retention of each tier: two days, then the month the history log keeps */
+    private static final int[] CAPACITIES = {2 * 24 * 60,
+            (int) (HistoryLog.DEFAULT_RETENTION / HOUR), (int) (HistoryLog.DEFAULT_RETENTION / DAY)};
+
+    /** No level aggregated in a bucket */
+    private static final int NONE = -1;
+
+    /** A ring of buckets of one width */
+    private static class Tier {
+        final long width;
+        final int capacity;
+
+        /** Bucket index, time / width, of each slot, -1 if empty */
+        final long[] index;
+        final byte[] coreMin;
+        final byte[] coreMax;
+        final int[] coreSum;
+        final int[] coreCount;
+        final byte[] modMin;
+        final byte[] modMax;
+        final int[] modSum;
+        final int[] modCount;
+        final long[] chargingTime;
+        final long[] transferTime;
+
+        /** Newest bucket index added to */
+        long newest = -1;
+
+        Tier(long width, int capacity) {
+            this.width = width;
+            this.capacity = capacity;
+            index = new long[capacity];
+            coreMin = new byte[capacity];
+            coreMax = new byte[capacity];
+            coreSum = new int[capacity];
+            coreCount = new int[capacity];
+            modMin = new byte[capacity];
+            modMax = new byte[capacity];
+            modSum = new int[capacity];
+            modCount = new int[capacity];
+            chargingTime = new long[capacity];
+            transferTime = new long[capacity];
+            for (int i = 0; i < capacity; i++) {
+                index[i] = -1;
+            }
+        }
+
+        /** Get the slot of a bucket, clearing it if it still holds an older bucket */
+        int slot(long bucket) {
+            int i = (int) (bucket % capacity);
+            if (index[i] != bucket) {
+                index[i] = bucket;
+                coreMin[i] = NONE;
+                coreMax[i] = NONE;
+                coreSum[i] = 0;
+                coreCount[i] = 0;
+                modMin[i] = NONE;
+                modMax[i] = NONE;
+                modSum[i] = 0;
+                modCount[i] = 0;
+                chargingTime[i] = 0;
+                transferTime[i] = 0;
+            }
+            return i;
+        }
+
+        void addLevels(long time, int coreLevel, int modLevel) {
+            long bucket = time / width;
+            if (bucket < newest - capacity + 1) {
+                /** Older than the retention, e.g. the clock was set back */
+                return;
+            }
+            newest = Math.max(newest, bucket);
+
+            int i = slot(bucket);
+            if (coreLevel >= 0) {
+                coreMin[i] = (byte) (coreMin[i] == NONE ? coreLevel : Math.min(coreMin[i], coreLevel));
+                coreMax[i] = (byte) Math.max(coreMax[i], coreLevel);
+                coreSum[i] += coreLevel;
+                coreCount[i]++;
+            }
+            if (modLevel >= 0) {
+                modMin[i] = (byte) (modMin[i] == NONE ? modLevel : Math.min(modMin[i], modLevel));
+                modMax[i] = (byte) Math.max(modMax[i], modLevel);
+                modSum[i] += modLevel;
+                modCount[i]++;
+            }
+        }
+
+        void addTimes(long time, long charging, long transfer) {
+            long bucket = time / width;
+            if (bucket < newest - capacity + 1 || bucket > newest) {
+                return;
+            }
+            int i = slot(bucket);
+            chargingTime[i] += charging;
+            transferTime[i] += transfer;
+        }
+    }
+
+    /** Buckets copied out by query, levels are NONE if no sample had one */
+    public static class Buckets {
+        public final long[] start;
+        public final byte[] coreMin;
+        public final byte[] coreMax;
+        public final byte[] coreMean;
+        public final byte[] modMin;
+        public final byte[] modMax;
+        public final byte[] modMean;
+        public final long[] chargingTime;
+        public final long[] transferTime;
+
+        /** Width of the buckets, the resolution of the selected tier */
+        public long width;
+
+        /** Number of copied buckets, empty buckets are skipped */
+        public int size;
+
+        /** Constructor, holds at most the given number of buckets */
+        public Buckets(int capacity) {
+            start = new long[capacity];
+            coreMin = new byte[capacity];
+            coreMax = new byte[capacity];
+            coreMean = new byte[capacity];
+            modMin = new byte[capacity];
+            modMax = new byte[capacity];
+            modMean = new byte[capacity];
+            chargingTime = new long[capacity];
+            transferTime = new long[capacity];
+        }
+
+        public int capacity() {
+            return start.length;
+        }
+    }
+
+    private final Tier[] tiers = new Tier[WIDTHS.length];
+
+    /** Previous sample, whose state is credited until the next one */
+    private long lastTime = -1;
+    private boolean lastCharging;
+    private boolean lastTransfer;
+
+    /** Constructor */
+    public HistoryRollup() {
+        for (int t = 0; t < tiers.length; t++) {
+            tiers[t] = new Tier(WIDTHS[t], CAPACITIES[t]);
+        }
+    }
+
+    /** Add a sample, levels are 0 to 100 or BatteryHistory.NO_MOD for the mod level */
+    public synchronized void add(long time, int coreLevel, int coreStatus, int modLevel,
+                                 boolean modPlugged) {
+        /** Credit the state of the previous sample to its bucket */
+        if (lastTime >= 0 && time > lastTime && time - lastTime <= MAX_GAP) {
+            long elapsed = time - lastTime;
+            long charging = lastCharging ? elapsed : 0;
+            long transfer = lastTransfer ? elapsed : 0;
+            if (charging != 0 || transfer != 0) {
+                for (Tier tier : tiers) {
+                    tier.addTimes(lastTime, charging, transfer);
+                }
+            }
+        }
+
+        for (Tier tier : tiers) {
+            tier.addLevels(time, coreLevel, modLevel);
+        }
+
+        lastTime = time;
+        lastCharging = coreStatus == BatteryManager.BATTERY_STATUS_CHARGING;
+        lastTransfer = modPlugged && modLevel > 0;
+    }
+
+    /** Add history samples in order, e.g. read back from the history log */
+    public synchronized void add(BatteryHistory.Samples samples) {
+        for (int i = 0; i < samples.size; i++) {
+            add(samples.getTime(i), samples.getCoreLevel(i), samples.getCoreStatus(i),
+                    samples.getModLevel(i), samples.isModPlugged(i));
+        }
+    }
+
+    /** Get the tier a query of the given resolution reads, the coarsest one not coarser */
+    public static int selectTier(long resolution) {
+        int selected = TIER_MINUTE;
+        for (int t = 0; t < WIDTHS.length; t++) {
+            if (WIDTHS[t] <= resolution) {
+                selected = t;
+            }
+        }
+        return selected;
+    }
+
+    /** Get the width of a tier's buckets */
+    public static long getWidth(int tier) {
+        return WIDTHS[tier];
+    }
+
+    /** Get how far back a tier reaches */
+    public static long getRetention(int tier) {
+        return WIDTHS[tier] * CAPACITIES[tier];
+    }
+
+    /**
+     * Copy the non-empty buckets overlapping [from, to) from the coarsest tier not
+     * coarser than the resolution, as many as fit in out. Returns the number of buckets.
+     */
+    public synchronized int query(long from, long to, long resolution, Buckets out) {
+        Tier tier = tiers[selectTier(resolution)];
+        out.width = tier.width;
+        out.size = 0;
+        if (tier.newest < 0 || to <= from) {
+            return 0;
+        }
+
+        long first = Math.max(from / tier.width, tier.newest - tier.capacity + 1);
+        long last = Math.min((to - 1) / tier.width, tier.newest);
+        for (long bucket = first; bucket <= last && out.size < out.capacity(); bucket++) {
+            int i = (int) (bucket % tier.capacity);
+            if (tier.index[i] != bucket) {
+                continue;
+            }
+
+            int k = out.size++;
+            out.start[k] = bucket * tier.width;
+            out.coreMin[k] = tier.coreMin[i];
+            out.coreMax[k] = tier.coreMax[i];
+            out.coreMean[k] = (byte) (tier.coreCount[i] == 0 ? NONE
+                    : Math.round((float) tier.coreSum[i] / tier.coreCount[i]));
+            out.modMin[k] = tier.modMin[i];
+            out.modMax[k] = tier.modMax[i];
+            out.modMean[k] = (byte) (tier.modCount[i] == 0 ? NONE
+                    : Math.round((float) tier.modSum[i] / tier.modCount[i]));
+            out.chargingTime[k] = tier.chargingTime[i];
+            out.transferTime[k] = tier.transferTime[i];
+        }
+        return out.size;
+    }
+}
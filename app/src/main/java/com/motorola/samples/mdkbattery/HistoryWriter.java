@@ -0,0 +1,235 @@
+/**
+ * Copyright (c) 2016 Motorola Mobility, LLC.
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.motorola.samples.mdkbattery;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A class to copy the samples of the in-memory history into the persistent log
+ * on its own thread. Samples are taken from the ring as they come, and committed
+ * in groups at most once per commit delay, so the battery broadcast handling never
+ * waits for the disk.
+ */
+public class HistoryWriter {
+    /** Group the samples of up to a minute into one commit */
+    public static final long DEFAULT_COMMIT_DELAY = 60 * 1000;
+
+    /** Samples copied out of the ring per pass */
+    private static final int CHUNK = 1024;
+
+    /** Samples read back from the log per pass, a pass reads at most two segment files */
+    private static final int REPLAY_CHUNK = HistoryLog.DEFAULT_SEGMENT_RECORDS;
+
+    /** Consumer of the samples read back from the log, called on the writer thread */
+    public interface Reader {
+        /** Got the next samples in log order, only valid during the call */
+        void onSamples(BatteryHistory.Samples samples);
+
+        /** All samples were read, or the log could not be read */
+        void onDone();
+    }
+
+    private final BatteryHistory history;
+    private final HistoryLog log;
+    private final long commitDelay;
+
+    private final HandlerThread thread;
+    private final Handler handler;
+
+    /** Whether a commit is scheduled, set by the sampling thread */
+    private final AtomicBoolean pending = new AtomicBoolean();
+
+    /** Writer thread state */
+    private boolean opened;
+    private long cursor;
+    private final BatteryHistory.Samples samples = new BatteryHistory.Samples(CHUNK);
+
+    /** Time spent per group commit */
+    private final TimingStats commitStats = new TimingStats("History commit");
+
+    private final Runnable open = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                log.open();
+                opened = true;
+                Log.i(Constants.TAG, "HistoryWriter - recovered " + log.getCount()
+                        + " samples, dropped " + log.getRecoveryDropped());
+            } catch (IOException e) {
+                Log.e(Constants.TAG, "HistoryWriter - failed to open history log", e);
+            }
+        }
+    };
+
+    private final Runnable commit = new Runnable() {
+        @Override
+        public void run() {
+            pending.set(false);
+            drain();
+        }
+    };
+
+    private final Runnable close = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+            try {
+                log.close();
+            } catch (IOException e) {
+                Log.w(Constants.TAG, "HistoryWriter - failed to close history log", e);
+            }
+            opened = false;
+        }
+    };
+
+    /** Constructor, starts with the samples added to the ring from now on */
+    public HistoryWriter(BatteryHistory history, HistoryLog log, long commitDelay) {
+        this.history = history;
+        this.log = log;
+        this.commitDelay = commitDelay;
+        cursor = history.getCount();
+
+        thread = new HandlerThread("HistoryWriter", Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        handler = new Handler(thread.getLooper());
+        handler.post(open);
+    }
+
+    /** A sample was added to the ring, schedule a commit unless one is already due */
+    public void onSample() {
+        if (pending.compareAndSet(false, true)) {
+            handler.postDelayed(commit, commitDelay);
+        }
+    }
+
+    /**
+     * Read the committed samples from the given wall clock time on back from the log.
+     * Samples still waiting for their commit are not read.
+     */
+    public void replay(final long fromTime, final Reader reader) {
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                replayLog(fromTime, reader);
+            }
+        });
+    }
+
+    /**
+     * Commit the pending samples, then copy the log from the given wall clock time on
+     * into out, as many as fit, and run done. Both run on the writer thread.
+     */
+    public void read(final long fromTime, final BatteryHistory.Samples out, final Runnable done) {
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+                out.size = 0;
+                if (opened) {
+                    try {
+                        log.read(fromTime, out);
+                    } catch (IOException e) {
+                        Log.w(Constants.TAG, "HistoryWriter - failed to read history log", e);
+                        out.size = 0;
+                    }
+                }
+                done.run();
+            }
+        });
+    }
+
+    /** Commit the pending samples now, e.g. before the process may be killed */
+    public void flush() {
+        handler.removeCallbacks(commit);
+        pending.set(false);
+        handler.post(commit);
+    }
+
+    /** Commit the pending samples, close the log and stop the thread */
+    public void close() {
+        handler.removeCallbacks(commit);
+        handler.post(close);
+        thread.quitSafely();
+    }
+
+    /** Get the time spent per group commit */
+    public TimingStats getCommitStats() {
+        return commitStats;
+    }
+
+    /** Read the log in chunks, on the writer thread */
+    private void replayLog(long fromTime, Reader reader) {
+        if (opened) {
+            BatteryHistory.Samples chunk = new BatteryHistory.Samples(REPLAY_CHUNK);
+            long from = fromTime;
+            try {
+                while (log.read(from, chunk) > 0) {
+                    reader.onSamples(chunk);
+                    if (chunk.size < chunk.capacity()) {
+                        break;
+                    }
+                    from = chunk.getTime(chunk.size - 1) + 1;
+                }
+            } catch (IOException e) {
+                Log.w(Constants.TAG, "HistoryWriter - failed to read history log", e);
+            }
+        }
+        reader.onDone();
+    }
+
+    /** Copy the new samples from the ring into the log and commit them, on the writer thread */
+    private void drain() {
+        if (!opened) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        try {
+            while (history.read(cursor, samples) > 0) {
+                if (samples.first > cursor) {
+                    Log.w(Constants.TAG, "HistoryWriter - lost " + (samples.first - cursor)
+                            + " samples overwritten in the ring");
+                }
+                log.append(samples, 0, samples.size);
+                cursor = samples.first + samples.size;
+            }
+            log.commit();
+        } catch (IOException e) {
+            Log.e(Constants.TAG, "HistoryWriter - failed to write history log", e);
+        }
+        commitStats.record(start);
+    }
+}
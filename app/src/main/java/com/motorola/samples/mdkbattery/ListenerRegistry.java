@@ -0,0 +1,184 @@
+/**
+ * Copyright (c) 2016 Motorola Mobility, LLC.
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.motorola.samples.mdkbattery;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A class to hold registered listeners. The registry is copy-on-write: register and
+ * unregister publish a new array, so iterating never locks nor sees a partial update.
+ * Listeners are weakly held, the caller must keep a reference to a registered listener.
+ */
+public class ListenerRegistry<T> {
+    private final AtomicReference<Entry<T>[]> entries = new AtomicReference<>(newArray(0));
+
+    /** A registered listener and the data it subscribed to */
+    public static class Entry<T> {
+        private final WeakReference<T> listener;
+
+        /** Flags of the data fields to be notified about */
+        public final int fields;
+
+        /** Minimum interval between two data messages, in ms */
+        public final long minInterval;
+
+        /** Uptime of the last delivered data message, guarded by this */
+        private long lastDelivery;
+
+        /** Uptime the pending delayed data message is scheduled at, NONE if none */
+        private long pendingAt = NONE;
+
+        private static final long NONE = -1;
+
+        Entry(T listener, int fields, long minInterval) {
+            this.listener = new WeakReference<>(listener);
+            this.fields = fields;
+            this.minInterval = minInterval;
+            this.lastDelivery = -minInterval;
+        }
+
+        /**
+         * Get the uptime to deliver a data message at, now or later. A message arriving
+         * while a delayed one is pending gets the same time, so it replaces the pending
+         * payload without postponing it.
+         */
+        public synchronized long schedule(long now) {
+            if (pendingAt != NONE) {
+                if (now < pendingAt) {
+                    return pendingAt;
+                }
+
+                /** The pending message was delivered meanwhile */
+                lastDelivery = pendingAt;
+                pendingAt = NONE;
+            }
+
+            long next = lastDelivery + minInterval;
+            if (now >= next) {
+                lastDelivery = now;
+                return now;
+            }
+            pendingAt = next;
+            return next;
+        }
+
+        /** Get the listener, null if it was garbage collected */
+        public T get() {
+            return listener.get();
+        }
+    }
+
+    /** Register a listener, replacing its previous registration if any */
+    public void register(T listener, int fields, long minInterval) {
+        if (null == listener) {
+            throw new IllegalArgumentException("Null listener");
+        }
+
+        Entry<T> entry = new Entry<>(listener, fields, minInterval);
+        while (true) {
+            Entry<T>[] current = entries.get();
+            Entry<T>[] next = copyWithout(current, listener, 1);
+            next[next.length - 1] = entry;
+            if (entries.compareAndSet(current, next)) {
+                return;
+            }
+        }
+    }
+
+    /** Unregister a listener, returns whether it was registered */
+    public boolean unregister(T listener) {
+        while (true) {
+            Entry<T>[] current = entries.get();
+            Entry<T>[] next = copyWithout(current, listener, 0);
+            if (next.length == current.length) {
+                /** Neither registered nor any collected entry to purge */
+                return false;
+            }
+            if (entries.compareAndSet(current, next)) {
+                return contains(current, listener);
+            }
+        }
+    }
+
+    /** Unregister all listeners */
+    public void clear() {
+        entries.set(ListenerRegistry.<T>newArray(0));
+    }
+
+    /**
+     * Get the registered listeners. The returned array is never modified, entries
+     * whose listener was garbage collected return null from Entry.get().
+     */
+    public Entry<T>[] entries() {
+        return entries.get();
+    }
+
+    /** Get the number of registered listeners, including collected ones not yet purged */
+    public int size() {
+        return entries.get().length;
+    }
+
+    /** Copy entries except the given listener and collected ones, with free slots at the end */
+    private static <T> Entry<T>[] copyWithout(Entry<T>[] current, Object listener, int extra) {
+        int kept = 0;
+        for (Entry<T> e : current) {
+            Object l = e.get();
+            if (null != l && l != listener) {
+                kept++;
+            }
+        }
+
+        Entry<T>[] next = newArray(kept + extra);
+        int i = 0;
+        for (Entry<T> e : current) {
+            Object l = e.get();
+            if (null != l && l != listener) {
+                next[i++] = e;
+            }
+        }
+        return next;
+    }
+
+    private static boolean contains(Entry<?>[] current, Object listener) {
+        for (Entry<?> e : current) {
+            if (e.get() == listener) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Generic arrays could not be created directly, the only unchecked cast is here */
+    @SuppressWarnings("unchecked")
+    private static <T> Entry<T>[] newArray(int length) {
+        return (Entry<T>[]) new Entry<?>[length];
+    }
+}
@@ -29,10 +29,109 @@
 package com.motorola.samples.mdkbattery;
 
 import android.app.Application;
+import android.os.Handler;
 
+/**
+ * A class to represent the application, hosting the personalities shared by
+ * all activities so they stay bound across activity lifecycles.
+ */
 public class MDKBatteryApplication extends Application {
+    /** Keep a personality alive this long after the last user released it, in ms */
+    private static final long RELEASE_GRACE_PERIOD = 5000;
+
+    private Handler handler;
+
+    /**
+     * A personality shared by reference count, created on first acquire and torn
+     * down if nobody acquired it again during the grace period. Only accessed on
+     * the main thread.
+     */
+    private abstract class SharedPersonality<T extends Personality> implements Runnable {
+        private T personality;
+        private int refs;
+
+        abstract T create();
+
+        T acquire() {
+            handler.removeCallbacks(this);
+            if (null == personality) {
+                personality = create();
+            }
+            refs++;
+            return personality;
+        }
+
+        void release() {
+            if (refs <= 0) {
+                return;
+            }
+
+            refs--;
+            if (refs == 0) {
+                handler.postDelayed(this, RELEASE_GRACE_PERIOD);
+            }
+        }
+
+        @Override
+        public void run() {
+            if (refs == 0 && null != personality) {
+                personality.onDestroy();
+                personality = null;
+            }
+        }
+    }
+
+    private final SharedPersonality<BatteryPersonality> battery =
+            new SharedPersonality<BatteryPersonality>() {
+                @Override
+                BatteryPersonality create() {
+                    return new BatteryPersonality(MDKBatteryApplication.this);
+                }
+            };
+
+    private final SharedPersonality<RawPersonality> raw =
+            new SharedPersonality<RawPersonality>() {
+                @Override
+                RawPersonality create() {
+                    return new RawPersonality(MDKBatteryApplication.this);
+                }
+            };
+
     @Override
     public void onCreate() {
         super.onCreate();
+        handler = new Handler();
+
+        /** Keep logging the battery data while no activity is shown */
+        BatterySampler.start(this);
+    }
+
+    /**
+     * Get the shared battery personality, creating it if needed. Each call must be
+     * balanced by releasePersonality(). Call on the main thread.
+     */
+    public BatteryPersonality acquirePersonality() {
+        return battery.acquire();
+    }
+
+    /**
+     * Release the shared personality. It is kept warm for a grace period after the
+     * last release, so a returning activity does not rebind the Moto Mod service.
+     */
+    public void releasePersonality() {
+        battery.release();
+    }
+
+    /**
+     * Get the shared raw personality, for a mod device declaring the RAW protocol.
+     * Each call must be balanced by releaseRawPersonality(). Call on the main thread.
+     */
+    public RawPersonality acquireRawPersonality() {
+        return raw.acquire();
+    }
+
+    /** Release the shared raw personality, kept warm for the same grace period */
+    public void releaseRawPersonality() {
+        raw.release();
     }
 }
@@ -30,27 +30,34 @@ package com.motorola.samples.mdkbattery;
 
 import android.animation.ObjectAnimator;
 import android.app.Activity;
+import android.app.AlertDialog;
+import android.content.DialogInterface;
 import android.content.Intent;
+import android.content.pm.PackageManager;
 import android.content.res.Configuration;
 import android.net.Uri;
-import android.os.BatteryManager;
+import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Message;
 import android.util.Log;
+import android.view.FrameMetrics;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
+import android.view.Window;
 import android.widget.Button;
 import android.widget.ImageView;
 import android.widget.LinearLayout;
 import android.widget.TextView;
+import android.widget.Toast;
 import android.widget.Toolbar;
 
-import com.motorola.mod.ModBattery;
 import com.motorola.mod.ModDevice;
+import com.motorola.mod.ModManager;
+import com.motorola.mod.ModProtocol;
 
-import java.text.NumberFormat;
+import java.io.File;
 
 /**
  * A class to represent main activity.
@@ -58,31 +65,197 @@ import java.text.NumberFormat;
 public class MainActivity extends Activity implements View.OnClickListener {
     public static final String MOD_UID = "mod_uid";
 
+    /** Firmware image pushed when the mod device asks for one, in the external files dir */
+    public static final String FIRMWARE_IMAGE = "firmware.bin";
+
+    /** Battery fields shown on UI, the battery icon is not */
+    private static final int UI_FIELDS = BatteryPersonality.CHANGED_ALL
+            & ~BatteryPersonality.CHANGED_CORE_ICON;
+
+    /** Minimum interval between two UI updates of battery data, in ms */
+    private static final long UI_MIN_INTERVAL = 250;
+
     /**
      * Interface for ModManager and ModDevice
      */
     private Personality personality;
 
-    /** Handler for events from mod device */
+    /** Message to the main thread with a computed UiState */
+    private static final int MSG_UI_STATE = 100;
+
+    /** Message to the main thread whether the mod device declares RAW, in arg1 */
+    private static final int MSG_RAW_MOD = 101;
+
+    /** Request code of the raw protocol permission */
+    private static final int REQUEST_RAW_PERMISSION = 1;
+
+    /** Raw interface of a mod device declaring RAW, null if none */
+    private RawPersonality rawPersonality;
+
+    /** Ask for the raw permission at most once until granted, and retry once granted */
+    private boolean rawPermissionRequested;
+    private boolean checkRawOnAcquire;
+
+    /** Computes UI content off the main thread, and applies it on the main thread */
+    private UiStateFactory uiFactory;
+    private UiRenderer renderer;
+
+    /** Listener of the personality, running on its worker thread */
+    private UiWorker uiWorker;
+
+    /** Main thread time spent per UI update */
+    private TimingStats renderStats = new TimingStats("UI render");
+
+    /** Log the main thread time once per this many UI updates */
+    private static final int STATS_LOG_INTERVAL = 20;
+
+    /** Frame metrics, counted on the worker thread while the activity is resumed */
+    private static final long JANK_THRESHOLD_NS = 16 * 1000 * 1000;
+    private static final int FRAMES_LOG_INTERVAL = 120;
+    private Window.OnFrameMetricsAvailableListener frameListener;
+    private int frames;
+    private int jankFrames;
+
+    /** Handler for UI content computed on the worker thread */
     private Handler handler = new Handler() {
+        public void handleMessage(Message msg) {
+            if (null == personality) {
+                /** Message queued before the personality was released */
+                return;
+            }
+
+            switch (msg.what) {
+                case MSG_UI_STATE:
+                    long start = System.nanoTime();
+                    renderer.render((UiState) msg.obj);
+                    renderStats.record(start);
+                    logStats();
+                    break;
+                case MSG_RAW_MOD:
+                    if (msg.arg1 != 0) {
+                        acquireRawPersonality();
+                    } else {
+                        releaseRawPersonality();
+                    }
+                    break;
+                default:
+                    Log.i(Constants.TAG, "MainActivity - Un-handle UI events: " + msg.what);
+                    break;
+            }
+        }
+    };
+
+    /** Handler for events of the raw interface, on the main thread */
+    private Handler rawHandler = new Handler() {
+        public void handleMessage(Message msg) {
+            if (null == rawPersonality) {
+                /** Message queued before the raw personality was released */
+                return;
+            }
+
+            switch (msg.what) {
+                case Personality.MSG_RAW_REQUEST_PERMISSION:
+                    requestRawPermission();
+                    break;
+                case Personality.MSG_RAW_IO_READY:
+                    Log.i(Constants.TAG, "MainActivity - raw interface ready");
+                    break;
+                case Personality.MSG_RAW_IO_EXCEPTION:
+                    Log.w(Constants.TAG, "MainActivity - raw interface failed");
+                    break;
+                case Personality.MSG_REQUEST_FIRMWARE:
+                    onRequestFirmware(msg.arg1);
+                    break;
+                case Personality.MSG_UPDATE_START:
+                    getActionBar().setSubtitle(R.string.firmware_updating);
+                    break;
+                case Personality.MSG_UPDATE_PROGRESS:
+                    getActionBar().setSubtitle(getString(R.string.firmware_progress, msg.arg1));
+                    break;
+                case Personality.MSG_UPDATE_DONE:
+                    getActionBar().setSubtitle(null);
+                    onFirmwareDone(msg.arg1);
+                    break;
+                case Personality.MSG_MOD_DEVICE:
+                case Personality.MSG_RAW_DATA:
+                    /** Shown through the battery personality, telemetry stays in the decoder */
+                    break;
+                default:
+                    Log.i(Constants.TAG, "MainActivity - Un-handle raw events: " + msg.what);
+                    break;
+            }
+        }
+    };
+
+    /**
+     * Handler for events from mod device. It runs on the personality worker thread,
+     * builds the UI content from the latest device and battery data, and posts it
+     * to the main thread.
+     */
+    private class UiWorker extends Handler {
+        private final Personality personality;
+        private DeviceSummary device;
+        private String modPackage;
+        private BatterySnapshot snapshot;
+
+        /** The restored data is shown until the first live snapshot */
+        private boolean stale = true;
+
+        UiWorker(Personality personality) {
+            super(personality.getWorkerLooper());
+            this.personality = personality;
+        }
+
+        @Override
         public void handleMessage(Message msg) {
             switch (msg.what) {
                 case Personality.MSG_MOD_DEVICE:
                     /** Mod attach/detach */
-                    ModDevice device = personality.getModDevice();
-                    onModDevice(device);
+                    onModDevice(personality.getModDevice());
+                    onRawMod(personality.getModDevice());
                     break;
                 case Personality.MSG_MOD_BATTERY:
                     /** Battery data updated */
-                    BatteryPersonality.BatteryStat stat = (BatteryPersonality.BatteryStat) msg.obj;
-                    onBattery(stat.core, stat.mod, stat.modUsageType, stat.modEfficiency);
+                    snapshot = (BatterySnapshot) msg.obj;
+                    stale = snapshot.stale;
                     break;
                 default:
                     Log.i(Constants.TAG, "MainActivity - Un-handle mod events: " + msg.what);
-                    break;
+                    return;
             }
+
+            UiState state = uiFactory.build(device, modPackage, snapshot, stale);
+            handler.sendMessage(handler.obtainMessage(MSG_UI_STATE, state));
         }
-    };
+
+        /** Open the raw interface while the mod device declares RAW, on the main thread */
+        private void onRawMod(ModDevice d) {
+            boolean raw = null != d && d.hasDeclaredProtocol(ModProtocol.Protocol.RAW);
+            handler.sendMessage(handler.obtainMessage(MSG_RAW_MOD, raw ? 1 : 0, 0));
+        }
+
+        /** Mod device attach/detach */
+        private void onModDevice(ModDevice d) {
+            device = null;
+            modPackage = null;
+            if (null != d) {
+                device = new DeviceSummary(d.getVendorId(), d.getProductId(),
+                        d.getProductString(), d.getFirmwareVersion());
+
+                /**
+                 * Get the default Android application associated with the currently attached mod,
+                 * as read from the mod hardware manifest.
+                 */
+                ModManager manager = personality.getModManager();
+                if (null != manager) {
+                    modPackage = manager.getDefaultModPackage(d);
+                    if (null == modPackage || modPackage.isEmpty()) {
+                        modPackage = getString(R.string.name_default);
+                    }
+                }
+            }
+        }
+    }
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -125,6 +298,15 @@ public class MainActivity extends Activity implements View.OnClickListener {
         if (button != null) {
             button.setOnClickListener(this);
         }
+
+        uiFactory = new UiStateFactory(this);
+        renderer = new UiRenderer(this);
+
+        /** Show the last known data before the first frame, until live data replaces it */
+        SnapshotStore.State state = BatteryPersonality.getSnapshotStore(this).read();
+        if (null != state) {
+            renderer.render(uiFactory.build(state.device, null, state.snapshot, true));
+        }
     }
 
     @Override
@@ -148,19 +330,130 @@ public class MainActivity extends Activity implements View.OnClickListener {
         initPersonality();
     }
 
+    /**
+     * Get the personality shared through the application. It stays bound across
+     * activity lifecycles, so the current data is rendered at once on resume.
+     */
     private void initPersonality() {
         if (null == personality) {
-            personality = new BatteryPersonality(this);
+            personality = ((MDKBatteryApplication) getApplication()).acquirePersonality();
 
-            /** Register handler to get event and data update */
-            personality.registerListener(handler);
+            /** Register handler to get event and update of the shown data */
+            uiWorker = new UiWorker(personality);
+            personality.registerListener(uiWorker, UI_FIELDS, UI_MIN_INTERVAL);
+            addFrameListener();
         }
     }
 
     private void releasePersonality() {
+        releaseRawPersonality();
         if (null != personality) {
-            personality.onDestroy();
+            removeFrameListener();
+            personality.unregisterListener(uiWorker);
+            uiWorker.removeCallbacksAndMessages(null);
+            uiWorker = null;
+            handler.removeMessages(MSG_UI_STATE);
             personality = null;
+            ((MDKBatteryApplication) getApplication()).releasePersonality();
+        }
+    }
+
+    /**
+     * Get the raw personality shared through the application, once the mod device
+     * declares RAW. It opens the raw interface, or asks for the permission first.
+     */
+    private void acquireRawPersonality() {
+        if (null == rawPersonality) {
+            rawPersonality = ((MDKBatteryApplication) getApplication()).acquireRawPersonality();
+            rawPersonality.registerListener(rawHandler);
+        }
+
+        /** Granted while paused by the permission dialog */
+        if (checkRawOnAcquire) {
+            checkRawOnAcquire = false;
+            rawPersonality.checkRawInterface();
+        }
+    }
+
+    private void releaseRawPersonality() {
+        if (null != rawPersonality) {
+            rawPersonality.unregisterListener(rawHandler);
+            rawHandler.removeCallbacksAndMessages(null);
+            rawPersonality = null;
+            ((MDKBatteryApplication) getApplication()).releaseRawPersonality();
+        }
+    }
+
+    /** Raw protocol is a dangerous permission, ask for it once until granted */
+    private void requestRawPermission() {
+        if (rawPermissionRequested) {
+            return;
+        }
+
+        rawPermissionRequested = true;
+        requestPermissions(new String[]{ModManager.PERMISSION_RAW_PROTOCOL},
+                REQUEST_RAW_PERMISSION);
+    }
+
+    /**
+     * The mod device asks for a firmware image, with the progress of an interrupted
+     * update in percent. Push the staged image once the user confirms.
+     */
+    private void onRequestFirmware(int percent) {
+        final File image = new File(getExternalFilesDir(null), FIRMWARE_IMAGE);
+        if (!image.isFile()) {
+            Toast.makeText(this, getString(R.string.firmware_missing, image.getPath()),
+                    Toast.LENGTH_LONG).show();
+            return;
+        }
+
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.firmware_update)
+                .setMessage(getString(R.string.firmware_request, percent))
+                .setPositiveButton(R.string.firmware_update, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        if (null != rawPersonality) {
+                            rawPersonality.updateFirmware(image);
+                        }
+                    }
+                })
+                .setNegativeButton(android.R.string.cancel, null)
+                .show();
+    }
+
+    /** Tell the result of a firmware update, a stopped one resumes on the next request */
+    private void onFirmwareDone(int result) {
+        int text;
+        switch (result) {
+            case FirmwareUpdater.RESULT_SUCCESS:
+                text = R.string.firmware_success;
+                break;
+            case FirmwareUpdater.RESULT_STOPPED:
+                text = R.string.firmware_stopped;
+                break;
+            default:
+                text = R.string.firmware_failed;
+                break;
+        }
+        Toast.makeText(this, text, Toast.LENGTH_LONG).show();
+    }
+
+    @Override
+    public void onRequestPermissionsResult(int requestCode, String[] permissions,
+                                           int[] grantResults) {
+        if (requestCode != REQUEST_RAW_PERMISSION) {
+            super.onRequestPermissionsResult(requestCode, permissions, grantResults);
+            return;
+        }
+
+        if (grantResults.length > 0 && grantResults[0] == PackageManager.PERMISSION_GRANTED) {
+            rawPermissionRequested = false;
+            if (null != rawPersonality) {
+                rawPersonality.checkRawInterface();
+            } else {
+                checkRawOnAcquire = true;
+            }
         }
     }
 
@@ -228,322 +521,52 @@ public class MainActivity extends Activity implements View.OnClickListener {
         }
     }
 
-    /** Mod device attach/detach */
-    public void onModDevice(ModDevice device) {
-        /**
-         * Get mod device's Product String, which should correspond to
-         * the product name or the vendor internal's name.
-         */
-        TextView tvName = (TextView) findViewById(R.id.mod_name);
-        if (null != tvName) {
-            if (null != device) {
-                tvName.setText(device.getProductString());
-
-                if ((device.getVendorId() == Constants.VID_MDK
-                        && device.getProductId() == Constants.PID_BATTERY)
-                        || device.getVendorId() == Constants.VID_DEVELOPER)  {
-                    tvName.setTextColor(getColor(R.color.mod_match));
-                } else {
-                    tvName.setTextColor(getColor(R.color.mod_mismatch));
-                }
-            } else {
-                tvName.setText(getString(R.string.na));
-                tvName.setTextColor(getColor(R.color.mod_na));
-            }
-        }
-
-        /**
-         * Get mod device's Vendor ID. This is assigned by the Motorola
-         * and unique for each vendor.
-         */
-        TextView tvVid = (TextView) findViewById(R.id.mod_status_vid);
-        if (null != tvVid) {
-            if (device == null
-                    || device.getVendorId() == Constants.INVALID_ID) {
-                tvVid.setText(getString(R.string.na));
-            } else {
-                tvVid.setText(String.format(getString(R.string.mod_pid_vid_format),
-                        device.getVendorId()));
-            }
-        }
-
-        /** Get mod device's Product ID. This is assigned by the vendor */
-        TextView tvPid = (TextView) findViewById(R.id.mod_status_pid);
-        if (null != tvPid) {
-            if (device == null
-                    || device.getProductId() == Constants.INVALID_ID) {
-                tvPid.setText(getString(R.string.na));
-            } else {
-                tvPid.setText(String.format(getString(R.string.mod_pid_vid_format),
-                        device.getProductId()));
-            }
-        }
-
-        /** Get mod device's version of the firmware */
-        TextView tvFirmware = (TextView) findViewById(R.id.mod_status_firmware);
-        if (null != tvFirmware) {
-            if (null != device && null != device.getFirmwareVersion()
-                    && !device.getFirmwareVersion().isEmpty()) {
-                tvFirmware.setText(device.getFirmwareVersion());
-            } else {
-                tvFirmware.setText(getString(R.string.na));
-            }
+    /** Count the frames longer than a vsync period, available since Android N */
+    private void addFrameListener() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N) {
+            return;
         }
 
-        /**
-         * Get the default Android application associated with the currently attached mod,
-         * as read from the mod hardware manifest.
-         */
-        TextView tvPackage = (TextView) findViewById(R.id.mod_status_package_name);
-        if (null != tvPackage) {
-            if (device == null
-                    || personality.getModManager() == null) {
-                tvPackage.setText(getString(R.string.na));
-            } else {
-                if (personality.getModManager() != null) {
-                    String modPackage = personality.getModManager().getDefaultModPackage(device);
-                    if (null == modPackage || modPackage.isEmpty()) {
-                        modPackage = getString(R.string.name_default);
-                    }
-                    tvPackage.setText(modPackage);
+        frameListener = new Window.OnFrameMetricsAvailableListener() {
+            @Override
+            public void onFrameMetricsAvailable(Window window, FrameMetrics metrics,
+                                                int dropCount) {
+                frames++;
+                if (metrics.getMetric(FrameMetrics.TOTAL_DURATION) > JANK_THRESHOLD_NS) {
+                    jankFrames++;
+                }
+                if (frames % FRAMES_LOG_INTERVAL == 0) {
+                    Log.d(Constants.TAG, "Frames: " + frames + ", over 16 ms: " + jankFrames
+                            + ", dropped reports: " + dropCount);
                 }
             }
-        }
-
-        /** Reset mod battery status if mod is detached */
-        TextView tvStatus = (TextView) findViewById(R.id.mod_battery_status);
-        if (null != tvStatus) {
-            if (device == null) {
-                tvStatus.setText(getString(R.string.na));
-            }
-        }
-
-        /** Reset mod battery level if mod is detached */
-        TextView tvLevel = (TextView) findViewById(R.id.mod_battery_level);
-        if (null != tvLevel) {
-            if (device == null) {
-                tvLevel.setText(getString(R.string.na));
-            }
-        }
-
-        /** Reset mod battery capacity if mod is detached */
-        TextView tvCapacity = (TextView) findViewById(R.id.mod_battery_capacity);
-        if (null != tvCapacity) {
-            if (device == null) {
-                tvCapacity.setText(getString(R.string.na));
-                tvCapacity.setVisibility(View.INVISIBLE);
-            }
-        }
+        };
+        getWindow().addOnFrameMetricsAvailableListener(frameListener, uiWorker);
     }
 
-    /** Check whether attached mod is a MDK based on VID/PID */
-    private boolean isMDKMod(ModDevice device) {
-        if (device == null) {
-            // Mod not attached
-            return false;
-        } else if (device.getVendorId() == Constants.VID_DEVELOPER) {
-            // MDK in developer mode
-            return true;
-        } else {
-            // Check MDK
-            return device.getVendorId() == Constants.VID_MDK;
+    private void removeFrameListener() {
+        if (null != frameListener) {
+            getWindow().removeOnFrameMetricsAvailableListener(frameListener);
+            frameListener = null;
         }
     }
 
-    /** Update UI when get battery data */
-    public void onBattery(BatteryPersonality.Battery core, BatteryPersonality.Battery mod,
-                          int usage, int efficiency) {
-        String statusString = "";
-        boolean charging = false;
-        boolean absent = false;
-
-        if (mod.status <= BatteryManager.BATTERY_STATUS_UNKNOWN
-                || mod.capFull <= 0
-                || mod.level < 0
-                || usage == ModBattery.BATTERY_USAGE_TYPE_UNKNOWN
-                || mod.rechargeStart == Constants.BATTERY_INVALID) {
-            // Mod battery invalid, show Absent on UI
-            absent = true;
-            statusString = getString(R.string.mod_battery_absent);
-        } else if (mod.status == BatteryManager.BATTERY_STATUS_CHARGING) {
-            // Mod is charging
-            statusString = getString(R.string.mod_is_charging);
-            charging = true;
-        } else if (core.status == BatteryManager.BATTERY_STATUS_CHARGING) {
-            // Phone is charging
-            if (mod.status == BatteryManager.BATTERY_STATUS_DISCHARGING
-                    && mod.level > 0) {
-                // Mod is discharging, it is transferring power to phone.
-                statusString = getString(R.string.mod_is_charging_core);
-                charging = true;
-            } else {
-                // Phone is charging on other sources than mod
-                charging = true;
-                statusString = getString(R.string.phone_is_charging);
-
-                switch (core.plugged) {
-                    case BatteryManager.BATTERY_PLUGGED_AC:
-                        statusString = getString(R.string.charging_on,
-                                getString(R.string.phone_is_charging), getString(R.string.ac));
-                        break;
-                    case BatteryManager.BATTERY_PLUGGED_USB:
-                        statusString = getString(R.string.charging_on,
-                                getString(R.string.phone_is_charging), getString(R.string.usb));
-                        break;
-                    case BatteryManager.BATTERY_PLUGGED_WIRELESS:
-                        statusString = getString(R.string.charging_on,
-                                getString(R.string.phone_is_charging), getString(R.string.wireless));
-                        break;
-                }
-            }
-        } else if (mod.level > 0) {
-            // Mod battery is not empty
-            if ((core.level == 100
-                    && mod.status != BatteryManager.BATTERY_STATUS_DISCHARGING
-                    && efficiency != ModBattery.BATTERY_EFFICIENCY_OFF)) {
-                // Phone battery is full and mod is not discharging
-                statusString = getString(R.string.charging_complete);
-            } else {
-                if (efficiency == ModBattery.BATTERY_EFFICIENCY_OFF) {
-                    // Mod always charging phone if efficiency mod is off
-                    statusString = getString(R.string.mod_is_charging_core);
-                    charging = true;
-                } else if (efficiency == ModBattery.BATTERY_EFFICIENCY_ON) {
-                    // Mod charging phone when phone battery level under the
-                    // BATTERY_RECHARGE_START_SOC threshold if efficiency mod is on
-                    statusString = getString(R.string.transfer_paused_level,
-                            NumberFormat.getPercentInstance().format(((double) mod.rechargeStart) / 100.0));
-                }
-            }
-        } else {
-            // Mod level is 0
-            statusString = getString(R.string.mod_battery_empty);
-        }
-
-        /** Set status as unknown if none of above scenes  */
-        if (statusString.isEmpty()) {
-            statusString = String.format(getString(R.string.unknown_status), core.status, mod.status);
-        }
-
-        /** Set status string */
-        TextView tvStatus = (TextView) findViewById(R.id.status_battery_status);
-        if (null != tvStatus) {
-            int color = charging ? R.color.status_charging : R.color.uncharging;
-            tvStatus.setText(statusString);
-            tvStatus.setTextColor(getColor(color));
-        }
-
-        /** Set phone battery status */
-        tvStatus = (TextView) findViewById(R.id.core_battery_status);
-        if (null != tvStatus) {
-            tvStatus.setText(getBatteryStatusText(core.status));
-        }
-
-        /** Set mod battery status */
-        tvStatus = (TextView) findViewById(R.id.mod_battery_status);
-        if (null != tvStatus) {
-            if (personality.getModDevice() == null
-                    || absent) {
-                tvStatus.setText(getString(R.string.na));
-            } else {
-                tvStatus.setText(getBatteryStatusText(mod.status));
-            }
-        }
-
-        /** Set mod battery usage type and efficiency mode stauts */
-        TextView tvType = (TextView) findViewById(R.id.status_mod_battery_type);
-        if (null != tvType) {
-            if (personality.getModDevice() == null
-                    || absent) {
-                tvType.setText(getString(R.string.na));
-                tvType.setVisibility(View.GONE);
-            } else {
-                /**
-                 * Get mod battery usage type, could be either BATTERY_USAGE_TYPE_UNKNOWN,
-                 * BATTERY_USAGE_TYPE_REMOTE, BATTERY_USAGE_TYPE_SUPPLEMENTAL,
-                 * or BATTERY_USAGE_TYPE_EMERGENCY.
-                 */
-                String usageType = getString(R.string.unknown);
-                if (usage == ModBattery.BATTERY_USAGE_TYPE_EMERGENCY) {
-                    usageType = getString(R.string.battery_usage_type_emergency);
-                } else if (usage == ModBattery.BATTERY_USAGE_TYPE_REMOTE) {
-                    usageType = getString(R.string.battery_usage_type_remote);
-                } else if (usage == ModBattery.BATTERY_USAGE_TYPE_SUPPLEMENTAL) {
-                    usageType = getString(R.string.battery_usage_type_supplemental);
-                }
-
-                /**
-                 * Get mod battery efficiency mode status, represents the state of the charging
-                 * policy between the Moto Mod battery and the phone battery. The efficiency mode
-                 * is only applicable to supplemental battery type, e.g. battery which declare
-                 * the is BATTERY_USAGE_TYPE_SUPPLEMENTAL.
-                 */
-                String efficiencyType = getString(R.string.off);
-                if (efficiency == ModBattery.BATTERY_EFFICIENCY_ON) {
-                    efficiencyType = getString(R.string.on);
-                }
-
-                /** Set text string to UI widget */
-                tvType.setText(String.format(getString(R.string.mod_battery_type),
-                        usageType, efficiencyType));
-                tvType.setVisibility(View.VISIBLE);
-            }
-        }
-
-        /** Set phone battery level */
-        TextView tvLevel = (TextView) findViewById(R.id.core_battery_level);
-        if (null != tvLevel) {
-            tvLevel.setText(String.valueOf(core.level) + getString(R.string.percentage));
-        }
-
-        /** Set mod battery level */
-        tvLevel = (TextView) findViewById(R.id.mod_battery_level);
-        if (null != tvLevel) {
-            if (personality.getModDevice() == null
-                    || absent) {
-                tvLevel.setText(getString(R.string.na));
-            } else {
-                tvLevel.setText(String.valueOf(mod.level) + getString(R.string.percentage));
-            }
-        }
-
-        /** Set mod battery full capacity */
-        TextView tvCapacity = (TextView) findViewById(R.id.mod_battery_capacity);
-        if (null != tvCapacity) {
-            if (personality.getModDevice() == null
-                    || absent) {
-                tvCapacity.setText(getString(R.string.na));
-                tvCapacity.setVisibility(View.INVISIBLE);
-            } else {
-                tvCapacity.setText(mod.capFull * mod.level / 100
-                        + " / "
-                        + mod.capFull + getString(R.string.mah));
-                tvCapacity.setVisibility(View.VISIBLE);
-            }
+    /** Log main thread time per update, and worker thread time per broadcast */
+    private void logStats() {
+        if (renderStats.getCount() % STATS_LOG_INTERVAL != 0) {
+            return;
         }
-    }
 
-    /** Get readable battery status */
-    private String getBatteryStatusText(int status) {
-        String statusString = getString(R.string.unknown);
-        switch (status) {
-            case BatteryManager.BATTERY_STATUS_UNKNOWN:
-                statusString = getString(R.string.unknown);
-                break;
-            case BatteryManager.BATTERY_STATUS_CHARGING:
-                statusString = getString(R.string.charging);
-                break;
-            case BatteryManager.BATTERY_STATUS_DISCHARGING:
-                statusString = getString(R.string.discharging);
-                break;
-            case BatteryManager.BATTERY_STATUS_NOT_CHARGING:
-                statusString = getString(R.string.not_charging);
-                break;
-            case BatteryManager.BATTERY_STATUS_FULL:
-                statusString = getString(R.string.full);
-                break;
+        Log.d(Constants.TAG, renderStats.toString() + ", views set " + renderer.getAppliedCount());
+        Log.d(Constants.TAG, "Last mod attach ready in " + personality.getAttachReadyTime()
+                + " ms");
+        if (personality instanceof BatteryPersonality) {
+            BatteryPersonality battery = (BatteryPersonality) personality;
+            Log.d(Constants.TAG, battery.getReceiveStats().toString());
+            Log.d(Constants.TAG, "ModBattery breakers " + battery.getModBreakers());
         }
-
-        return statusString;
+        Log.d(Constants.TAG, "Background sampler " + BatterySampler.getWakeupsPerHour(this)
+                + " wakeups last hour, " + BatterySampler.getAverageWakeupsPerHour(this)
+                + " per hour on average");
     }
 }
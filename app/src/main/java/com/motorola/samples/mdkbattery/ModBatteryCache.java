@@ -0,0 +1,123 @@
+/**
+ * Copyright (c) 2016 Motorola Mobility, LLC.
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.motorola.samples.mdkbattery;
+
+import android.content.Context;
+
+import com.motorola.mod.ModBattery;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * A class to cache the mod battery properties which rarely change while the
+ * mod device stays attached, keyed by the mod device unique ID.
+ */
+public class ModBatteryCache {
+    /** Reload the cached properties at least once per minute */
+    public static final long DEFAULT_TTL = 60 * 1000;
+
+    /** Cached properties of one mod device */
+    public static class Entry {
+        public ModBattery modBattery;
+        public int usageType;
+        public int efficiency;
+        public int rechargeStart;
+        public int rechargeStop;
+        public long capFull;
+        public long loadTime;
+    }
+
+    private final Map<UUID, Entry> entries = new HashMap<>();
+    private final long ttl;
+
+    /** Statistics to verify the cache effect */
+    private int hits;
+    private int loads;
+
+    /** Constructor */
+    public ModBatteryCache(long ttl) {
+        this.ttl = ttl;
+    }
+
+    /** Get the cached properties, null if not cached or expired */
+    public synchronized Entry get(UUID id, long now) {
+        Entry entry = entries.get(id);
+        if (null == entry || now - entry.loadTime >= ttl) {
+            return null;
+        }
+        hits++;
+        return entry;
+    }
+
+    /**
+     * Read the properties from the ModBattery interface and cache them.
+     * Care IllegalStateException exception in case mod is removed or invalid during query.
+     */
+    public synchronized Entry load(UUID id, ModBattery modBattery, Context context, long now) {
+        Entry entry = entries.get(id);
+        if (null == entry) {
+            entry = new Entry();
+        }
+
+        entry.modBattery = modBattery;
+        entry.usageType = modBattery.getIntProperty(ModBattery.BATTERY_USAGE_TYPE);
+        entry.efficiency = modBattery.getIntProperty(ModBattery.BATTERY_EFFICIENCY_MODE);
+        entry.rechargeStart = modBattery.getIntProperty(ModBattery.BATTERY_RECHARGE_START_SOC);
+        entry.rechargeStop = modBattery.getIntProperty(ModBattery.BATTERY_RECHARGE_STOP_SOC);
+        entry.capFull = modBattery.getBatteryCapacity(context);
+        entry.loadTime = now;
+
+        /** Only cache a complete entry */
+        entries.put(id, entry);
+        loads++;
+        return entry;
+    }
+
+    /** Drop the cached properties of a mod device */
+    public synchronized void invalidate(UUID id) {
+        entries.remove(id);
+    }
+
+    /** Drop all cached properties */
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    /** Get the number of broadcasts served from the cache */
+    public synchronized int getHitCount() {
+        return hits;
+    }
+
+    /** Get the number of property reloads */
+    public synchronized int getLoadCount() {
+        return loads;
+    }
+}
@@ -0,0 +1,262 @@
+/**
+ * Copyright (c) 2016 Motorola Mobility, LLC.
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.motorola.samples.mdkbattery;
+
+import com.motorola.mod.ModDevice;
+import com.motorola.mod.ModProtocol;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * A class to index the attached mod devices by unique ID, by VID/PID and by
+ * declared protocol. Each mod list query is diffed against the previous one, so
+ * only devices which actually came, went or changed are reported, and the
+ * battery mod is selected once per update.
+ */
+public class ModDeviceRegistry {
+    /** Devices attached and detached by an update */
+    public static class Delta {
+        public final List<ModDevice> attached = new ArrayList<>();
+        public final List<ModDevice> detached = new ArrayList<>();
+
+        public boolean isEmpty() {
+            return attached.isEmpty() && detached.isEmpty();
+        }
+
+        void clear() {
+            attached.clear();
+            detached.clear();
+        }
+    }
+
+    /** Attached devices in mod list order */
+    private final Map<UUID, ModDevice> devices = new LinkedHashMap<>();
+    private final Map<Long, List<ModDevice>> byVidPid = new HashMap<>();
+    private final Map<ModProtocol.Protocol, List<ModDevice>> byProtocol =
+            new EnumMap<>(ModProtocol.Protocol.class);
+
+    /** Best battery mod, null if none */
+    private ModDevice batteryMod;
+
+    /** Scratch map of the previous devices while diffing */
+    private final Map<UUID, ModDevice> previous = new HashMap<>();
+
+    /** Check whether a mod device is a MDK based on VID */
+    public static boolean isMDKMod(ModDevice device) {
+        if (device == null) {
+            // Mod not attached
+            return false;
+        } else if (device.getVendorId() == Constants.VID_DEVELOPER) {
+            // MDK in developer mode
+            return true;
+        } else {
+            // Check MDK
+            return device.getVendorId() == Constants.VID_MDK;
+        }
+    }
+
+    /** Check whether VID/PID are the ones of the MDK battery mod, or of a developer mod */
+    public static boolean isBatteryMod(int vendorId, int productId) {
+        return (vendorId == Constants.VID_MDK && productId == Constants.PID_BATTERY)
+                || vendorId == Constants.VID_DEVELOPER;
+    }
+
+    /**
+     * Replace the devices with the queried mod list, and get the devices which
+     * were attached or detached. A device listed again with another VID/PID or
+     * firmware version is reported as detached and attached.
+     */
+    public synchronized void update(List<ModDevice> list, Delta out) {
+        out.clear();
+        previous.clear();
+        previous.putAll(devices);
+        devices.clear();
+
+        if (null != list) {
+            for (ModDevice d : list) {
+                if (null == d) {
+                    continue;
+                }
+
+                UUID id = key(d);
+                ModDevice old = previous.remove(id);
+                if (null == old) {
+                    out.attached.add(d);
+                } else if (!isSame(old, d)) {
+                    out.detached.add(old);
+                    out.attached.add(d);
+                }
+                devices.put(id, d);
+            }
+        }
+        out.detached.addAll(previous.values());
+        previous.clear();
+
+        if (!out.isEmpty()) {
+            reindex();
+        }
+    }
+
+    /** Forget all devices, e.g. when the mod service disconnects */
+    public synchronized void clear(Delta out) {
+        update(null, out);
+    }
+
+    /** Get a device by unique ID, null if not attached */
+    public synchronized ModDevice get(UUID id) {
+        return devices.get(id);
+    }
+
+    /** Check whether the same device, with the same VID/PID and firmware, is attached */
+    public synchronized boolean contains(ModDevice d) {
+        ModDevice old = null == d ? null : devices.get(key(d));
+        return null != old && isSame(old, d);
+    }
+
+    /** Get a copy of the attached devices, in mod list order */
+    public synchronized List<ModDevice> getDevices() {
+        return new ArrayList<>(devices.values());
+    }
+
+    /** Get the devices with a VID/PID */
+    public synchronized List<ModDevice> getByVidPid(int vendorId, int productId) {
+        List<ModDevice> l = byVidPid.get(vidPid(vendorId, productId));
+        return null == l ? Collections.<ModDevice>emptyList() : Collections.unmodifiableList(l);
+    }
+
+    /** Get the devices declaring a protocol */
+    public synchronized List<ModDevice> getByProtocol(ModProtocol.Protocol protocol) {
+        List<ModDevice> l = byProtocol.get(protocol);
+        return null == l ? Collections.<ModDevice>emptyList() : Collections.unmodifiableList(l);
+    }
+
+    /**
+     * Get the device to use for a protocol: a MDK device is preferred, then the last
+     * one listed. Null if none declares it.
+     */
+    public synchronized ModDevice select(ModProtocol.Protocol protocol) {
+        List<ModDevice> l = byProtocol.get(protocol);
+        if (null == l) {
+            return null;
+        }
+
+        ModDevice selected = null;
+        for (ModDevice d : l) {
+            if (null == selected || isMDKMod(d) || !isMDKMod(selected)) {
+                selected = d;
+            }
+        }
+        return selected;
+    }
+
+    /** Get the battery mod, selected on update, null if none */
+    public synchronized ModDevice getBatteryMod() {
+        return batteryMod;
+    }
+
+    /** Get the last device listed, null if none */
+    public synchronized ModDevice getLast() {
+        ModDevice last = null;
+        for (ModDevice d : devices.values()) {
+            last = d;
+        }
+        return last;
+    }
+
+    public synchronized int size() {
+        return devices.size();
+    }
+
+    /** Rebuild the indexes and select the battery mod */
+    private void reindex() {
+        byVidPid.clear();
+        byProtocol.clear();
+        batteryMod = null;
+        int batteryRank = -1;
+
+        for (ModDevice d : devices.values()) {
+            Long key = vidPid(d.getVendorId(), d.getProductId());
+            List<ModDevice> l = byVidPid.get(key);
+            if (null == l) {
+                l = new ArrayList<>(1);
+                byVidPid.put(key, l);
+            }
+            l.add(d);
+
+            List<ModProtocol.Protocol> protocols = d.getDeclaredProtocols();
+            if (null != protocols) {
+                for (ModProtocol.Protocol p : protocols) {
+                    List<ModDevice> pl = byProtocol.get(p);
+                    if (null == pl) {
+                        pl = new ArrayList<>(1);
+                        byProtocol.put(p, pl);
+                    }
+                    pl.add(d);
+                }
+            }
+
+            /** The MDK battery mod first, then any MDK, then the last one listed */
+            if (d.hasDeclaredProtocol(ModProtocol.Protocol.BATTERY)) {
+                int rank = isBatteryMod(d.getVendorId(), d.getProductId()) ? 2
+                        : isMDKMod(d) ? 1 : 0;
+                if (rank >= batteryRank) {
+                    batteryRank = rank;
+                    batteryMod = d;
+                }
+            }
+        }
+    }
+
+    private static boolean isSame(ModDevice a, ModDevice b) {
+        return a.getVendorId() == b.getVendorId() && a.getProductId() == b.getProductId()
+                && equals(a.getFirmwareVersion(), b.getFirmwareVersion());
+    }
+
+    private static boolean equals(String a, String b) {
+        return null == a ? null == b : a.equals(b);
+    }
+
+    /** Unique ID, or one made of VID/PID for a device without one */
+    private static UUID key(ModDevice d) {
+        UUID id = d.getUniqueId();
+        return null != id ? id : new UUID(d.getVendorId(), d.getProductId());
+    }
+
+    private static Long vidPid(int vendorId, int productId) {
+        return ((long) vendorId << 32) | (productId & 0xffffffffL);
+    }
+}
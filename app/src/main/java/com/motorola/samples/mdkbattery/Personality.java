@@ -35,16 +35,22 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.ServiceConnection;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
+import android.os.Looper;
 import android.os.Message;
+import android.os.Process;
 import android.os.RemoteException;
+import android.os.SystemClock;
+import android.util.Log;
 
 import com.motorola.mod.IModManager;
 import com.motorola.mod.ModDevice;
 import com.motorola.mod.ModManager;
 
-import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * A class to represent the Moto Mod interface.
@@ -56,22 +62,65 @@ public class Personality {
     /**
      * ModManager interface
      */
-    protected ModManager modManager;
+    protected volatile ModManager modManager;
 
     /**
      * ModDevice interface
      */
-    protected ModDevice modDevice;
+    protected volatile ModDevice modDevice;
+
+    /**
+     * Background thread to receive mod and battery broadcasts and query the mod
+     * device, so binder calls do not block the main thread and never run concurrently.
+     */
+    protected HandlerThread workerThread;
+    protected Handler workerHandler;
+
+    /** Runs tasks on the worker thread, rejects them once it quit */
+    protected Executor workerExecutor;
+
+    /** Whether the mod list was queried since the service connected */
+    protected volatile boolean modListQueried;
+
+    /** Mod list refresh, collapsing attach/detach event storms */
+    private CoalescingTask modListRefresh;
+
+    /** Wait for an attached mod device to be enumerated */
+    protected AttachProbe attachProbe;
+
+    /** Attached mod devices, updated on the worker thread */
+    protected final ModDeviceRegistry registry = new ModDeviceRegistry();
+    private final ModDeviceRegistry.Delta delta = new ModDeviceRegistry.Delta();
 
     /**
      * Listeners to notify mod event and data
      */
-    List<Handler> listeners = new ArrayList<>();
+    ListenerRegistry<Handler> listeners = new ListenerRegistry<>();
 
     /** Constructor */
     public Personality(Context context) {
         this.context = context;
 
+        /** Start the worker thread before any event could request a mod list refresh */
+        workerThread = new HandlerThread("ModWorker", Process.THREAD_PRIORITY_BACKGROUND);
+        workerThread.start();
+        workerHandler = new Handler(workerThread.getLooper());
+        workerExecutor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                if (!workerHandler.post(command)) {
+                    throw new RejectedExecutionException("Worker thread quit");
+                }
+            }
+        };
+        modListRefresh = new CoalescingTask(workerExecutor, new Runnable() {
+            @Override
+            public void run() {
+                updateModList();
+            }
+        });
+        attachProbe = new AttachProbe(workerHandler, this);
+
         /** Bind with Moto Mod service */
         Intent service = new Intent(ModManager.ACTION_BIND_MANAGER);
         service.setComponent(ModManager.MOD_SERVICE_NAME);
@@ -86,7 +135,8 @@ public class Personality {
          * to avoid the intent from fake senders. For future details, refer to:
          * https://developer.android.com/reference/android/content/Context.html#registerReceiver
          */
-        context.registerReceiver(modReceiver, filter, ModManager.PERMISSION_MOD_INTERNAL, null);
+        context.registerReceiver(modReceiver, filter, ModManager.PERMISSION_MOD_INTERNAL,
+                workerHandler);
     }
 
     /** Clean up */
@@ -94,6 +144,8 @@ public class Personality {
         listeners.clear();
         context.unregisterReceiver(modReceiver);
         context.unbindService(mConnection);
+        attachProbe.cancel();
+        workerThread.quitSafely();
     }
 
     // Personality common interface - Begin
@@ -106,9 +158,36 @@ public class Personality {
     public final static int MSG_RAW_IO_READY = 7;
     public final static int MSG_RAW_DATA = 8;
     public final static int MSG_REQUEST_FIRMWARE = 9;
+    public final static int MSG_UPDATE_PROGRESS = 10;
 
+    /** Register a listener for all mod events and data */
     public void registerListener(Handler listener) {
-        listeners.add(listener);
+        registerListener(listener, ~0, 0);
+    }
+
+    /**
+     * Register a listener for mod events, and for data messages only when any of
+     * the given data fields changed. Data messages closer than minInterval ms are
+     * collapsed into the latest one, delivered at the end of the interval.
+     */
+    public void registerListener(Handler listener, int fields, long minInterval) {
+        listeners.register(listener, fields, minInterval);
+        onListenerRegistered(listener);
+    }
+
+    /**
+     * Send the current state to a new listener, so it could render at once.
+     * Nothing is sent until the mod device is known.
+     */
+    protected void onListenerRegistered(Handler listener) {
+        if (modListQueried) {
+            listener.sendEmptyMessage(MSG_MOD_DEVICE);
+        }
+    }
+
+    /** Unregister a listener, no new message is sent to it once this returns */
+    public void unregisterListener(Handler listener) {
+        listeners.unregister(listener);
     }
 
     public ModDevice getModDevice() {
@@ -118,28 +197,72 @@ public class Personality {
     public ModManager getModManager() {
         return modManager;
     }
+
+    /** Get the time from the last attach event to the mod device is ready, -1 if timed out */
+    public long getAttachReadyTime() {
+        return attachProbe.getLastReadyTime();
+    }
+
+    /** Get the index of the attached mod devices */
+    public ModDeviceRegistry getModDeviceRegistry() {
+        return registry;
+    }
+
+    /** Get the looper of the worker thread, listeners may use it to work off the main thread */
+    public Looper getWorkerLooper() {
+        return workerThread.getLooper();
+    }
     // Personality common interface - End
 
     protected void notifyListeners(int what) {
-        for (Handler handler : listeners) {
-            handler.sendEmptyMessage(what);
+        for (ListenerRegistry.Entry<Handler> entry : listeners.entries()) {
+            Handler handler = entry.get();
+            if (null != handler) {
+                handler.sendEmptyMessage(what);
+            }
         }
     }
 
+    /**
+     * Notify a message to all listeners. Each listener gets its own copy from the
+     * message pool, since a message could be queued by only one handler.
+     */
     protected void notifyListeners(Message msg) {
-        for (Handler handler : listeners) {
-            handler.sendMessage(msg);
+        for (ListenerRegistry.Entry<Handler> entry : listeners.entries()) {
+            Handler handler = entry.get();
+            if (null != handler) {
+                handler.sendMessage(Message.obtain(msg));
+            }
+        }
+        msg.recycle();
+    }
+
+    /** Notify the data message to listeners subscribed to any of the changed fields */
+    protected void notifyListeners(Message msg, int changed) {
+        long now = SystemClock.uptimeMillis();
+        for (ListenerRegistry.Entry<Handler> entry : listeners.entries()) {
+            Handler handler = entry.get();
+            if (null == handler || (entry.fields & changed) == 0) {
+                continue;
+            }
+
+            long at = entry.schedule(now);
+            if (at <= now) {
+                handler.sendMessage(Message.obtain(msg));
+            } else {
+                /** Too soon, replace the pending message with the latest one, at the same time */
+                handler.removeMessages(msg.what);
+                handler.sendMessageAtTime(Message.obtain(msg), at);
+            }
         }
+        msg.recycle();
     }
 
     protected void notifyListeners(int what, int arg) {
         Message msg = Message.obtain();
         msg.what = what;
         msg.arg1 = arg;
-
-        for (Handler handler : listeners) {
-            handler.sendMessage(msg);
-        }
+        notifyListeners(msg);
     }
 
     /** Bind with Moto Mod service */
@@ -153,48 +276,81 @@ public class Personality {
         }
 
         public void onServiceDisconnected(ComponentName className) {
+            modListQueried = false;
             modDevice = null;
             modManager = null;
             onModAttach(false);
         }
     };
 
-    /** Query mod device when attach/detach event */
+    /**
+     * Query mod device when attach/detach event. Requests are serialized on the
+     * worker thread, and a burst of events results in at most one extra query.
+     */
     protected void onModAttach(boolean attach) {
-        new Thread(new Runnable() {
-            public void run() {
-                updateModList();
-            }
-        }).start();
+        modListRefresh.request();
     }
 
-    /** Query and update mod device info */
+    /**
+     * Query and update mod device info, always runs on the worker thread. Listeners
+     * are notified only on the first query or when any device came, went or changed.
+     */
     protected void updateModList() {
-        if (modManager == null) {
+        ModManager manager = modManager;
+        if (manager == null) {
+            registry.clear(delta);
+            onModDeviceDelta(delta);
             onModDevice(null);
             return;
         }
 
         try {
             /** Get currently mod device list from ModManager */
-            List<ModDevice> l = modManager.getModList(false);
-            if (l == null || l.size() == 0) {
-                onModDevice(null);
+            List<ModDevice> l = manager.getModList(false);
+            registry.update(l, delta);
+            onModDeviceDelta(delta);
+
+            ModDevice device = selectDevice(registry);
+            if (modListQueried && delta.isEmpty()) {
                 return;
             }
 
-            // TODO: simply get first mod device from list for this example.
-            // You may need consider to check expecting mod base on PID/VID or so on.
-            for (ModDevice d : l) {
-                if (d != null) {
-                    onModDevice(d);
-                }
-            }
+            /** Publish the device once, so listeners see one consistent result per query */
+            modListQueried = true;
+            onModDevice(device);
         } catch (RemoteException e) {
             e.printStackTrace();
         }
     }
 
+    /** Pick the mod device this personality works with, the battery mod by default */
+    protected ModDevice selectDevice(ModDeviceRegistry devices) {
+        ModDevice battery = devices.getBatteryMod();
+        return null != battery ? battery : devices.getLast();
+    }
+
+    /** Mod devices attached or detached since the last query, on the worker thread */
+    protected void onModDeviceDelta(ModDeviceRegistry.Delta delta) {
+        for (ModDevice d : delta.detached) {
+            Log.i(Constants.TAG, "Mod detached " + Integer.toHexString(d.getVendorId())
+                    + "/" + Integer.toHexString(d.getProductId()));
+        }
+        for (ModDevice d : delta.attached) {
+            Log.i(Constants.TAG, "Mod attached " + Integer.toHexString(d.getVendorId())
+                    + "/" + Integer.toHexString(d.getProductId()));
+        }
+    }
+
+    /** Check whether a listed mod device is the one this personality waits for */
+    protected boolean isExpectedDevice(ModDevice d) {
+        return d != null;
+    }
+
+    /** Check whether a just listed mod device serves data yet, polled on attach */
+    protected boolean hasFirstData(ModDevice d) {
+        return true;
+    }
+
     /** Notify listeners the mod device info */
     public void onModDevice(ModDevice d) {
         modDevice = d;
@@ -207,15 +363,11 @@ public class Personality {
         public void onReceive(Context context, Intent intent) {
             String action = intent.getAction();
             if (ModManager.ACTION_MOD_ATTACH.equals(action)) {
-                /** Mod device attached */
-                new Handler().postDelayed(new Runnable() {
-                    @Override
-                    public void run() {
-                        onModAttach(true);
-                    }
-                }, 1000);
+                /** Mod device attached, query it once it is enumerated */
+                attachProbe.start();
             } else if (ModManager.ACTION_MOD_DETACH.equals(action)) {
                 /** Mod device detached */
+                attachProbe.onDetach();
                 onModAttach(false);
             }
         }
@@ -0,0 +1,91 @@
+/**
+ * Copyright (c) 2016 Motorola Mobility, LLC.
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.motorola.samples.mdkbattery;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+/**
+ * A class to persist when the recharge thresholds of each mod device were last
+ * written, one small file per unique ID, so the write interval of RechargePolicy
+ * holds across personalities and restarts:
+ * <pre>
+ *   int    magic, int version
+ *   long   last write time, in ms since the epoch
+ *   int    CRC32 of all previous bytes
+ * </pre>
+ * Each file is a ChecksummedFile.
+ */
+public class PolicyStore {
+    private static final int MAGIC = 0x4d444b50;
+    private static final int VERSION = 1;
+
+    /** No write recorded */
+    public static final long NEVER = Long.MIN_VALUE;
+
+    static final int SIZE = 4 + 4 + 8 + ChecksummedFile.CRC_SIZE;
+
+    private final File dir;
+
+    /** Constructor */
+    public PolicyStore(File dir) {
+        this.dir = dir;
+    }
+
+    /** Read the last write time of a mod device, NEVER if none or invalid */
+    public long readLastWrite(UUID id) {
+        ChecksummedFile file = file(id);
+        ByteBuffer buffer = file.read();
+        if (null == buffer) {
+            return NEVER;
+        }
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            Log.w(Constants.TAG, "PolicyStore - invalid " + file.getFile());
+            return NEVER;
+        }
+        return buffer.getLong();
+    }
+
+    /** Save the last write time of a mod device, replacing the previous file atomically */
+    public void writeLastWrite(UUID id, long time) throws IOException {
+        ChecksummedFile file = file(id);
+        ByteBuffer buffer = file.allocate();
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putLong(time);
+        file.write(buffer);
+    }
+
+    private ChecksummedFile file(UUID id) {
+        return new ChecksummedFile(new File(dir, id.toString() + ".bin"), SIZE);
+    }
+}
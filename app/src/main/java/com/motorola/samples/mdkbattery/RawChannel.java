@@ -0,0 +1,184 @@
+/**
+ * Copyright (c) 2016 Motorola Mobility, LLC.
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.motorola.samples.mdkbattery;
+
+import android.os.Process;
+import android.util.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A class to read the raw interface of a mod device on a dedicated thread. Each
+ * read is one payload, as the mod device sends one message per write, and is
+ * handed to the sink in a pooled direct buffer, so reading allocates nothing.
+ */
+public class RawChannel {
+    /** Interface to receive the payloads and the end of the channel */
+    public interface Sink {
+        /**
+         * Called on the I/O thread with a payload between position and limit. Return
+         * true to keep the buffer and release it to the pool later, false to let the
+         * channel reuse it at once.
+         */
+        boolean onPayload(ByteBuffer payload);
+
+        /** Called on the I/O thread once reading stopped, error is null if closed */
+        void onClosed(IOException error);
+    }
+
+    private final ReadableByteChannel in;
+    private final WritableByteChannel out;
+    private final BufferPool pool;
+    private final Sink sink;
+    private final Thread thread;
+
+    private volatile boolean closing;
+
+    private final AtomicLong payloads = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+
+    /** Constructor */
+    public RawChannel(ReadableByteChannel in, WritableByteChannel out, BufferPool pool,
+                      Sink sink) {
+        this.in = in;
+        this.out = out;
+        this.pool = pool;
+        this.sink = sink;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_MORE_FAVORABLE);
+                readLoop();
+            }
+        }, "RawIO");
+    }
+
+    /** Start reading */
+    public void start() {
+        thread.start();
+    }
+
+    /** Write a command to the mod device, on the calling thread */
+    public void write(ByteBuffer data) throws IOException {
+        synchronized (out) {
+            while (data.hasRemaining()) {
+                out.write(data);
+            }
+        }
+    }
+
+    /** Stop reading and close the channels, a blocked read returns at once */
+    public void close() {
+        closing = true;
+        try {
+            in.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        try {
+            out.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /** Wait for the I/O thread to finish after close or end of stream */
+    public boolean join(long timeout) throws InterruptedException {
+        thread.join(timeout);
+        return !thread.isAlive();
+    }
+
+    public BufferPool getPool() {
+        return pool;
+    }
+
+    /** Get the number of payloads read */
+    public long getPayloadCount() {
+        return payloads.get();
+    }
+
+    /** Get the number of bytes read */
+    public long getByteCount() {
+        return bytes.get();
+    }
+
+    private void readLoop() {
+        IOException error = null;
+        ByteBuffer buffer = null;
+        try {
+            while (true) {
+                if (null == buffer) {
+                    buffer = pool.acquire();
+                }
+
+                int n = in.read(buffer);
+                if (n < 0) {
+                    break;
+                } else if (n == 0) {
+                    continue;
+                }
+
+                payloads.incrementAndGet();
+                bytes.addAndGet(n);
+                buffer.flip();
+                if (sink.onPayload(buffer)) {
+                    buffer = null;
+                } else {
+                    buffer.clear();
+                }
+            }
+        } catch (ClosedChannelException e) {
+            /** Closed while reading, including AsynchronousCloseException */
+            if (!closing) {
+                error = e;
+            }
+        } catch (IOException e) {
+            if (!closing) {
+                error = e;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            /** A failing sink ends the stream like a read error, so its owner cleans up */
+            Log.e(Constants.TAG, "RawChannel - sink failed", e);
+            error = new IOException("Sink failed", e);
+        } finally {
+            if (null != buffer) {
+                pool.release(buffer);
+            }
+            sink.onClosed(error);
+        }
+    }
+}
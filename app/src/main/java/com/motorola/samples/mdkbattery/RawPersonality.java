@@ -0,0 +1,493 @@
+/**
+ * Copyright (c) 2016 Motorola Mobility, LLC.
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.motorola.samples.mdkbattery;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.os.Message;
+import android.os.ParcelFileDescriptor;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.motorola.mod.ModDevice;
+import com.motorola.mod.ModInterfaceDelegation;
+import com.motorola.mod.ModManager;
+import com.motorola.mod.ModProtocol;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * A class to represent the RAW protocol interface of a mod device. The raw file
+ * descriptor is read on its own I/O thread into pooled direct buffers, which are
+ * handed to the data sink. Listeners get MSG_RAW_IO_READY, MSG_RAW_IO_EXCEPTION,
+ * MSG_RAW_REQUEST_PERMISSION, and MSG_RAW_DATA at most every DATA_NOTIFY_INTERVAL
+ * with the payload count in arg1, not per payload.
+ * <p/>
+ * Firmware updates are pushed over the same interface, with little endian packets
+ * framed like the telemetry, each ending with a CRC-16 of the previous bytes:
+ * <pre>
+ *   chunk    0xB8 0x01, offset u32, length u16, CRC32 u32, data
+ *   finish   0xB8 0x02, image size u32, image CRC32 u32
+ *   ack      0xB8 0x81, offset u32, status u8, 0 if the chunk CRC matched
+ *   request  0xB8 0x82, the mod device asks for a firmware image
+ * </pre>
+ * The telemetry decoder parses the whole stream once and hands the ack and request
+ * frames back, so a telemetry read which happens to start with 0xB8 is not lost.
+ * Listeners get MSG_REQUEST_FIRMWARE with the resumable progress in percent in arg1,
+ * MSG_UPDATE_START, MSG_UPDATE_PROGRESS with the percent in arg1, and MSG_UPDATE_DONE
+ * with a FirmwareUpdater.RESULT_* in arg1.
+ */
+public class RawPersonality extends Personality {
+    /** Number and size of the read buffers, a raw payload fits in one buffer */
+    public static final int POOL_BUFFERS = 16;
+    public static final int BUFFER_SIZE = 2048;
+
+    /** Minimum interval between MSG_RAW_DATA messages, in ms */
+    public static final long DATA_NOTIFY_INTERVAL = 100;
+
+    /** Firmware packets */
+    public static final int FIRMWARE_MAGIC = TelemetryDecoder.FIRMWARE_MAGIC;
+    public static final int FIRMWARE_CHUNK = 0x01;
+    public static final int FIRMWARE_FINISH = 0x02;
+    public static final int FIRMWARE_ACK = TelemetryDecoder.FIRMWARE_ACK;
+    public static final int FIRMWARE_REQUEST = TelemetryDecoder.FIRMWARE_REQUEST;
+    private static final int CHUNK_HEADER_SIZE = 12;
+
+    /** Resend unacknowledged chunks after this long, in ms */
+    public static final long ACK_TIMEOUT = 2000;
+
+    /** Directory of the interrupted firmware update progress */
+    public static final String FIRMWARE_DIR = "firmware";
+
+    private final BufferPool pool = new BufferPool(POOL_BUFFERS, BUFFER_SIZE);
+
+    /** Cell telemetry decoded from the payloads, on the I/O thread */
+    private final TelemetryDecoder telemetry = new TelemetryDecoder(
+            new TelemetryColumns(TelemetryColumns.DEFAULT_CAPACITY));
+
+    /** Open raw interface, only changed on the worker thread */
+    private volatile RawChannel channel;
+    private ParcelFileDescriptor rawDescriptor;
+    private UUID rawDeviceId;
+
+    /** Consumer of the payloads, called on the I/O thread */
+    private volatile RawChannel.Sink dataSink;
+
+    /** Last MSG_RAW_DATA time, only accessed on the I/O thread */
+    private long lastDataNotify;
+
+    private final UpdateStore updateStore;
+
+    /** Running firmware update, null if none */
+    private volatile FirmwareUpdater updater;
+
+    /** Packet being sent to the mod device, guarded by the updater */
+    private final ByteBuffer firmwarePacket = ByteBuffer.allocate(
+            CHUNK_HEADER_SIZE + FirmwareUpdater.DEFAULT_CHUNK_SIZE + TelemetryDecoder.CRC_SIZE)
+            .order(ByteOrder.LITTLE_ENDIAN);
+
+    private final Runnable ackTimeout = new Runnable() {
+        @Override
+        public void run() {
+            FirmwareUpdater current = updater;
+            if (null != current && current.isRunning()) {
+                current.onTimeout();
+                workerHandler.postDelayed(this, ACK_TIMEOUT);
+            }
+        }
+    };
+
+    private final FirmwareUpdater.Endpoint firmwareEndpoint = new FirmwareUpdater.Endpoint() {
+        @Override
+        public void send(long offset, byte[] data, int length, int crc) throws IOException {
+            firmwarePacket.clear();
+            firmwarePacket.put((byte) FIRMWARE_MAGIC).put((byte) FIRMWARE_CHUNK)
+                    .putInt((int) offset).putShort((short) length).putInt(crc)
+                    .put(data, 0, length);
+            sendPacket();
+        }
+
+        @Override
+        public void finish(long size, int imageCrc) throws IOException {
+            firmwarePacket.clear();
+            firmwarePacket.put((byte) FIRMWARE_MAGIC).put((byte) FIRMWARE_FINISH)
+                    .putInt((int) size).putInt(imageCrc);
+            sendPacket();
+        }
+
+        private void sendPacket() throws IOException {
+            RawChannel current = channel;
+            if (null == current) {
+                throw new IOException("Raw interface closed");
+            }
+            int crc = TelemetryDecoder.crc(firmwarePacket.array(), 0, firmwarePacket.position());
+            firmwarePacket.putShort((short) crc).flip();
+            current.write(firmwarePacket);
+        }
+    };
+
+    private final FirmwareUpdater.Listener firmwareListener = new FirmwareUpdater.Listener() {
+        private int lastPercent = -1;
+
+        @Override
+        public void onProgress(long offset, long size) {
+            workerHandler.removeCallbacks(ackTimeout);
+            workerHandler.postDelayed(ackTimeout, ACK_TIMEOUT);
+
+            int percent = size == 0 ? 100 : (int) (offset * 100 / size);
+            if (percent != lastPercent) {
+                lastPercent = percent;
+                notifyListeners(MSG_UPDATE_PROGRESS, percent);
+            }
+        }
+
+        @Override
+        public void onDone(int result) {
+            lastPercent = -1;
+            workerHandler.removeCallbacks(ackTimeout);
+            notifyListeners(MSG_UPDATE_DONE, result);
+        }
+    };
+
+    private final RawChannel.Sink channelSink = new RawChannel.Sink() {
+        @Override
+        public boolean onPayload(ByteBuffer payload) {
+            /** Decode without moving the payload position, the sink sees all of it */
+            int position = payload.position();
+            telemetry.decode(payload);
+            payload.position(position);
+
+            RawChannel.Sink sink = dataSink;
+            boolean retained = null != sink && sink.onPayload(payload);
+
+            long now = SystemClock.uptimeMillis();
+            if (now - lastDataNotify >= DATA_NOTIFY_INTERVAL) {
+                lastDataNotify = now;
+                RawChannel current = channel;
+                Message msg = Message.obtain();
+                msg.what = MSG_RAW_DATA;
+                msg.arg1 = null == current ? 0 : (int) current.getPayloadCount();
+                notifyListeners(msg);
+            }
+            return retained;
+        }
+
+        @Override
+        public void onClosed(IOException error) {
+            telemetry.onClosed(error);
+            RawChannel.Sink sink = dataSink;
+            if (null != sink) {
+                sink.onClosed(error);
+            }
+
+            if (null != error) {
+                Log.e(Constants.TAG, "RawPersonality - read failed", error);
+                notifyListeners(MSG_RAW_IO_EXCEPTION);
+                workerHandler.post(closeRaw);
+            }
+        }
+    };
+
+    /** Called on the I/O thread, acks are only queued, the next chunks are sent on the worker */
+    private final TelemetryDecoder.FirmwareSink firmwareSink = new TelemetryDecoder.FirmwareSink() {
+        @Override
+        public void onAck(long offset, boolean ok) {
+            FirmwareUpdater current = updater;
+            if (null != current) {
+                current.onAck(offset, ok);
+            }
+        }
+
+        @Override
+        public void onRequest() {
+            requestFirmware(modDevice);
+        }
+    };
+
+    private final Runnable closeRaw = new Runnable() {
+        @Override
+        public void run() {
+            closeRawDevice();
+        }
+    };
+
+    private final Runnable openRaw = new Runnable() {
+        @Override
+        public void run() {
+            openRawDevice(modDevice);
+        }
+    };
+
+    /** Constructor */
+    public RawPersonality(Context context) {
+        super(context);
+        updateStore = new UpdateStore(new File(context.getNoBackupFilesDir(), FIRMWARE_DIR));
+        telemetry.setFirmwareSink(firmwareSink);
+    }
+
+    /**
+     * Push a firmware image to the mod device, resuming an interrupted update of the
+     * same image. Progress is reported with MSG_UPDATE_* messages.
+     */
+    public void updateFirmware(final File image) {
+        workerHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                startUpdate(image);
+            }
+        });
+    }
+
+    /**
+     * Stop the running firmware update, keeping its progress. Posted to the worker
+     * thread, which may be blocked in a send.
+     */
+    public void stopFirmwareUpdate() {
+        workerHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                FirmwareUpdater current = updater;
+                if (null != current) {
+                    current.stop();
+                }
+            }
+        });
+    }
+
+    /** Get the running or last firmware update, null if none */
+    public FirmwareUpdater getFirmwareUpdater() {
+        return updater;
+    }
+
+    /**
+     * Set the consumer of the raw payloads. It runs on the I/O thread, and must
+     * release retained buffers to getBufferPool().
+     */
+    public void setDataSink(RawChannel.Sink sink) {
+        dataSink = sink;
+    }
+
+    /** Get the decoder of the cell telemetry frames, and its columns */
+    public TelemetryDecoder getTelemetry() {
+        return telemetry;
+    }
+
+    /** Get the pool of the read buffers */
+    public BufferPool getBufferPool() {
+        return pool;
+    }
+
+    /** Get the open raw interface, null if none */
+    public RawChannel getRawChannel() {
+        return channel;
+    }
+
+    /** Retry opening the raw interface, e.g. once the permission is granted */
+    public void checkRawInterface() {
+        workerHandler.post(openRaw);
+    }
+
+    /**
+     * Write a command to the mod device. It may block, so do not call it on the main
+     * thread. Returns false if no raw interface is open or the write failed.
+     */
+    public boolean write(ByteBuffer data) {
+        RawChannel current = channel;
+        if (null == current) {
+            return false;
+        }
+
+        try {
+            current.write(data);
+            return true;
+        } catch (IOException e) {
+            Log.e(Constants.TAG, "RawPersonality - write failed", e);
+            notifyListeners(MSG_RAW_IO_EXCEPTION);
+            workerHandler.post(closeRaw);
+            return false;
+        }
+    }
+
+    /** Start a firmware update, on the worker thread */
+    private void startUpdate(File image) {
+        ModDevice d = modDevice;
+        FirmwareUpdater previous = updater;
+        if (null != previous) {
+            previous.stop();
+        }
+
+        notifyListeners(MSG_UPDATE_START);
+        if (null == channel || null == d || null == d.getUniqueId()) {
+            notifyListeners(MSG_UPDATE_DONE, FirmwareUpdater.RESULT_IO_ERROR);
+            return;
+        }
+
+        FirmwareUpdater current = new FirmwareUpdater(image, d.getUniqueId(), updateStore,
+                firmwareEndpoint, firmwareListener, workerExecutor,
+                FirmwareUpdater.DEFAULT_CHUNK_SIZE, FirmwareUpdater.DEFAULT_WINDOW);
+        updater = current;
+        try {
+            current.start();
+        } catch (IOException e) {
+            Log.e(Constants.TAG, "RawPersonality - failed to map " + image, e);
+            notifyListeners(MSG_UPDATE_DONE, FirmwareUpdater.RESULT_IO_ERROR);
+        }
+    }
+
+    /** Ask listeners for a firmware image, with the progress of an interrupted update */
+    private void requestFirmware(ModDevice d) {
+        UUID id = null == d ? null : d.getUniqueId();
+        UpdateStore.Progress progress = null == id ? null : updateStore.read(id);
+        int percent = null == progress || progress.imageSize == 0 ? 0
+                : (int) (progress.offset * 100 / progress.imageSize);
+        notifyListeners(MSG_REQUEST_FIRMWARE, percent);
+    }
+
+    /** Wait for a mod device with the RAW protocol on attach */
+    @Override
+    protected boolean isExpectedDevice(ModDevice d) {
+        return null != d && d.hasDeclaredProtocol(ModProtocol.Protocol.RAW);
+    }
+
+    /** Use the MDK device with a raw interface, if several are attached */
+    @Override
+    protected ModDevice selectDevice(ModDeviceRegistry devices) {
+        return devices.select(ModProtocol.Protocol.RAW);
+    }
+
+    /** Mod device attach/detach, open or close its raw interface */
+    @Override
+    public void onModDevice(ModDevice d) {
+        super.onModDevice(d);
+
+        if (null != d && d.hasDeclaredProtocol(ModProtocol.Protocol.RAW)) {
+            openRawDevice(d);
+        } else {
+            closeRawDevice();
+        }
+    }
+
+    @Override
+    public void onDestroy() {
+        dataSink = null;
+        closeRawDevice();
+        super.onDestroy();
+    }
+
+    /** Open the raw interface of the mod device unless already open, on the worker thread */
+    private synchronized void openRawDevice(ModDevice d) {
+        ModManager manager = modManager;
+        if (null == manager || null == d) {
+            return;
+        }
+
+        UUID id = d.getUniqueId();
+        if (null != channel) {
+            if (null != id && id.equals(rawDeviceId)) {
+                return;
+            }
+            closeRawDevice();
+        }
+
+        /** Raw protocol is protected by a dangerous permission, the activity requests it */
+        if (context.checkSelfPermission(ModManager.PERMISSION_RAW_PROTOCOL)
+                != PackageManager.PERMISSION_GRANTED) {
+            notifyListeners(MSG_RAW_REQUEST_PERMISSION);
+            return;
+        }
+
+        try {
+            List<ModInterfaceDelegation> devices = manager.getModInterfaceDelegationsByProtocol(
+                    d, ModProtocol.Protocol.RAW);
+            if (null == devices || devices.isEmpty()) {
+                return;
+            }
+
+            /** A mod device has one raw interface */
+            ParcelFileDescriptor descriptor = manager.openModInterface(devices.get(0),
+                    ParcelFileDescriptor.MODE_READ_WRITE);
+            if (null == descriptor) {
+                notifyListeners(MSG_RAW_IO_EXCEPTION);
+                return;
+            }
+
+            rawDescriptor = descriptor;
+            rawDeviceId = id;
+            RawChannel opened = new RawChannel(
+                    new FileInputStream(descriptor.getFileDescriptor()).getChannel(),
+                    new FileOutputStream(descriptor.getFileDescriptor()).getChannel(),
+                    pool, channelSink);
+            channel = opened;
+            opened.start();
+            notifyListeners(MSG_RAW_IO_READY);
+
+            /** Offer to resume an update interrupted by a detach */
+            if (null != id && null != updateStore.read(id)) {
+                requestFirmware(d);
+            }
+        } catch (RemoteException e) {
+            e.printStackTrace();
+            notifyListeners(MSG_RAW_IO_EXCEPTION);
+        }
+    }
+
+    /** Close the raw interface if open */
+    private synchronized void closeRawDevice() {
+        /** Keep the progress, the update resumes once the mod device is back */
+        FirmwareUpdater running = updater;
+        if (null != running) {
+            running.stop();
+        }
+
+        RawChannel current = channel;
+        channel = null;
+        rawDeviceId = null;
+        if (null != current) {
+            current.close();
+        }
+
+        if (null != rawDescriptor) {
+            try {
+                rawDescriptor.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            rawDescriptor = null;
+        }
+    }
+}
@@ -0,0 +1,259 @@
+/**
+ * Copyright (c) 2016 Motorola Mobility, LLC.
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.motorola.samples.mdkbattery;
+
+import android.os.BatteryManager;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.UUID;
+
+/**
+ * A class to tune the mod battery recharge thresholds from the usage history.
+ * The phone drain of the recent samples is replayed through RechargeSimulator for
+ * each allowed pair of thresholds, and the best scoring pair is written back if it
+ * beats the current one by a margin.
+ * <p/>
+ * Guard rails keep the thresholds in a safe range, limit how far they move per
+ * decision and how often they are written. The last write time of each mod device
+ * is kept in a PolicyStore, so the write interval holds across instances. In
+ * dry-run mode decisions are only logged.
+ */
+public class RechargePolicy {
+    /** Allowed thresholds, in phone battery percent */
+    public static final int MIN_START = 30;
+    public static final int MAX_START = 90;
+    public static final int MIN_WINDOW = 5;
+    public static final int MAX_STOP = 100;
+
+    /** Largest move of a threshold per decision */
+    public static final int MAX_STEP = 10;
+
+    /** Threshold granularity of the candidates */
+    public static final int GRID = 5;
+
+    /** Score gain over the current thresholds needed to change them, in percent */
+    public static final int MIN_GAIN = 2;
+
+    /** Shortest time between two writes */
+    public static final long MIN_WRITE_INTERVAL = 6 * 3600 * 1000L;
+
+    /** Shortest usable trace, in minutes */
+    public static final int MIN_TRACE = 60;
+
+    /** Writes thresholds to the mod battery */
+    public interface ThresholdWriter {
+        /** Write the thresholds, returns false if the mod battery refused them */
+        boolean write(int start, int stop);
+    }
+
+    /** A decision of the policy */
+    public static class Decision {
+        public int start;
+        public int stop;
+        public double score;
+        public double currentScore;
+
+        /** Whether the thresholds should change */
+        public boolean change;
+    }
+
+    private final RechargeSimulator.Model model;
+    private final PolicyStore store;
+    private volatile boolean dryRun;
+
+    private final RechargeSimulator.Result result = new RechargeSimulator.Result();
+
+    /** Constructor */
+    public RechargePolicy(RechargeSimulator.Model model, PolicyStore store, boolean dryRun) {
+        this.model = model;
+        this.store = store;
+        this.dryRun = dryRun;
+    }
+
+    /** Only log decisions, never write them */
+    public void setDryRun(boolean dryRun) {
+        this.dryRun = dryRun;
+    }
+
+    public boolean isDryRun() {
+        return dryRun;
+    }
+
+    public RechargeSimulator.Model getModel() {
+        return model;
+    }
+
+    /** Clamp thresholds into the allowed range */
+    public static int clampStart(int start) {
+        return Math.max(MIN_START, Math.min(MAX_START, start));
+    }
+
+    public static int clampStop(int start, int stop) {
+        return Math.max(start + MIN_WINDOW, Math.min(MAX_STOP, stop));
+    }
+
+    /**
+     * Pick the best thresholds for a drain trace, within MAX_STEP of the current ones.
+     * Returns null if the trace is too short to decide.
+     */
+    public synchronized Decision decide(float[] drain, double coreLevel, double modLevel,
+                                        int currentStart, int currentStop) {
+        if (null == drain || drain.length < MIN_TRACE) {
+            return null;
+        }
+
+        Decision decision = new Decision();
+        decision.start = currentStart;
+        decision.stop = currentStop;
+        decision.currentScore = RechargeSimulator.simulate(drain, coreLevel, modLevel,
+                currentStart, currentStop, model, result).score;
+        decision.score = decision.currentScore;
+
+        int low = clampStart(currentStart - MAX_STEP);
+        int high = clampStart(currentStart + MAX_STEP);
+        for (int start = low - low % GRID; start <= high; start += GRID) {
+            if (start < low) {
+                continue;
+            }
+            int stopLow = clampStop(start, currentStop - MAX_STEP);
+            int stopHigh = clampStop(start, currentStop + MAX_STEP);
+            for (int stop = stopLow - stopLow % GRID; stop <= stopHigh; stop += GRID) {
+                if (stop < stopLow) {
+                    continue;
+                }
+                double score = RechargeSimulator.simulate(drain, coreLevel, modLevel,
+                        start, stop, model, result).score;
+                if (score > decision.score) {
+                    decision.score = score;
+                    decision.start = start;
+                    decision.stop = stop;
+                }
+            }
+        }
+
+        double gain = decision.score - decision.currentScore;
+        decision.change = (decision.start != currentStart || decision.stop != currentStop)
+                && gain * 100 > Math.abs(decision.currentScore) * MIN_GAIN;
+        return decision;
+    }
+
+    /**
+     * Write a decision for a mod device unless in dry-run mode or written too recently,
+     * now is the wall clock time. Returns true if the thresholds were written.
+     */
+    public synchronized boolean apply(Decision decision, UUID id, ThresholdWriter writer,
+                                      long now) {
+        if (null == decision || !decision.change) {
+            return false;
+        }
+
+        String text = "RechargePolicy - " + decision.start + "/" + decision.stop
+                + " scores " + Math.round(decision.score) + " vs "
+                + Math.round(decision.currentScore);
+        if (dryRun) {
+            Log.i(Constants.TAG, text + ", dry run");
+            return false;
+        }
+        /** A clock set back does not block writes forever */
+        long lastWrite = store.readLastWrite(id);
+        if (lastWrite != PolicyStore.NEVER && now >= lastWrite
+                && now - lastWrite < MIN_WRITE_INTERVAL) {
+            Log.i(Constants.TAG, text + ", written too recently");
+            return false;
+        }
+
+        /** Never trust a decision outside the guard rails */
+        int start = clampStart(decision.start);
+        int stop = clampStop(start, decision.stop);
+        if (!writer.write(start, stop)) {
+            Log.w(Constants.TAG, text + ", refused by mod battery");
+            return false;
+        }
+        try {
+            store.writeLastWrite(id, now);
+        } catch (IOException e) {
+            Log.w(Constants.TAG, "RechargePolicy - failed to save the write time", e);
+        }
+        Log.i(Constants.TAG, text + ", written");
+        return true;
+    }
+
+    /**
+     * Build the phone drain trace per minute, in percent, from history samples.
+     * Minutes while the phone was charging or powered by the mod do not show its
+     * drain, so they get the average drain of the other minutes.
+     */
+    public static float[] drainTrace(BatteryHistory.Samples samples) {
+        if (samples.size < 2) {
+            return null;
+        }
+
+        long first = samples.getTime(0);
+        int minutes = (int) ((samples.getTime(samples.size - 1) - first) / 60000) + 1;
+        float[] drain = new float[minutes];
+        boolean[] known = new boolean[minutes];
+        double total = 0;
+        int knownMinutes = 0;
+
+        for (int i = 1; i < samples.size; i++) {
+            long dt = samples.getTime(i) - samples.getTime(i - 1);
+            boolean unplugged = samples.getCorePlugged(i - 1) == 0 && !samples.isModPlugged(i - 1)
+                    && samples.getCoreStatus(i - 1) != BatteryManager.BATTERY_STATUS_CHARGING;
+            int delta = samples.getCoreLevel(i - 1) - samples.getCoreLevel(i);
+            if (!unplugged || dt <= 0 || delta < 0) {
+                continue;
+            }
+
+            /** Levels are whole percents, so the drop is credited to the minute it shows */
+            int m0 = (int) ((samples.getTime(i - 1) - first) / 60000);
+            int m1 = Math.max(m0, (int) ((samples.getTime(i) - first - 1) / 60000));
+            for (int m = m0; m <= m1; m++) {
+                if (!known[m]) {
+                    known[m] = true;
+                    knownMinutes++;
+                }
+            }
+            drain[m1] += delta;
+            total += delta;
+        }
+
+        if (knownMinutes == 0) {
+            return null;
+        }
+        float average = (float) (total / knownMinutes);
+        for (int m = 0; m < minutes; m++) {
+            if (!known[m]) {
+                drain[m] = average;
+            }
+        }
+        return drain;
+    }
+}
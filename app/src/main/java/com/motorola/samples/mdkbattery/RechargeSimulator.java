@@ -0,0 +1,139 @@
+/**
+ * Copyright (c) 2016 Motorola Mobility, LLC.
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.motorola.samples.mdkbattery;
+
+/**
+ * A class to simulate how a pair of recharge thresholds would have used the mod
+ * battery over a phone drain trace. The mod starts to charge the phone when the
+ * phone level falls to the start threshold, and stops once it reaches the stop
+ * threshold or the mod is empty.
+ * <p/>
+ * Charging the phone near full wastes more energy, so the transfer efficiency of
+ * the model drops above TAPER_LEVEL.
+ */
+public class RechargeSimulator {
+    /** Phone level above which charging tapers and loses more energy */
+    public static final double TAPER_LEVEL = 80;
+
+    /** Phone level below which each minute is penalized */
+    public static final double LOW_LEVEL = 15;
+
+    /** Phone and mod battery parameters, and the transfer model */
+    public static class Model {
+        /** Full capacities in mAh */
+        public long coreCapacity = 3000;
+        public long modCapacity = 2220;
+
+        /** Current the mod supplies while transferring, in mA */
+        public int transferCurrent = 1500;
+
+        /** Share of the transferred charge reaching the phone battery, below and at full */
+        public double efficiency = 0.9;
+        public double fullEfficiency = 0.7;
+
+        /** Score lost per minute the phone spends below LOW_LEVEL, in mAh */
+        public double lowPenalty = 5;
+    }
+
+    /** Outcome of a simulation */
+    public static class Result {
+        /** Charge the phone battery gained from the mod, in mAh */
+        public double delivered;
+
+        /** Charge the mod spent, in mAh */
+        public double spent;
+
+        /** Minutes the phone spent below LOW_LEVEL */
+        public int lowMinutes;
+
+        /** Number of transfers started */
+        public int transfers;
+
+        /** Delivered charge less the low level penalty */
+        public double score;
+    }
+
+    private RechargeSimulator() {
+    }
+
+    /**
+     * Simulate thresholds over a trace of the phone drain per minute, in percent of
+     * its capacity, from the given phone and mod levels. Fills and returns result.
+     */
+    public static Result simulate(float[] drain, double coreLevel, double modLevel,
+                                  int start, int stop, Model model, Result result) {
+        double core = coreLevel;
+        double mod = modLevel * model.modCapacity / 100;
+        double rate = model.transferCurrent / 60.0;
+        boolean transferring = false;
+
+        result.delivered = 0;
+        result.spent = 0;
+        result.lowMinutes = 0;
+        result.transfers = 0;
+
+        for (float minuteDrain : drain) {
+            if (!transferring && core <= start && mod > 0) {
+                transferring = true;
+                result.transfers++;
+            }
+
+            if (transferring) {
+                double spent = Math.min(rate, mod);
+                double gained = spent * efficiency(core, model) * 100 / model.coreCapacity;
+                gained = Math.min(gained, 100 - core);
+                mod -= spent;
+                core += gained;
+                result.spent += spent;
+                result.delivered += gained * model.coreCapacity / 100;
+                if (core >= stop || mod <= 0) {
+                    transferring = false;
+                }
+            }
+
+            core = Math.max(0, core - minuteDrain);
+            if (core < LOW_LEVEL) {
+                result.lowMinutes++;
+            }
+        }
+
+        result.score = result.delivered - result.lowMinutes * model.lowPenalty;
+        return result;
+    }
+
+    /** Get the transfer efficiency at a phone level */
+    static double efficiency(double core, Model model) {
+        if (core <= TAPER_LEVEL) {
+            return model.efficiency;
+        }
+        double taper = (core - TAPER_LEVEL) / (100 - TAPER_LEVEL);
+        return model.efficiency + taper * (model.fullEfficiency - model.efficiency);
+    }
+}
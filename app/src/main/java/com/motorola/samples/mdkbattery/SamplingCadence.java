@@ -0,0 +1,94 @@
+/**
+ * Copyright (c) 2016 Motorola Mobility, LLC.
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.motorola.samples.mdkbattery;
+
+import android.os.BatteryManager;
+
+/**
+ * A class to choose the interval to the next background battery sample from the
+ * battery state. Sampling is dense while a battery charges, the mod transfers
+ * charge or the phone is near a recharge threshold, and sparse when the levels
+ * are stable.
+ */
+public class SamplingCadence {
+    public static final long DENSE_INTERVAL = 5 * 60 * 1000;
+    public static final long NORMAL_INTERVAL = 15 * 60 * 1000;
+    public static final long SPARSE_INTERVAL = 60 * 60 * 1000;
+
+    /** Phone levels this close to a recharge threshold are sampled densely */
+    public static final int THRESHOLD_MARGIN = 3;
+
+    /** Phone level considered low, sampled densely */
+    public static final int LOW_LEVEL = 15;
+
+    /** Level change between samples still considered stable */
+    public static final int STABLE_DELTA = 1;
+
+    /** Level unknown, e.g. before the first sample */
+    public static final int UNKNOWN = -1;
+
+    /**
+     * Get the interval to the next sample, from the current snapshot and the levels
+     * at the previous sample.
+     */
+    public static long nextInterval(BatterySnapshot snapshot, int lastCoreLevel,
+                                    int lastModLevel) {
+        if (null == snapshot) {
+            return NORMAL_INTERVAL;
+        }
+
+        BatterySnapshot.Values core = snapshot.core;
+        BatterySnapshot.Values mod = snapshot.mod;
+
+        /** Phone charging from any source, including the mod, or mod charging */
+        if (core.status == BatteryManager.BATTERY_STATUS_CHARGING
+                || mod.status == BatteryManager.BATTERY_STATUS_CHARGING
+                || core.plugged != 0) {
+            return DENSE_INTERVAL;
+        }
+
+        if (core.level <= LOW_LEVEL || isNear(core.level, mod.rechargeStart)
+                || isNear(core.level, mod.rechargeStop)) {
+            return DENSE_INTERVAL;
+        }
+
+        if (lastCoreLevel != UNKNOWN
+                && Math.abs(core.level - lastCoreLevel) <= STABLE_DELTA
+                && Math.abs(mod.level - lastModLevel) <= STABLE_DELTA) {
+            return SPARSE_INTERVAL;
+        }
+        return NORMAL_INTERVAL;
+    }
+
+    private static boolean isNear(int level, int threshold) {
+        return threshold != Constants.BATTERY_INVALID && threshold > 0
+                && Math.abs(level - threshold) <= THRESHOLD_MARGIN;
+    }
+}
@@ -0,0 +1,181 @@
+/**
+ * Copyright (c) 2016 Motorola Mobility, LLC.
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.motorola.samples.mdkbattery;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * A class to persist the last known battery data and mod device summary, so the
+ * UI could render them on a cold start before live data is available. The file
+ * has a fixed binary layout:
+ * <pre>
+ *   int    magic, short version, short flags
+ *   long   wall clock time of saving, in ms
+ *   int    mod efficiency mode, int mod usage type
+ *   2 x    int level, icon, scale, status, rechargeStop, rechargeStart, plugged
+ *          long capFull                           (phone, then mod battery)
+ *   int    mod vendor ID, int mod product ID
+ *   short  length + PRODUCT_SIZE bytes of UTF-8   mod product string
+ *   short  length + FIRMWARE_SIZE bytes of UTF-8  mod firmware version
+ *   int    CRC32 of all previous bytes
+ * </pre>
+ * The file is a ChecksummedFile.
+ */
+public class SnapshotStore {
+    private static final int MAGIC = 0x4d444b42;
+    private static final short VERSION = 1;
+
+    /** Flag set when a mod device summary is stored */
+    private static final short FLAG_DEVICE = 1;
+
+    private static final int PRODUCT_SIZE = 64;
+    private static final int FIRMWARE_SIZE = 32;
+    private static final int VALUES_SIZE = 7 * 4 + 8;
+
+    static final int SIZE = 4 + 2 + 2 + 8 + 4 + 4 + 2 * VALUES_SIZE + 4 + 4
+            + 2 + PRODUCT_SIZE + 2 + FIRMWARE_SIZE + ChecksummedFile.CRC_SIZE;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /** Restored data, marked as stale */
+    public static class State {
+        /** Wall clock time the data was saved, in ms */
+        public final long savedTime;
+        public final BatterySnapshot snapshot;
+
+        /** Null if no mod device was attached */
+        public final DeviceSummary device;
+
+        State(long savedTime, BatterySnapshot snapshot, DeviceSummary device) {
+            this.savedTime = savedTime;
+            this.snapshot = snapshot;
+            this.device = device;
+        }
+    }
+
+    private final ChecksummedFile file;
+
+    /** Constructor */
+    public SnapshotStore(File file) {
+        this.file = new ChecksummedFile(file, SIZE);
+    }
+
+    /** Save the data, replacing the previous file atomically */
+    public void write(BatterySnapshot snapshot, DeviceSummary device, long now)
+            throws IOException {
+        ByteBuffer buffer = file.allocate();
+        buffer.putInt(MAGIC);
+        buffer.putShort(VERSION);
+        buffer.putShort(null != device ? FLAG_DEVICE : 0);
+        buffer.putLong(now);
+        buffer.putInt(snapshot.modEfficiency);
+        buffer.putInt(snapshot.modUsageType);
+        putValues(buffer, snapshot.core);
+        putValues(buffer, snapshot.mod);
+        buffer.putInt(null != device ? device.vendorId : Constants.INVALID_ID);
+        buffer.putInt(null != device ? device.productId : Constants.INVALID_ID);
+        putString(buffer, null != device ? device.productString : null, PRODUCT_SIZE);
+        putString(buffer, null != device ? device.firmwareVersion : null, FIRMWARE_SIZE);
+        file.write(buffer);
+    }
+
+    /** Read the saved data, null if none or invalid */
+    public State read() {
+        ByteBuffer buffer = file.read();
+        return null == buffer ? null : decode(buffer);
+    }
+
+    /** Decode a record, null if invalid */
+    static State decode(ByteBuffer buffer) {
+        if (buffer.getInt() != MAGIC || buffer.getShort() != VERSION) {
+            return null;
+        }
+
+        short flags = buffer.getShort();
+        long savedTime = buffer.getLong();
+        int efficiency = buffer.getInt();
+        int usage = buffer.getInt();
+        BatterySnapshot.Values core = getValues(buffer);
+        BatterySnapshot.Values mod = getValues(buffer);
+        int vid = buffer.getInt();
+        int pid = buffer.getInt();
+        String product = getString(buffer, PRODUCT_SIZE);
+        String firmware = getString(buffer, FIRMWARE_SIZE);
+
+        DeviceSummary device = null;
+        if ((flags & FLAG_DEVICE) != 0) {
+            device = new DeviceSummary(vid, pid, product, firmware);
+        }
+        return new State(savedTime,
+                new BatterySnapshot(0, 0, true, efficiency, usage, core, mod), device);
+    }
+
+    private static void putValues(ByteBuffer buffer, BatterySnapshot.Values values) {
+        buffer.putInt(values.level);
+        buffer.putInt(values.icon);
+        buffer.putInt(values.scale);
+        buffer.putInt(values.status);
+        buffer.putInt(values.rechargeStop);
+        buffer.putInt(values.rechargeStart);
+        buffer.putInt(values.plugged);
+        buffer.putLong(values.capFull);
+    }
+
+    private static BatterySnapshot.Values getValues(ByteBuffer buffer) {
+        return new BatterySnapshot.Values(buffer.getInt(), buffer.getInt(), buffer.getInt(),
+                buffer.getInt(), buffer.getInt(), buffer.getInt(), buffer.getInt(),
+                buffer.getLong());
+    }
+
+    /** Put a string as length and fixed size field, truncated at a character boundary */
+    private static void putString(ByteBuffer buffer, String value, int size) {
+        byte[] bytes = null == value ? new byte[0] : value.getBytes(UTF8);
+        int length = Math.min(bytes.length, size);
+        while (length < bytes.length && length > 0 && (bytes[length] & 0xc0) == 0x80) {
+            length--;
+        }
+        buffer.putShort((short) (null == value ? -1 : length));
+        buffer.put(bytes, 0, length);
+        buffer.position(buffer.position() + size - length);
+    }
+
+    private static String getString(ByteBuffer buffer, int size) {
+        int length = buffer.getShort();
+        int start = buffer.position();
+        buffer.position(start + size);
+        if (length < 0 || length > size) {
+            return null;
+        }
+        return new String(buffer.array(), start, length, UTF8);
+    }
+}
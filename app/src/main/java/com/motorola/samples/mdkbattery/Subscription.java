@@ -0,0 +1,244 @@
+/**
+ * Copyright (c) 2016 Motorola Mobility, LLC.
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.motorola.samples.mdkbattery;
+
+import android.os.Handler;
+import android.util.Log;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A class to deliver battery snapshots to one subscriber on its own executor.
+ * The publisher never waits: a snapshot is queued according to the delivery
+ * policy, and at most one delivery task per subscription is pending on the
+ * executor. A slow subscriber only loses its own snapshots, never delays others.
+ */
+public class Subscription {
+    private final Executor executor;
+    private final SnapshotConsumer consumer;
+    private final DeliveryPolicy policy;
+    private final int fields;
+    private final Handler timer;
+
+    /** Queued snapshots, a ring of policy.capacity, guarded by this */
+    private final BatterySnapshot[] queue;
+    private int head;
+    private int size;
+
+    /** Version of the newest snapshot offered, guarded by this */
+    private long lastVersion = Long.MIN_VALUE;
+
+    /** SAMPLE: latest snapshot not delivered yet, guarded by this */
+    private BatterySnapshot sampled;
+
+    /** Whether a delivery task is pending or running on the executor */
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private volatile boolean cancelled;
+
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    private final Runnable drain = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    private final Runnable tick = new Runnable() {
+        @Override
+        public void run() {
+            if (cancelled) {
+                return;
+            }
+            tick();
+            timer.postDelayed(this, policy.period);
+        }
+    };
+
+    /** Constructor, the timer handler is only used by the SAMPLE policy */
+    Subscription(Executor executor, SnapshotConsumer consumer, DeliveryPolicy policy,
+                 int fields, Handler timer) {
+        this.executor = executor;
+        this.consumer = consumer;
+        this.policy = policy;
+        this.fields = fields;
+        this.timer = timer;
+        queue = new BatterySnapshot[policy.capacity];
+
+        if (policy.type == DeliveryPolicy.SAMPLE && null != timer) {
+            timer.postDelayed(tick, policy.period);
+        }
+    }
+
+    /** Stop delivering, snapshots already being delivered still complete */
+    public void cancel() {
+        cancelled = true;
+        if (null != timer) {
+            timer.removeCallbacks(tick);
+        }
+        synchronized (this) {
+            for (int i = 0; i < queue.length; i++) {
+                queue[i] = null;
+            }
+            size = 0;
+            sampled = null;
+        }
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /** Get the number of snapshots delivered */
+    public long getDeliveredCount() {
+        return delivered.get();
+    }
+
+    /** Get the number of snapshots replaced or dropped before delivery */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Queue a snapshot if any subscribed field changed, never blocks. Offers may race,
+     * e.g. the current snapshot on subscribe and a new one from the worker, so a
+     * snapshot not newer than one already offered is dropped.
+     */
+    void offer(BatterySnapshot snapshot, int changed) {
+        if (cancelled) {
+            return;
+        }
+
+        synchronized (this) {
+            if (snapshot.version <= lastVersion) {
+                return;
+            }
+            lastVersion = snapshot.version;
+            if ((changed & fields) == 0) {
+                return;
+            }
+
+            if (policy.type == DeliveryPolicy.SAMPLE) {
+                if (null != sampled) {
+                    dropped.incrementAndGet();
+                }
+                sampled = snapshot;
+                return;
+            }
+
+            if (size == queue.length) {
+                /** Full, drop the oldest; for LATEST this replaces the pending one */
+                queue[head] = null;
+                head = (head + 1) % queue.length;
+                size--;
+                dropped.incrementAndGet();
+            }
+            queue[(head + size) % queue.length] = snapshot;
+            size++;
+        }
+        schedule();
+    }
+
+    /** SAMPLE: move the latest snapshot to the queue, once per period */
+    void tick() {
+        synchronized (this) {
+            if (null == sampled) {
+                return;
+            }
+            if (size == queue.length) {
+                queue[head] = null;
+                head = (head + 1) % queue.length;
+                size--;
+                dropped.incrementAndGet();
+            }
+            queue[(head + size) % queue.length] = sampled;
+            size++;
+            sampled = null;
+        }
+        schedule();
+    }
+
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            try {
+                executor.execute(drain);
+            } catch (RejectedExecutionException e) {
+                /** Executor shut down, the subscriber is gone */
+                scheduled.set(false);
+                cancel();
+            }
+        }
+    }
+
+    /** Deliver the queued snapshots, on the executor */
+    private void drain() {
+        while (true) {
+            BatterySnapshot next = poll();
+            if (null == next) {
+                scheduled.set(false);
+
+                /** A snapshot queued after the poll but before the flag was reset */
+                if (!hasQueued() || !scheduled.compareAndSet(false, true)) {
+                    return;
+                }
+                continue;
+            }
+
+            if (cancelled) {
+                continue;
+            }
+            try {
+                consumer.accept(next);
+                delivered.incrementAndGet();
+            } catch (RuntimeException e) {
+                Log.w(Constants.TAG, "Subscription - consumer failed", e);
+            }
+        }
+    }
+
+    private synchronized BatterySnapshot poll() {
+        if (size == 0) {
+            return null;
+        }
+        BatterySnapshot next = queue[head];
+        queue[head] = null;
+        head = (head + 1) % queue.length;
+        size--;
+        return next;
+    }
+
+    private synchronized boolean hasQueued() {
+        return size > 0;
+    }
+}
@@ -0,0 +1,126 @@
+/**
+ * Copyright (c) 2016 Motorola Mobility, LLC.
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.motorola.samples.mdkbattery;
+
+/**
+ * A class to keep the recent cell telemetry of a battery mod in a fixed-capacity
+ * ring of primitive columns, one row per frame. BatteryStat holds the battery
+ * level and status at broadcast rate, this holds per-cell voltage, current and
+ * temperature at frame rate.
+ * <p/>
+ * There is a single writer, the raw I/O thread. Readers should only read rows
+ * between getCount() - getCapacity() + margin and getCount(), as the oldest rows
+ * are overwritten while they read.
+ */
+public class TelemetryColumns {
+    /** One minute of frames at 500 Hz */
+    public static final int DEFAULT_CAPACITY = 60 * 500;
+
+    /** Most cells a frame could carry */
+    public static final int MAX_CELLS = 16;
+
+    private final int capacity;
+
+    /** Frame columns, the row with sequence number n is at n % capacity */
+    public final int[] deviceTimes;
+    public final short[] sequences;
+    public final byte[] cellCounts;
+
+    /** Cell columns, cell c of row r is at r * MAX_CELLS + c */
+    public final short[] voltages;
+    public final short[] currents;
+    public final short[] temperatures;
+
+    /** Number of rows ever written, published after the row is written */
+    private volatile long count;
+
+    /** Constructor */
+    public TelemetryColumns(int capacity) {
+        this.capacity = capacity;
+        deviceTimes = new int[capacity];
+        sequences = new short[capacity];
+        cellCounts = new byte[capacity];
+        voltages = new short[capacity * MAX_CELLS];
+        currents = new short[capacity * MAX_CELLS];
+        temperatures = new short[capacity * MAX_CELLS];
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /** Get the number of rows ever written */
+    public long getCount() {
+        return count;
+    }
+
+    /** Get the column index of the row with the given sequence number */
+    public int row(long index) {
+        return (int) (index % capacity);
+    }
+
+    /** Get the device time of a row, in ms */
+    public long getDeviceTime(long index) {
+        return deviceTimes[row(index)] & 0xffffffffL;
+    }
+
+    public int getSequence(long index) {
+        return sequences[row(index)] & 0xffff;
+    }
+
+    public int getCellCount(long index) {
+        return cellCounts[row(index)];
+    }
+
+    /** Get the voltage of a cell, in mV */
+    public int getVoltage(long index, int cell) {
+        return voltages[row(index) * MAX_CELLS + cell] & 0xffff;
+    }
+
+    /** Get the current of a cell, in mA, positive while charging */
+    public int getCurrent(long index, int cell) {
+        return currents[row(index) * MAX_CELLS + cell];
+    }
+
+    /** Get the temperature of a cell, in tenths of a degree Celsius */
+    public int getTemperature(long index, int cell) {
+        return temperatures[row(index) * MAX_CELLS + cell];
+    }
+
+    /** Get the row to write next, call publish() once written */
+    int nextRow() {
+        return row(count);
+    }
+
+    /** Publish the row written after nextRow() */
+    void publish() {
+        count = count + 1;
+    }
+}
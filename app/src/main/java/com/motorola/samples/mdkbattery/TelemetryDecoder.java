@@ -0,0 +1,383 @@
+/**
+ * Copyright (c) 2016 Motorola Mobility, LLC.
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.motorola.samples.mdkbattery;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A class to decode the cell telemetry frames a battery mod streams over its raw
+ * interface, straight into TelemetryColumns. A frame is little endian:
+ * <pre>
+ *  0  magic          0xB7
+ *  1  version        1
+ *  2  cell count     1..16
+ *  3  flags          reserved, 0
+ *  4  sequence       u16, wraps
+ *  6  device time    u32, ms
+ * 10  cells          per cell: voltage u16 mV, current s16 mA, temperature s16 0.1 C
+ *  n  CRC            u16 CRC-16/CCITT-FALSE of all previous bytes
+ * </pre>
+ * The firmware update packets of the mod device share the stream, framed the same
+ * way and handed to the FirmwareSink:
+ * <pre>
+ *  0  magic          0xB8
+ *  1  type           0x81 ack, 0x82 request
+ *  2  ack only       offset u32, status u8, 0 if the chunk CRC matched
+ *  n  CRC            u16 CRC-16/CCITT-FALSE of all previous bytes
+ * </pre>
+ * Frames may be split or merged across payloads. Bytes which do not start a valid
+ * frame are skipped one at a time until the next valid frame, so other traffic on
+ * the raw interface is passed over. Decoding allocates nothing.
+ */
+public class TelemetryDecoder implements RawChannel.Sink {
+    public static final int MAGIC = 0xB7;
+    public static final int VERSION = 1;
+
+    public static final int HEADER_SIZE = 10;
+    public static final int CELL_SIZE = 6;
+    public static final int CRC_SIZE = 2;
+    public static final int MIN_FRAME_SIZE = HEADER_SIZE + CELL_SIZE + CRC_SIZE;
+    public static final int MAX_FRAME_SIZE = HEADER_SIZE
+            + TelemetryColumns.MAX_CELLS * CELL_SIZE + CRC_SIZE;
+
+    /** Firmware frames from the mod device */
+    public static final int FIRMWARE_MAGIC = 0xB8;
+    public static final int FIRMWARE_ACK = 0x81;
+    public static final int FIRMWARE_REQUEST = 0x82;
+    public static final int FIRMWARE_ACK_SIZE = 7 + CRC_SIZE;
+    public static final int FIRMWARE_REQUEST_SIZE = 2 + CRC_SIZE;
+
+    /** Consumer of the firmware frames, called on the decoding thread */
+    public interface FirmwareSink {
+        /** The mod device acknowledged the chunk at offset */
+        void onAck(long offset, boolean ok);
+
+        /** The mod device asks for a firmware image */
+        void onRequest();
+    }
+
+    private static final int[] CRC_TABLE = new int[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int crc = i << 8;
+            for (int b = 0; b < 8; b++) {
+                crc = (crc & 0x8000) != 0 ? (crc << 1) ^ 0x1021 : crc << 1;
+            }
+            CRC_TABLE[i] = crc & 0xffff;
+        }
+    }
+
+    private final TelemetryColumns columns;
+
+    private volatile FirmwareSink firmwareSink;
+
+    /** Bytes received but not decoded yet, between start and end */
+    private final byte[] staging = new byte[4096];
+    private int start;
+    private int end;
+
+    /** Sequence number of the last frame, -1 if none */
+    private int lastSequence = -1;
+
+    /** Statistics, only written on the decoding thread */
+    private volatile long frames;
+    private volatile long skippedBytes;
+    private volatile long crcErrors;
+    private volatile long versionErrors;
+    private volatile long lostFrames;
+    private volatile long firmwareFrames;
+
+    /** Constructor */
+    public TelemetryDecoder(TelemetryColumns columns) {
+        this.columns = columns;
+    }
+
+    public TelemetryColumns getColumns() {
+        return columns;
+    }
+
+    /** Set the consumer of the firmware frames, null to drop them */
+    public void setFirmwareSink(FirmwareSink sink) {
+        firmwareSink = sink;
+    }
+
+    /** Decode a raw payload, never keeps the buffer */
+    @Override
+    public boolean onPayload(ByteBuffer payload) {
+        decode(payload);
+        return false;
+    }
+
+    /** Raw interface closed, drop a partial frame */
+    @Override
+    public void onClosed(IOException error) {
+        reset();
+    }
+
+    /** Drop any partial frame, e.g. when the stream restarts */
+    public void reset() {
+        start = 0;
+        end = 0;
+        lastSequence = -1;
+    }
+
+    /** Decode the bytes between position and limit, and get the number of decoded frames */
+    public int decode(ByteBuffer in) {
+        int decoded = 0;
+        while (in.hasRemaining()) {
+            if (start > 0) {
+                /** Keep the partial frame at the beginning of the staging buffer */
+                System.arraycopy(staging, start, staging, 0, end - start);
+                end -= start;
+                start = 0;
+            }
+
+            int n = Math.min(in.remaining(), staging.length - end);
+            in.get(staging, end, n);
+            end += n;
+            decoded += parse();
+        }
+        return decoded;
+    }
+
+    /** Decode the bytes of an array */
+    public int decode(byte[] in, int offset, int length) {
+        return decode(ByteBuffer.wrap(in, offset, length));
+    }
+
+    /** Decode all complete frames in the staging buffer */
+    private int parse() {
+        byte[] b = staging;
+        int decoded = 0;
+        while (end - start >= FIRMWARE_REQUEST_SIZE) {
+            int p = start;
+            int magic = b[p] & 0xff;
+            int size = 0;
+            if (magic == MAGIC) {
+                if (end - p < MIN_FRAME_SIZE) {
+                    break;
+                }
+                int cells = b[p + 2] & 0xff;
+                if (cells > 0 && cells <= TelemetryColumns.MAX_CELLS) {
+                    size = HEADER_SIZE + cells * CELL_SIZE + CRC_SIZE;
+                }
+            } else if (magic == FIRMWARE_MAGIC) {
+                size = firmwareFrameSize(b[p + 1] & 0xff);
+            }
+
+            if (size == 0) {
+                start++;
+                skippedBytes++;
+                continue;
+            }
+            if (end - p < size) {
+                break;
+            }
+
+            int crc = (b[p + size - 2] & 0xff) | (b[p + size - 1] & 0xff) << 8;
+            if (crc(b, p, size - CRC_SIZE) != crc) {
+                /** Not a frame, or a corrupted one; resynchronize on the next byte */
+                crcErrors++;
+                start++;
+                skippedBytes++;
+                continue;
+            }
+
+            start += size;
+            if (magic == FIRMWARE_MAGIC) {
+                dispatchFirmware(b, p);
+                continue;
+            }
+            if ((b[p + 1] & 0xff) != VERSION) {
+                versionErrors++;
+                continue;
+            }
+
+            store(b, p, b[p + 2] & 0xff);
+            decoded++;
+        }
+        return decoded;
+    }
+
+    /** Get the size of a firmware frame type, 0 if unknown */
+    private static int firmwareFrameSize(int type) {
+        switch (type) {
+            case FIRMWARE_ACK:
+                return FIRMWARE_ACK_SIZE;
+            case FIRMWARE_REQUEST:
+                return FIRMWARE_REQUEST_SIZE;
+            default:
+                return 0;
+        }
+    }
+
+    /** Hand a firmware frame to the sink */
+    private void dispatchFirmware(byte[] b, int p) {
+        firmwareFrames++;
+        FirmwareSink sink = firmwareSink;
+        if (null == sink) {
+            return;
+        }
+
+        if ((b[p + 1] & 0xff) == FIRMWARE_ACK) {
+            long offset = (b[p + 2] & 0xff) | (b[p + 3] & 0xff) << 8
+                    | (b[p + 4] & 0xff) << 16 | (b[p + 5] & 0xffL) << 24;
+            sink.onAck(offset, b[p + 6] == 0);
+        } else {
+            sink.onRequest();
+        }
+    }
+
+    /** Write a frame into the next row of the columns */
+    private void store(byte[] b, int p, int cells) {
+        TelemetryColumns c = columns;
+        int row = c.nextRow();
+        int sequence = (b[p + 4] & 0xff) | (b[p + 5] & 0xff) << 8;
+        c.sequences[row] = (short) sequence;
+        c.deviceTimes[row] = (b[p + 6] & 0xff) | (b[p + 7] & 0xff) << 8
+                | (b[p + 8] & 0xff) << 16 | (b[p + 9] & 0xff) << 24;
+        c.cellCounts[row] = (byte) cells;
+
+        int q = p + HEADER_SIZE;
+        int cell = row * TelemetryColumns.MAX_CELLS;
+        for (int i = 0; i < cells; i++, q += CELL_SIZE, cell++) {
+            c.voltages[cell] = (short) ((b[q] & 0xff) | (b[q + 1] & 0xff) << 8);
+            c.currents[cell] = (short) ((b[q + 2] & 0xff) | (b[q + 3] & 0xff) << 8);
+            c.temperatures[cell] = (short) ((b[q + 4] & 0xff) | (b[q + 5] & 0xff) << 8);
+        }
+        c.publish();
+
+        if (lastSequence >= 0) {
+            lostFrames += (sequence - lastSequence - 1) & 0xffff;
+        }
+        lastSequence = sequence;
+        frames++;
+    }
+
+    /** CRC-16/CCITT-FALSE */
+    static int crc(byte[] b, int offset, int length) {
+        int crc = 0xffff;
+        for (int i = offset; i < offset + length; i++) {
+            crc = ((crc << 8) ^ CRC_TABLE[((crc >> 8) ^ b[i]) & 0xff]) & 0xffff;
+        }
+        return crc;
+    }
+
+    /**
+     * Encode a frame, e.g. for a simulated mod device, and get its size. Cell values
+     * are in the units of the frame format.
+     */
+    public static int encode(byte[] out, int offset, int sequence, long deviceTime, int cells,
+                             short[] voltages, short[] currents, short[] temperatures) {
+        int p = offset;
+        out[p] = (byte) MAGIC;
+        out[p + 1] = (byte) VERSION;
+        out[p + 2] = (byte) cells;
+        out[p + 3] = 0;
+        out[p + 4] = (byte) sequence;
+        out[p + 5] = (byte) (sequence >> 8);
+        out[p + 6] = (byte) deviceTime;
+        out[p + 7] = (byte) (deviceTime >> 8);
+        out[p + 8] = (byte) (deviceTime >> 16);
+        out[p + 9] = (byte) (deviceTime >> 24);
+
+        int q = p + HEADER_SIZE;
+        for (int i = 0; i < cells; i++, q += CELL_SIZE) {
+            out[q] = (byte) voltages[i];
+            out[q + 1] = (byte) (voltages[i] >> 8);
+            out[q + 2] = (byte) currents[i];
+            out[q + 3] = (byte) (currents[i] >> 8);
+            out[q + 4] = (byte) temperatures[i];
+            out[q + 5] = (byte) (temperatures[i] >> 8);
+        }
+
+        return seal(out, offset, q);
+    }
+
+    /** Encode a firmware ack frame, e.g. for a simulated mod device, and get its size */
+    public static int encodeFirmwareAck(byte[] out, int offset, long ackOffset, boolean ok) {
+        int p = offset;
+        out[p] = (byte) FIRMWARE_MAGIC;
+        out[p + 1] = (byte) FIRMWARE_ACK;
+        out[p + 2] = (byte) ackOffset;
+        out[p + 3] = (byte) (ackOffset >> 8);
+        out[p + 4] = (byte) (ackOffset >> 16);
+        out[p + 5] = (byte) (ackOffset >> 24);
+        out[p + 6] = (byte) (ok ? 0 : 1);
+        return seal(out, offset, p + 7);
+    }
+
+    /** Encode a firmware request frame and get its size */
+    public static int encodeFirmwareRequest(byte[] out, int offset) {
+        out[offset] = (byte) FIRMWARE_MAGIC;
+        out[offset + 1] = (byte) FIRMWARE_REQUEST;
+        return seal(out, offset, offset + 2);
+    }
+
+    /** Append the CRC of the bytes from offset to end, and get the frame size */
+    private static int seal(byte[] out, int offset, int end) {
+        int crc = crc(out, offset, end - offset);
+        out[end] = (byte) crc;
+        out[end + 1] = (byte) (crc >> 8);
+        return end + CRC_SIZE - offset;
+    }
+
+    /** Get the number of decoded frames */
+    public long getFrameCount() {
+        return frames;
+    }
+
+    /** Get the number of bytes skipped while looking for a frame */
+    public long getSkippedBytes() {
+        return skippedBytes;
+    }
+
+    /** Get the number of frame candidates with a bad checksum */
+    public long getCrcErrorCount() {
+        return crcErrors;
+    }
+
+    /** Get the number of valid frames of an unsupported version */
+    public long getVersionErrorCount() {
+        return versionErrors;
+    }
+
+    /** Get the number of decoded firmware frames */
+    public long getFirmwareFrameCount() {
+        return firmwareFrames;
+    }
+
+    /** Get the number of frames missing from the sequence numbers */
+    public long getLostFrameCount() {
+        return lostFrames;
+    }
+}
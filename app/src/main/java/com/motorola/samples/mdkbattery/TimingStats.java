@@ -0,0 +1,77 @@
+/**
+ * Copyright (c) 2016 Motorola Mobility, LLC.
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.motorola.samples.mdkbattery;
+
+/**
+ * A class to accumulate the time spent per event, e.g. per broadcast.
+ */
+public class TimingStats {
+    private final String name;
+
+    private long count;
+    private long total;
+    private long max;
+
+    /** Constructor */
+    public TimingStats(String name) {
+        this.name = name;
+    }
+
+    /** Record one event which started at the given System.nanoTime() */
+    public synchronized void record(long startNanos) {
+        long duration = System.nanoTime() - startNanos;
+        count++;
+        total += duration;
+        if (duration > max) {
+            max = duration;
+        }
+    }
+
+    /** Get the number of recorded events */
+    public synchronized long getCount() {
+        return count;
+    }
+
+    /** Get the average time per event, in ns */
+    public synchronized long getAverage() {
+        return count == 0 ? 0 : total / count;
+    }
+
+    /** Get the longest time of one event, in ns */
+    public synchronized long getMax() {
+        return max;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return name + ": " + count + " events, avg " + getAverage() / 1000
+                + " us, max " + max / 1000 + " us";
+    }
+}
@@ -0,0 +1,175 @@
+/**
+ * Copyright (c) 2016 Motorola Mobility, LLC.
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.motorola.samples.mdkbattery;
+
+import android.app.Activity;
+import android.view.View;
+import android.widget.TextView;
+
+/**
+ * A class to apply UiState to the main UI. Views are resolved once, and only
+ * the fields which differ from the last applied state are set, so unchanged
+ * values do not trigger a relayout.
+ */
+public class UiRenderer {
+    /** Alpha of the shown data while it is stale */
+    private static final float STALE_ALPHA = 0.5f;
+
+    private final TextView modName;
+    private final TextView vid;
+    private final TextView pid;
+    private final TextView firmware;
+    private final TextView modPackage;
+    private final TextView status;
+    private final TextView coreLevel;
+    private final TextView coreStatus;
+    private final TextView modLevel;
+    private final TextView modCapacity;
+    private final TextView modStatus;
+    private final TextView modType;
+
+    /** Views dimmed while the shown data is stale */
+    private final TextView[] dataViews;
+
+    /** The applied content of each view, null if the view is not set yet */
+    private String modNameText;
+    private String vidText;
+    private String pidText;
+    private String firmwareText;
+    private String modPackageText;
+    private String statusText;
+    private String coreLevelText;
+    private String coreStatusText;
+    private String modLevelText;
+    private String modCapacityText;
+    private String modStatusText;
+    private String modTypeText;
+    private int modNameColor;
+    private int statusColor;
+    private int modCapacityVisibility = UiState.UNCHANGED;
+    private int modTypeVisibility = UiState.UNCHANGED;
+    private boolean colorsSet;
+    private boolean stale;
+
+    /** Number of view properties actually set, to verify the diff effect */
+    private int applied;
+
+    /** Constructor, call after the content view is set */
+    public UiRenderer(Activity activity) {
+        modName = (TextView) activity.findViewById(R.id.mod_name);
+        vid = (TextView) activity.findViewById(R.id.mod_status_vid);
+        pid = (TextView) activity.findViewById(R.id.mod_status_pid);
+        firmware = (TextView) activity.findViewById(R.id.mod_status_firmware);
+        modPackage = (TextView) activity.findViewById(R.id.mod_status_package_name);
+        status = (TextView) activity.findViewById(R.id.status_battery_status);
+        coreLevel = (TextView) activity.findViewById(R.id.core_battery_level);
+        coreStatus = (TextView) activity.findViewById(R.id.core_battery_status);
+        modLevel = (TextView) activity.findViewById(R.id.mod_battery_level);
+        modCapacity = (TextView) activity.findViewById(R.id.mod_battery_capacity);
+        modStatus = (TextView) activity.findViewById(R.id.mod_battery_status);
+        modType = (TextView) activity.findViewById(R.id.status_mod_battery_type);
+
+        dataViews = new TextView[] {modName, vid, pid, firmware, modPackage, status,
+                coreLevel, coreStatus, modLevel, modCapacity, modStatus, modType};
+    }
+
+    /** Apply a state, on the main thread */
+    public void render(UiState state) {
+        modNameText = setText(modName, modNameText, state.modName);
+        vidText = setText(vid, vidText, state.vid);
+        pidText = setText(pid, pidText, state.pid);
+        firmwareText = setText(firmware, firmwareText, state.firmware);
+        modPackageText = setText(modPackage, modPackageText, state.modPackage);
+        statusText = setText(status, statusText, state.status);
+        coreLevelText = setText(coreLevel, coreLevelText, state.coreLevel);
+        coreStatusText = setText(coreStatus, coreStatusText, state.coreStatus);
+        modLevelText = setText(modLevel, modLevelText, state.modLevel);
+        modCapacityText = setText(modCapacity, modCapacityText, state.modCapacity);
+        modStatusText = setText(modStatus, modStatusText, state.modStatus);
+        modTypeText = setText(modType, modTypeText, state.modType);
+
+        if (!colorsSet || modNameColor != state.modNameColor) {
+            modNameColor = state.modNameColor;
+            if (null != modName) {
+                modName.setTextColor(modNameColor);
+                applied++;
+            }
+        }
+        if (null != state.status && (!colorsSet || statusColor != state.statusColor)) {
+            statusColor = state.statusColor;
+            if (null != status) {
+                status.setTextColor(statusColor);
+                applied++;
+            }
+        }
+        colorsSet = true;
+
+        modCapacityVisibility = setVisibility(modCapacity, modCapacityVisibility,
+                state.modCapacityVisibility);
+        modTypeVisibility = setVisibility(modType, modTypeVisibility, state.modTypeVisibility);
+
+        if (stale != state.stale) {
+            stale = state.stale;
+            for (TextView view : dataViews) {
+                if (null != view) {
+                    view.setAlpha(stale ? STALE_ALPHA : 1f);
+                    applied++;
+                }
+            }
+        }
+    }
+
+    /** Get the number of view properties set so far */
+    public int getAppliedCount() {
+        return applied;
+    }
+
+    private String setText(TextView view, String current, String text) {
+        if (null == text || text.equals(current)) {
+            return current;
+        }
+        if (null != view) {
+            view.setText(text);
+            applied++;
+        }
+        return text;
+    }
+
+    private int setVisibility(View view, int current, int visibility) {
+        if (visibility == UiState.UNCHANGED || visibility == current) {
+            return current;
+        }
+        if (null != view) {
+            view.setVisibility(visibility);
+            applied++;
+        }
+        return visibility;
+    }
+}
@@ -0,0 +1,86 @@
+/**
+ * Copyright (c) 2016 Motorola Mobility, LLC.
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.motorola.samples.mdkbattery;
+
+/**
+ * A class to represent the immutable content of the main UI. A null text or an
+ * UNCHANGED visibility means the value is not known yet, and the view is left as it is.
+ */
+public final class UiState {
+    public static final int UNCHANGED = -1;
+
+    /** Mod device info */
+    public final String modName;
+    public final int modNameColor;
+    public final String vid;
+    public final String pid;
+    public final String firmware;
+    public final String modPackage;
+
+    /** Battery data and status */
+    public final String status;
+    public final int statusColor;
+    public final String coreLevel;
+    public final String coreStatus;
+    public final String modLevel;
+    public final String modCapacity;
+    public final int modCapacityVisibility;
+    public final String modStatus;
+    public final String modType;
+    public final int modTypeVisibility;
+
+    /** Whether the content is the last known one, restored on a cold start */
+    public final boolean stale;
+
+    /** Constructor */
+    public UiState(String modName, int modNameColor, String vid, String pid, String firmware,
+                   String modPackage, String status, int statusColor, String coreLevel,
+                   String coreStatus, String modLevel, String modCapacity,
+                   int modCapacityVisibility, String modStatus, String modType,
+                   int modTypeVisibility, boolean stale) {
+        this.modName = modName;
+        this.modNameColor = modNameColor;
+        this.vid = vid;
+        this.pid = pid;
+        this.firmware = firmware;
+        this.modPackage = modPackage;
+        this.status = status;
+        this.statusColor = statusColor;
+        this.coreLevel = coreLevel;
+        this.coreStatus = coreStatus;
+        this.modLevel = modLevel;
+        this.modCapacity = modCapacity;
+        this.modCapacityVisibility = modCapacityVisibility;
+        this.modStatus = modStatus;
+        this.modType = modType;
+        this.modTypeVisibility = modTypeVisibility;
+        this.stale = stale;
+    }
+}
@@ -0,0 +1,311 @@
+/**
+ * Copyright (c) 2016 Motorola Mobility, LLC.
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.motorola.samples.mdkbattery;
+
+import android.content.Context;
+import android.os.BatteryManager;
+import android.view.View;
+
+import com.motorola.mod.ModBattery;
+
+import java.text.NumberFormat;
+
+/**
+ * A class to compute the main UI content from the mod device and battery data.
+ * Strings are resolved once and reused, so building a state on a background
+ * thread mostly picks precomputed strings.
+ */
+public class UiStateFactory {
+    private static final int MAX_LEVEL = 100;
+
+    private final Context context;
+
+    private final String na;
+    private final String percentage;
+    private final String mah;
+    private final String vidPidFormat;
+
+    /** Level strings from 0% to 100% */
+    private final String[] levels = new String[MAX_LEVEL + 1];
+
+    /** Readable battery status, indexed by BatteryManager.BATTERY_STATUS_* */
+    private final String[] batteryStatuses = new String[BatteryManager.BATTERY_STATUS_FULL + 1];
+
+    /** Overall status, indexed by BatteryStatusClassifier.STATUS_*, null if formatted */
+    private final String[] statuses = new String[BatteryStatusClassifier.STATUS_COUNT];
+
+    /** Transfer paused status, per recharge start level, resolved on first use */
+    private final String[] transferPaused = new String[MAX_LEVEL + 1];
+
+    /** Mod battery type, per usage type and efficiency mode */
+    private final String[][] modTypes = new String[4][2];
+
+    /** Capacity strings of the mod battery last shown, per level */
+    private long capacityFull = -1;
+    private final String[] capacities = new String[MAX_LEVEL + 1];
+
+    /** VID/PID strings of the mod device last shown */
+    /** Last VID and PID strings, each in its own slot as both are formatted per build */
+    private int lastVid = Constants.INVALID_ID;
+    private String lastVidString;
+    private int lastPid = Constants.INVALID_ID;
+    private String lastPidString;
+
+    private final int colorCharging;
+    private final int colorUncharging;
+    private final int colorMatch;
+    private final int colorMismatch;
+    private final int colorNa;
+
+    /** Constructor */
+    public UiStateFactory(Context context) {
+        this.context = context;
+
+        na = context.getString(R.string.na);
+        percentage = context.getString(R.string.percentage);
+        mah = context.getString(R.string.mah);
+        vidPidFormat = context.getString(R.string.mod_pid_vid_format);
+
+        for (int i = 0; i <= MAX_LEVEL; i++) {
+            levels[i] = i + percentage;
+        }
+
+        String unknown = context.getString(R.string.unknown);
+        for (int i = 0; i < batteryStatuses.length; i++) {
+            batteryStatuses[i] = unknown;
+        }
+        batteryStatuses[BatteryManager.BATTERY_STATUS_CHARGING] =
+                context.getString(R.string.charging);
+        batteryStatuses[BatteryManager.BATTERY_STATUS_DISCHARGING] =
+                context.getString(R.string.discharging);
+        batteryStatuses[BatteryManager.BATTERY_STATUS_NOT_CHARGING] =
+                context.getString(R.string.not_charging);
+        batteryStatuses[BatteryManager.BATTERY_STATUS_FULL] = context.getString(R.string.full);
+
+        String phoneCharging = context.getString(R.string.phone_is_charging);
+        statuses[BatteryStatusClassifier.STATUS_MOD_ABSENT] =
+                context.getString(R.string.mod_battery_absent);
+        statuses[BatteryStatusClassifier.STATUS_MOD_CHARGING] =
+                context.getString(R.string.mod_is_charging);
+        statuses[BatteryStatusClassifier.STATUS_MOD_CHARGING_PHONE] =
+                context.getString(R.string.mod_is_charging_core);
+        statuses[BatteryStatusClassifier.STATUS_PHONE_CHARGING] = phoneCharging;
+        statuses[BatteryStatusClassifier.STATUS_PHONE_CHARGING_AC] = context.getString(
+                R.string.charging_on, phoneCharging, context.getString(R.string.ac));
+        statuses[BatteryStatusClassifier.STATUS_PHONE_CHARGING_USB] = context.getString(
+                R.string.charging_on, phoneCharging, context.getString(R.string.usb));
+        statuses[BatteryStatusClassifier.STATUS_PHONE_CHARGING_WIRELESS] = context.getString(
+                R.string.charging_on, phoneCharging, context.getString(R.string.wireless));
+        statuses[BatteryStatusClassifier.STATUS_CHARGING_COMPLETE] =
+                context.getString(R.string.charging_complete);
+        statuses[BatteryStatusClassifier.STATUS_MOD_EMPTY] =
+                context.getString(R.string.mod_battery_empty);
+
+        /**
+         * Mod battery usage type, could be either BATTERY_USAGE_TYPE_UNKNOWN,
+         * BATTERY_USAGE_TYPE_REMOTE, BATTERY_USAGE_TYPE_SUPPLEMENTAL,
+         * or BATTERY_USAGE_TYPE_EMERGENCY, and the efficiency mode status.
+         */
+        String typeFormat = context.getString(R.string.mod_battery_type);
+        String[] efficiencies = {context.getString(R.string.off), context.getString(R.string.on)};
+        String[] usages = {unknown, context.getString(R.string.battery_usage_type_remote),
+                context.getString(R.string.battery_usage_type_supplemental),
+                context.getString(R.string.battery_usage_type_emergency)};
+        for (int u = 0; u < usages.length; u++) {
+            for (int e = 0; e < efficiencies.length; e++) {
+                modTypes[u][e] = String.format(typeFormat, usages[u], efficiencies[e]);
+            }
+        }
+
+        colorCharging = context.getColor(R.color.status_charging);
+        colorUncharging = context.getColor(R.color.uncharging);
+        colorMatch = context.getColor(R.color.mod_match);
+        colorMismatch = context.getColor(R.color.mod_mismatch);
+        colorNa = context.getColor(R.color.mod_na);
+    }
+
+    /**
+     * Build the UI content. Device and package are null if no mod device is attached,
+     * the battery snapshot is null if not known yet. Call from one thread at a time.
+     */
+    public UiState build(DeviceSummary device, String modPackage, BatterySnapshot stat,
+                         boolean stale) {
+        /** Mod device info */
+        String modName = na;
+        int modNameColor = colorNa;
+        String vid = na;
+        String pid = na;
+        String firmware = na;
+        if (null != device) {
+            modName = device.productString;
+            modNameColor = ModDeviceRegistry.isBatteryMod(device.vendorId, device.productId)
+                    ? colorMatch : colorMismatch;
+            vid = vidString(device.vendorId);
+            pid = pidString(device.productId);
+            if (null != device.firmwareVersion && !device.firmwareVersion.isEmpty()) {
+                firmware = device.firmwareVersion;
+            }
+        }
+        if (null == modPackage) {
+            modPackage = na;
+        }
+
+        /** Battery data and status, mod battery ones are reset if mod is detached */
+        String status = null;
+        int statusColor = colorUncharging;
+        String coreLevel = null;
+        String coreStatus = null;
+        String modLevel = null == device ? na : null;
+        String modCapacity = null == device ? na : null;
+        int modCapacityVisibility = null == device ? View.INVISIBLE : UiState.UNCHANGED;
+        String modStatus = null == device ? na : null;
+        String modType = null == device ? na : null;
+        int modTypeVisibility = null == device ? View.GONE : UiState.UNCHANGED;
+        if (null != stat) {
+            BatterySnapshot.Values core = stat.core;
+            BatterySnapshot.Values mod = stat.mod;
+            int code = BatteryStatusClassifier.classify(stat);
+            status = statusString(code, core, mod);
+            statusColor = BatteryStatusClassifier.isCharging(code) ? colorCharging : colorUncharging;
+            coreLevel = levelString(core.level);
+            coreStatus = batteryStatusString(core.status);
+
+            if (null == device || code == BatteryStatusClassifier.STATUS_MOD_ABSENT) {
+                modLevel = na;
+                modCapacity = na;
+                modCapacityVisibility = View.INVISIBLE;
+                modStatus = na;
+                modType = na;
+                modTypeVisibility = View.GONE;
+            } else {
+                modLevel = levelString(mod.level);
+                modCapacity = capacityString(mod.capFull, mod.level);
+                modCapacityVisibility = View.VISIBLE;
+                modStatus = batteryStatusString(mod.status);
+                modType = modTypeString(stat.modUsageType, stat.modEfficiency);
+                modTypeVisibility = View.VISIBLE;
+            }
+        }
+
+        return new UiState(modName, modNameColor, vid, pid, firmware, modPackage,
+                status, statusColor, coreLevel, coreStatus, modLevel, modCapacity,
+                modCapacityVisibility, modStatus, modType, modTypeVisibility, stale);
+    }
+
+    private String statusString(int code, BatterySnapshot.Values core,
+                                BatterySnapshot.Values mod) {
+        if (code == BatteryStatusClassifier.STATUS_TRANSFER_PAUSED) {
+            if (mod.rechargeStart < 0 || mod.rechargeStart > MAX_LEVEL) {
+                return formatTransferPaused(mod.rechargeStart);
+            }
+            if (null == transferPaused[mod.rechargeStart]) {
+                transferPaused[mod.rechargeStart] = formatTransferPaused(mod.rechargeStart);
+            }
+            return transferPaused[mod.rechargeStart];
+        } else if (null != statuses[code]) {
+            return statuses[code];
+        }
+
+        /** Set status as unknown if none of above scenes  */
+        return String.format(context.getString(R.string.unknown_status), core.status, mod.status);
+    }
+
+    private String formatTransferPaused(int rechargeStart) {
+        return context.getString(R.string.transfer_paused_level,
+                NumberFormat.getPercentInstance().format(((double) rechargeStart) / 100.0));
+    }
+
+    private String levelString(int level) {
+        if (level < 0 || level > MAX_LEVEL) {
+            return level + percentage;
+        }
+        return levels[level];
+    }
+
+    private String batteryStatusString(int status) {
+        if (status < 0 || status >= batteryStatuses.length) {
+            return batteryStatuses[BatteryManager.BATTERY_STATUS_UNKNOWN];
+        }
+        return batteryStatuses[status];
+    }
+
+    /** Get the capacity string, recomputing the per level strings if the capacity changed */
+    private String capacityString(long capFull, int level) {
+        if (level < 0 || level > MAX_LEVEL) {
+            return capFull * level / 100 + " / " + capFull + mah;
+        }
+        if (capFull != capacityFull) {
+            capacityFull = capFull;
+            for (int i = 0; i <= MAX_LEVEL; i++) {
+                capacities[i] = null;
+            }
+        }
+        if (null == capacities[level]) {
+            capacities[level] = capFull * level / 100 + " / " + capFull + mah;
+        }
+        return capacities[level];
+    }
+
+    private String modTypeString(int usage, int efficiency) {
+        int u = 0;
+        if (usage == ModBattery.BATTERY_USAGE_TYPE_REMOTE) {
+            u = 1;
+        } else if (usage == ModBattery.BATTERY_USAGE_TYPE_SUPPLEMENTAL) {
+            u = 2;
+        } else if (usage == ModBattery.BATTERY_USAGE_TYPE_EMERGENCY) {
+            u = 3;
+        }
+        return modTypes[u][efficiency == ModBattery.BATTERY_EFFICIENCY_ON ? 1 : 0];
+    }
+
+    /** Format VID, reusing the last string as VID rarely changes */
+    private String vidString(int id) {
+        if (id == Constants.INVALID_ID) {
+            return na;
+        }
+        if (id != lastVid || null == lastVidString) {
+            lastVid = id;
+            lastVidString = String.format(vidPidFormat, id);
+        }
+        return lastVidString;
+    }
+
+    /** Format PID, reusing the last string as PID rarely changes */
+    private String pidString(int id) {
+        if (id == Constants.INVALID_ID) {
+            return na;
+        }
+        if (id != lastPid || null == lastPidString) {
+            lastPid = id;
+            lastPidString = String.format(vidPidFormat, id);
+        }
+        return lastPidString;
+    }
+}
@@ -0,0 +1,115 @@
+/**
+ * Copyright (c) 2016 Motorola Mobility, LLC.
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.motorola.samples.mdkbattery;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+/**
+ * A class to persist the progress of an interrupted firmware update of each mod
+ * device, one small file per unique ID, so the update resumes from the last
+ * acknowledged offset after a detach or a restart:
+ * <pre>
+ *   int    magic, int version
+ *   long   image size, int image CRC32
+ *   long   acknowledged offset
+ *   int    CRC32 of all previous bytes
+ * </pre>
+ * Each file is a ChecksummedFile.
+ */
+public class UpdateStore {
+    private static final int MAGIC = 0x4d444b55;
+    private static final int VERSION = 1;
+
+    static final int SIZE = 4 + 4 + 8 + 4 + 8 + ChecksummedFile.CRC_SIZE;
+
+    /** Progress of an interrupted update */
+    public static class Progress {
+        public final long imageSize;
+        public final int imageCrc;
+        public final long offset;
+
+        /** Constructor */
+        public Progress(long imageSize, int imageCrc, long offset) {
+            this.imageSize = imageSize;
+            this.imageCrc = imageCrc;
+            this.offset = offset;
+        }
+    }
+
+    private final File dir;
+
+    /** Constructor */
+    public UpdateStore(File dir) {
+        this.dir = dir;
+    }
+
+    /** Read the progress of a mod device, null if none or invalid */
+    public Progress read(UUID id) {
+        ChecksummedFile file = file(id);
+        ByteBuffer buffer = file.read();
+        if (null == buffer) {
+            return null;
+        }
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            Log.w(Constants.TAG, "UpdateStore - invalid " + file.getFile());
+            return null;
+        }
+        return new Progress(buffer.getLong(), buffer.getInt(), buffer.getLong());
+    }
+
+    /** Save the progress of a mod device, replacing the previous file atomically */
+    public void write(UUID id, Progress progress) throws IOException {
+        ChecksummedFile file = file(id);
+        ByteBuffer buffer = file.allocate();
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putLong(progress.imageSize);
+        buffer.putInt(progress.imageCrc);
+        buffer.putLong(progress.offset);
+        file.write(buffer);
+    }
+
+    /** Forget the progress of a mod device, e.g. once its update completed */
+    public void clear(UUID id) {
+        File file = file(id).getFile();
+        if (file.exists() && !file.delete()) {
+            Log.w(Constants.TAG, "UpdateStore - failed to delete " + file);
+        }
+    }
+
+    private ChecksummedFile file(UUID id) {
+        return new ChecksummedFile(new File(dir, id.toString() + ".bin"), SIZE);
+    }
+}
@@ -0,0 +1,221 @@
+/**
+ * Copyright (c) 2016 Motorola Mobility, LLC.
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.motorola.samples.mdkbattery;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests of the time to empty and time to full estimator, on synthetic traces
+ * sampled like battery broadcasts: a true charge drifting at a known rate with
+ * noise, reported as whole percents.
+ */
+public class BatteryEstimatorTest {
+    private static final int CHARGING = 2;
+    private static final int DISCHARGING = 3;
+    private static final int NOT_CHARGING = 4;
+    private static final int FULL = 5;
+    private static final long SAMPLE_INTERVAL = 20 * 1000;
+
+    /** A simulated phone and mod battery pair */
+    private static class Trace {
+        final Random random = new Random(42);
+        final BatteryEstimator estimator = new BatteryEstimator();
+        long time;
+        double core;
+        double mod;
+
+        Trace(double core, double mod) {
+            this.core = core;
+            this.mod = mod;
+        }
+
+        /**
+         * Run for a duration with the given rates in percent per hour, each sample
+         * jittered by up to the noise fraction of the rate.
+         */
+        void run(long duration, double coreRate, int coreStatus, double modRate, int modStatus,
+                 boolean efficiencyOn, double noise) {
+            for (long end = time + duration; time < end; time += SAMPLE_INTERVAL) {
+                double hours = SAMPLE_INTERVAL / 3600000.0;
+                core += coreRate * hours * (1 + noise * (2 * random.nextDouble() - 1));
+                mod += modRate * hours * (1 + noise * (2 * random.nextDouble() - 1));
+                core = Math.max(0, Math.min(100, core));
+                mod = Math.max(0, Math.min(100, mod));
+                estimator.add(time, (int) core, coreStatus,
+                        modStatus < 0 ? BatteryHistory.NO_MOD : (int) mod, modStatus,
+                        efficiencyOn);
+            }
+        }
+    }
+
+    private static final long HOUR = 3600 * 1000;
+
+    private static long stepTime(double ratePerHour) {
+        return Math.round(HOUR / Math.abs(ratePerHour));
+    }
+
+    private static void assertNear(long expected, long actual, double tolerance) {
+        assertTrue("expected " + expected + " got " + actual,
+                Math.abs(actual - expected) <= expected * tolerance);
+    }
+
+    @Test
+    public void discharge_convergesToTrueRate() throws Exception {
+        Trace trace = new Trace(90.5, 80.5);
+        trace.run(4 * HOUR, -10, DISCHARGING, -5, DISCHARGING, false, 0.3);
+
+        assertNear(stepTime(10), trace.estimator.getStepTime(BatteryEstimator.BATTERY_CORE,
+                BatteryEstimator.REGIME_DISCHARGING), 0.1);
+        assertNear(stepTime(5), trace.estimator.getStepTime(BatteryEstimator.BATTERY_MOD,
+                BatteryEstimator.REGIME_DISCHARGING), 0.1);
+
+        /** About 50% left at 10%/h, 60% at 5%/h */
+        assertNear((long) (trace.core / 10 * HOUR),
+                trace.estimator.getTimeToEmpty(BatteryEstimator.BATTERY_CORE), 0.15);
+        assertNear((long) (trace.mod / 5 * HOUR),
+                trace.estimator.getTimeToEmpty(BatteryEstimator.BATTERY_MOD), 0.15);
+        assertEquals(BatteryEstimator.UNKNOWN,
+                trace.estimator.getTimeToFull(BatteryEstimator.BATTERY_CORE));
+    }
+
+    @Test
+    public void modFeedingPhone_separatesRegimes() throws Exception {
+        Trace trace = new Trace(20.5, 90.5);
+
+        /** Mod charges the phone, then efficiency mode holds the phone around 80% */
+        trace.run(3 * HOUR, 20, CHARGING, -25, DISCHARGING, false, 0.2);
+        trace.run(2 * HOUR, 0, DISCHARGING, -3, DISCHARGING, true, 0.2);
+
+        BatteryEstimator estimator = trace.estimator;
+        assertNear(stepTime(20), estimator.getStepTime(BatteryEstimator.BATTERY_CORE,
+                BatteryEstimator.REGIME_CHARGING), 0.1);
+        assertNear(stepTime(25), estimator.getStepTime(BatteryEstimator.BATTERY_MOD,
+                BatteryEstimator.REGIME_DISCHARGING), 0.1);
+        assertNear(stepTime(3), estimator.getStepTime(BatteryEstimator.BATTERY_MOD,
+                BatteryEstimator.REGIME_DISCHARGING_EFFICIENCY), 0.15);
+        assertEquals(BatteryEstimator.REGIME_DISCHARGING_EFFICIENCY,
+                estimator.getRegime(BatteryEstimator.BATTERY_MOD));
+        assertNear((long) (trace.mod / 3 * HOUR),
+                estimator.getTimeToEmpty(BatteryEstimator.BATTERY_MOD), 0.2);
+
+        /** Switching back reuses what was learnt for the regime */
+        trace.run(SAMPLE_INTERVAL, 20, CHARGING, -25, DISCHARGING, false, 0);
+        assertNear(stepTime(25), estimator.getStepTime(BatteryEstimator.BATTERY_MOD,
+                BatteryEstimator.REGIME_DISCHARGING), 0.1);
+    }
+
+    @Test
+    public void notCharging_keptApartFromDischarging() throws Exception {
+        Trace trace = new Trace(90.5, 0);
+        trace.run(3 * HOUR, -10, DISCHARGING, 0, -1, false, 0.2);
+        trace.run(3 * HOUR, -1, NOT_CHARGING, 0, -1, false, 0.2);
+
+        BatteryEstimator estimator = trace.estimator;
+        assertEquals(BatteryEstimator.REGIME_NOT_CHARGING,
+                estimator.getRegime(BatteryEstimator.BATTERY_CORE));
+        assertNear(stepTime(10), estimator.getStepTime(BatteryEstimator.BATTERY_CORE,
+                BatteryEstimator.REGIME_DISCHARGING), 0.1);
+        assertNear(stepTime(1), estimator.getStepTime(BatteryEstimator.BATTERY_CORE,
+                BatteryEstimator.REGIME_NOT_CHARGING), 0.15);
+        assertNear((long) (trace.core / 1 * HOUR),
+                estimator.getTimeToEmpty(BatteryEstimator.BATTERY_CORE), 0.2);
+    }
+
+    @Test
+    public void statusChange_restartsStepTiming() throws Exception {
+        BatteryEstimator estimator = new BatteryEstimator();
+        long minute = 60 * 1000;
+
+        /** Steps every minute while discharging, then a step right after unplugging */
+        for (int i = 0; i <= 5; i++) {
+            estimator.add(i * minute, 50 - i, DISCHARGING, BatteryHistory.NO_MOD, 0, false);
+        }
+        estimator.add(5 * minute + 1000, 44, NOT_CHARGING, BatteryHistory.NO_MOD, 0, false);
+        for (int i = 1; i <= 3; i++) {
+            estimator.add(5 * minute + i * 10 * minute, 44 - i, NOT_CHARGING,
+                    BatteryHistory.NO_MOD, 0, false);
+        }
+
+        /** The step across the status change counts in neither regime */
+        assertEquals(minute, estimator.getStepTime(BatteryEstimator.BATTERY_CORE,
+                BatteryEstimator.REGIME_DISCHARGING));
+        assertEquals(10 * minute, estimator.getStepTime(BatteryEstimator.BATTERY_CORE,
+                BatteryEstimator.REGIME_NOT_CHARGING));
+    }
+
+    @Test
+    public void charging_estimatesTimeToFull() throws Exception {
+        Trace trace = new Trace(30.5, 0);
+        trace.run(2 * HOUR, 30, CHARGING, 0, -1, false, 0.2);
+
+        assertNear((long) ((100 - trace.core) / 30 * HOUR),
+                trace.estimator.getTimeToFull(BatteryEstimator.BATTERY_CORE), 0.15);
+        assertEquals(BatteryEstimator.UNKNOWN,
+                trace.estimator.getTimeToEmpty(BatteryEstimator.BATTERY_MOD));
+        assertEquals(BatteryEstimator.REGIME_NONE,
+                trace.estimator.getRegime(BatteryEstimator.BATTERY_MOD));
+    }
+
+    @Test
+    public void stalledStep_stretchesEstimate() throws Exception {
+        BatteryEstimator estimator = new BatteryEstimator();
+        long step = 60 * 1000;
+        for (int i = 0; i <= 5; i++) {
+            estimator.add(i * step, 50 - i, DISCHARGING, BatteryHistory.NO_MOD, 0, false);
+        }
+        assertEquals(45 * step, estimator.getTimeToEmpty(BatteryEstimator.BATTERY_CORE));
+
+        /** No step for three minutes, each remaining step is assumed to take as long */
+        estimator.add(5 * step + 3 * step, 45, DISCHARGING, BatteryHistory.NO_MOD, 0, false);
+        assertEquals(44 * 3 * step, estimator.getTimeToEmpty(BatteryEstimator.BATTERY_CORE));
+    }
+
+    @Test
+    public void fullOrRegimeChange_needsNewSteps() throws Exception {
+        BatteryEstimator estimator = new BatteryEstimator();
+        estimator.add(0, 100, FULL, BatteryHistory.NO_MOD, 0, false);
+        assertEquals(BatteryEstimator.UNKNOWN,
+                estimator.getTimeToEmpty(BatteryEstimator.BATTERY_CORE));
+
+        /** The first step after the change only anchors, two more are needed */
+        estimator.add(1000, 99, DISCHARGING, BatteryHistory.NO_MOD, 0, false);
+        estimator.add(2000, 98, DISCHARGING, BatteryHistory.NO_MOD, 0, false);
+        assertEquals(BatteryEstimator.UNKNOWN,
+                estimator.getTimeToEmpty(BatteryEstimator.BATTERY_CORE));
+        estimator.add(3000, 97, DISCHARGING, BatteryHistory.NO_MOD, 0, false);
+        estimator.add(4000, 96, DISCHARGING, BatteryHistory.NO_MOD, 0, false);
+        assertEquals(96 * 1000, estimator.getTimeToEmpty(BatteryEstimator.BATTERY_CORE));
+    }
+}
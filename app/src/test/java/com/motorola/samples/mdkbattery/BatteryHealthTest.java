@@ -0,0 +1,171 @@
+/**
+ * Copyright (c) 2016 Motorola Mobility, LLC.
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.motorola.samples.mdkbattery;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Unit tests of the mod battery cycle counting and capacity estimation.
+ */
+public class BatteryHealthTest {
+    private static final int CHARGING = 2;
+    private static final int DISCHARGING = 3;
+    private static final long RATED = 2220;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /** Swing the level from one value to another in 1% steps, not powering the phone */
+    private static void swing(BatteryHealth health, int from, int to) {
+        int step = to > from ? 1 : -1;
+        for (int level = from; level != to + step; level += step) {
+            health.add(level, step > 0 ? CHARGING : DISCHARGING, false,
+                    BatteryHealth.UNKNOWN, RATED);
+        }
+    }
+
+    @Test
+    public void fullSwings_countEquivalentCycles() throws Exception {
+        BatteryHealth health = new BatteryHealth();
+        for (int i = 0; i < 5; i++) {
+            swing(health, 100, 0);
+            swing(health, 0, 100);
+        }
+
+        /** The last swing up is still in progress, counted but not as a half cycle */
+        assertEquals(9, health.getHalfCycles());
+        assertEquals(5.0, health.getEquivalentCycles(), 1e-9);
+        assertEquals(9, health.getDepthCount(BatteryHealth.DEPTH_BINS - 1));
+    }
+
+    @Test
+    public void shallowSwings_binnedByDepth() throws Exception {
+        BatteryHealth health = new BatteryHealth();
+        for (int i = 0; i < 10; i++) {
+            swing(health, 80, 60);
+            swing(health, 60, 80);
+        }
+        swing(health, 80, 70);
+
+        assertEquals(20, health.getHalfCycles());
+        assertEquals(20, health.getDepthCount(2));
+        assertEquals(2.05, health.getEquivalentCycles(), 1e-9);
+    }
+
+    @Test
+    public void noise_belowHysteresisIgnored() throws Exception {
+        BatteryHealth health = new BatteryHealth();
+        swing(health, 50, 30);
+        for (int i = 0; i < 50; i++) {
+            health.add(31, DISCHARGING, false, BatteryHealth.UNKNOWN, RATED);
+            health.add(30, DISCHARGING, false, BatteryHealth.UNKNOWN, RATED);
+        }
+        swing(health, 30, 10);
+
+        assertEquals(0, health.getHalfCycles());
+        assertEquals(0.2, health.getEquivalentCycles(), 1e-9);
+    }
+
+    @Test
+    public void dischargeSpan_measuresUsableCapacity() throws Exception {
+        BatteryHealth health = new BatteryHealth();
+
+        /** Mod powers the phone from 100% to 10%, the phone gains 18 mAh per mod percent */
+        long charge = 500000;
+        for (int level = 100; level >= 10; level--) {
+            health.add(level, DISCHARGING, true, charge, RATED);
+            charge += 18000;
+        }
+        assertEquals(1, health.getSpanCount());
+        assertEquals(1800, health.getCapacity());
+        assertEquals(81, health.getHealth());
+
+        /** A span interrupted by unplugging does not count */
+        for (int level = 100; level >= 50; level--) {
+            health.add(level, DISCHARGING, true, charge, RATED);
+            charge += 18000;
+        }
+        for (int level = 50; level >= 10; level--) {
+            health.add(level, DISCHARGING, false, charge, RATED);
+        }
+        assertEquals(1, health.getSpanCount());
+    }
+
+    @Test
+    public void store_resumesWithoutReplay() throws Exception {
+        File dir = folder.newFolder("health");
+        HealthStore store = new HealthStore(dir);
+        UUID id = UUID.randomUUID();
+
+        BatteryHealth health = store.read(id);
+        swing(health, 100, 40);
+        swing(health, 40, 70);
+        assertEquals(true, health.isDirty());
+        store.write(id, health);
+        assertEquals(false, health.isDirty());
+
+        BatteryHealth resumed = store.read(id);
+        assertEquals(1, resumed.getHalfCycles());
+
+        /** The swing in progress continues across the restart */
+        swing(resumed, 70, 20);
+        assertEquals(2, resumed.getHalfCycles());
+        assertEquals((60 + 30 + 50) / 200.0, resumed.getEquivalentCycles(), 1e-9);
+
+        /** Another device starts from scratch */
+        assertEquals(0, store.read(UUID.randomUUID()).getHalfCycles());
+    }
+
+    @Test
+    public void store_corruptFileStartsOver() throws Exception {
+        File dir = folder.newFolder("health");
+        HealthStore store = new HealthStore(dir);
+        UUID id = UUID.randomUUID();
+        BatteryHealth health = new BatteryHealth();
+        swing(health, 100, 0);
+        swing(health, 0, 10);
+        store.write(id, health);
+
+        RandomAccessFile file = new RandomAccessFile(new File(dir, id + ".bin"), "rw");
+        file.seek(20);
+        file.write(0x7f);
+        file.close();
+
+        assertEquals(0, store.read(id).getHalfCycles());
+    }
+}
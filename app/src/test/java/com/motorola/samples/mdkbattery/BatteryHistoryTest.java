@@ -0,0 +1,167 @@
+/**
+ * Copyright (c) 2016 Motorola Mobility, LLC.
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.motorola.samples.mdkbattery;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests of the battery history ring buffer.
+ */
+public class BatteryHistoryTest {
+    private static final int CHARGING = 2;
+    private static final int DISCHARGING = 3;
+    private static final int PLUGGED_USB = 2;
+
+    @Test
+    public void add_packsAndUnpacksSample() throws Exception {
+        BatteryHistory history = new BatteryHistory(4);
+        history.add(1000L, 57, CHARGING, PLUGGED_USB, 83, DISCHARGING, true, true);
+        history.add(2000L, 100, DISCHARGING, 0, BatteryHistory.NO_MOD, 1, false, false);
+
+        BatteryHistory.Samples out = new BatteryHistory.Samples(4);
+        assertEquals(2, history.read(0, out));
+        assertEquals(0, out.first);
+        assertEquals(1000L, out.getTime(0));
+        assertEquals(57, out.getCoreLevel(0));
+        assertEquals(83, out.getModLevel(0));
+        assertEquals(CHARGING, out.getCoreStatus(0));
+        assertEquals(DISCHARGING, out.getModStatus(0));
+        assertEquals(PLUGGED_USB, out.getCorePlugged(0));
+        assertTrue(out.isModPlugged(0));
+        assertTrue(out.isEfficiencyOn(0));
+
+        assertEquals(100, out.getCoreLevel(1));
+        assertEquals(BatteryHistory.NO_MOD, out.getModLevel(1));
+        assertEquals(0, out.getCorePlugged(1));
+        assertFalse(out.isModPlugged(1));
+        assertFalse(out.isEfficiencyOn(1));
+    }
+
+    @Test
+    public void read_skipsOverwrittenSamples() throws Exception {
+        BatteryHistory history = new BatteryHistory(10);
+        for (int i = 0; i < 25; i++) {
+            history.add(i, i, 0, 0, 0, 0, false, false);
+        }
+
+        assertEquals(25, history.getCount());
+        assertEquals(15, history.getOldest());
+
+        BatteryHistory.Samples out = new BatteryHistory.Samples(10);
+        assertEquals(10, history.read(0, out));
+        assertEquals(15, out.first);
+        for (int k = 0; k < out.size; k++) {
+            assertEquals(15 + k, out.getTime(k));
+        }
+
+        assertEquals(3, history.read(22, out));
+        assertEquals(22, out.first);
+        assertEquals(0, history.read(25, out));
+
+        assertTrue(history.readLatest(out));
+        assertEquals(24, out.getTime(0));
+    }
+
+    @Test
+    public void read_limitedByOutputCapacity() throws Exception {
+        BatteryHistory history = new BatteryHistory(100);
+        for (int i = 0; i < 50; i++) {
+            history.add(i, i, 0, 0, 0, 0, false, false);
+        }
+
+        BatteryHistory.Samples out = new BatteryHistory.Samples(8);
+        assertEquals(8, history.read(10, out));
+        assertEquals(10, out.first);
+        assertEquals(17, out.getTime(7));
+    }
+
+    /** Readers racing the writer must never see a torn or misplaced sample */
+    @Test
+    public void read_consistentWhileWriting() throws Exception {
+        final BatteryHistory history = new BatteryHistory(64);
+        final int samples = 2000000;
+        final AtomicReference<String> failure = new AtomicReference<>();
+
+        Thread[] readers = new Thread[4];
+        for (int r = 0; r < readers.length; r++) {
+            readers[r] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    BatteryHistory.Samples out = new BatteryHistory.Samples(64);
+                    while (history.getCount() < samples && null == failure.get()) {
+                        history.read(0, out);
+                        for (int k = 0; k < out.size; k++) {
+                            long seq = out.first + k;
+                            if (out.getTime(k) != seq || out.getCoreLevel(k) != (int) (seq % 101)
+                                    || out.getModLevel(k) != (int) (100 - seq % 101)) {
+                                failure.set("Torn sample " + seq + " at " + out.getTime(k));
+                                return;
+                            }
+                        }
+                    }
+                }
+            });
+            readers[r].start();
+        }
+
+        for (int i = 0; i < samples; i++) {
+            history.add(i, i % 101, 0, 0, 100 - i % 101, 0, false, false);
+        }
+        for (Thread reader : readers) {
+            reader.join();
+        }
+
+        assertEquals(null, failure.get());
+    }
+
+    /** Three days at 1 Hz in a few MB, with no allocation per sample */
+    @Test
+    public void defaultCapacity_fitsDaysOfSamples() throws Exception {
+        BatteryHistory history = new BatteryHistory(BatteryHistory.DEFAULT_CAPACITY);
+        long bytes = (long) history.getCapacity() * (8 + 4);
+        assertTrue(bytes < 4 * 1024 * 1024);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < BatteryHistory.DEFAULT_CAPACITY * 4; i++) {
+            history.add(i, i % 101, CHARGING, PLUGGED_USB, i % 101, DISCHARGING, false, true);
+        }
+        long ns = System.nanoTime() - start;
+        assertEquals(BatteryHistory.DEFAULT_CAPACITY, history.getCount() - history.getOldest());
+
+        /** Twelve days of samples take well under a second */
+        assertTrue(ns < 1000000000L);
+    }
+}
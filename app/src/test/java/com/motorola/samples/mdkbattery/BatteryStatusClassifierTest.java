@@ -0,0 +1,211 @@
+/**
+ * Copyright (c) 2016 Motorola Mobility, LLC.
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.motorola.samples.mdkbattery;
+
+import android.os.BatteryManager;
+
+import com.motorola.mod.ModBattery;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests of the battery status classifier, against the if/else chain it replaced.
+ */
+public class BatteryStatusClassifierTest {
+    private static final int[] STATUSES = {-1, 0, BatteryManager.BATTERY_STATUS_UNKNOWN,
+            BatteryManager.BATTERY_STATUS_CHARGING, BatteryManager.BATTERY_STATUS_DISCHARGING,
+            BatteryManager.BATTERY_STATUS_NOT_CHARGING, BatteryManager.BATTERY_STATUS_FULL, 6, 99};
+    private static final int[] LEVELS = {-1, 0, 1, 50, 99, 100};
+    private static final int[] PLUGGED = {0, BatteryManager.BATTERY_PLUGGED_AC,
+            BatteryManager.BATTERY_PLUGGED_USB, BatteryManager.BATTERY_PLUGGED_WIRELESS, 3, 8};
+    private static final long[] CAPACITIES = {-1, 0, 1, 2220};
+    private static final int[] RECHARGE_STARTS = {Constants.BATTERY_INVALID, 0, 80};
+    private static final int[] USAGES = {ModBattery.BATTERY_USAGE_TYPE_UNKNOWN,
+            ModBattery.BATTERY_USAGE_TYPE_REMOTE, ModBattery.BATTERY_USAGE_TYPE_SUPPLEMENTAL,
+            ModBattery.BATTERY_USAGE_TYPE_EMERGENCY};
+    private static final int[] EFFICIENCIES = {ModBattery.BATTERY_EFFICIENCY_OFF,
+            ModBattery.BATTERY_EFFICIENCY_ON, Constants.BATTERY_INVALID, 7};
+
+    /** The status derivation formerly in MainActivity.onBattery, as oracle */
+    private static int reference(int coreStatus, int coreLevel, int corePlugged,
+                                 int modStatus, int modLevel, long modCapFull,
+                                 int modRechargeStart, int usage, int efficiency) {
+        if (modStatus <= BatteryManager.BATTERY_STATUS_UNKNOWN
+                || modCapFull <= 0
+                || modLevel < 0
+                || usage == ModBattery.BATTERY_USAGE_TYPE_UNKNOWN
+                || modRechargeStart == Constants.BATTERY_INVALID) {
+            return BatteryStatusClassifier.STATUS_MOD_ABSENT;
+        } else if (modStatus == BatteryManager.BATTERY_STATUS_CHARGING) {
+            return BatteryStatusClassifier.STATUS_MOD_CHARGING;
+        } else if (coreStatus == BatteryManager.BATTERY_STATUS_CHARGING) {
+            if (modStatus == BatteryManager.BATTERY_STATUS_DISCHARGING
+                    && modLevel > 0) {
+                return BatteryStatusClassifier.STATUS_MOD_CHARGING_PHONE;
+            } else {
+                int status = BatteryStatusClassifier.STATUS_PHONE_CHARGING;
+                switch (corePlugged) {
+                    case BatteryManager.BATTERY_PLUGGED_AC:
+                        status = BatteryStatusClassifier.STATUS_PHONE_CHARGING_AC;
+                        break;
+                    case BatteryManager.BATTERY_PLUGGED_USB:
+                        status = BatteryStatusClassifier.STATUS_PHONE_CHARGING_USB;
+                        break;
+                    case BatteryManager.BATTERY_PLUGGED_WIRELESS:
+                        status = BatteryStatusClassifier.STATUS_PHONE_CHARGING_WIRELESS;
+                        break;
+                }
+                return status;
+            }
+        } else if (modLevel > 0) {
+            if ((coreLevel == 100
+                    && modStatus != BatteryManager.BATTERY_STATUS_DISCHARGING
+                    && efficiency != ModBattery.BATTERY_EFFICIENCY_OFF)) {
+                return BatteryStatusClassifier.STATUS_CHARGING_COMPLETE;
+            } else {
+                if (efficiency == ModBattery.BATTERY_EFFICIENCY_OFF) {
+                    return BatteryStatusClassifier.STATUS_MOD_CHARGING_PHONE;
+                } else if (efficiency == ModBattery.BATTERY_EFFICIENCY_ON) {
+                    return BatteryStatusClassifier.STATUS_TRANSFER_PAUSED;
+                }
+            }
+        } else {
+            return BatteryStatusClassifier.STATUS_MOD_EMPTY;
+        }
+        return BatteryStatusClassifier.STATUS_UNKNOWN;
+    }
+
+    @Test
+    public void classify_matchesReferenceExhaustively() throws Exception {
+        int checked = 0;
+        for (int coreStatus : STATUSES) {
+            for (int coreLevel : LEVELS) {
+                for (int plugged : PLUGGED) {
+                    for (int modStatus : STATUSES) {
+                        for (int modLevel : LEVELS) {
+                            for (long capFull : CAPACITIES) {
+                                for (int start : RECHARGE_STARTS) {
+                                    for (int usage : USAGES) {
+                                        for (int eff : EFFICIENCIES) {
+                                            int expected = reference(coreStatus, coreLevel,
+                                                    plugged, modStatus, modLevel, capFull,
+                                                    start, usage, eff);
+                                            int actual = BatteryStatusClassifier.classify(
+                                                    coreStatus, coreLevel, plugged, modStatus,
+                                                    modLevel, capFull, start, usage, eff);
+                                            if (expected != actual) {
+                                                assertEquals("core " + coreStatus + "/"
+                                                        + coreLevel + "/" + plugged + " mod "
+                                                        + modStatus + "/" + modLevel + "/"
+                                                        + capFull + "/" + start + " usage "
+                                                        + usage + " eff " + eff,
+                                                        expected, actual);
+                                            }
+                                            checked++;
+                                        }
+                                    }
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        assertTrue(checked > 1000000);
+    }
+
+    @Test
+    public void classify_typicalScenes() throws Exception {
+        int usage = ModBattery.BATTERY_USAGE_TYPE_SUPPLEMENTAL;
+        int on = ModBattery.BATTERY_EFFICIENCY_ON;
+        int off = ModBattery.BATTERY_EFFICIENCY_OFF;
+        int charging = BatteryManager.BATTERY_STATUS_CHARGING;
+        int discharging = BatteryManager.BATTERY_STATUS_DISCHARGING;
+        int notCharging = BatteryManager.BATTERY_STATUS_NOT_CHARGING;
+
+        assertEquals(BatteryStatusClassifier.STATUS_MOD_CHARGING_PHONE,
+                BatteryStatusClassifier.classify(charging, 40, 0, discharging, 60, 2220, 80,
+                        usage, on));
+        assertEquals(BatteryStatusClassifier.STATUS_PHONE_CHARGING_USB,
+                BatteryStatusClassifier.classify(charging, 40, BatteryManager.BATTERY_PLUGGED_USB,
+                        notCharging, 0, 2220, 80, usage, on));
+        assertEquals(BatteryStatusClassifier.STATUS_TRANSFER_PAUSED,
+                BatteryStatusClassifier.classify(discharging, 90, 0, notCharging, 60, 2220, 80,
+                        usage, on));
+        assertEquals(BatteryStatusClassifier.STATUS_MOD_CHARGING_PHONE,
+                BatteryStatusClassifier.classify(discharging, 90, 0, notCharging, 60, 2220, 80,
+                        usage, off));
+        assertEquals(BatteryStatusClassifier.STATUS_CHARGING_COMPLETE,
+                BatteryStatusClassifier.classify(BatteryManager.BATTERY_STATUS_FULL, 100, 0,
+                        notCharging, 60, 2220, 80, usage, on));
+        assertEquals(BatteryStatusClassifier.STATUS_MOD_EMPTY,
+                BatteryStatusClassifier.classify(discharging, 90, 0, discharging, 0, 2220, 80,
+                        usage, on));
+        assertEquals(BatteryStatusClassifier.STATUS_MOD_ABSENT,
+                BatteryStatusClassifier.classify(discharging, 90, 0, discharging, 60, 0, 80,
+                        usage, on));
+    }
+
+    @Test
+    public void isCharging() throws Exception {
+        assertTrue(BatteryStatusClassifier.isCharging(BatteryStatusClassifier.STATUS_MOD_CHARGING));
+        assertTrue(BatteryStatusClassifier.isCharging(
+                BatteryStatusClassifier.STATUS_PHONE_CHARGING_WIRELESS));
+        assertFalse(BatteryStatusClassifier.isCharging(
+                BatteryStatusClassifier.STATUS_TRANSFER_PAUSED));
+        assertFalse(BatteryStatusClassifier.isCharging(BatteryStatusClassifier.STATUS_MOD_ABSENT));
+    }
+
+    /** Classification runs on every battery update, a million a second is far beyond the need */
+    @Test
+    public void classify_throughput() throws Exception {
+        final int iterations = 20000000;
+        int sink = 0;
+
+        /** Warm up, then measure */
+        for (int round = 0; round < 2; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                sink += BatteryStatusClassifier.classify(i & 7, i % 101, i & 6, (i >> 3) & 7,
+                        (i >> 6) % 101, 2220, 80, ModBattery.BATTERY_USAGE_TYPE_SUPPLEMENTAL,
+                        (i >> 9) & 1);
+            }
+            long elapsed = System.nanoTime() - start;
+            if (round == 1) {
+                assertTrue(iterations * 1000000000L / Math.max(1, elapsed) > 1000000);
+            }
+        }
+        assertTrue(sink > 0);
+    }
+}
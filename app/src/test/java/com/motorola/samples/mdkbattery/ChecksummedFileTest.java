@@ -0,0 +1,98 @@
+/**
+ * Copyright (c) 2016 Motorola Mobility, LLC.
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.motorola.samples.mdkbattery;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Unit tests of the checksummed file shared by the stores.
+ */
+public class ChecksummedFileTest {
+    private static final int SIZE = 12 + ChecksummedFile.CRC_SIZE;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static void writeRecord(ChecksummedFile file, int a, long b) throws Exception {
+        ByteBuffer buffer = file.allocate();
+        buffer.putInt(a);
+        buffer.putLong(b);
+        file.write(buffer);
+    }
+
+    @Test
+    public void writeRead_roundTripCreatesDirectory() throws Exception {
+        ChecksummedFile file = new ChecksummedFile(
+                new File(folder.getRoot(), "dir/record.bin"), SIZE);
+        writeRecord(file, 7, 1L << 40);
+        writeRecord(file, 8, 42);
+
+        ByteBuffer buffer = file.read();
+        assertEquals(12, buffer.remaining());
+        assertEquals(8, buffer.getInt());
+        assertEquals(42, buffer.getLong());
+        assertFalse(new File(folder.getRoot(), "dir/record.bin.tmp").exists());
+    }
+
+    @Test
+    public void read_rejectsCorruptOrMissingFiles() throws Exception {
+        File path = new File(folder.getRoot(), "record.bin");
+        ChecksummedFile file = new ChecksummedFile(path, SIZE);
+        assertNull(file.read());
+
+        writeRecord(file, 7, 42);
+        RandomAccessFile raf = new RandomAccessFile(path, "rw");
+        raf.seek(5);
+        raf.write(0x55);
+        raf.close();
+        assertNull(file.read());
+
+        /** A file of another size, e.g. an older layout */
+        assertNull(new ChecksummedFile(path, SIZE + 4).read());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void write_rejectsIncompleteRecord() throws Exception {
+        ChecksummedFile file = new ChecksummedFile(new File(folder.getRoot(), "record.bin"), SIZE);
+        ByteBuffer buffer = file.allocate();
+        buffer.putInt(7);
+        file.write(buffer);
+    }
+}
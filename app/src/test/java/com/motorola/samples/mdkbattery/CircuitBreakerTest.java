@@ -0,0 +1,139 @@
+/**
+ * Copyright (c) 2016 Motorola Mobility, LLC.
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.motorola.samples.mdkbattery;
+
+import org.junit.Test;
+
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests of the circuit breaker around the ModBattery IPC.
+ */
+public class CircuitBreakerTest {
+    @Test
+    public void opensAfterConsecutiveFailures() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(3, 1000, 8000);
+
+        assertTrue(breaker.allow(0));
+        assertFalse(breaker.onFailure(0));
+        breaker.onSuccess();
+        assertFalse(breaker.onFailure(1));
+        assertFalse(breaker.onFailure(2));
+        assertTrue(breaker.onFailure(3));
+
+        assertEquals(CircuitBreaker.OPEN, breaker.getState());
+        assertFalse(breaker.allow(500));
+        assertEquals(1, breaker.getRejectedCount());
+        assertEquals(1, breaker.getTransitionCount(CircuitBreaker.OPEN));
+    }
+
+    @Test
+    public void halfOpenProbe_closesOnSuccess() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(1, 1000, 8000);
+        breaker.onFailure(0);
+
+        assertTrue(breaker.allow(1000));
+        assertEquals(CircuitBreaker.HALF_OPEN, breaker.getState());
+
+        /** Only one probe at a time */
+        assertFalse(breaker.allow(1001));
+        breaker.onSuccess();
+
+        assertEquals(CircuitBreaker.CLOSED, breaker.getState());
+        assertTrue(breaker.allow(1002));
+        assertEquals(1, breaker.getProbeCount());
+        assertEquals(1000, breaker.getBackoff());
+    }
+
+    @Test
+    public void failedProbes_backOffExponentially() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(1, 1000, 8000);
+        long now = 0;
+        breaker.onFailure(now);
+
+        long[] expected = {2000, 4000, 8000, 8000};
+        for (long backoff : expected) {
+            now += breaker.getBackoff();
+            assertFalse(breaker.allow(now - 1));
+            assertTrue(breaker.allow(now));
+            assertTrue(breaker.onFailure(now));
+            assertEquals(backoff, breaker.getBackoff());
+        }
+        assertEquals(4, breaker.getProbeCount());
+    }
+
+    @Test
+    public void openBreaker_rejectsAlmostAllCalls() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker();
+        int calls = 0;
+
+        /** A broadcast every 100 ms for an hour to a mod which always fails */
+        for (long now = 0; now < 3600 * 1000; now += 100) {
+            if (breaker.allow(now)) {
+                calls++;
+                breaker.onFailure(now);
+            }
+        }
+
+        assertTrue("calls " + calls, calls < 30);
+        assertEquals(36000 - calls, breaker.getRejectedCount());
+    }
+
+    @Test
+    public void unreportedProbe_isReplaced() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(1, 1000, 8000);
+        breaker.onFailure(0);
+
+        assertTrue(breaker.allow(1000));
+        assertFalse(breaker.allow(1500));
+        assertTrue(breaker.allow(2000));
+    }
+
+    @Test
+    public void group_keepsOneBreakerPerDeviceAndOperation() throws Exception {
+        CircuitBreaker.Group group = new CircuitBreaker.Group();
+        UUID first = new UUID(1, 1);
+        UUID second = new UUID(1, 2);
+
+        CircuitBreaker breaker = group.get(first, 1);
+        assertSame(breaker, group.get(first, 1));
+        assertNotSame(breaker, group.get(first, 2));
+        assertNotSame(breaker, group.get(second, 1));
+
+        group.remove(first);
+        assertNotSame(breaker, group.get(first, 1));
+    }
+}
@@ -0,0 +1,161 @@
+/**
+ * Copyright (c) 2016 Motorola Mobility, LLC.
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.motorola.samples.mdkbattery;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests of the charge transfer accounting.
+ */
+public class EnergyAccountantTest {
+    private static final long CORE_CAP = 3000;
+    private static final long MOD_CAP = 2200;
+    private static final long MINUTE = 60 * 1000;
+
+    @Test
+    public void transfer_integratesChargeInMicroAmpHours() throws Exception {
+        EnergyAccountant accountant = new EnergyAccountant(16);
+
+        /** Mod feeds the phone: mod 90% to 60%, phone 20% to 40% */
+        for (int i = 0; i <= 30; i++) {
+            accountant.add(i * MINUTE, 20 + i * 2 / 3, CORE_CAP, 0, 90 - i, MOD_CAP, true, false);
+        }
+
+        EnergyAccountant.Sessions out = new EnergyAccountant.Sessions(4);
+        assertEquals(1, accountant.getSessions(out));
+        assertEquals(0, out.start[0]);
+        assertEquals(30 * MINUTE, out.end[0]);
+        assertTrue(out.isModPlugged(0));
+        assertFalse(out.isEfficiencyOn(0));
+
+        /** 30% of 2200 mAh is 660 mAh, 20% of 3000 mAh is 600 mAh */
+        assertEquals(660000, out.modDelivered[0]);
+        assertEquals(600000, out.phoneGained[0]);
+        assertEquals(0, out.phoneUsed[0]);
+        assertEquals(909, out.getEfficiency(0));
+    }
+
+    @Test
+    public void sessions_splitOnPlugAndEfficiency() throws Exception {
+        EnergyAccountant accountant = new EnergyAccountant(16);
+        long t = 0;
+
+        /** Efficiency off, mod feeding the phone */
+        accountant.add(t, 50, CORE_CAP, 0, 80, MOD_CAP, true, false);
+        accountant.add(t += MINUTE, 52, CORE_CAP, 0, 77, MOD_CAP, true, false);
+
+        /** Efficiency on, mod holds the phone */
+        accountant.add(t += MINUTE, 52, CORE_CAP, 0, 77, MOD_CAP, true, true);
+        accountant.add(t += MINUTE, 51, CORE_CAP, 0, 76, MOD_CAP, true, true);
+        accountant.add(t += MINUTE, 52, CORE_CAP, 0, 75, MOD_CAP, true, true);
+
+        /** Phone on USB charges both */
+        accountant.add(t += MINUTE, 52, CORE_CAP, 2, 75, MOD_CAP, false, true);
+        accountant.add(t += MINUTE, 53, CORE_CAP, 2, 76, MOD_CAP, false, true);
+
+        EnergyAccountant.Sessions out = new EnergyAccountant.Sessions(8);
+        assertEquals(3, accountant.getSessions(out));
+
+        assertEquals(66000, out.modDelivered[0]);
+        assertEquals(60000, out.phoneGained[0]);
+
+        assertTrue(out.isEfficiencyOn(1));
+        assertEquals(44000, out.modDelivered[1]);
+        assertEquals(30000, out.phoneGained[1]);
+        assertEquals(30000, out.phoneUsed[1]);
+
+        assertEquals(2, out.getCorePlugged(2));
+        assertEquals(22000, out.modCharged[2]);
+        assertEquals(EnergyAccountant.UNKNOWN, out.getEfficiency(2));
+
+        assertEquals(909, accountant.getTransferEfficiency(false));
+        assertEquals(681, accountant.getTransferEfficiency(true));
+    }
+
+    @Test
+    public void unknownCapacity_notCredited() throws Exception {
+        EnergyAccountant accountant = new EnergyAccountant(16);
+
+        /** Phone capacity not derived yet, only the mod side would add up */
+        for (int i = 0; i <= 10; i++) {
+            accountant.add(i * MINUTE, 20 + i, 0, 0, 90 - i, MOD_CAP, true, false);
+        }
+        EnergyAccountant.Sessions out = new EnergyAccountant.Sessions(4);
+        assertEquals(1, accountant.getSessions(out));
+        assertEquals(0, out.modDelivered[0]);
+        assertEquals(0, out.phoneGained[0]);
+        assertEquals(EnergyAccountant.UNKNOWN, out.getEfficiency(0));
+        assertEquals(EnergyAccountant.UNKNOWN, accountant.getTransferEfficiency(false));
+
+        /** Once known, only the steps from then on count, on both sides */
+        for (int i = 11; i <= 20; i++) {
+            accountant.add(i * MINUTE, 20 + i, CORE_CAP, 0, 90 - i, MOD_CAP, true, false);
+        }
+        accountant.getSessions(out);
+        assertEquals(10 * MOD_CAP * 10, out.modDelivered[0]);
+        assertEquals(10 * CORE_CAP * 10, out.phoneGained[0]);
+        assertEquals(20 * MINUTE, out.end[0]);
+        assertEquals(1000 * CORE_CAP / MOD_CAP, accountant.getTransferEfficiency(false));
+    }
+
+    @Test
+    public void detach_closesSession() throws Exception {
+        EnergyAccountant accountant = new EnergyAccountant(16);
+        accountant.add(0, 50, CORE_CAP, 0, 80, MOD_CAP, true, false);
+        accountant.add(MINUTE, 51, CORE_CAP, 0, 79, MOD_CAP, true, false);
+        accountant.add(2 * MINUTE, 51, CORE_CAP, 0, BatteryHistory.NO_MOD, 0, false, false);
+        accountant.add(3 * MINUTE, 51, CORE_CAP, 0, 79, MOD_CAP, true, false);
+
+        /** Reattached with the same flags is a new session, no charge across the gap */
+        EnergyAccountant.Sessions out = new EnergyAccountant.Sessions(8);
+        assertEquals(2, accountant.getSessions(out));
+        assertEquals(MINUTE, out.end[0]);
+        assertEquals(3 * MINUTE, out.start[1]);
+        assertEquals(0, out.modDelivered[1]);
+    }
+
+    @Test
+    public void ring_keepsMostRecentSessions() throws Exception {
+        EnergyAccountant accountant = new EnergyAccountant(4);
+        for (int i = 0; i < 10; i++) {
+            accountant.add(i * MINUTE, 50, CORE_CAP, 0, 80, MOD_CAP, true, i % 2 == 0);
+        }
+
+        EnergyAccountant.Sessions out = new EnergyAccountant.Sessions(8);
+        assertEquals(10, accountant.getCount());
+        assertEquals(4, accountant.getSessions(out));
+        assertEquals(6 * MINUTE, out.start[0]);
+        assertEquals(9 * MINUTE, out.start[3]);
+    }
+}
@@ -0,0 +1,364 @@
+/**
+ * Copyright (c) 2016 Motorola Mobility, LLC.
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.motorola.samples.mdkbattery;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests of the firmware update pipeline against a fake mod device.
+ */
+public class FirmwareUpdaterTest {
+    private static final int CHUNK = 1024;
+    private static final UUID DEVICE = new UUID(1, 2);
+
+    /** Handle the acknowledgements on the calling thread */
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    /** Fake mod device writing the chunks into its flash, acknowledging each one */
+    private static class FakeDevice implements FirmwareUpdater.Endpoint {
+        final byte[] flash;
+        final CRC32 crc = new CRC32();
+        FirmwareUpdater updater;
+
+        /** Acknowledge at once, or queue the offsets for the test to acknowledge */
+        boolean autoAck = true;
+        final List<Long> pending = new ArrayList<>();
+
+        /** Corrupt the chunks at these offsets once, as a bad link would */
+        final List<Long> corrupt = new ArrayList<>();
+
+        /** Detach after so many chunks */
+        int detachAfter = Integer.MAX_VALUE;
+
+        int received;
+        boolean finished;
+        int finishedCrc;
+
+        FakeDevice(int size) {
+            flash = new byte[size];
+        }
+
+        @Override
+        public void send(long offset, byte[] data, int length, int chunkCrc) throws IOException {
+            if (received++ >= detachAfter) {
+                throw new IOException("Detached");
+            }
+
+            byte[] copy = Arrays.copyOf(data, length);
+            if (corrupt.remove(offset)) {
+                copy[length / 2] ^= 0x10;
+            }
+            crc.reset();
+            crc.update(copy, 0, length);
+            boolean ok = (int) crc.getValue() == chunkCrc;
+            if (ok) {
+                System.arraycopy(copy, 0, flash, (int) offset, length);
+            }
+
+            if (autoAck) {
+                updater.onAck(offset, ok);
+            } else {
+                pending.add(offset);
+            }
+        }
+
+        @Override
+        public void finish(long size, int imageCrc) throws IOException {
+            finished = true;
+            finishedCrc = imageCrc;
+        }
+    }
+
+    /** Listener recording the result */
+    private static class Result implements FirmwareUpdater.Listener {
+        int result = -1;
+        long offset;
+
+        @Override
+        public void onProgress(long offset, long size) {
+            this.offset = offset;
+        }
+
+        @Override
+        public void onDone(int result) {
+            this.result = result;
+        }
+    }
+
+    private static File tempDir() throws Exception {
+        File dir = File.createTempFile("firmware", "");
+        assertTrue(dir.delete() && dir.mkdirs());
+        dir.deleteOnExit();
+        return dir;
+    }
+
+    private static byte[] image(int size, long seed) {
+        byte[] bytes = new byte[size];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static File write(File dir, byte[] bytes) throws Exception {
+        File file = new File(dir, "image.bin");
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    private static FirmwareUpdater updater(File image, UpdateStore store, FakeDevice device,
+                                           Result result) {
+        FirmwareUpdater updater = new FirmwareUpdater(image, DEVICE, store, device, result,
+                DIRECT, CHUNK, FirmwareUpdater.DEFAULT_WINDOW);
+        device.updater = updater;
+        return updater;
+    }
+
+    @Test
+    public void update_writesWholeImage() throws Exception {
+        File dir = tempDir();
+        byte[] bytes = image(4 * 1024 * 1024 + 123, 1);
+        UpdateStore store = new UpdateStore(dir);
+        FakeDevice device = new FakeDevice(bytes.length);
+        Result result = new Result();
+        FirmwareUpdater updater = updater(write(dir, bytes), store, device, result);
+
+        assertEquals(0, updater.start());
+
+        assertEquals(FirmwareUpdater.RESULT_SUCCESS, result.result);
+        assertArrayEquals(bytes, device.flash);
+        assertTrue(device.finished);
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        assertEquals((int) crc.getValue(), device.finishedCrc);
+        assertNull(store.read(DEVICE));
+        assertEquals((bytes.length + CHUNK - 1) / CHUNK, updater.getSentCount());
+    }
+
+    @Test
+    public void update_resendsCorruptedChunks() throws Exception {
+        File dir = tempDir();
+        byte[] bytes = image(64 * CHUNK, 2);
+        FakeDevice device = new FakeDevice(bytes.length);
+        device.corrupt.add(3L * CHUNK);
+        device.corrupt.add(40L * CHUNK);
+        Result result = new Result();
+        FirmwareUpdater updater = updater(write(dir, bytes), new UpdateStore(dir), device,
+                result);
+
+        updater.start();
+
+        assertEquals(FirmwareUpdater.RESULT_SUCCESS, result.result);
+        assertArrayEquals(bytes, device.flash);
+        assertTrue(updater.getResentCount() > 0);
+    }
+
+    @Test
+    public void update_keepsWindowAndResendsOnTimeout() throws Exception {
+        File dir = tempDir();
+        byte[] bytes = image(32 * CHUNK, 3);
+        FakeDevice device = new FakeDevice(bytes.length);
+        device.autoAck = false;
+        Result result = new Result();
+        FirmwareUpdater updater = updater(write(dir, bytes), new UpdateStore(dir), device,
+                result);
+
+        updater.start();
+        assertEquals(FirmwareUpdater.DEFAULT_WINDOW, device.pending.size());
+
+        /** First two acknowledged, the others lost */
+        updater.onAck(device.pending.get(0), true);
+        updater.onAck(device.pending.get(1), true);
+        assertEquals(FirmwareUpdater.DEFAULT_WINDOW + 2, device.pending.size());
+        device.pending.clear();
+        updater.onTimeout();
+        assertEquals(FirmwareUpdater.DEFAULT_WINDOW, device.pending.size());
+        assertEquals(2L * CHUNK, (long) device.pending.get(0));
+
+        /** Acknowledge everything from now on */
+        while (result.result < 0) {
+            long offset = device.pending.remove(0);
+            updater.onAck(offset, true);
+        }
+        assertEquals(FirmwareUpdater.RESULT_SUCCESS, result.result);
+        assertArrayEquals(bytes, device.flash);
+    }
+
+    @Test
+    public void update_resumesAfterDetach() throws Exception {
+        File dir = tempDir();
+        byte[] bytes = image(300 * CHUNK + 17, 4);
+        File file = write(dir, bytes);
+        UpdateStore store = new UpdateStore(dir);
+
+        FakeDevice device = new FakeDevice(bytes.length);
+        device.detachAfter = 150;
+        Result first = new Result();
+        updater(file, store, device, first).start();
+        assertEquals(FirmwareUpdater.RESULT_IO_ERROR, first.result);
+        UpdateStore.Progress progress = store.read(DEVICE);
+        assertNotNull(progress);
+        assertEquals(150L * CHUNK, progress.offset);
+
+        /** Same device attached again, the flash kept what was acknowledged */
+        device.detachAfter = Integer.MAX_VALUE;
+        device.received = 0;
+        Result second = new Result();
+        FirmwareUpdater resumed = updater(file, store, device, second);
+        assertEquals(150L * CHUNK, resumed.start());
+
+        assertEquals(FirmwareUpdater.RESULT_SUCCESS, second.result);
+        assertEquals(151, resumed.getSentCount());
+        assertArrayEquals(bytes, device.flash);
+        assertNull(store.read(DEVICE));
+    }
+
+    @Test
+    public void stop_savesProgressOfSameImageOnly() throws Exception {
+        File dir = tempDir();
+        byte[] bytes = image(16 * CHUNK, 5);
+        UpdateStore store = new UpdateStore(dir);
+        FakeDevice device = new FakeDevice(bytes.length);
+        device.autoAck = false;
+        Result result = new Result();
+        FirmwareUpdater updater = updater(write(dir, bytes), store, device, result);
+
+        updater.start();
+        updater.onAck(0, true);
+        updater.stop();
+        assertEquals(FirmwareUpdater.RESULT_STOPPED, result.result);
+        assertFalse(updater.isRunning());
+        assertEquals(CHUNK, store.read(DEVICE).offset);
+
+        /** Another image starts over */
+        byte[] other = image(16 * CHUNK, 6);
+        FakeDevice otherDevice = new FakeDevice(other.length);
+        Result otherResult = new Result();
+        assertEquals(0, updater(write(dir, other), store, otherDevice, otherResult).start());
+        assertEquals(FirmwareUpdater.RESULT_SUCCESS, otherResult.result);
+    }
+
+    /**
+     * The reader acknowledges while a send blocks until the reader goes on, as a raw
+     * interface waiting for the host to read does. The acknowledgement must not wait.
+     */
+    @Test(timeout = 10000)
+    public void ack_doesNotWaitForBlockedSend() throws Exception {
+        File dir = tempDir();
+        byte[] bytes = image(4 * CHUNK, 7);
+        final CountDownLatch readerDone = new CountDownLatch(1);
+        final List<Long> sent = Collections.synchronizedList(new ArrayList<Long>());
+        FirmwareUpdater.Endpoint endpoint = new FirmwareUpdater.Endpoint() {
+            @Override
+            public void send(long offset, byte[] data, int length, int crc) throws IOException {
+                sent.add(offset);
+                if (offset == 0) {
+                    return;
+                }
+                try {
+                    readerDone.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+
+            @Override
+            public void finish(long size, int imageCrc) throws IOException {
+            }
+        };
+
+        ExecutorService worker = Executors.newSingleThreadExecutor();
+        Result result = new Result();
+        final FirmwareUpdater updater = new FirmwareUpdater(write(dir, bytes), DEVICE,
+                new UpdateStore(dir), endpoint, result, worker, CHUNK, 1);
+        try {
+            worker.submit(new Callable<Long>() {
+                @Override
+                public Long call() throws Exception {
+                    return updater.start();
+                }
+            }).get();
+
+            /** The ack of the first chunk sends the second one, which blocks the worker */
+            updater.onAck(0, true);
+            while (sent.size() < 2) {
+                Thread.sleep(1);
+            }
+
+            /** The reader thread delivers the next ack while the send still blocks */
+            updater.onAck(CHUNK, true);
+            readerDone.countDown();
+
+            for (int k = 2; k < bytes.length / CHUNK; k++) {
+                while (sent.size() <= k) {
+                    Thread.sleep(1);
+                }
+                updater.onAck((long) k * CHUNK, true);
+            }
+            worker.shutdown();
+            assertTrue(worker.awaitTermination(5, TimeUnit.SECONDS));
+            assertEquals(FirmwareUpdater.RESULT_SUCCESS, result.result);
+        } finally {
+            worker.shutdownNow();
+        }
+    }
+}
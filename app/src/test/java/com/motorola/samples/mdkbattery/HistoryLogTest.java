@@ -0,0 +1,220 @@
+/**
+ * Copyright (c) 2016 Motorola Mobility, LLC.
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.motorola.samples.mdkbattery;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests and benchmark of the persistent history log.
+ */
+public class HistoryLogTest {
+    private static final long DAY = 24 * 3600 * 1000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /** Fill samples with times from the given second on, levels derived from the time */
+    private static BatteryHistory.Samples samples(long fromSecond, int n) {
+        BatteryHistory history = new BatteryHistory(n);
+        for (int i = 0; i < n; i++) {
+            long second = fromSecond + i;
+            history.add(second * 1000, (int) (second % 101), 2, 1, (int) (100 - second % 101),
+                    3, second % 2 == 0, false);
+        }
+        BatteryHistory.Samples out = new BatteryHistory.Samples(n);
+        history.read(0, out);
+        return out;
+    }
+
+    private static void assertSequence(BatteryHistory.Samples out, long fromSecond) {
+        for (int i = 0; i < out.size; i++) {
+            long second = fromSecond + i;
+            assertEquals(second * 1000, out.getTime(i));
+            assertEquals((int) (second % 101), out.getCoreLevel(i));
+            assertEquals((int) (100 - second % 101), out.getModLevel(i));
+            assertEquals(second % 2 == 0, out.isModPlugged(i));
+        }
+    }
+
+    @Test
+    public void appendCommit_survivesReopen() throws Exception {
+        File dir = folder.newFolder("history");
+        HistoryLog log = new HistoryLog(dir, 100, DAY);
+        log.open();
+        log.append(samples(0, 250), 0, 250);
+        log.commit();
+        log.close();
+
+        HistoryLog reopened = new HistoryLog(dir, 100, DAY);
+        reopened.open();
+        assertEquals(250, reopened.getCount());
+        assertEquals(3, reopened.getSegmentCount());
+
+        BatteryHistory.Samples out = new BatteryHistory.Samples(1000);
+        assertEquals(250, reopened.read(0, out));
+        assertEquals(0, out.first);
+        assertSequence(out, 0);
+
+        assertEquals(50, reopened.read(200 * 1000, out));
+        assertEquals(200, out.first);
+        assertSequence(out, 200);
+
+        /** Appends continue in the recovered tail segment */
+        reopened.append(samples(250, 10), 0, 10);
+        reopened.commit();
+        assertEquals(260, reopened.read(0, out));
+        assertSequence(out, 0);
+        reopened.close();
+    }
+
+    @Test
+    public void uncommittedRecords_droppedOnRecovery() throws Exception {
+        File dir = folder.newFolder("history");
+        HistoryLog log = new HistoryLog(dir, 1000, DAY);
+        log.open();
+        log.append(samples(0, 40), 0, 40);
+        log.commit();
+
+        /** Appended but never committed, as if the process died here */
+        log.append(samples(40, 20), 0, 20);
+
+        HistoryLog recovered = new HistoryLog(dir, 1000, DAY);
+        recovered.open();
+        assertEquals(40, recovered.getCount());
+
+        BatteryHistory.Samples out = new BatteryHistory.Samples(100);
+        assertEquals(40, recovered.read(0, out));
+        assertSequence(out, 0);
+        recovered.close();
+    }
+
+    @Test
+    public void tornRecords_fallBackToPreviousCommit() throws Exception {
+        File dir = folder.newFolder("history");
+        HistoryLog log = new HistoryLog(dir, 1000, DAY);
+        log.open();
+        log.append(samples(0, 40), 0, 40);
+        log.commit();
+        log.append(samples(40, 20), 0, 20);
+        log.commit();
+        log.close();
+
+        /** Header of the last commit reached the disk, one of its records did not */
+        File segment = dir.listFiles()[0];
+        RandomAccessFile file = new RandomAccessFile(segment, "rw");
+        file.seek(HistoryLog.HEADER_SIZE + 50 * HistoryLog.RECORD_SIZE);
+        file.writeLong(-1);
+        file.close();
+
+        HistoryLog recovered = new HistoryLog(dir, 1000, DAY);
+        recovered.open();
+        assertEquals(40, recovered.getCount());
+        assertEquals(20, recovered.getRecoveryDropped());
+
+        /** A new commit after recovery must not lose the recovered records */
+        recovered.append(samples(40, 5), 0, 5);
+        recovered.commit();
+        recovered.close();
+
+        HistoryLog again = new HistoryLog(dir, 1000, DAY);
+        again.open();
+        BatteryHistory.Samples out = new BatteryHistory.Samples(100);
+        assertEquals(45, again.read(0, out));
+        assertSequence(out, 0);
+        again.close();
+    }
+
+    @Test
+    public void roll_agesOutOldSegments() throws Exception {
+        File dir = folder.newFolder("history");
+
+        /** One segment per 100 seconds, keep 250 seconds */
+        HistoryLog log = new HistoryLog(dir, 100, 250 * 1000);
+        log.open();
+        log.append(samples(0, 1000), 0, 1000);
+        log.commit();
+
+        assertTrue(log.getSegmentCount() <= 4);
+        BatteryHistory.Samples out = new BatteryHistory.Samples(1000);
+        int n = log.read(0, out);
+        assertEquals(log.getCount(), n);
+        assertSequence(out, 1000 - n);
+        /** Segments are dropped whole, once their newest record is out of the retention */
+        assertEquals(600 * 1000, out.getTime(0));
+        assertEquals(log.getSegmentCount(), dir.listFiles().length);
+        log.close();
+    }
+
+    /** A month of 1 Hz samples, committed once a minute, then recovered */
+    @Test
+    public void benchmark_monthOfSamples() throws Exception {
+        File dir = folder.newFolder("history");
+        int perCommit = 60;
+        int total = 31 * 24 * 3600;
+        BatteryHistory.Samples batch = samples(0, 3600);
+
+        HistoryLog log = new HistoryLog(dir, HistoryLog.DEFAULT_SEGMENT_RECORDS,
+                HistoryLog.DEFAULT_RETENTION);
+        log.open();
+        long start = System.nanoTime();
+        for (int written = 0; written < total; written += perCommit) {
+            /** Shift the times of the batch to keep them increasing */
+            int k = (written % 3600);
+            for (int i = k; i < k + perCommit; i++) {
+                batch.times[i] = (long) (written - k + i) * 1000;
+            }
+            log.append(batch, k, perCommit);
+            log.commit();
+        }
+        long appendNs = System.nanoTime() - start;
+        log.close();
+
+        start = System.nanoTime();
+        HistoryLog recovered = new HistoryLog(dir, HistoryLog.DEFAULT_SEGMENT_RECORDS,
+                HistoryLog.DEFAULT_RETENTION);
+        recovered.open();
+        long recoverNs = System.nanoTime() - start;
+
+        assertEquals(total, recovered.getCount());
+
+        /** A month appends within a minute and recovers within a second, even on slow hosts */
+        assertTrue(appendNs < 60L * 1000000000L);
+        assertTrue(recoverNs < 1000000000L);
+        recovered.close();
+    }
+}
@@ -0,0 +1,197 @@
+/**
+ * Copyright (c) 2016 Motorola Mobility, LLC.
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.motorola.samples.mdkbattery;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests of the history rollup tiers.
+ */
+public class HistoryRollupTest {
+    private static final int CHARGING = 2;
+    private static final int DISCHARGING = 3;
+    private static final long SECOND = 1000;
+
+    @Test
+    public void selectTier_coarsestNotCoarserThanResolution() throws Exception {
+        assertEquals(HistoryRollup.TIER_MINUTE, HistoryRollup.selectTier(SECOND));
+        assertEquals(HistoryRollup.TIER_MINUTE, HistoryRollup.selectTier(HistoryRollup.MINUTE));
+        assertEquals(HistoryRollup.TIER_MINUTE, HistoryRollup.selectTier(30 * HistoryRollup.MINUTE));
+        assertEquals(HistoryRollup.TIER_HOUR, HistoryRollup.selectTier(HistoryRollup.HOUR));
+        assertEquals(HistoryRollup.TIER_HOUR, HistoryRollup.selectTier(6 * HistoryRollup.HOUR));
+        assertEquals(HistoryRollup.TIER_DAY, HistoryRollup.selectTier(7 * HistoryRollup.DAY));
+    }
+
+    @Test
+    public void add_aggregatesLevelsAndTimes() throws Exception {
+        HistoryRollup rollup = new HistoryRollup();
+
+        /** One minute charging from 40% to 45%, then one minute on mod power */
+        for (int s = 0; s < 60; s++) {
+            rollup.add(s * SECOND, 40 + s / 12, CHARGING, BatteryHistory.NO_MOD, false);
+        }
+        for (int s = 60; s < 120; s++) {
+            rollup.add(s * SECOND, 45, DISCHARGING, 80 - (s - 60) / 30, true);
+        }
+        rollup.add(120 * SECOND, 45, DISCHARGING, 78, false);
+
+        HistoryRollup.Buckets out = new HistoryRollup.Buckets(10);
+        assertEquals(3, rollup.query(0, 3 * HistoryRollup.MINUTE, HistoryRollup.MINUTE, out));
+        assertEquals(HistoryRollup.MINUTE, out.width);
+
+        assertEquals(0, out.start[0]);
+        assertEquals(40, out.coreMin[0]);
+        assertEquals(44, out.coreMax[0]);
+        assertEquals(42, out.coreMean[0]);
+        assertEquals(-1, out.modMean[0]);
+        assertEquals(60 * SECOND, out.chargingTime[0]);
+        assertEquals(0, out.transferTime[0]);
+
+        assertEquals(HistoryRollup.MINUTE, out.start[1]);
+        assertEquals(79, out.modMin[1]);
+        assertEquals(80, out.modMax[1]);
+        assertEquals(0, out.chargingTime[1]);
+        assertEquals(60 * SECOND, out.transferTime[1]);
+
+        /** The hour bucket holds the same totals */
+        assertEquals(1, rollup.query(0, HistoryRollup.DAY, HistoryRollup.HOUR, out));
+        assertEquals(HistoryRollup.HOUR, out.width);
+        assertEquals(40, out.coreMin[0]);
+        assertEquals(45, out.coreMax[0]);
+        assertEquals(60 * SECOND, out.chargingTime[0]);
+        assertEquals(60 * SECOND, out.transferTime[0]);
+    }
+
+    @Test
+    public void add_skipsLongGaps() throws Exception {
+        HistoryRollup rollup = new HistoryRollup();
+        rollup.add(0, 50, CHARGING, BatteryHistory.NO_MOD, false);
+        rollup.add(HistoryRollup.MAX_GAP + 1, 60, CHARGING, BatteryHistory.NO_MOD, false);
+
+        HistoryRollup.Buckets out = new HistoryRollup.Buckets(10);
+        rollup.query(0, HistoryRollup.DAY, HistoryRollup.DAY, out);
+        assertEquals(1, out.size);
+        assertEquals(0, out.chargingTime[0]);
+    }
+
+    @Test
+    public void minuteTier_agesOutAfterRetention() throws Exception {
+        HistoryRollup rollup = new HistoryRollup();
+        long retention = HistoryRollup.getRetention(HistoryRollup.TIER_MINUTE);
+        for (long t = 0; t <= retention + HistoryRollup.HOUR; t += HistoryRollup.MINUTE) {
+            rollup.add(t, 50, DISCHARGING, BatteryHistory.NO_MOD, false);
+        }
+
+        /** The first hour was overwritten in the minute tier, but not in the hour tier */
+        HistoryRollup.Buckets out = new HistoryRollup.Buckets(100);
+        assertEquals(0, rollup.query(0, HistoryRollup.HOUR, HistoryRollup.MINUTE, out));
+        assertEquals(1, rollup.query(0, HistoryRollup.HOUR, HistoryRollup.HOUR, out));
+        assertEquals(60, rollup.query(retention, retention + HistoryRollup.HOUR,
+                HistoryRollup.MINUTE, out));
+    }
+
+    @Test
+    public void add_samplesRebuildTheSameBuckets() throws Exception {
+        BatteryHistory history = new BatteryHistory(4096);
+        HistoryRollup live = new HistoryRollup();
+        for (int s = 0; s < 3000; s++) {
+            long time = s * 7 * SECOND;
+            int core = 20 + s % 80;
+            int status = s % 500 < 250 ? CHARGING : DISCHARGING;
+            int mod = s % 3 == 0 ? BatteryHistory.NO_MOD : 90 - s % 90;
+            boolean modPlugged = s % 5 == 0;
+            history.add(time, core, status, 0, mod, DISCHARGING, modPlugged, false);
+            live.add(time, core, status, mod, modPlugged);
+        }
+
+        HistoryRollup rebuilt = new HistoryRollup();
+        BatteryHistory.Samples samples = new BatteryHistory.Samples(1000);
+        long cursor = 0;
+        while (history.read(cursor, samples) > 0) {
+            rebuilt.add(samples);
+            cursor = samples.first + samples.size;
+        }
+
+        HistoryRollup.Buckets expected = new HistoryRollup.Buckets(400);
+        HistoryRollup.Buckets actual = new HistoryRollup.Buckets(400);
+        assertEquals(live.query(0, HistoryRollup.DAY, HistoryRollup.MINUTE, expected),
+                rebuilt.query(0, HistoryRollup.DAY, HistoryRollup.MINUTE, actual));
+        for (int k = 0; k < expected.size; k++) {
+            assertEquals(expected.start[k], actual.start[k]);
+            assertEquals(expected.coreMean[k], actual.coreMean[k]);
+            assertEquals(expected.modMin[k], actual.modMin[k]);
+            assertEquals(expected.chargingTime[k], actual.chargingTime[k]);
+            assertEquals(expected.transferTime[k], actual.transferTime[k]);
+        }
+    }
+
+    @Test
+    public void retention_notBeyondTheHistoryLog() throws Exception {
+        assertEquals(HistoryLog.DEFAULT_RETENTION,
+                HistoryRollup.getRetention(HistoryRollup.TIER_HOUR));
+        assertEquals(HistoryLog.DEFAULT_RETENTION,
+                HistoryRollup.getRetention(HistoryRollup.TIER_DAY));
+    }
+
+    /** A month of 1 Hz samples, each one updating all tiers */
+    @Test
+    public void benchmark_monthOfSamples() throws Exception {
+        int total = 31 * 24 * 3600;
+        HistoryRollup.Buckets out = new HistoryRollup.Buckets(64);
+
+        /** Warm up, then measure */
+        for (int round = 0; round < 2; round++) {
+            HistoryRollup rollup = new HistoryRollup();
+            long start = System.nanoTime();
+            for (int s = 0; s < total; s++) {
+                rollup.add(s * SECOND, s % 101, s % 7200 < 3600 ? CHARGING : DISCHARGING,
+                        s % 101, s % 3 == 0);
+            }
+            long elapsed = System.nanoTime() - start;
+
+            int n = rollup.query(0, total * SECOND, HistoryRollup.DAY, out);
+            assertEquals(31, n);
+            for (int d = 0; d < n; d++) {
+                assertEquals(d * HistoryRollup.DAY, out.start[d]);
+                assertEquals(12 * HistoryRollup.HOUR, out.chargingTime[d]);
+                assertEquals(0, out.coreMin[d]);
+                assertEquals(100, out.coreMax[d]);
+            }
+
+            /** Rebuilding a month from the log stays well within seconds */
+            if (round == 1) {
+                assertTrue(elapsed / total < 20000);
+            }
+        }
+    }
+}
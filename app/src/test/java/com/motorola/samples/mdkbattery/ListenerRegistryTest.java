@@ -0,0 +1,242 @@
+/**
+ * Copyright (c) 2016 Motorola Mobility, LLC.
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.motorola.samples.mdkbattery;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests of the copy-on-write listener registry.
+ */
+public class ListenerRegistryTest {
+    private static final int THREADS = 8;
+    private static final int LISTENERS_PER_THREAD = 64;
+    private static final int ROUNDS = 200;
+
+    @Test
+    public void register_replacesPreviousRegistration() throws Exception {
+        ListenerRegistry<Object> registry = new ListenerRegistry<>();
+        Object listener = new Object();
+
+        registry.register(listener, 1, 0);
+        registry.register(listener, 2, 100);
+
+        assertEquals(1, registry.size());
+        assertEquals(2, registry.entries()[0].fields);
+        assertEquals(100, registry.entries()[0].minInterval);
+    }
+
+    @Test
+    public void unregister_removesOnlyGivenListener() throws Exception {
+        ListenerRegistry<Object> registry = new ListenerRegistry<>();
+        Object first = new Object();
+        Object second = new Object();
+        registry.register(first, ~0, 0);
+        registry.register(second, ~0, 0);
+
+        assertTrue(registry.unregister(first));
+        assertFalse(registry.unregister(first));
+        assertEquals(1, registry.size());
+        assertTrue(registry.entries()[0].get() == second);
+    }
+
+    @Test
+    public void entries_isStableWhileRegistryChanges() throws Exception {
+        ListenerRegistry<Object> registry = new ListenerRegistry<>();
+        Object first = new Object();
+        registry.register(first, ~0, 0);
+
+        ListenerRegistry.Entry<Object>[] entries = registry.entries();
+        registry.register(new Object(), ~0, 0);
+        registry.unregister(first);
+
+        assertEquals(1, entries.length);
+        assertTrue(entries[0].get() == first);
+    }
+
+    @Test
+    public void collectedListener_isPurged() throws Exception {
+        ListenerRegistry<Object> registry = new ListenerRegistry<>();
+        Object kept = new Object();
+        registry.register(kept, ~0, 0);
+        registry.register(new Object(), ~0, 0);
+
+        /** Best effort, the collector may keep the unreferenced listener for a while */
+        for (int i = 0; i < 20 && registry.entries()[1].get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        if (registry.entries()[1].get() != null) {
+            return;
+        }
+
+        registry.register(new Object(), ~0, 0);
+        assertEquals(2, registry.size());
+        assertTrue(registry.entries()[0].get() == kept);
+        assertNotNull(registry.entries()[1].get());
+    }
+
+    /**
+     * Many threads register and unregister their own listeners while others iterate
+     * and deliver. No update may be lost, and an iteration never sees a broken array.
+     */
+    @Test
+    public void concurrentRegisterUnregister_stress() throws Exception {
+        final ListenerRegistry<Object> registry = new ListenerRegistry<>();
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final AtomicInteger delivered = new AtomicInteger();
+        final List<Object> kept = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+
+        for (int t = 0; t < THREADS; t++) {
+            final Object[] own = new Object[LISTENERS_PER_THREAD];
+            for (int i = 0; i < own.length; i++) {
+                own[i] = new Object();
+            }
+            kept.add(own);
+
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int r = 0; r < ROUNDS; r++) {
+                            for (Object l : own) {
+                                registry.register(l, ~0, 0);
+                            }
+                            for (int i = 0; i < own.length; i += 2) {
+                                if (!registry.unregister(own[i])) {
+                                    throw new AssertionError("Registered listener lost");
+                                }
+                            }
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            }));
+
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int r = 0; r < ROUNDS * 10; r++) {
+                            for (ListenerRegistry.Entry<Object> entry : registry.entries()) {
+                                if (null == entry || null == entry.get()) {
+                                    throw new AssertionError("Broken entry");
+                                }
+                                delivered.incrementAndGet();
+                            }
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            }));
+        }
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+
+        /** Each thread ends with its odd listeners registered, exactly once */
+        assertEquals(THREADS * LISTENERS_PER_THREAD / 2, registry.size());
+        for (Object own : kept) {
+            for (int i = 1; i < LISTENERS_PER_THREAD; i += 2) {
+                assertTrue(registry.unregister(((Object[]) own)[i]));
+            }
+        }
+        assertEquals(0, registry.size());
+        assertTrue(delivered.get() > 0);
+    }
+
+    @Test
+    public void schedule_keepsDeliveringUnderFasterEvents() throws Exception {
+        ListenerRegistry<Object> registry = new ListenerRegistry<>();
+        Object listener = new Object();
+        registry.register(listener, ~0, 250);
+        ListenerRegistry.Entry<Object> entry = registry.entries()[0];
+
+        /** Events every 50 ms for 2 s; a delayed message is delivered at its time */
+        List<Long> deliveries = new ArrayList<>();
+        long pending = -1;
+        for (long now = 0; now < 2000; now += 50) {
+            if (pending >= 0 && now >= pending) {
+                deliveries.add(pending);
+                pending = -1;
+            }
+
+            long at = entry.schedule(now);
+            if (at <= now) {
+                deliveries.add(now);
+            } else {
+                assertTrue(pending < 0 || pending == at);
+                pending = at;
+            }
+        }
+
+        assertEquals(8, deliveries.size());
+        for (int i = 1; i < deliveries.size(); i++) {
+            assertEquals(250, deliveries.get(i) - deliveries.get(i - 1));
+        }
+    }
+
+    @Test
+    public void schedule_deliversAtOnceAfterQuietPeriod() throws Exception {
+        ListenerRegistry<Object> registry = new ListenerRegistry<>();
+        registry.register(new Object(), ~0, 250);
+        ListenerRegistry.Entry<Object> entry = registry.entries()[0];
+
+        assertEquals(0, entry.schedule(0));
+        assertEquals(250, entry.schedule(100));
+        assertEquals(250, entry.schedule(200));
+        assertEquals(1000, entry.schedule(1000));
+    }
+}
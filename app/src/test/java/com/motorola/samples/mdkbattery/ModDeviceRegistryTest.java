@@ -0,0 +1,230 @@
+/**
+ * Copyright (c) 2016 Motorola Mobility, LLC.
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.motorola.samples.mdkbattery;
+
+import com.motorola.mod.ModDevice;
+import com.motorola.mod.ModProtocol;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests of the index of the attached mod devices.
+ */
+public class ModDeviceRegistryTest {
+    private static final int VID_OTHER = 0x1234;
+
+    /** A mod device as listed by the mod manager */
+    private static class Device extends ModDevice {
+        final UUID id;
+        final int vendorId;
+        final int productId;
+        final String firmware;
+        final List<ModProtocol.Protocol> protocols;
+
+        Device(long id, int vendorId, int productId, String firmware,
+               ModProtocol.Protocol... protocols) {
+            this.id = new UUID(0, id);
+            this.vendorId = vendorId;
+            this.productId = productId;
+            this.firmware = firmware;
+            this.protocols = Arrays.asList(protocols);
+        }
+
+        @Override
+        public UUID getUniqueId() {
+            return id;
+        }
+
+        @Override
+        public int getVendorId() {
+            return vendorId;
+        }
+
+        @Override
+        public int getProductId() {
+            return productId;
+        }
+
+        @Override
+        public String getFirmwareVersion() {
+            return firmware;
+        }
+
+        @Override
+        public boolean hasDeclaredProtocol(ModProtocol.Protocol protocol) {
+            return protocols.contains(protocol);
+        }
+
+        @Override
+        public List<ModProtocol.Protocol> getDeclaredProtocols() {
+            return protocols;
+        }
+    }
+
+    private static Device battery(long id) {
+        return new Device(id, Constants.VID_MDK, Constants.PID_BATTERY, "1.0",
+                ModProtocol.Protocol.BATTERY, ModProtocol.Protocol.RAW);
+    }
+
+    @Test
+    public void update_reportsAttachAndDetach() throws Exception {
+        ModDeviceRegistry registry = new ModDeviceRegistry();
+        ModDeviceRegistry.Delta delta = new ModDeviceRegistry.Delta();
+        Device a = battery(1);
+        Device b = new Device(2, VID_OTHER, 7, "2.0", ModProtocol.Protocol.AUDIO);
+
+        registry.update(Arrays.<ModDevice>asList(a, b), delta);
+        assertEquals(Arrays.<ModDevice>asList(a, b), delta.attached);
+        assertTrue(delta.detached.isEmpty());
+        assertEquals(2, registry.size());
+        assertSame(a, registry.get(a.id));
+        assertSame(b, registry.getLast());
+
+        registry.update(Collections.<ModDevice>singletonList(b), delta);
+        assertTrue(delta.attached.isEmpty());
+        assertEquals(Collections.<ModDevice>singletonList(a), delta.detached);
+        assertNull(registry.get(a.id));
+        assertNull(registry.getBatteryMod());
+        assertTrue(registry.getByProtocol(ModProtocol.Protocol.BATTERY).isEmpty());
+
+        registry.clear(delta);
+        assertEquals(Collections.<ModDevice>singletonList(b), delta.detached);
+        assertEquals(0, registry.size());
+        assertNull(registry.getLast());
+    }
+
+    @Test
+    public void update_unchangedDevicesGiveEmptyDelta() throws Exception {
+        ModDeviceRegistry registry = new ModDeviceRegistry();
+        ModDeviceRegistry.Delta delta = new ModDeviceRegistry.Delta();
+        registry.update(Collections.<ModDevice>singletonList(battery(1)), delta);
+
+        /** The mod manager lists new objects for the same devices on each query */
+        registry.update(Arrays.<ModDevice>asList(battery(1), null), delta);
+        assertTrue(delta.isEmpty());
+
+        /** Another firmware version is reported as detached and attached again */
+        Device updated = new Device(1, Constants.VID_MDK, Constants.PID_BATTERY, "1.1",
+                ModProtocol.Protocol.BATTERY);
+        registry.update(Collections.<ModDevice>singletonList(updated), delta);
+        assertEquals(Collections.<ModDevice>singletonList(updated), delta.attached);
+        assertEquals(1, delta.detached.size());
+        assertEquals("1.0", delta.detached.get(0).getFirmwareVersion());
+        assertSame(updated, registry.getBatteryMod());
+        assertTrue(registry.getByProtocol(ModProtocol.Protocol.RAW).isEmpty());
+    }
+
+    @Test
+    public void contains_onlyTheSameDevice() throws Exception {
+        ModDeviceRegistry registry = new ModDeviceRegistry();
+        ModDeviceRegistry.Delta delta = new ModDeviceRegistry.Delta();
+        registry.update(Collections.<ModDevice>singletonList(battery(1)), delta);
+
+        /** What the attach probe compares a new mod list against */
+        ModDeviceRegistry known = new ModDeviceRegistry();
+        known.update(registry.getDevices(), delta);
+        assertTrue(known.contains(battery(1)));
+        assertFalse(known.contains(battery(2)));
+        assertFalse(known.contains(new Device(1, Constants.VID_MDK, Constants.PID_BATTERY,
+                "1.1", ModProtocol.Protocol.BATTERY)));
+        assertFalse(known.contains(null));
+
+        /** A copy, the registry changes do not reach it */
+        registry.clear(delta);
+        assertTrue(known.contains(battery(1)));
+        assertTrue(registry.getDevices().isEmpty());
+    }
+
+    @Test
+    public void batteryMod_selectedByRank() throws Exception {
+        ModDeviceRegistry registry = new ModDeviceRegistry();
+        ModDeviceRegistry.Delta delta = new ModDeviceRegistry.Delta();
+        Device other = new Device(1, VID_OTHER, 1, null, ModProtocol.Protocol.BATTERY);
+        Device otherLast = new Device(2, VID_OTHER, 2, null, ModProtocol.Protocol.BATTERY);
+        Device mdk = new Device(3, Constants.VID_MDK, 5, null, ModProtocol.Protocol.BATTERY);
+        Device mdkBattery = battery(4);
+
+        /** Without an MDK device, the last one listed */
+        registry.update(Arrays.<ModDevice>asList(other, otherLast), delta);
+        assertSame(otherLast, registry.getBatteryMod());
+
+        /** Any MDK device over the others, wherever it is listed */
+        registry.update(Arrays.<ModDevice>asList(mdk, other, otherLast), delta);
+        assertSame(mdk, registry.getBatteryMod());
+
+        /** The MDK battery mod over any MDK device */
+        registry.update(Arrays.<ModDevice>asList(mdkBattery, mdk, other), delta);
+        assertSame(mdkBattery, registry.getBatteryMod());
+        assertEquals(Collections.<ModDevice>singletonList(mdkBattery),
+                registry.getByVidPid(Constants.VID_MDK, Constants.PID_BATTERY));
+        assertEquals(3, registry.getByProtocol(ModProtocol.Protocol.BATTERY).size());
+    }
+
+    @Test
+    public void select_prefersMdkThenLast() throws Exception {
+        ModDeviceRegistry registry = new ModDeviceRegistry();
+        ModDeviceRegistry.Delta delta = new ModDeviceRegistry.Delta();
+        Device developer = new Device(1, Constants.VID_DEVELOPER, Constants.PID_DEVELOPER,
+                null, ModProtocol.Protocol.RAW);
+        Device other = new Device(2, VID_OTHER, 1, null, ModProtocol.Protocol.RAW);
+        Device otherLast = new Device(3, VID_OTHER, 2, null, ModProtocol.Protocol.RAW);
+
+        registry.update(Arrays.<ModDevice>asList(other, otherLast), delta);
+        assertSame(otherLast, registry.select(ModProtocol.Protocol.RAW));
+
+        registry.update(Arrays.<ModDevice>asList(developer, other, otherLast), delta);
+        assertSame(developer, registry.select(ModProtocol.Protocol.RAW));
+        assertNull(registry.select(ModProtocol.Protocol.CAMERA_EXT));
+    }
+
+    @Test
+    public void isMDKMod_byVendorId() throws Exception {
+        assertFalse(ModDeviceRegistry.isMDKMod(null));
+        assertTrue(ModDeviceRegistry.isMDKMod(battery(1)));
+        assertTrue(ModDeviceRegistry.isMDKMod(new Device(2, Constants.VID_DEVELOPER,
+                Constants.PID_DEVELOPER, null)));
+        assertFalse(ModDeviceRegistry.isMDKMod(new Device(3, VID_OTHER, 1, null)));
+
+        assertTrue(ModDeviceRegistry.isBatteryMod(Constants.VID_MDK, Constants.PID_BATTERY));
+        assertTrue(ModDeviceRegistry.isBatteryMod(Constants.VID_DEVELOPER, 99));
+        assertFalse(ModDeviceRegistry.isBatteryMod(Constants.VID_MDK, 5));
+    }
+}
@@ -0,0 +1,235 @@
+/**
+ * Copyright (c) 2016 Motorola Mobility, LLC.
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.motorola.samples.mdkbattery;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests and throughput benchmark of the raw interface reader, with a pipe
+ * standing in for the mod device file descriptor.
+ */
+public class RawChannelTest {
+    private static final int PAYLOAD_SIZE = 512;
+
+    /** Sink summing the payload bytes */
+    private static class SumSink implements RawChannel.Sink {
+        final AtomicLong bytes = new AtomicLong();
+        final AtomicLong sum = new AtomicLong();
+        final AtomicReference<IOException> error = new AtomicReference<>();
+        final CountDownLatch closed = new CountDownLatch(1);
+
+        @Override
+        public boolean onPayload(ByteBuffer payload) {
+            long s = 0;
+            int n = payload.remaining();
+            for (int i = payload.position(); i < payload.limit(); i++) {
+                s += payload.get(i) & 0xff;
+            }
+            sum.addAndGet(s);
+            bytes.addAndGet(n);
+            return false;
+        }
+
+        @Override
+        public void onClosed(IOException e) {
+            error.set(e);
+            closed.countDown();
+        }
+    }
+
+    /** Write total bytes of a known pattern to the pipe, then close it */
+    private static Thread writer(final Pipe.SinkChannel out, final long total) {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                ByteBuffer chunk = ByteBuffer.allocate(PAYLOAD_SIZE);
+                for (int i = 0; i < PAYLOAD_SIZE; i++) {
+                    chunk.put((byte) i);
+                }
+                try {
+                    for (long written = 0; written < total; written += PAYLOAD_SIZE) {
+                        chunk.clear();
+                        while (chunk.hasRemaining()) {
+                            out.write(chunk);
+                        }
+                    }
+                    out.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    private static long patternSum(long total) {
+        long perChunk = 0;
+        for (int i = 0; i < PAYLOAD_SIZE; i++) {
+            perChunk += i & 0xff;
+        }
+        return perChunk * (total / PAYLOAD_SIZE);
+    }
+
+    @Test
+    public void read_allBytesThroughPool() throws Exception {
+        Pipe pipe = Pipe.open();
+        SumSink sink = new SumSink();
+        BufferPool pool = new BufferPool(4, RawPersonality.BUFFER_SIZE);
+        RawChannel channel = new RawChannel(pipe.source(), Pipe.open().sink(), pool, sink);
+        long total = 1 << 20;
+
+        channel.start();
+        writer(pipe.sink(), total).join();
+        assertTrue(sink.closed.await(5, TimeUnit.SECONDS));
+
+        assertNull(sink.error.get());
+        assertEquals(total, sink.bytes.get());
+        assertEquals(total, channel.getByteCount());
+        assertEquals(patternSum(total), sink.sum.get());
+        assertEquals(4, pool.getFreeCount());
+    }
+
+    @Test(timeout = 10000)
+    public void retainedBuffers_throttleReader() throws Exception {
+        Pipe pipe = Pipe.open();
+        final BufferPool pool = new BufferPool(2, RawPersonality.BUFFER_SIZE);
+        final ArrayBlockingQueue<ByteBuffer> handoff = new ArrayBlockingQueue<>(2);
+        final AtomicLong bytes = new AtomicLong();
+        final CountDownLatch closed = new CountDownLatch(1);
+
+        RawChannel channel = new RawChannel(pipe.source(), Pipe.open().sink(), pool,
+                new RawChannel.Sink() {
+                    @Override
+                    public boolean onPayload(ByteBuffer payload) {
+                        handoff.add(payload);
+                        return true;
+                    }
+
+                    @Override
+                    public void onClosed(IOException error) {
+                        closed.countDown();
+                    }
+                });
+        long total = 256 * 1024;
+        channel.start();
+        Thread writer = writer(pipe.sink(), total);
+
+        /** Slow consumer on another thread, releasing each buffer once done */
+        while (closed.getCount() > 0 || !handoff.isEmpty()) {
+            ByteBuffer payload = handoff.poll(10, TimeUnit.MILLISECONDS);
+            if (null != payload) {
+                bytes.addAndGet(payload.remaining());
+                pool.release(payload);
+            }
+        }
+        writer.join();
+
+        assertEquals(total, bytes.get());
+        assertEquals(2, pool.getFreeCount());
+    }
+
+    @Test
+    public void close_unblocksReader() throws Exception {
+        Pipe pipe = Pipe.open();
+        SumSink sink = new SumSink();
+        RawChannel channel = new RawChannel(pipe.source(), pipe.sink(), new BufferPool(2, 64),
+                sink);
+        channel.start();
+
+        channel.write(ByteBuffer.wrap(new byte[]{1, 2, 3}));
+        channel.close();
+
+        assertTrue(sink.closed.await(5, TimeUnit.SECONDS));
+        assertTrue(channel.join(5000));
+        assertNull(sink.error.get());
+    }
+
+    @Test
+    public void sinkFailure_closesWithError() throws Exception {
+        Pipe pipe = Pipe.open();
+        final BufferPool pool = new BufferPool(2, 64);
+        final CountDownLatch closed = new CountDownLatch(1);
+        final AtomicReference<IOException> error = new AtomicReference<>();
+        RawChannel channel = new RawChannel(pipe.source(), Pipe.open().sink(), pool,
+                new RawChannel.Sink() {
+                    @Override
+                    public boolean onPayload(ByteBuffer payload) {
+                        throw new IllegalStateException("sink bug");
+                    }
+
+                    @Override
+                    public void onClosed(IOException e) {
+                        error.set(e);
+                        closed.countDown();
+                    }
+                });
+        channel.start();
+        pipe.sink().write(ByteBuffer.wrap(new byte[]{1, 2, 3}));
+
+        assertTrue(closed.await(5, TimeUnit.SECONDS));
+        assertTrue(error.get().getCause() instanceof IllegalStateException);
+        assertEquals(2, pool.getFreeCount());
+        channel.close();
+    }
+
+    @Test
+    public void benchmark_pipeThroughput() throws Exception {
+        long total = 256L << 20;
+        Pipe pipe = Pipe.open();
+        SumSink sink = new SumSink();
+        RawChannel channel = new RawChannel(pipe.source(), Pipe.open().sink(),
+                new BufferPool(RawPersonality.POOL_BUFFERS, RawPersonality.BUFFER_SIZE), sink);
+
+        long start = System.nanoTime();
+        channel.start();
+        writer(pipe.sink(), total).join();
+        assertTrue(sink.closed.await(30, TimeUnit.SECONDS));
+        long elapsed = System.nanoTime() - start;
+
+        assertEquals(total, sink.bytes.get());
+        double mbPerSecond = total / 1048576.0 / (elapsed / 1e9);
+        /** Telemetry needs well below 1 MB/s, leave a wide margin for slow hosts */
+        assertTrue(mbPerSecond > 10);
+    }
+}
@@ -0,0 +1,251 @@
+/**
+ * Copyright (c) 2016 Motorola Mobility, LLC.
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.motorola.samples.mdkbattery;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Simulation harness of the recharge threshold policy. Synthetic day traces are
+ * recorded into a BatteryHistory like the personality does, turned back into a
+ * drain trace, and policies are scored on them.
+ */
+public class RechargePolicyTest {
+    private static final int DISCHARGING = 3;
+    private static final long MINUTE = 60 * 1000;
+    private static final UUID DEVICE = new UUID(1, 2);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private PolicyStore store() throws Exception {
+        return new PolicyStore(folder.newFolder());
+    }
+
+    /** Drain per minute in percent: light use with heavy commute and evening hours */
+    private static float[] workday(long seed) {
+        Random random = new Random(seed);
+        float[] drain = new float[16 * 60];
+        for (int m = 0; m < drain.length; m++) {
+            int hour = m / 60;
+            float base = hour < 1 || (hour >= 9 && hour < 10) ? 0.25f
+                    : hour >= 12 ? 0.18f : 0.06f;
+            drain[m] = base * (0.5f + random.nextFloat());
+        }
+        return drain;
+    }
+
+    /** Record a drain trace as 20 s battery samples of an unplugged phone */
+    private static BatteryHistory.Samples record(float[] drain, double level) {
+        BatteryHistory history = new BatteryHistory(drain.length * 3 + 1);
+        double exact = level;
+        long time = 0;
+        for (float minuteDrain : drain) {
+            for (int s = 0; s < 3; s++) {
+                history.add(time, (int) Math.ceil(exact), DISCHARGING, 0, 80, DISCHARGING,
+                        false, true);
+                exact -= minuteDrain / 3;
+                time += MINUTE / 3;
+            }
+        }
+        history.add(time, (int) Math.ceil(exact), DISCHARGING, 0, 80, DISCHARGING, false, true);
+        BatteryHistory.Samples samples = new BatteryHistory.Samples(drain.length * 3 + 1);
+        history.read(0, samples);
+        return samples;
+    }
+
+    private static double sum(float[] values) {
+        double total = 0;
+        for (float value : values) {
+            total += value;
+        }
+        return total;
+    }
+
+    private static double score(float[] drain, int start, int stop) {
+        return RechargeSimulator.simulate(drain, 100, 100, start, stop,
+                new RechargeSimulator.Model(), new RechargeSimulator.Result()).score;
+    }
+
+    @Test
+    public void drainTrace_reconstructsRecordedDrain() throws Exception {
+        float[] drain = workday(1);
+        float[] trace = RechargePolicy.drainTrace(record(drain, 100));
+
+        assertNotNull(trace);
+        assertEquals(drain.length + 1, trace.length);
+        assertEquals(sum(drain), sum(trace), 1.0);
+    }
+
+    @Test
+    public void drainTrace_fillsPoweredMinutesWithAverage() throws Exception {
+        BatteryHistory history = new BatteryHistory(100);
+        history.add(0, 50, DISCHARGING, 0, 80, DISCHARGING, false, false);
+        history.add(MINUTE, 49, DISCHARGING, 0, 80, DISCHARGING, false, false);
+        history.add(2 * MINUTE, 48, DISCHARGING, 0, 80, DISCHARGING, true, false);
+        history.add(5 * MINUTE, 52, DISCHARGING, 0, 75, DISCHARGING, true, false);
+        BatteryHistory.Samples samples = new BatteryHistory.Samples(100);
+        history.read(0, samples);
+
+        float[] trace = RechargePolicy.drainTrace(samples);
+        assertEquals(6, trace.length);
+        assertEquals(1.0, trace[0], 1e-6);
+        assertEquals(1.0, trace[4], 1e-6);
+    }
+
+    @Test
+    public void simulator_taperLosesEnergy() throws Exception {
+        float[] drain = workday(2);
+
+        /** The same mod charge delivers less when it keeps the phone near full */
+        RechargeSimulator.Result high = RechargeSimulator.simulate(drain, 100, 100, 90, 100,
+                new RechargeSimulator.Model(), new RechargeSimulator.Result());
+        RechargeSimulator.Result low = RechargeSimulator.simulate(drain, 100, 100, 50, 70,
+                new RechargeSimulator.Model(), new RechargeSimulator.Result());
+        assertTrue(low.delivered / low.spent > high.delivered / high.spent);
+    }
+
+    /** Run the policy once a day over a week of recorded days, as the personality would */
+    @Test
+    public void harness_tunedPolicyBeatsDefault() throws Exception {
+        final int[] thresholds = {90, 100};
+        RechargePolicy policy = new RechargePolicy(new RechargeSimulator.Model(), store(),
+                false);
+        RechargePolicy.ThresholdWriter writer = new RechargePolicy.ThresholdWriter() {
+            @Override
+            public boolean write(int start, int stop) {
+                thresholds[0] = start;
+                thresholds[1] = stop;
+                return true;
+            }
+        };
+
+        double tuned = 0;
+        double fixed = 0;
+        for (int day = 0; day < 7; day++) {
+            float[] drain = workday(100 + day);
+            tuned += score(drain, thresholds[0], thresholds[1]);
+            fixed += score(drain, 90, 100);
+
+            int oldStart = thresholds[0];
+            int oldStop = thresholds[1];
+            float[] trace = RechargePolicy.drainTrace(record(drain, 100));
+            RechargePolicy.Decision decision = policy.decide(trace, 100, 100,
+                    thresholds[0], thresholds[1]);
+            policy.apply(decision, DEVICE, writer, day * 24 * 60 * MINUTE);
+
+            /** Guard rails hold on every decision */
+            assertTrue(Math.abs(thresholds[0] - oldStart) <= RechargePolicy.MAX_STEP);
+            assertTrue(Math.abs(thresholds[1] - oldStop) <= RechargePolicy.MAX_STEP);
+            assertTrue(thresholds[0] >= RechargePolicy.MIN_START);
+            assertTrue(thresholds[1] - thresholds[0] >= RechargePolicy.MIN_WINDOW);
+        }
+
+        assertTrue(thresholds[0] < 90);
+        assertTrue(tuned > fixed);
+    }
+
+    @Test
+    public void apply_dryRunAndIntervalNeverWrite() throws Exception {
+        final int[] writes = {0};
+        RechargePolicy.ThresholdWriter writer = new RechargePolicy.ThresholdWriter() {
+            @Override
+            public boolean write(int start, int stop) {
+                writes[0]++;
+                return true;
+            }
+        };
+        float[] trace = RechargePolicy.drainTrace(record(workday(3), 100));
+
+        RechargePolicy dryRun = new RechargePolicy(new RechargeSimulator.Model(), store(), true);
+        RechargePolicy.Decision decision = dryRun.decide(trace, 100, 100, 90, 100);
+        assertTrue(decision.change);
+        assertFalse(dryRun.apply(decision, DEVICE, writer, 0));
+        assertEquals(0, writes[0]);
+
+        RechargePolicy policy = new RechargePolicy(new RechargeSimulator.Model(), store(),
+                false);
+        assertTrue(policy.apply(decision, DEVICE, writer, 0));
+        assertFalse(policy.apply(decision, DEVICE, writer,
+                RechargePolicy.MIN_WRITE_INTERVAL - 1));
+        assertTrue(policy.apply(decision, DEVICE, writer, RechargePolicy.MIN_WRITE_INTERVAL));
+        assertEquals(2, writes[0]);
+    }
+
+    /** Each personality has its own policy, the interval must hold across them */
+    @Test
+    public void apply_intervalHoldsAcrossInstances() throws Exception {
+        final int[] writes = {0};
+        RechargePolicy.ThresholdWriter writer = new RechargePolicy.ThresholdWriter() {
+            @Override
+            public boolean write(int start, int stop) {
+                writes[0]++;
+                return true;
+            }
+        };
+        PolicyStore store = store();
+        long now = 1000L * 24 * 3600 * 1000;
+
+        RechargePolicy first = new RechargePolicy(new RechargeSimulator.Model(), store, false);
+        RechargePolicy.Decision decision = first.decide(
+                RechargePolicy.drainTrace(record(workday(3), 100)), 100, 100, 90, 100);
+        assertTrue(first.apply(decision, DEVICE, writer, now));
+
+        /** A new instance over the same store, as after the release grace period */
+        RechargePolicy second = new RechargePolicy(new RechargeSimulator.Model(), store, false);
+        assertFalse(second.apply(decision, DEVICE, writer,
+                now + RechargePolicy.MIN_WRITE_INTERVAL / 2));
+        assertEquals(1, writes[0]);
+
+        /** Per mod device, another one is not held back */
+        assertTrue(second.apply(decision, new UUID(3, 4), writer, now + 1));
+        assertTrue(second.apply(decision, DEVICE, writer, now + RechargePolicy.MIN_WRITE_INTERVAL));
+        assertEquals(3, writes[0]);
+        assertEquals(now + RechargePolicy.MIN_WRITE_INTERVAL, store.readLastWrite(DEVICE));
+    }
+
+    @Test
+    public void decide_needsEnoughHistory() throws Exception {
+        RechargePolicy policy = new RechargePolicy(new RechargeSimulator.Model(), store(),
+                false);
+        assertNull(policy.decide(new float[RechargePolicy.MIN_TRACE - 1], 100, 100, 80, 90));
+        assertNull(policy.decide(null, 100, 100, 80, 90));
+    }
+}
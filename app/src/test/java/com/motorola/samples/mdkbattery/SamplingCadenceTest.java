@@ -0,0 +1,88 @@
+/**
+ * Copyright (c) 2016 Motorola Mobility, LLC.
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.motorola.samples.mdkbattery;
+
+import android.os.BatteryManager;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Unit tests of the background sampling cadence.
+ */
+public class SamplingCadenceTest {
+    private static BatterySnapshot snapshot(int coreLevel, int coreStatus, int corePlugged,
+                                            int modLevel, int modStatus) {
+        return new BatterySnapshot(1, 0, false, 0, 0,
+                new BatterySnapshot.Values(coreLevel, 0, 100, coreStatus, 0, 0, corePlugged, 3000),
+                new BatterySnapshot.Values(modLevel, 0, 100, modStatus, 80, 90, 0, 2220));
+    }
+
+    @Test
+    public void charging_isDense() throws Exception {
+        assertEquals(SamplingCadence.DENSE_INTERVAL, SamplingCadence.nextInterval(
+                snapshot(50, BatteryManager.BATTERY_STATUS_CHARGING, 0, 60,
+                        BatteryManager.BATTERY_STATUS_DISCHARGING), 50, 60));
+        assertEquals(SamplingCadence.DENSE_INTERVAL, SamplingCadence.nextInterval(
+                snapshot(50, BatteryManager.BATTERY_STATUS_DISCHARGING, 0, 60,
+                        BatteryManager.BATTERY_STATUS_CHARGING), 50, 60));
+        assertEquals(SamplingCadence.DENSE_INTERVAL, SamplingCadence.nextInterval(
+                snapshot(100, BatteryManager.BATTERY_STATUS_FULL,
+                        BatteryManager.BATTERY_PLUGGED_AC, 60,
+                        BatteryManager.BATTERY_STATUS_DISCHARGING), 100, 60));
+    }
+
+    @Test
+    public void nearThresholdOrLow_isDense() throws Exception {
+        assertEquals(SamplingCadence.DENSE_INTERVAL, SamplingCadence.nextInterval(
+                snapshot(82, BatteryManager.BATTERY_STATUS_DISCHARGING, 0, 60,
+                        BatteryManager.BATTERY_STATUS_DISCHARGING), 82, 60));
+        assertEquals(SamplingCadence.DENSE_INTERVAL, SamplingCadence.nextInterval(
+                snapshot(12, BatteryManager.BATTERY_STATUS_DISCHARGING, 0, 0,
+                        BatteryManager.BATTERY_STATUS_DISCHARGING), 12, 0));
+    }
+
+    @Test
+    public void idleAndStable_isSparse() throws Exception {
+        BatterySnapshot s = snapshot(50, BatteryManager.BATTERY_STATUS_DISCHARGING, 0, 60,
+                BatteryManager.BATTERY_STATUS_DISCHARGING);
+        assertEquals(SamplingCadence.SPARSE_INTERVAL, SamplingCadence.nextInterval(s, 51, 60));
+        assertEquals(SamplingCadence.NORMAL_INTERVAL, SamplingCadence.nextInterval(s, 55, 60));
+        assertEquals(SamplingCadence.NORMAL_INTERVAL, SamplingCadence.nextInterval(s,
+                SamplingCadence.UNKNOWN, SamplingCadence.UNKNOWN));
+    }
+
+    @Test
+    public void noSnapshot_isNormal() throws Exception {
+        assertEquals(SamplingCadence.NORMAL_INTERVAL, SamplingCadence.nextInterval(null,
+                SamplingCadence.UNKNOWN, SamplingCadence.UNKNOWN));
+    }
+}
@@ -0,0 +1,123 @@
+/**
+ * Copyright (c) 2016 Motorola Mobility, LLC.
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.motorola.samples.mdkbattery;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests of the last known data file.
+ */
+public class SnapshotStoreTest {
+    private static BatterySnapshot snapshot() {
+        return new BatterySnapshot(7, 1000, false, 1, 2,
+                new BatterySnapshot.Values(80, 3, 100, 2, 0, 0, 1, 3000),
+                new BatterySnapshot.Values(55, 0, 0, 3, 90, 80, 1, 2220));
+    }
+
+    private static File tempFile() throws Exception {
+        File file = File.createTempFile("last_state", ".bin");
+        file.deleteOnExit();
+        return file;
+    }
+
+    @Test
+    public void writeRead_roundTrip() throws Exception {
+        SnapshotStore store = new SnapshotStore(tempFile());
+        store.write(snapshot(), new DeviceSummary(0x312, 0x10803, "Battery Mod", "1.2.3"), 42);
+
+        SnapshotStore.State state = store.read();
+        assertEquals(42, state.savedTime);
+        assertTrue(state.snapshot.stale);
+        assertEquals(1, state.snapshot.modEfficiency);
+        assertEquals(2, state.snapshot.modUsageType);
+        assertEquals(80, state.snapshot.core.level);
+        assertEquals(3000, state.snapshot.core.capFull);
+        assertEquals(55, state.snapshot.mod.level);
+        assertEquals(80, state.snapshot.mod.rechargeStart);
+        assertEquals(90, state.snapshot.mod.rechargeStop);
+        assertEquals(2220, state.snapshot.mod.capFull);
+        assertEquals(0x312, state.device.vendorId);
+        assertEquals(0x10803, state.device.productId);
+        assertEquals("Battery Mod", state.device.productString);
+        assertEquals("1.2.3", state.device.firmwareVersion);
+    }
+
+    @Test
+    public void writeRead_withoutDevice() throws Exception {
+        SnapshotStore store = new SnapshotStore(tempFile());
+        store.write(snapshot(), null, 42);
+
+        assertNull(store.read().device);
+    }
+
+    @Test
+    public void write_truncatesLongStrings() throws Exception {
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            name.append('\u00e9');
+        }
+
+        SnapshotStore store = new SnapshotStore(tempFile());
+        store.write(snapshot(), new DeviceSummary(1, 2, name.toString(), null), 42);
+
+        SnapshotStore.State state = store.read();
+        assertEquals(32, state.device.productString.length());
+        assertNull(state.device.firmwareVersion);
+    }
+
+    @Test
+    public void read_rejectsCorruptedFile() throws Exception {
+        File file = tempFile();
+        SnapshotStore store = new SnapshotStore(file);
+        store.write(snapshot(), null, 42);
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.seek(30);
+        raf.write(0xff);
+        raf.close();
+
+        assertNull(store.read());
+    }
+
+    @Test
+    public void read_missingOrTruncatedFile() throws Exception {
+        File file = tempFile();
+        assertNull(new SnapshotStore(file).read());
+        assertTrue(file.delete());
+        assertNull(new SnapshotStore(file).read());
+    }
+}
@@ -0,0 +1,230 @@
+/**
+ * Copyright (c) 2016 Motorola Mobility, LLC.
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.motorola.samples.mdkbattery;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests of the conflating snapshot subscriptions.
+ */
+public class SubscriptionTest {
+    private static BatterySnapshot snapshot(long version) {
+        return new BatterySnapshot(version, version, false, 1, 2,
+                new BatterySnapshot.Values(80, 3, 100, 2, 0, 0, 1, 3000),
+                new BatterySnapshot.Values(55, 0, 0, 3, 90, 80, 1, 2220));
+    }
+
+    /** Executor running tasks only when asked, to hold back deliveries */
+    private static class ManualExecutor implements java.util.concurrent.Executor {
+        final List<Runnable> tasks = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable command) {
+            tasks.add(command);
+        }
+
+        void runAll() {
+            while (!tasks.isEmpty()) {
+                tasks.remove(0).run();
+            }
+        }
+    }
+
+    /** Consumer recording the delivered versions */
+    private static class Recorder implements SnapshotConsumer {
+        final List<Long> versions = new ArrayList<>();
+
+        @Override
+        public synchronized void accept(BatterySnapshot snapshot) {
+            versions.add(snapshot.version);
+        }
+    }
+
+    @Test
+    public void latest_conflatesWhileBusy() throws Exception {
+        ManualExecutor executor = new ManualExecutor();
+        Recorder recorder = new Recorder();
+        Subscription subscription = new Subscription(executor, recorder,
+                DeliveryPolicy.latest(), ~0, null);
+
+        for (int i = 1; i <= 10; i++) {
+            subscription.offer(snapshot(i), ~0);
+        }
+        assertEquals(1, executor.tasks.size());
+        executor.runAll();
+
+        assertEquals(1, recorder.versions.size());
+        assertEquals(10L, (long) recorder.versions.get(0));
+        assertEquals(1, subscription.getDeliveredCount());
+        assertEquals(9, subscription.getDroppedCount());
+    }
+
+    @Test
+    public void latest_dropsOlderVersion() throws Exception {
+        ManualExecutor executor = new ManualExecutor();
+        Recorder recorder = new Recorder();
+        Subscription subscription = new Subscription(executor, recorder,
+                DeliveryPolicy.latest(), ~0, null);
+
+        /** The worker offers a new snapshot before the initial one from subscribe */
+        subscription.offer(snapshot(6), ~0);
+        subscription.offer(snapshot(5), ~0);
+        executor.runAll();
+        subscription.offer(snapshot(6), ~0);
+        executor.runAll();
+
+        assertEquals(1, recorder.versions.size());
+        assertEquals(6L, (long) recorder.versions.get(0));
+    }
+
+    @Test
+    public void bounded_dropsOldest() throws Exception {
+        ManualExecutor executor = new ManualExecutor();
+        Recorder recorder = new Recorder();
+        Subscription subscription = new Subscription(executor, recorder,
+                DeliveryPolicy.bounded(3), ~0, null);
+
+        for (int i = 1; i <= 5; i++) {
+            subscription.offer(snapshot(i), ~0);
+        }
+        executor.runAll();
+
+        assertEquals(3, recorder.versions.size());
+        assertEquals(3L, (long) recorder.versions.get(0));
+        assertEquals(5L, (long) recorder.versions.get(2));
+        assertEquals(2, subscription.getDroppedCount());
+    }
+
+    @Test
+    public void sample_deliversOncePerTick() throws Exception {
+        ManualExecutor executor = new ManualExecutor();
+        Recorder recorder = new Recorder();
+        Subscription subscription = new Subscription(executor, recorder,
+                DeliveryPolicy.sample(1000), ~0, null);
+
+        subscription.offer(snapshot(1), ~0);
+        subscription.offer(snapshot(2), ~0);
+        assertTrue(executor.tasks.isEmpty());
+
+        subscription.tick();
+        executor.runAll();
+        /** Nothing new, nothing delivered */
+        subscription.tick();
+        executor.runAll();
+        subscription.offer(snapshot(3), ~0);
+        subscription.tick();
+        executor.runAll();
+
+        assertEquals(2, recorder.versions.size());
+        assertEquals(2L, (long) recorder.versions.get(0));
+        assertEquals(3L, (long) recorder.versions.get(1));
+        assertEquals(1, subscription.getDroppedCount());
+    }
+
+    @Test
+    public void fields_filterAndCancel() throws Exception {
+        ManualExecutor executor = new ManualExecutor();
+        Recorder recorder = new Recorder();
+        Subscription subscription = new Subscription(executor, recorder,
+                DeliveryPolicy.bounded(8), BatteryPersonality.CHANGED_MOD_LEVEL, null);
+
+        subscription.offer(snapshot(1), BatteryPersonality.CHANGED_CORE_LEVEL);
+        subscription.offer(snapshot(2), BatteryPersonality.CHANGED_MOD_LEVEL);
+        subscription.offer(snapshot(3), BatteryPersonality.CHANGED_MOD_LEVEL);
+        subscription.cancel();
+        subscription.offer(snapshot(4), BatteryPersonality.CHANGED_MOD_LEVEL);
+        executor.runAll();
+
+        assertTrue(subscription.isCancelled());
+        assertTrue(recorder.versions.isEmpty());
+    }
+
+    @Test
+    public void slowConsumer_doesNotDelayOthers() throws Exception {
+        ExecutorService slowExecutor = Executors.newSingleThreadExecutor();
+        ExecutorService fastExecutor = Executors.newSingleThreadExecutor();
+        final CountDownLatch release = new CountDownLatch(1);
+        final int count = 10000;
+        final CountDownLatch fastDone = new CountDownLatch(1);
+
+        Subscription slow = new Subscription(slowExecutor, new SnapshotConsumer() {
+            @Override
+            public void accept(BatterySnapshot snapshot) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, DeliveryPolicy.latest(), ~0, null);
+        final Recorder recorder = new Recorder();
+        Subscription fast = new Subscription(fastExecutor, new SnapshotConsumer() {
+            @Override
+            public void accept(BatterySnapshot snapshot) {
+                recorder.accept(snapshot);
+                if (snapshot.version == count) {
+                    fastDone.countDown();
+                }
+            }
+        }, DeliveryPolicy.bounded(count), ~0, null);
+
+        for (int i = 1; i <= count; i++) {
+            BatterySnapshot s = snapshot(i);
+            slow.offer(s, ~0);
+            fast.offer(s, ~0);
+        }
+
+        assertTrue(fastDone.await(5, TimeUnit.SECONDS));
+        assertEquals(count, recorder.versions.size());
+        for (int i = 0; i < count; i++) {
+            assertEquals(i + 1L, (long) recorder.versions.get(i));
+        }
+
+        /** The blocked consumer keeps one snapshot in flight and one pending */
+        assertEquals(0, slow.getDeliveredCount());
+        assertEquals(count - 2, slow.getDroppedCount());
+
+        release.countDown();
+        slowExecutor.shutdown();
+        fastExecutor.shutdown();
+        assertTrue(slowExecutor.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(2, slow.getDeliveredCount());
+    }
+}
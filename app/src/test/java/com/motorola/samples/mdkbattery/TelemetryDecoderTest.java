@@ -0,0 +1,285 @@
+/**
+ * Copyright (c) 2016 Motorola Mobility, LLC.
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.motorola.samples.mdkbattery;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests, fuzz tests and throughput benchmark of the cell telemetry decoder.
+ */
+public class TelemetryDecoderTest {
+    private static final int CELLS = 4;
+
+    /** Expected frame rate of a battery mod */
+    private static final int FRAME_RATE = 500;
+
+    /** Encode frames with values derived from their sequence number */
+    private static int encodeFrames(byte[] out, int first, int count) {
+        short[] v = new short[CELLS];
+        short[] c = new short[CELLS];
+        short[] t = new short[CELLS];
+        int p = 0;
+        for (int n = first; n < first + count; n++) {
+            for (int i = 0; i < CELLS; i++) {
+                v[i] = (short) (3000 + (n + i) % 1200);
+                c[i] = (short) ((n % 4000) - 2000);
+                t[i] = (short) (250 + i);
+            }
+            p += TelemetryDecoder.encode(out, p, n & 0xffff, n * 2L, CELLS, v, c, t);
+        }
+        return p;
+    }
+
+    private static int frameSize() {
+        return TelemetryDecoder.HEADER_SIZE + CELLS * TelemetryDecoder.CELL_SIZE
+                + TelemetryDecoder.CRC_SIZE;
+    }
+
+    /** Check that a decoded row matches the frame it was encoded from */
+    private static void assertRow(TelemetryColumns columns, long index) {
+        int n = (int) (columns.getDeviceTime(index) / 2);
+        assertEquals(n & 0xffff, columns.getSequence(index));
+        assertEquals(CELLS, columns.getCellCount(index));
+        for (int i = 0; i < CELLS; i++) {
+            assertEquals(3000 + (n + i) % 1200, columns.getVoltage(index, i));
+            assertEquals((n % 4000) - 2000, columns.getCurrent(index, i));
+            assertEquals(250 + i, columns.getTemperature(index, i));
+        }
+    }
+
+    @Test
+    public void decode_roundTrip() throws Exception {
+        byte[] data = new byte[10 * frameSize()];
+        int size = encodeFrames(data, 0, 10);
+        TelemetryColumns columns = new TelemetryColumns(16);
+        TelemetryDecoder decoder = new TelemetryDecoder(columns);
+
+        assertEquals(10, decoder.decode(data, 0, size));
+        assertEquals(10, columns.getCount());
+        for (long i = 0; i < 10; i++) {
+            assertRow(columns, i);
+        }
+        assertEquals(0, decoder.getSkippedBytes());
+        assertEquals(0, decoder.getLostFrameCount());
+    }
+
+    @Test
+    public void decode_splitAtEveryBoundary() throws Exception {
+        byte[] data = new byte[3 * frameSize()];
+        int size = encodeFrames(data, 0, 3);
+
+        for (int split = 1; split < size; split++) {
+            TelemetryColumns columns = new TelemetryColumns(4);
+            TelemetryDecoder decoder = new TelemetryDecoder(columns);
+            decoder.decode(data, 0, split);
+            decoder.decode(data, split, size - split);
+            assertEquals("split " + split, 3, columns.getCount());
+            assertRow(columns, 2);
+        }
+    }
+
+    @Test
+    public void decode_skipsGarbageAndOtherVersions() throws Exception {
+        int frame = frameSize();
+        byte[] data = new byte[3 * frame + 7];
+        encodeFrames(data, 0, 1);
+        /** Garbage, including a magic byte, between the frames */
+        data[frame] = (byte) TelemetryDecoder.MAGIC;
+        data[frame + 1] = 1;
+        data[frame + 2] = 2;
+        byte[] rest = new byte[2 * frame];
+        encodeFrames(rest, 5, 2);
+        System.arraycopy(rest, 0, data, frame + 7, 2 * frame);
+
+        /** Second frame of another version, with its checksum fixed up */
+        int p = 2 * frame + 7;
+        data[p + 1] = 2;
+        int crc = TelemetryDecoder.crc(data, p, frame - TelemetryDecoder.CRC_SIZE);
+        data[p + frame - 2] = (byte) crc;
+        data[p + frame - 1] = (byte) (crc >> 8);
+
+        TelemetryColumns columns = new TelemetryColumns(4);
+        TelemetryDecoder decoder = new TelemetryDecoder(columns);
+        assertEquals(2, decoder.decode(data, 0, data.length));
+        assertEquals(7, decoder.getSkippedBytes());
+        assertEquals(1, decoder.getVersionErrorCount());
+        assertEquals(4, decoder.getLostFrameCount());
+        assertRow(columns, 1);
+    }
+
+    /** Firmware sink recording the frames it gets */
+    private static class FirmwareFrames implements TelemetryDecoder.FirmwareSink {
+        final StringBuilder frames = new StringBuilder();
+
+        @Override
+        public void onAck(long offset, boolean ok) {
+            frames.append("ack ").append(offset).append(ok ? " ok;" : " bad;");
+        }
+
+        @Override
+        public void onRequest() {
+            frames.append("request;");
+        }
+    }
+
+    @Test
+    public void decode_firmwareFramesShareTheStream() throws Exception {
+        int frame = frameSize();
+        byte[] data = new byte[2 * frame + 2 * TelemetryDecoder.FIRMWARE_ACK_SIZE
+                + TelemetryDecoder.FIRMWARE_REQUEST_SIZE];
+        int p = encodeFrames(data, 0, 1);
+        p += TelemetryDecoder.encodeFirmwareAck(data, p, 0x12345678L, true);
+        p += TelemetryDecoder.encodeFirmwareRequest(data, p);
+        byte[] rest = new byte[frame];
+        encodeFrames(rest, 1, 1);
+        System.arraycopy(rest, 0, data, p, frame);
+        p += frame;
+        p += TelemetryDecoder.encodeFirmwareAck(data, p, 0xfffff000L, false);
+
+        for (int split = 1; split < p; split++) {
+            TelemetryColumns columns = new TelemetryColumns(4);
+            TelemetryDecoder decoder = new TelemetryDecoder(columns);
+            FirmwareFrames sink = new FirmwareFrames();
+            decoder.setFirmwareSink(sink);
+            decoder.decode(data, 0, split);
+            decoder.decode(data, split, p - split);
+
+            assertEquals("split " + split, 2, columns.getCount());
+            assertRow(columns, 1);
+            assertEquals("split " + split,
+                    "ack 305419896 ok;request;ack 4294963200 bad;", sink.frames.toString());
+            assertEquals(0, decoder.getSkippedBytes());
+        }
+    }
+
+    @Test
+    public void decode_telemetryReadStartingWithFirmwareMagic() throws Exception {
+        byte[] data = new byte[frameSize()];
+        int size = encodeFrames(data, 0, 1);
+        /** The first cell voltage, 3000 mV, starts with the firmware magic */
+        int split = TelemetryDecoder.HEADER_SIZE;
+        assertEquals(TelemetryDecoder.FIRMWARE_MAGIC, data[split] & 0xff);
+
+        TelemetryColumns columns = new TelemetryColumns(4);
+        TelemetryDecoder decoder = new TelemetryDecoder(columns);
+        FirmwareFrames sink = new FirmwareFrames();
+        decoder.setFirmwareSink(sink);
+        decoder.decode(data, 0, split);
+        decoder.decode(data, split, size - split);
+
+        assertEquals(1, columns.getCount());
+        assertRow(columns, 0);
+        assertEquals("", sink.frames.toString());
+        assertEquals(0, decoder.getFirmwareFrameCount());
+    }
+
+    @Test
+    public void fuzz_randomBytesNeverCrash() throws Exception {
+        Random random = new Random(1);
+        TelemetryColumns columns = new TelemetryColumns(64);
+        TelemetryDecoder decoder = new TelemetryDecoder(columns);
+        byte[] data = new byte[1 << 20];
+        random.nextBytes(data);
+
+        for (int p = 0; p < data.length; ) {
+            int n = Math.min(data.length - p, 1 + random.nextInt(300));
+            decoder.decode(data, p, n);
+            p += n;
+        }
+
+        /** A random candidate passes a 16-bit checksum about once in 65536 */
+        assertTrue(columns.getCount() < 20);
+    }
+
+    @Test
+    public void fuzz_corruptedStreamKeepsValidFrames() throws Exception {
+        Random random = new Random(2);
+        int count = 20000;
+        byte[] data = new byte[count * frameSize()];
+        int size = encodeFrames(data, 0, count);
+
+        /** Flip a byte in about one frame out of ten */
+        int corrupted = 0;
+        for (int i = 0; i < count / 10; i++) {
+            int p = random.nextInt(size);
+            data[p] ^= 1 + random.nextInt(255);
+            corrupted++;
+        }
+
+        TelemetryColumns columns = new TelemetryColumns(count);
+        TelemetryDecoder decoder = new TelemetryDecoder(columns);
+        for (int p = 0; p < size; ) {
+            int n = Math.min(size - p, 1 + random.nextInt(2048));
+            decoder.decode(data, p, n);
+            p += n;
+        }
+
+        long decoded = columns.getCount();
+        assertTrue(decoded >= count - corrupted);
+        for (long i = 0; i < decoded; i++) {
+            assertRow(columns, i);
+        }
+        /** Frames lost at the very end have no later sequence number to show it */
+        assertTrue(count - decoded - decoder.getLostFrameCount() <= 1);
+    }
+
+    @Test
+    public void benchmark_throughput() throws Exception {
+        int count = 200000;
+        byte[] data = new byte[count * frameSize()];
+        int size = encodeFrames(data, 0, count);
+        ByteBuffer payload = ByteBuffer.allocateDirect(RawPersonality.BUFFER_SIZE);
+        TelemetryColumns columns = new TelemetryColumns(TelemetryColumns.DEFAULT_CAPACITY);
+        TelemetryDecoder decoder = new TelemetryDecoder(columns);
+
+        /** Warm up, then measure the best of a few runs, through direct buffers like the reader */
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < 5; run++) {
+            long start = System.nanoTime();
+            for (int p = 0; p < size; p += payload.capacity()) {
+                payload.clear();
+                payload.put(data, p, Math.min(payload.capacity(), size - p));
+                payload.flip();
+                decoder.decode(payload);
+            }
+            best = Math.min(best, System.nanoTime() - start);
+        }
+
+        assertEquals(5L * count, columns.getCount());
+        double framesPerSecond = count / (best / 1e9);
+        assertTrue(framesPerSecond > 10 * FRAME_RATE);
+    }
+}